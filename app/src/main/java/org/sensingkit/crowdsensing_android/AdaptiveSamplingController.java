@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import android.util.Log;
+
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKSensorDataListener;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.SensingKitLibInterface;
+import org.sensingkit.sensingkitlib.data.SKAccelerometerData;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Suspends secondary sensors while the device is stationary and resumes
+ * them when it moves again. Listens to the accelerometer, classifies each
+ * sample with a MotionClassifier and, on every transition, stops or starts
+ * the adaptive sensors on the given executor, so the sensor callback is
+ * never blocked. Every transition is written as a marker. Motion is
+ * detected within roughly the classifier's time constant, plus the time
+ * the sensors take to start.
+ */
+public class AdaptiveSamplingController implements SKSensorDataListener {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "AdaptiveSamplingController";
+
+    public static final String MARKER_SUSPENDED = "SUSPENDED";
+    public static final String MARKER_RESUMED = "RESUMED";
+
+    private final SensingKitLibInterface mSensingKitLib;
+    private final List<SKSensorModuleType> mSensors;
+    private final MotionClassifier mClassifier;
+    private final MarkerWriter mMarkers;
+    private final Executor mExecutor;
+
+    // Only touched on the accelerometer callback thread
+    private MotionClassifier.State mState = MotionClassifier.State.MOVING;
+
+    // Set by activate(), applied on the callback thread
+    private volatile boolean mResetPending;
+
+    // Guarded by this
+    private boolean mActive;
+    private boolean mSuspended;
+    private long mTransitionCount;
+
+    public AdaptiveSamplingController(SensingKitLibInterface sensingKitLib, List<SKSensorModuleType> sensors,
+                                      MotionClassifier classifier, MarkerWriter markers, Executor executor) {
+        this.mSensingKitLib = sensingKitLib;
+        this.mSensors = new ArrayList<>(sensors);
+        this.mClassifier = classifier;
+        this.mMarkers = markers;
+        this.mExecutor = executor;
+    }
+
+    /**
+     * Starts classifying, with all sensors running. Call after the sensors were started.
+     */
+    public synchronized void activate() {
+        mActive = true;
+        mSuspended = false;
+        mResetPending = true;
+    }
+
+    /**
+     * Stops suspending and resuming sensors. Once this returns, the
+     * controller does not touch the sensors until it is activated again.
+     */
+    public synchronized void deactivate() {
+        mActive = false;
+    }
+
+    public List<SKSensorModuleType> getSensors() {
+        return Collections.unmodifiableList(mSensors);
+    }
+
+    public synchronized boolean isSuspended() {
+        return this.mSuspended;
+    }
+
+    public synchronized long getTransitionCount() {
+        return this.mTransitionCount;
+    }
+
+    @Override
+    public void onDataReceived(SKSensorModuleType moduleType, SKSensorData moduleData) {
+
+        if (!(moduleData instanceof SKAccelerometerData)) {
+            return;
+        }
+
+        SKAccelerometerData data = (SKAccelerometerData) moduleData;
+        onAcceleration(data.getTimestamp(), data.getX(), data.getY(), data.getZ());
+    }
+
+    /**
+     * Classifies one accelerometer sample.
+     */
+    public void onAcceleration(final long timestamp, float x, float y, float z) {
+
+        if (mResetPending) {
+            mResetPending = false;
+            mClassifier.reset();
+            mState = MotionClassifier.State.MOVING;
+        }
+
+        MotionClassifier.State state = mClassifier.update(timestamp, x, y, z);
+
+        if (state == mState) {
+            return;
+        }
+
+        mState = state;
+        final boolean suspend = (state == MotionClassifier.State.STATIONARY);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                apply(timestamp, suspend);
+            }
+        });
+    }
+
+    private synchronized void apply(long timestamp, boolean suspend) {
+
+        if (!mActive || suspend == mSuspended) {
+            return;
+        }
+
+        for (SKSensorModuleType moduleType : mSensors) {
+            try {
+                if (suspend) {
+                    mSensingKitLib.stopContinuousSensingWithSensor(moduleType);
+                }
+                else {
+                    mSensingKitLib.startContinuousSensingWithSensor(moduleType);
+                }
+            }
+            catch (SKException ex) {
+                Log.e(TAG, ex.getMessage());
+            }
+        }
+
+        mSuspended = suspend;
+        mTransitionCount++;
+
+        try {
+            mMarkers.write(timestamp, suspend ? MARKER_SUSPENDED : MARKER_RESUMED, join(mSensors));
+        }
+        catch (IOException ex) {
+            Log.e(TAG, ex.getMessage());
+        }
+    }
+
+    private static String join(List<SKSensorModuleType> sensors) {
+
+        StringBuilder builder = new StringBuilder();
+        for (SKSensorModuleType moduleType : sensors) {
+            if (builder.length() > 0) {
+                builder.append(';');
+            }
+            builder.append(moduleType.name());
+        }
+        return builder.toString();
+    }
+
+}
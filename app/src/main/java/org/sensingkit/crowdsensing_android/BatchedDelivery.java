@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.util.Locale;
+
+/**
+ * Batched sample delivery: instead of keeping the CPU awake for the whole
+ * session, samples accumulate in buffers and are drained in bulk on a
+ * schedule. At each wake-up the wake lock is held only while the buffers
+ * are drained, and the next wake-up is scheduled. The platform parts (the
+ * clock, the alarm and the wake lock) are interfaces so that the logic
+ * can be tested on the JVM.
+ */
+public class BatchedDelivery {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "BatchedDelivery";
+
+    /**
+     * Wakes the device up at a given time and calls {@link #onWake()}.
+     */
+    public interface Scheduler {
+
+        /**
+         * @param time the wake-up time on the delivery's clock; replaces any earlier schedule
+         */
+        void schedule(long time);
+
+        void cancel();
+    }
+
+    public interface WakeLock {
+
+        void acquire();
+
+        void release();
+    }
+
+    /**
+     * The buffered samples of a session.
+     */
+    public interface Source {
+
+        /**
+         * Writes all buffered samples and returns how many there were.
+         */
+        long drain();
+    }
+
+    private final Clock mClock;
+    private final Scheduler mScheduler;
+    private final WakeLock mWakeLock;
+    private final Source mSource;
+    private final long mIntervalMillis;
+
+    private boolean mRunning;
+    private long mStartTime;
+    private long mNextWakeTime;
+
+    // Statistics
+    private long mWakeUpCount;
+    private long mSampleCount;
+    private long mMaxSamplesPerWakeUp;
+
+    public BatchedDelivery(Clock clock, Scheduler scheduler, WakeLock wakeLock, Source source, long intervalMillis) {
+        this.mClock = clock;
+        this.mScheduler = scheduler;
+        this.mWakeLock = wakeLock;
+        this.mSource = source;
+        this.mIntervalMillis = intervalMillis;
+    }
+
+    public synchronized void start() {
+
+        if (mRunning) {
+            return;
+        }
+
+        mRunning = true;
+        mStartTime = mClock.now();
+        mNextWakeTime = mStartTime + mIntervalMillis;
+        mScheduler.schedule(mNextWakeTime);
+    }
+
+    /**
+     * Drains the buffers under the wake lock and schedules the next wake-up.
+     * Wake-ups that arrive late keep the original cadence, unless a whole
+     * interval was missed.
+     */
+    public synchronized void onWake() {
+
+        if (!mRunning) {
+            return;
+        }
+
+        drain();
+
+        long now = mClock.now();
+        mNextWakeTime += mIntervalMillis;
+        if (mNextWakeTime <= now) {
+            mNextWakeTime = now + mIntervalMillis;
+        }
+        mScheduler.schedule(mNextWakeTime);
+    }
+
+    /**
+     * Cancels the schedule and drains what is left.
+     */
+    public synchronized void stop() {
+
+        if (!mRunning) {
+            return;
+        }
+
+        mRunning = false;
+        mScheduler.cancel();
+        drain();
+    }
+
+    private void drain() {
+
+        mWakeLock.acquire();
+        try {
+            long count = mSource.drain();
+            mWakeUpCount++;
+            mSampleCount += count;
+            mMaxSamplesPerWakeUp = Math.max(mMaxSamplesPerWakeUp, count);
+        }
+        finally {
+            mWakeLock.release();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return this.mRunning;
+    }
+
+    public synchronized long getNextWakeTime() {
+        return this.mNextWakeTime;
+    }
+
+    public synchronized long getWakeUpCount() {
+        return this.mWakeUpCount;
+    }
+
+    public synchronized long getSampleCount() {
+        return this.mSampleCount;
+    }
+
+    public synchronized long getMaxSamplesPerWakeUp() {
+        return this.mMaxSamplesPerWakeUp;
+    }
+
+    public synchronized double getWakeUpsPerHour() {
+
+        long elapsed = mClock.now() - mStartTime;
+        return (elapsed > 0) ? mWakeUpCount * 3600000.0 / elapsed : 0;
+    }
+
+    public synchronized double getSamplesPerWakeUp() {
+        return (mWakeUpCount > 0) ? (double) mSampleCount / mWakeUpCount : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%.1f wake-ups/h, %.1f samples/wake-up", getWakeUpsPerHour(), getSamplesPerWakeUp());
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import android.os.SystemClock;
+
+/**
+ * Source of time in milliseconds, so that scheduling logic can run against
+ * a fake clock in tests.
+ */
+public interface Clock {
+
+    /**
+     * SystemClock.elapsedRealtime(), which keeps counting while the device sleeps.
+     */
+    Clock ELAPSED_REALTIME = new Clock() {
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    long now();
+
+}
@@ -21,13 +21,17 @@
 
 package org.sensingkit.crowdsensing_android;
 
+import android.Manifest;
 import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.ContextCompat;
 import android.support.v7.app.ActionBarActivity;
 
 import android.util.Log;
@@ -37,11 +41,16 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
 public class CrowdSensing extends ActionBarActivity {
 
     @SuppressWarnings("unused")
     private static final String TAG = "CrowdSensing";
 
+    private static final int REQUEST_LOCATION_PERMISSION = 1;
+
     private enum SensingStatus {
         Stopped,
         Sensing,
@@ -79,6 +88,7 @@ public class CrowdSensing extends ActionBarActivity {
                     case Stopped:
                         startSensing();
                         setSensingStatus(SensingStatus.Sensing);
+                        mStatus.setText("Starting...");
                         break;
 
                     case Paused:
@@ -126,6 +136,7 @@ public class CrowdSensing extends ActionBarActivity {
 
         // Unbind from the service
         if (mBound) {
+            mSensingService.setSensingListener(null);
             unbindService(mConnection);
             mBound = false;
         }
@@ -180,6 +191,7 @@ public class CrowdSensing extends ActionBarActivity {
             // We've bound to LocalService, cast the IBinder and get LocalService instance
             SensingService.LocalBinder binder = (SensingService.LocalBinder) service;
             mSensingService = binder.getService();
+            mSensingService.setSensingListener(mSensingListener);
             mBound = true;
 
             // Update the UI
@@ -210,6 +222,38 @@ public class CrowdSensing extends ActionBarActivity {
 
     };
 
+    /** Session start-up and errors, reported by the SensingService */
+    private final SensingService.SensingListener mSensingListener = new SensingService.SensingListener() {
+
+        @Override
+        public void onSensingReady(SensingSession session) {
+
+            if (mSensingStatus == SensingStatus.Sensing) {
+                mStatus.setText("Sensing...");
+            }
+        }
+
+        @Override
+        public void onSensingStopped() {
+            Log.i(TAG, "onSensingStopped()");
+        }
+
+        @Override
+        public void onSensingError(SKException ex) {
+
+            Log.e(TAG, ex.getMessage());
+            mStatus.setText("Error: " + ex.getMessage());
+        }
+
+        @Override
+        public void onStorageLow(long availableBytes) {
+
+            Log.w(TAG, "onStorageLow(" + availableBytes + ")");
+            mStatus.setText("Storage almost full");
+        }
+
+    };
+
     private boolean isSensingServiceRunning() {
 
         ActivityManager manager = (ActivityManager) getSystemService (Context.ACTIVITY_SERVICE);
@@ -263,8 +307,55 @@ public class CrowdSensing extends ActionBarActivity {
 
     private void startSensing() {
 
+        // Location, and Bluetooth scans from Android 6.0 on, need the location permission
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.ACCESS_FINE_LOCATION}, REQUEST_LOCATION_PERMISSION);
+            return;
+        }
+
+        startSensing(true);
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+
+        if (requestCode != REQUEST_LOCATION_PERMISSION) {
+            super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+            return;
+        }
+
+        if (!mBound) {
+            Log.e(TAG, "Not bound to the service, sensing not started.");
+            setSensingStatus(SensingStatus.Stopped);
+            return;
+        }
+
+        boolean granted = grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED;
+        if (!granted) {
+            Log.w(TAG, "Location permission denied, sensing without location and Bluetooth.");
+        }
+
+        startSensing(granted);
+    }
+
+    /**
+     * Starts sensing with the default sensors, plus the opt-in ones
+     * that need the location permission if it was granted.
+     */
+    private void startSensing(boolean locationGranted) {
+
+        SessionProfile profile = SessionProfile.allSensors();
+
+        if (locationGranted) {
+            profile.enable(SKSensorModuleType.LOCATION);
+            profile.enable(SKSensorModuleType.BLUETOOTH);
+        }
+
         // Start Sensing
-        mSensingService.startSensing();
+        mSensingService.startSensing(new SessionOptions().setProfile(profile));
     }
 
     private void pauseSensing() {
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+
+/**
+ * Lets background storage work run while the device is charging or its
+ * screen is off, so that it does not slow down the foreground.
+ */
+public class DeviceIdleConditions implements StorageManager.Conditions {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "DeviceIdleConditions";
+
+    private final Context mContext;
+
+    public DeviceIdleConditions(Context context) {
+        this.mContext = context.getApplicationContext();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean isIdle() {
+
+        Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+            return true;
+        }
+
+        // isInteractive() needs API 20
+        PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        return !powerManager.isScreenOn();
+    }
+
+}
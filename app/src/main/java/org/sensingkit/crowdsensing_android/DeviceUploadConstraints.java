@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+
+/**
+ * Upload constraints from the state of the device: a connected network,
+ * optionally unmetered, and optionally external power. Read on demand
+ * from the sticky battery broadcast and the connectivity service, so no
+ * receiver has to be registered.
+ */
+public class DeviceUploadConstraints implements UploadConstraints {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "DeviceUploadConstraints";
+
+    private final Context mContext;
+    private final boolean mRequireCharging;
+    private final boolean mRequireUnmetered;
+
+    public DeviceUploadConstraints(Context context, boolean requireCharging, boolean requireUnmetered) {
+        this.mContext = context.getApplicationContext();
+        this.mRequireCharging = requireCharging;
+        this.mRequireUnmetered = requireUnmetered;
+    }
+
+    @Override
+    public boolean isSatisfied() {
+        return isConnected() && (!mRequireCharging || isCharging());
+    }
+
+    private boolean isCharging() {
+
+        Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private boolean isConnected() {
+
+        ConnectivityManager connectivity = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = connectivity.getActiveNetworkInfo();
+
+        if (network == null || !network.isConnected()) {
+            return false;
+        }
+
+        return !mRequireUnmetered || !connectivity.isActiveNetworkMetered();
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Location fixes from the fused location provider of Google Play
+ * services. The request sets a max wait time, so that the provider batches
+ * the fixes in hardware where it can and wakes the device once per batch.
+ * Batches are delivered on a thread of their own. Connects and
+ * disconnects synchronously, so it must not be used on the main thread.
+ */
+public class FusedLocationProvider implements LocationProvider {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "FusedLocationProvider";
+
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    private final Context mContext;
+
+    // Current request (null when not requested)
+    private GoogleApiClient mClient;
+    private HandlerThread mThread;
+    private LocationCallback mLocationCallback;
+
+    public FusedLocationProvider(Context context) {
+        this.mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public synchronized void requestUpdates(LocationConfig config, final Callback callback) throws IOException {
+
+        if (mClient != null) {
+            throw new IOException("Location updates are already requested.");
+        }
+
+        GoogleApiClient client = new GoogleApiClient.Builder(mContext)
+                .addApi(LocationServices.API)
+                .build();
+
+        ConnectionResult result = client.blockingConnect(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (!result.isSuccess()) {
+            throw new IOException("Google Play services not available (" + result.getErrorCode() + ").");
+        }
+
+        HandlerThread thread = new HandlerThread("CrowdSensing-Location", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+
+        LocationCallback locationCallback = new LocationCallback() {
+            @Override
+            public void onLocationResult(LocationResult locationResult) {
+
+                List<Location> locations = locationResult.getLocations();
+                List<LocationFix> fixes = new ArrayList<>(locations.size());
+
+                for (Location location : locations) {
+                    fixes.add(toFix(location));
+                }
+
+                callback.onLocations(fixes);
+            }
+        };
+
+        try {
+            Status status = LocationServices.FusedLocationApi.requestLocationUpdates(client, createRequest(config),
+                    locationCallback, thread.getLooper()).await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (!status.isSuccess()) {
+                throw new IOException("Location updates not granted: " + status);
+            }
+        }
+        catch (SecurityException ex) {
+            thread.quit();
+            client.disconnect();
+            throw new IOException("No location permission: " + ex.getMessage());
+        }
+        catch (IOException ex) {
+            thread.quit();
+            client.disconnect();
+            throw ex;
+        }
+
+        mClient = client;
+        mThread = thread;
+        mLocationCallback = locationCallback;
+    }
+
+    @Override
+    public void removeUpdates() {
+
+        final GoogleApiClient client;
+        final HandlerThread thread;
+        LocationCallback locationCallback;
+
+        synchronized (this) {
+            client = mClient;
+            thread = mThread;
+            locationCallback = mLocationCallback;
+            mClient = null;
+            mThread = null;
+            mLocationCallback = null;
+        }
+
+        if (client == null) {
+            return;
+        }
+
+        // Deliver the fixes held back for the current batch first
+        LocationServices.FusedLocationApi.flushLocations(client).await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        LocationServices.FusedLocationApi.removeLocationUpdates(client, locationCallback).await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        client.disconnect();
+
+        // Batches already queued on the thread are delivered before it quits
+        new Handler(thread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                thread.quit();
+            }
+        });
+
+        try {
+            thread.join(TIMEOUT_MILLIS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static LocationRequest createRequest(LocationConfig config) {
+
+        int priority;
+        switch (config.getAccuracy()) {
+
+            case HIGH:
+                priority = LocationRequest.PRIORITY_HIGH_ACCURACY;
+                break;
+
+            case LOW_POWER:
+                priority = LocationRequest.PRIORITY_LOW_POWER;
+                break;
+
+            case PASSIVE:
+                priority = LocationRequest.PRIORITY_NO_POWER;
+                break;
+
+            case BALANCED:
+            default:
+                priority = LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+                break;
+        }
+
+        return LocationRequest.create()
+                .setPriority(priority)
+                .setInterval(config.getIntervalMillis())
+                .setFastestInterval(config.getFastestIntervalMillis())
+                .setMaxWaitTime(config.getMaxWaitMillis());
+    }
+
+    private static LocationFix toFix(Location location) {
+        return new LocationFix(location.getTime(), location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                location.hasAltitude() ? (float) location.getAltitude() : Float.NaN,
+                location.hasSpeed() ? location.getSpeed() : Float.NaN);
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import android.util.Log;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SensorMetrics of all sensors of a session. Optionally appends a row
+ * per sensor to metrics.csv in the session folder at a fixed interval, and
+ * once more when stopped.
+ */
+public class MetricsRegistry implements Runnable {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "MetricsRegistry";
+
+    public static final String FILE_NAME = "metrics.csv";
+
+    static final String HEADER = "time,sensor,received,written,dropped,bytes,errors,queueDepth,rateHz,jitterMillis,"
+            + "writeMeanMicros,writeP99Micros,flushMeanMicros,flushP99Micros";
+
+    private final Map<SKSensorModuleType, SensorMetrics> mMetrics =
+            Collections.synchronizedMap(new EnumMap<SKSensorModuleType, SensorMetrics>(SKSensorModuleType.class));
+
+    private ScheduledExecutorService mExecutor;
+    private File mFile;
+
+    public void register(SKSensorModuleType moduleType, SensorMetrics metrics) {
+        mMetrics.put(moduleType, metrics);
+    }
+
+    /**
+     * @return the metrics of the sensor, or null if it is not recorded
+     */
+    public SensorMetrics get(SKSensorModuleType moduleType) {
+        return mMetrics.get(moduleType);
+    }
+
+    public List<SKSensorModuleType> getSensors() {
+        synchronized (mMetrics) {
+            return new ArrayList<>(mMetrics.keySet());
+        }
+    }
+
+    /**
+     * Samples dropped by all sensors together.
+     */
+    public long getDroppedCount() {
+
+        long dropped = 0;
+        synchronized (mMetrics) {
+            for (SensorMetrics metrics : mMetrics.values()) {
+                dropped += metrics.getDroppedCount();
+            }
+        }
+
+        return dropped;
+    }
+
+    /**
+     * Appends the metrics to metrics.csv in the given folder every interval.
+     */
+    public synchronized void start(File sessionFolder, long intervalMillis) {
+
+        if (mExecutor != null) {
+            return;
+        }
+
+        mFile = new File(sessionFolder, FILE_NAME);
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CrowdSensing-Metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic dump and appends a final row per sensor.
+     */
+    public void stop() {
+
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = mExecutor;
+            mExecutor = null;
+        }
+
+        if (executor == null) {
+            return;
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        run();
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            dump(mFile, System.currentTimeMillis());
+        }
+        catch (IOException ex) {
+            Log.e(TAG, ex.getMessage());
+        }
+    }
+
+    /**
+     * Appends a row per sensor to the given file, starting with the header if the file is new.
+     */
+    public synchronized void dump(File file, long time) throws IOException {
+
+        boolean exists = file.exists();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+
+        try {
+            if (!exists) {
+                writer.write(HEADER + "\n");
+            }
+
+            synchronized (mMetrics) {
+                for (Map.Entry<SKSensorModuleType, SensorMetrics> entry : mMetrics.entrySet()) {
+                    writer.write(formatRow(time, entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    static String formatRow(long time, SKSensorModuleType moduleType, SensorMetrics metrics) {
+
+        return String.format(Locale.US, "%d,%s,%d,%d,%d,%d,%d,%d,%.3f,%.3f,%.1f,%.1f,%.1f,%.1f\n",
+                time,
+                SensorRegistry.getFileName(moduleType),
+                metrics.getReceivedCount(),
+                metrics.getWrittenCount(),
+                metrics.getDroppedCount(),
+                metrics.getBytesWritten(),
+                metrics.getErrorCount(),
+                metrics.getQueueDepth(),
+                metrics.getSampleRateHz(),
+                metrics.getJitterMillis(),
+                metrics.getWriteLatency().getMeanNanos() / 1000,
+                metrics.getWriteLatency().getPercentileNanos(99) / 1000.0,
+                metrics.getFlushLatency().getMeanNanos() / 1000,
+                metrics.getFlushLatency().getPercentileNanos(99) / 1000.0);
+    }
+
+}
@@ -27,92 +27,378 @@ import org.sensingkit.sensingkitlib.SKException;
 import org.sensingkit.sensingkitlib.SKExceptionErrorCode;
 import org.sensingkit.sensingkitlib.SKSensorDataListener;
 import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKBluetoothData;
+import org.sensingkit.sensingkitlib.data.SKBluetoothDevice;
 import org.sensingkit.sensingkitlib.data.SKSensorData;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
 
-public class ModelWriter implements SKSensorDataListener {
+/**
+ * Subscribes to one SensingKit sensor and extracts its samples into the
+ * sensor's RecordChannel, which resamples, buffers and writes them. Bluetooth
+ * scans may instead be aggregated into proximity rows here.
+ */
+public class ModelWriter implements SKSensorDataListener, RecordSink, DurableWriter {
 
     @SuppressWarnings("unused")
     private static final String TAG = "ModelWriter";
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private final SKSensorModuleType moduleType;
 
-    private File mFile;
-    private BufferedOutputStream mFileBuffer;
+    // The stages after extraction, and the file or session log
+    private final RecordChannel mChannel;
+
+    // Extraction (the scratch buffer is reused for every sample)
+    private final RecordLayout mLayout;
+    private final float[] mValues;
+
+    // Start-up measurement, cleared after the first sample
+    private volatile StartupLatency mStartupLatency;
+
+    // Bluetooth proximity aggregation (null when the scans are recorded)
+    private RssiAggregator mProximity;
+    private byte[] mRow;
 
     public ModelWriter(SKSensorModuleType moduleType, File sessionFolder, String filename) throws SKException {
+        this(moduleType, sessionFolder, filename, RecordFormat.CSV);
+    }
+
+    public ModelWriter(SKSensorModuleType moduleType, File sessionFolder, String filename, RecordFormat format) throws SKException {
+        this(moduleType, sessionFolder, filename, format, null, 0, 0);
+    }
+
+    public ModelWriter(SKSensorModuleType moduleType, File sessionFolder, String filename, RecordFormat format,
+                       SessionManifest manifest, long maxChunkBytes, long maxChunkMillis) throws SKException {
+        this(moduleType, sessionFolder, filename, format, null, manifest, maxChunkBytes, maxChunkMillis);
+    }
+
+    /**
+     * Creates a ModelWriter that rotates its output into numbered chunk files
+     * (e.g. Accelerometer-00000.csv) once a chunk holds maxChunkBytes of
+     * records or spans maxChunkMillis of sample timestamps. Use 0 to disable
+     * a limit. Every closed chunk is added to the manifest, if one is given.
+     * In the compressed format the byte limit applies to uncompressed records.
+     * <p>
+     * If features is not null, the writer records one CSV row of window
+     * features (see FeatureExtractor) per hop instead of the samples, and
+     * the format is ignored.
+     */
+    public ModelWriter(SKSensorModuleType moduleType, File sessionFolder, String filename, RecordFormat format,
+                       FeatureConfig features, SessionManifest manifest, long maxChunkBytes, long maxChunkMillis) throws SKException {
+        this(moduleType, openFile(moduleType, sessionFolder, filename, format, features, manifest, maxChunkBytes, maxChunkMillis));
+    }
+
+    /**
+     * Creates a ModelWriter that appends tagged records to the session log
+     * instead of its own file. The log is flushed and closed by its owner.
+     */
+    public ModelWriter(SKSensorModuleType moduleType, SessionLogWriter sessionLog) throws SKException {
+        this(moduleType, openLog(moduleType, sessionLog));
+    }
+
+    /**
+     * Creates a ModelWriter that extracts the samples into the given channel,
+     * e.g. one of a SessionPipeline. The channel must have the sensor's
+     * record layout, or none for SensingKit's own CSV lines.
+     */
+    public ModelWriter(SKSensorModuleType moduleType, RecordChannel channel) {
 
         this.moduleType = moduleType;
-        this.mFile = createFile(sessionFolder, filename);
+        this.mChannel = channel;
+        this.mLayout = channel.getLayout();
+        this.mValues = (mLayout != null) ? new float[mLayout.getFieldCount()] : null;
+    }
+
+    private static RecordChannel openFile(SKSensorModuleType moduleType, File sessionFolder, String filename, RecordFormat format,
+                                          FeatureConfig features, SessionManifest manifest, long maxChunkBytes, long maxChunkMillis) throws SKException {
+
+        RecordLayout layout = SensorDataExtractor.layoutFor(moduleType);
+
+        if (features != null && layout == null) {
+            throw new SKException(TAG, "Features are not supported for sensor " + moduleType + ".", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        if (features == null && layout == null && format != RecordFormat.CSV) {
+            throw new SKException(TAG, "Format " + format + " is not supported for sensor " + moduleType + ".", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
 
         try {
-            this.mFileBuffer = new BufferedOutputStream(new FileOutputStream(mFile));
+            return new RecordChannel(sessionFolder, filename, format, layout, features, manifest, maxChunkBytes, maxChunkMillis);
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+    }
+
+    private static RecordChannel openLog(SKSensorModuleType moduleType, SessionLogWriter sessionLog) throws SKException {
+
+        RecordLayout layout = SensorDataExtractor.layoutFor(moduleType);
+
+        if (layout == null) {
+            throw new SKException(TAG, "Session log is not supported for sensor " + moduleType + ".", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        return new RecordChannel(sessionLog, layout);
+    }
+
+    public RecordChannel getChannel() {
+        return this.mChannel;
+    }
+
+    public RecordFormat getFormat() {
+        return mChannel.getFormat();
+    }
+
+    /**
+     * Reports the arrival of the next sample to the given measurement.
+     */
+    public void measureStartup(StartupLatency startupLatency) {
+        this.mStartupLatency = startupLatency;
+    }
+
+    /**
+     * Low-pass filters and decimates the samples down to the given rate
+     * before they are written. Use 0 to record every sample. Only applies to
+     * sensors with a record layout, and must be set before the first sample.
+     */
+    public void setTargetRate(double targetRateHz) {
+        mChannel.setTargetRate(targetRateHz);
+    }
+
+    /**
+     * Only records samples inside the gate's capture windows, holding the
+     * latest capacity samples in memory for the pre-roll. Samples of this
+     * sensor fire the gate when their magnitude exceeds the threshold
+     * (NaN for never). Only applies to sensors with a record layout, and
+     * must be set before the first sample.
+     */
+    public void setTrigger(TriggerGate gate, int capacity, double threshold) {
+
+        if (!mChannel.setTrigger(gate, capacity, threshold)) {
+            Log.w(TAG, "Sensor " + moduleType + " has no record layout, recording continuously.");
         }
-        catch (FileNotFoundException ex) {
-            throw new SKException(TAG, "File could not be found.", SKExceptionErrorCode.UNKNOWN_ERROR);
+    }
+
+    /**
+     * @return the pre-roll buffer, or null if recording continuously
+     */
+    public PreRollBuffer getPreRollBuffer() {
+        return mChannel.getPreRollBuffer();
+    }
+
+    /**
+     * Also hands every sample that is recorded to the given sink, e.g. a
+     * channel of a FusionMerger. Only applies to sensors with a record
+     * layout, and must be set before the first sample.
+     */
+    public void setFusionInput(RecordSink fusionInput) {
+        mChannel.setFusionInput(fusionInput);
+    }
+
+    /**
+     * Writes per-device RSSI statistics over windows (see RssiAggregator)
+     * instead of every Bluetooth scan. Only applies to CSV files of their
+     * own, and must be set before the first scan.
+     */
+    public void setProximityAggregation(ProximityConfig config) {
+
+        if (mChannel.isSessionLog() || mChannel.getFormat() != RecordFormat.CSV) {
+            Log.w(TAG, "Sensor " + moduleType + " is not recorded to a CSV file, recording every scan.");
+            return;
+        }
+
+        mRow = new byte[RssiAggregator.MAX_ROW_SIZE];
+        mProximity = new RssiAggregator(config, new RssiAggregator.Sink() {
+            @Override
+            public void writeDevice(long windowStart, long deviceId, int count, float meanRssi, int minRssi, int maxRssi) {
+                writeRow(windowStart, deviceId, count, meanRssi, minRssi, maxRssi);
+            }
+        });
+    }
+
+    /**
+     * @return the proximity aggregation, or null if every scan is recorded
+     */
+    public RssiAggregator getProximityAggregator() {
+        return this.mProximity;
+    }
+
+    /**
+     * @return the fields of the samples, or null if the sensor has no record layout
+     */
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    /**
+     * @return the resampling stage, or null if every sample is recorded
+     */
+    public Resampler getResampler() {
+        return mChannel.getResampler();
+    }
+
+    /**
+     * Hands samples over to the given AsyncRecordWriter instead of writing
+     * them on the SensingKit callback thread.
+     */
+    public void attachAsyncWriter(AsyncRecordWriter asyncWriter, int capacity, OverflowPolicy policy) {
+
+        if (!mChannel.attachAsyncWriter(asyncWriter, capacity, policy)) {
+            Log.w(TAG, "Sensor " + moduleType + " has no record layout, writing synchronously.");
         }
+    }
+
+    /**
+     * Writes a sparse time index next to each file, see RecordFileWriter.setIndexInterval.
+     * Ignored when writing to the session log. Must be set before the first sample.
+     */
+    public void setIndexInterval(int indexInterval) {
+        mChannel.setIndexInterval(indexInterval);
+    }
 
+    public SensorMetrics getMetrics() {
+        return mChannel.getMetrics();
+    }
+
+    /**
+     * Samples dropped by the ring buffer's overflow policy.
+     */
+    public long getDroppedCount() {
+        return mChannel.getDroppedCount();
     }
 
     public void flush() throws SKException {
 
         try {
-            mFileBuffer.flush();
+            mChannel.flush();
         }
         catch (IOException ex) {
             throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
         }
     }
 
-    public void close() throws SKException {
+    /**
+     * Writes the last proximity window and reports the last failed write,
+     * if any. Called before the channel is closed, by close or by the
+     * owner of the channel.
+     */
+    public synchronized void finish() {
 
-        try {
-            mFileBuffer.close();
+        if (mProximity != null && mChannel.isOpen()) {
+            mProximity.flush();
         }
-        catch (IOException ex) {
-            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+
+        IOException error = mChannel.getLastError();
+        if (error != null) {
+            Log.e(TAG, "Sensor " + moduleType + ": " + error.getMessage());
         }
     }
 
-    private File createFile(File sessionFolder, String filename) throws SKException {
+    public void close() throws SKException {
 
-        File file = new File(sessionFolder, filename + ".csv");
+        finish();
 
         try {
-            if (!file.createNewFile()) {
-                throw new SKException(TAG, "File could not be created.", SKExceptionErrorCode.UNKNOWN_ERROR);
-            }
+            mChannel.close();
         }
         catch (IOException ex) {
             throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
         }
+    }
 
-        // Make file visible
-        //MediaScannerConnection.scanFile(getBaseContext(), new String[]{file.getAbsolutePath()}, null, null);
+    /**
+     * Number of the chunk currently being written, starting at 0.
+     */
+    public int getChunkIndex() {
+        return mChannel.getChunkIndex();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return mChannel.getBytesWritten();
+    }
 
-        return file;
+    @Override
+    public void sync(Checkpoint checkpoint) throws IOException {
+        mChannel.sync(checkpoint);
     }
 
     @Override
     public void onDataReceived(SKSensorModuleType moduleType, SKSensorData moduleData) {
 
-        if (mFileBuffer != null) {
+        if (!mChannel.isOpen()) {
+            return;
+        }
+
+        StartupLatency startupLatency = mStartupLatency;
+        if (startupLatency != null) {
+            startupLatency.markFirstSample(this.moduleType);
+            mStartupLatency = null;
+        }
+
+        if (mProximity == null && mLayout != null && SensorDataExtractor.extract(moduleData, mValues) >= 0) {
+            mChannel.receive(moduleData.getTimestamp(), mValues);
+            return;
+        }
 
-            // Build the data line
-            String dataLine = moduleData.getDataInCSV() + "\n";
+        mChannel.getMetrics().sampleReceived(moduleData.getTimestamp());
+
+        if (mProximity != null && moduleData instanceof SKBluetoothData) {
+            aggregate((SKBluetoothData) moduleData);
+        }
+        else if (mChannel.getFormat() == RecordFormat.CSV && !mChannel.isFeatureExtraction()) {
+
+            // Unknown data type, fall back to SensingKit's own CSV line
+            byte[] dataLine = (moduleData.getDataInCSV() + "\n").getBytes(UTF_8);
 
-            // Write in the FileBuffer
             try {
-                mFileBuffer.write(dataLine.getBytes());
+                mChannel.writeLine(moduleData.getTimestamp(), dataLine, 0, dataLine.length);
             } catch (IOException ex) {
                 Log.e(TAG, ex.getMessage());
             }
         }
+        else {
+            Log.e(TAG, "Unsupported data type: " + moduleData.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Records a sample that does not come from SensingKit, e.g. a location
+     * fix, in RecordLayout order. It goes through the same stages as the
+     * samples of onDataReceived.
+     */
+    public void onRecordReceived(long timestamp, float[] values) {
+        mChannel.receive(timestamp, values);
+    }
+
+    private synchronized void aggregate(SKBluetoothData data) {
+
+        for (SKBluetoothDevice device : data.getBluetoothDevices()) {
+            mProximity.add(data.getTimestamp(), device.getAddress(), device.getRssi());
+        }
+    }
+
+    private void writeRow(long windowStart, long deviceId, int count, float meanRssi, int minRssi, int maxRssi) {
+
+        int length = RssiAggregator.encodeRow(windowStart, deviceId, count, meanRssi, minRssi, maxRssi, mRow, 0);
+
+        try {
+            mChannel.writeLine(windowStart, mRow, 0, length);
+        } catch (IOException ex) {
+            Log.e(TAG, ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes one sample through the last stage of the channel, see RecordChannel.writeRecord.
+     */
+    @Override
+    public void writeRecord(long timestamp, float[] values) {
+        mChannel.writeRecord(timestamp, values);
     }
 
 }
@@ -21,45 +21,129 @@
 
 package org.sensingkit.crowdsensing_android;
 
+import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.util.Log;
 
 import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKExceptionErrorCode;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 public class SensingService extends Service {
 
     @SuppressWarnings("unused")
     protected static final String TAG = "SensingService";
 
+    // Alarm intent of the batched delivery mode
+    static final String ACTION_DRAIN = "org.sensingkit.crowdsensing_android.action.DRAIN";
+
     public enum SensingServiceStatus {
         Stopped,
         Sensing,
         Paused
     }
 
+    /**
+     * Session lifecycle events, delivered on the main thread.
+     */
+    public interface SensingListener {
+
+        /**
+         * All sensors of the new or continued session have been started.
+         */
+        void onSensingReady(SensingSession session);
+
+        /**
+         * The session has been stopped and closed.
+         */
+        void onSensingStopped();
+
+        void onSensingError(SKException ex);
+
+        /**
+         * The current session is about to run out of space.
+         */
+        void onStorageLow(long availableBytes);
+    }
+
+    /**
+     * Outcome of an export, delivered on the main thread.
+     */
+    public interface ExportListener {
+
+        void onExportFinished(SessionExporter.Report report);
+
+        void onExportError(File sessionFolder, IOException ex);
+    }
+
     private final IBinder mBinder = new LocalBinder();
 
     private PowerManager.WakeLock mWakeLock;
 
-    // Sensing Session
-    private SensingSession mSensingSession;
+    // Sensing Session (only touched on the session thread)
+    private volatile SensingSession mSensingSession;
 
     private SensingServiceStatus mStatus = SensingServiceStatus.Stopped;
 
+    // Start and continue requests so far (only touched on the main thread)
+    private int mRequestCount;
+
+    // Times the start requests, as the session measures its start-up latency
+    private Clock mClock = Clock.ELAPSED_REALTIME;
+
+    // Session bring-up and tear-down run in order, off the main thread
+    private ExecutorService mSessionExecutor;
+    private Handler mMainHandler;
+    private SensingListener mSensingListener;
+
+    // Batched delivery (null when the session holds the wake lock)
+    private volatile BatchedDelivery mBatchedDelivery;
+    private boolean mBatched;
+
+    // Upload of the sessions (null when they are kept local)
+    static final String UPLOAD_STATE_FILE_NAME = "Uploads.csv";
+    private volatile UploadQueue mUploadQueue;
+    private BroadcastReceiver mConstraintsReceiver;
+
+    // Quota, compaction and eviction of the session folders
+    private StorageManager mStorageManager;
+
     @Override
     public void onCreate() {
         super.onCreate();
+
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mSessionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "CrowdSensing-Session");
+            }
+        });
+
+        recoverSessions();
     }
 
     @Override
@@ -71,14 +155,43 @@ public class SensingService extends Service {
     @Override
     public void onDestroy() {
 
-        try {
-            mSensingSession.stop();
-            mSensingSession.close();
-            hideNotification();
-        }
-        catch (SKException ex) {
-            ex.printStackTrace();
-        }
+        // Close the session after any pending lifecycle work
+        mSessionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                SensingSession session = mSensingSession;
+                if (session == null) {
+                    return;
+                }
+
+                try {
+                    stopBatchedDelivery();
+
+                    if (session.isSensing()) {
+                        session.stop();
+                    }
+                    session.close();
+                }
+                catch (SKException ex) {
+                    ex.printStackTrace();
+                }
+
+                mSensingSession = null;
+            }
+        });
+
+        // Once the last files are queued
+        mSessionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                stopUploads();
+                stopStorageManager();
+            }
+        });
+        mSessionExecutor.shutdown();
+
+        hideNotification();
 
         super.onDestroy();
     }
@@ -86,6 +199,18 @@ public class SensingService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
 
+        if (intent != null && ACTION_DRAIN.equals(intent.getAction())) {
+            mSessionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    BatchedDelivery delivery = mBatchedDelivery;
+                    if (delivery != null) {
+                        delivery.onWake();
+                    }
+                }
+            });
+        }
+
         // We want this service to continue running until it is explicitly
         // stopped, so return sticky.
         return START_STICKY;
@@ -103,7 +228,7 @@ public class SensingService extends Service {
         }
     }
 
-    private SensingSession createSensingSession() {
+    private SensingSession createSensingSession(SessionOptions options) {
 
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss", Locale.UK);
         String folderName = dateFormat.format(new Date());
@@ -111,7 +236,7 @@ public class SensingService extends Service {
         SensingSession session;
 
         try {
-            session = new SensingSession(this, folderName);
+            session = new SensingSession(this, folderName, options);
         }
         catch (SKException ex) {
             Log.e(TAG, ex.getMessage());
@@ -121,6 +246,32 @@ public class SensingService extends Service {
         return session;
     }
 
+    /**
+     * Truncates sessions left open by a previous process to their last
+     * checkpoint. Sessions of this process are skipped, e.g. the one a
+     * previous instance of the service is still closing.
+     */
+    private void recoverSessions() {
+
+        // List the folders now, before a new session can be created
+        List<File> folders = new ArrayList<>();
+        for (File folder : CheckpointRecovery.listSessionFolders(SensingSession.getAppFolder())) {
+            if (!SensingSession.isOpen(folder)) {
+                folders.add(folder);
+            }
+        }
+        final File[] sessionFolders = folders.toArray(new File[folders.size()]);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (CheckpointRecovery.Report report : CheckpointRecovery.recoverAll(sessionFolders)) {
+                    Log.w(TAG, "Recovered " + report);
+                }
+            }
+        }, "CrowdSensing-Recovery").start();
+    }
+
     private void showNotification() {
 
         // The PendingIntent to launch our activity if the user selects this notification
@@ -162,29 +313,493 @@ public class SensingService extends Service {
         }
     }
 
-    // --- Public API
+    // --- Batched delivery
 
-    public void startSensing() {
+    private PendingIntent getDrainIntent() {
+        Intent intent = new Intent(this, SensingService.class);
+        intent.setAction(ACTION_DRAIN);
+        return PendingIntent.getService(this, 0, intent, 0);
+    }
 
-        // Set the status
-        mStatus = SensingServiceStatus.Sensing;
+    /**
+     * Drains the session buffers on an elapsed-realtime alarm, holding a
+     * wake lock only while draining. Called on the session thread.
+     */
+    private void startBatchedDelivery(final SensingSession session, long intervalMillis) {
+
+        final AlarmManager alarmManager = (AlarmManager) this.getSystemService(Context.ALARM_SERVICE);
+        PowerManager pm = (PowerManager) this.getSystemService(Context.POWER_SERVICE);
+        final PowerManager.WakeLock wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "DrainWakeLock");
+
+        BatchedDelivery.Scheduler scheduler = new BatchedDelivery.Scheduler() {
+            @Override
+            public void schedule(long time) {
+                // Inexact from API 19, so the system can batch it with other alarms
+                alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, time, getDrainIntent());
+            }
+
+            @Override
+            public void cancel() {
+                alarmManager.cancel(getDrainIntent());
+            }
+        };
+
+        BatchedDelivery.WakeLock drainWakeLock = new BatchedDelivery.WakeLock() {
+            @Override
+            public void acquire() {
+                wakeLock.acquire();
+            }
+
+            @Override
+            public void release() {
+                if (wakeLock.isHeld()) {
+                    wakeLock.release();
+                }
+            }
+        };
 
-        if (mSensingSession != null) {
-            Log.e(TAG, "Sensing Session is already created!");
+        BatchedDelivery.Source source = new BatchedDelivery.Source() {
+            @Override
+            public long drain() {
+                return session.drainBuffers();
+            }
+        };
+
+        BatchedDelivery delivery = new BatchedDelivery(Clock.ELAPSED_REALTIME, scheduler, drainWakeLock, source, intervalMillis);
+        delivery.start();
+        mBatchedDelivery = delivery;
+    }
+
+    private void stopBatchedDelivery() {
+
+        BatchedDelivery delivery = mBatchedDelivery;
+        if (delivery == null) {
+            return;
         }
 
-        mSensingSession = createSensingSession();
+        delivery.stop();
+        Log.i(TAG, "Batched delivery: " + delivery);
+        mBatchedDelivery = null;
+    }
+
+    // --- Session thread
+
+    private void runOnMainThread(Runnable runnable) {
+        mMainHandler.post(runnable);
+    }
+
+    private void notifyReady(final SensingSession session) {
+
+        Log.i(TAG, "Session started: " + session.getStartupLatency());
+
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mSensingListener != null) {
+                    mSensingListener.onSensingReady(session);
+                }
+            }
+        });
+    }
+
+    private void notifyStopped() {
+
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mSensingListener != null) {
+                    mSensingListener.onSensingStopped();
+                }
+            }
+        });
+    }
+
+    // Called on the storage thread
+    private void notifyStorageLow(final long availableBytes) {
+
+        try {
+            mSessionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+
+                    SensingSession session = mSensingSession;
+                    if (session == null) {
+                        return;
+                    }
+
+                    try {
+                        session.onStorageLow(availableBytes);
+                    }
+                    catch (SKException ex) {
+                        Log.e(TAG, ex.getMessage());
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException ex) {
+            // The service is being destroyed
+            return;
+        }
+
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mSensingListener != null) {
+                    mSensingListener.onStorageLow(availableBytes);
+                }
+            }
+        });
+    }
+
+    private void notifyError(final SKException ex) {
+
+        Log.e(TAG, ex.getMessage());
+
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mSensingListener != null) {
+                    mSensingListener.onSensingError(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Back to Stopped when a request found no session to record, or the
+     * session failed to start. Called on the session thread.
+     */
+    private void resetStatus(final int request) {
+
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+
+                // Unless sensing was requested again in the meantime
+                if (request == mRequestCount) {
+                    mStatus = SensingServiceStatus.Stopped;
+                    releaseWakeLock();
+                    hideNotification();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops and closes a session that cannot go on, keeping what it
+     * recorded, and forgets it. Called on the session thread.
+     */
+    private void discardSession(SensingSession session) {
+
+        stopBatchedDelivery();
 
         try {
-           acquireWakeLock();
-           mSensingSession.start();
+            if (session.isSensing()) {
+                session.stop();
+            }
+            session.close();
         }
         catch (SKException ex) {
-            ex.printStackTrace();
+            Log.e(TAG, "Sensing Session could not be closed: " + ex.getMessage());
+        }
+
+        if (mSensingSession == session) {
+            mSensingSession = null;
+            setActiveSession(null);
+        }
+    }
+
+    // --- Public API
+
+    /**
+     * Receives session lifecycle events, or null to stop receiving them.
+     */
+    public void setSensingListener(SensingListener listener) {
+        this.mSensingListener = listener;
+    }
+
+    /**
+     * Start-up latency of the current session, or null if there is none.
+     */
+    public StartupLatency getStartupLatency() {
+        SensingSession session = mSensingSession;
+        return (session != null) ? session.getStartupLatency() : null;
+    }
+
+    /**
+     * Runtime metrics of the current session, or null if there is none.
+     */
+    public MetricsRegistry getMetrics() {
+        SensingSession session = mSensingSession;
+        return (session != null) ? session.getMetrics() : null;
+    }
+
+    /**
+     * Wake-up statistics of the current session in batched delivery mode, or null.
+     */
+    public BatchedDelivery getBatchedDelivery() {
+        return mBatchedDelivery;
+    }
+
+    /**
+     * Folder of the current session, or null if there is none.
+     */
+    public File getSessionFolder() {
+        SensingSession session = mSensingSession;
+        return (session != null) ? session.getSessionFolder() : null;
+    }
+
+    /**
+     * Packs a session folder into an archive on a background thread. The
+     * current session keeps recording and is exported up to its last
+     * checkpoint. The exporter's progress listener is called on that thread.
+     */
+    public void exportSession(final File sessionFolder, final File archive, final SessionExporter exporter,
+                              final ExportListener listener) {
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                try {
+                    final SessionExporter.Report report = exporter.export(sessionFolder, archive);
+                    Log.i(TAG, "Exported " + report);
+
+                    runOnMainThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onExportFinished(report);
+                        }
+                    });
+                }
+                catch (final IOException ex) {
+                    Log.e(TAG, "Export of " + sessionFolder.getName() + " failed: " + ex.getMessage());
+
+                    runOnMainThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onExportError(sessionFolder, ex);
+                        }
+                    });
+                }
+            }
+        }, "CrowdSensing-Export").start();
+    }
+
+    /**
+     * Uploads the chunks of every session started from now on, and any
+     * files left in the queue by a previous run, whenever the constraints
+     * are met. The queue is kept in the app's private storage.
+     */
+    public synchronized void startUploads(UploadConfig config, boolean requireCharging, boolean requireUnmetered)
+            throws IOException {
+
+        if (mUploadQueue != null) {
+            return;
+        }
+
+        final UploadQueue queue = new UploadQueue(new File(getFilesDir(), UPLOAD_STATE_FILE_NAME), config,
+                new DeviceUploadConstraints(this, requireCharging, requireUnmetered));
+
+        queue.setListener(new UploadQueue.Listener() {
+            @Override
+            public void onUploaded(File file) {
+                Log.i(TAG, "Uploaded " + file.getParentFile().getName() + "/" + file.getName());
+            }
+
+            @Override
+            public void onFailed(File file, IOException error) {
+                Log.e(TAG, "Upload of " + file.getName() + " failed: " + error.getMessage());
+            }
+        });
+
+        // Resume at once when the device is plugged in or changes network
+        mConstraintsReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                queue.onConstraintsChanged();
+            }
+        };
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+        registerReceiver(mConstraintsReceiver, filter);
+
+        queue.start();
+        mUploadQueue = queue;
+
+        if (mStorageManager != null) {
+            mStorageManager.setUploadQueue(queue);
+        }
+    }
+
+    /**
+     * Stops uploading after the requests in progress; the queued files
+     * are uploaded after the next startUploads.
+     */
+    public synchronized void stopUploads() {
+
+        UploadQueue queue = mUploadQueue;
+        if (queue == null) {
+            return;
+        }
+
+        unregisterReceiver(mConstraintsReceiver);
+        mConstraintsReceiver = null;
+        mUploadQueue = null;
+
+        if (mStorageManager != null) {
+            mStorageManager.setUploadQueue(null);
+        }
+
+        queue.stop();
+        Log.i(TAG, "Uploads stopped with " + queue.getPendingCount() + " files pending");
+    }
+
+    /**
+     * The upload queue, or null if uploads are not started.
+     */
+    public UploadQueue getUploadQueue() {
+        return mUploadQueue;
+    }
+
+    /**
+     * Keeps the recorded sessions within the given limits, compacting and
+     * deleting them when over, or stops doing so if config is null (the
+     * default). Replaces the storage settings, restarting the storage manager.
+     */
+    public synchronized void setStorageConfig(StorageConfig config) {
+
+        stopStorageManager();
+
+        if (config != null) {
+            startStorageManager(config);
+        }
+    }
+
+    /**
+     * The storage manager, or null unless a storage config is set.
+     */
+    public synchronized StorageManager getStorageManager() {
+        return mStorageManager;
+    }
+
+    private synchronized void startStorageManager(StorageConfig config) {
+
+        StorageManager manager = new StorageManager(SensingSession.getAppFolder(), config,
+                SensorRegistry.getLayoutsByFileName(), new DeviceIdleConditions(this));
+
+        manager.setListener(new StorageManager.Listener() {
+            @Override
+            public void onStorageLow(long availableBytes) {
+                notifyStorageLow(availableBytes);
+            }
+
+            @Override
+            public void onSessionCompacted(File sessionFolder, long bytesSaved) {
+                Log.i(TAG, "Compacted " + sessionFolder.getName() + ", " + bytesSaved + " bytes saved");
+            }
+
+            @Override
+            public void onSessionEvicted(File sessionFolder, long bytes) {
+                Log.w(TAG, "Deleted " + sessionFolder.getName() + " (" + bytes + " bytes) to stay within the quota");
+            }
+        });
+
+        manager.setUploadQueue(mUploadQueue);
+
+        SensingSession session = mSensingSession;
+        manager.setActiveSession((session != null) ? session.getSessionFolder() : null);
+
+        manager.start();
+        mStorageManager = manager;
+    }
+
+    private synchronized void stopStorageManager() {
+
+        if (mStorageManager != null) {
+            mStorageManager.stop();
+            mStorageManager = null;
+        }
+    }
+
+    private synchronized void setActiveSession(SensingSession session) {
+
+        if (mStorageManager != null) {
+            mStorageManager.setActiveSession((session != null) ? session.getSessionFolder() : null);
+        }
+    }
+
+    public void startSensing() {
+        startSensing(new SessionOptions());
+    }
+
+    /**
+     * Creates and starts a new session in the background; the listener is
+     * notified once all sensors are started.
+     */
+    public void startSensing(final SessionOptions options) {
+
+        mClock = options.getClock();
+        final long requestTime = mClock.now();
+        final int request = ++mRequestCount;
+
+        // Set the status
+        mStatus = SensingServiceStatus.Sensing;
+
+        // In batched delivery mode the device only wakes up to drain
+        mBatched = options.getPipelineConfig().isBatchedDelivery();
+        if (!mBatched) {
+            acquireWakeLock();
         }
 
         // Show notification
         showNotification();
+
+        mSessionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                // Closed rather than overwritten, so that its files and threads are released
+                SensingSession previous = mSensingSession;
+                if (previous != null) {
+                    Log.e(TAG, "Sensing Session is already created, closing it.");
+                    discardSession(previous);
+                }
+
+                UploadQueue uploadQueue = mUploadQueue;
+                if (uploadQueue != null && options.getUploadQueue() == null) {
+                    options.setUploadQueue(uploadQueue);
+                }
+
+                SensingSession session = createSensingSession(options);
+                if (session == null) {
+                    notifyError(new SKException(TAG, "Sensing Session could not be created.", SKExceptionErrorCode.UNKNOWN_ERROR));
+                    resetStatus(request);
+                    return;
+                }
+
+                mSensingSession = session;
+                setActiveSession(session);
+
+                try {
+                    session.start(requestTime);
+
+                    if (options.getPipelineConfig().isBatchedDelivery()) {
+                        startBatchedDelivery(session, options.getPipelineConfig().getBatchIntervalMillis());
+                    }
+
+                    notifyReady(session);
+                }
+                catch (SKException ex) {
+                    notifyError(ex);
+                    discardSession(session);
+                    resetStatus(request);
+                }
+            }
+        });
     }
 
     public void pauseSensing() {
@@ -192,34 +807,82 @@ public class SensingService extends Service {
         // Set the status
         mStatus = SensingServiceStatus.Paused;
 
-        try {
-            releaseWakeLock();
-            mSensingSession.stop();
-        }
-        catch (SKException ex) {
-            ex.printStackTrace();
-        }
-
         // Hide notification
         hideNotification();
+
+        mSessionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                SensingSession session = mSensingSession;
+
+                try {
+                    stopBatchedDelivery();
+
+                    if (session != null && session.isSensing()) {
+                        session.stop();
+                    }
+                }
+                catch (SKException ex) {
+                    notifyError(ex);
+                }
+
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+
+                        // Unless sensing was continued in the meantime
+                        if (mStatus != SensingServiceStatus.Sensing) {
+                            releaseWakeLock();
+                        }
+                    }
+                });
+            }
+        });
     }
 
     public void continueSensing() {
 
+        final long requestTime = mClock.now();
+        final int request = ++mRequestCount;
+
         // Set the status
         mStatus = SensingServiceStatus.Sensing;
 
-        acquireWakeLock();
-
-        try {
-            mSensingSession.start();
-        }
-        catch (SKException ex) {
-            ex.printStackTrace();
+        if (!mBatched) {
+            acquireWakeLock();
         }
 
         // Show notification
         showNotification();
+
+        mSessionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                SensingSession session = mSensingSession;
+                if (session == null) {
+                    notifyError(new SKException(TAG, "There is no Sensing Session to continue.", SKExceptionErrorCode.UNKNOWN_ERROR));
+                    resetStatus(request);
+                    return;
+                }
+
+                try {
+                    session.start(requestTime);
+
+                    if (session.isBatchedDelivery()) {
+                        startBatchedDelivery(session, session.getBatchIntervalMillis());
+                    }
+
+                    notifyReady(session);
+                }
+                catch (SKException ex) {
+                    notifyError(ex);
+                    discardSession(session);
+                    resetStatus(request);
+                }
+            }
+        });
     }
 
     public void stopSensing() {
@@ -227,24 +890,48 @@ public class SensingService extends Service {
         // Set the status
         mStatus = SensingServiceStatus.Stopped;
 
-        try {
+        mSessionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
 
-            if (mSensingSession.isSensing()) {
-                mSensingSession.stop();
-            }
+                SensingSession session = mSensingSession;
 
-            mSensingSession.close();
-        }
-        catch (SKException ex) {
-            ex.printStackTrace();
-        }
+                try {
 
-        releaseWakeLock();
+                    stopBatchedDelivery();
 
-        // Hide notification
-        hideNotification();
+                    if (session != null) {
+                        if (session.isSensing()) {
+                            session.stop();
+                        }
+
+                        session.close();
+                    }
+
+                    notifyStopped();
+                }
+                catch (SKException ex) {
+                    notifyError(ex);
+                }
+
+                mSensingSession = null;
+                setActiveSession(null);
 
-        mSensingSession = null;
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+
+                        // Unless a new session was started in the meantime
+                        if (mStatus != SensingServiceStatus.Sensing) {
+                            releaseWakeLock();
+
+                            // Hide notification
+                            hideNotification();
+                        }
+                    }
+                });
+            }
+        });
     }
 
     public SensingServiceStatus getSensingStatus() {
@@ -23,6 +23,7 @@ package org.sensingkit.crowdsensing_android;
 
 import android.content.Context;
 import android.os.Environment;
+import android.util.Log;
 
 import org.sensingkit.sensingkitlib.SKException;
 import org.sensingkit.sensingkitlib.SKExceptionErrorCode;
@@ -31,12 +32,33 @@ import org.sensingkit.sensingkitlib.SensingKitLib;
 import org.sensingkit.sensingkitlib.SensingKitLibInterface;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SensingSession {
 
     @SuppressWarnings("unused")
     private static final String TAG = "SensingSession";
 
+    // Folders of this process's sessions that have not committed their final checkpoint
+    private static final Set<File> OPEN_FOLDERS = new HashSet<>();
+
     // SensingKit
     private SensingKitLibInterface mSensingKitLib;
     private boolean isSensing = false;
@@ -44,128 +66,720 @@ public class SensingSession {
     // Session Folder
     private File mSessionFolder;
 
-    // Models
-    private ModelWriter mAudioLevelModelWriter;
-    private ModelWriter mAccelerometerModelWriter;
-    private ModelWriter mGravityModelWriter;
-    private ModelWriter mLinearAccelerationModelWriter;
-    private ModelWriter mGyroscopeModelWriter;
-    private ModelWriter mRotationModelWriter;
-    private ModelWriter mMagnetometerModelWriter;
+    // Models of the enabled sensors
+    private final Map<SKSensorModuleType, ModelWriter> mModelWriters = new EnumMap<>(SKSensorModuleType.class);
+
+    // Files, session log, writer thread, fused stream and checkpoints of the session
+    private SessionPipeline mPipeline;
+    private long mBatchIntervalMillis;
+
+    // Runtime metrics
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private long mMetricsIntervalMillis;
+
+    // Event-triggered recording (null when recording continuously)
+    private TriggerGate mTriggerGate;
+
+    // Upload of the closed files (null when kept local)
+    private UploadQueue mUploadQueue;
+
+    // Location stream, from the location provider rather than SensingKit (null when not recorded)
+    private ModelWriter mLocationWriter;
+    private LocationBatcher mLocationBatcher;
+
+    // Adaptive sampling (null when all sensors run all the time)
+    private AdaptiveSamplingController mAdaptiveController;
+    private ExecutorService mAdaptiveExecutor;
+    private MarkerWriter mMarkerWriter;
+
+    // Sensors the adaptive sampling controller may suspend
+    private static final SKSensorModuleType[] ADAPTIVE_SENSORS = {
+            SKSensorModuleType.GYROSCOPE,
+            SKSensorModuleType.MAGNETOMETER,
+            SKSensorModuleType.ROTATION,
+            SKSensorModuleType.AUDIO_LEVEL
+    };
+
+    // Starts and stops the sensors concurrently
+    private ThreadPoolExecutor mSensorExecutor;
+    private Clock mClock;
+    private StartupLatency mStartupLatency;
+
+    private interface SensorAction {
+        void run(SKSensorModuleType moduleType) throws SKException;
+    }
 
     public SensingSession(final Context context, final String folderName) throws SKException {
+        this(context, folderName, new SessionOptions());
+    }
+
+    public SensingSession(final Context context, final String folderName, final RecordFormat format) throws SKException {
+        this(context, folderName, new SessionOptions().setPipelineConfig(new PipelineConfig().setRecordFormat(format)));
+    }
+
+    public SensingSession(final Context context, final String folderName, final SessionOptions options) throws SKException {
+        this(SensingKitLib.getSensingKitLib(context), createFolder(folderName), options, new FusedLocationProvider(context));
+    }
+
+    SensingSession(final SensingKitLibInterface sensingKitLib, final File sessionFolder, final SessionOptions options) throws SKException {
+        this(sensingKitLib, sessionFolder, options, null);
+    }
+
+    /**
+     * @param locationProvider source of the location fixes unless the options name one
+     */
+    SensingSession(final SensingKitLibInterface sensingKitLib, final File sessionFolder, final SessionOptions options,
+                   final LocationProvider locationProvider) throws SKException {
+
+        if (options.getFeatureConfig() != null && options.getPipelineConfig().getStorageMode() != StorageMode.PER_SENSOR_FILES) {
+            throw new SKException(TAG, "Features are only supported with per-sensor files.", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
 
         // Init SensingKit
-        mSensingKitLib = SensingKitLib.getSensingKitLib(context);
-
-        // Create the folder
-        mSessionFolder = createFolder(folderName);
-
-        // Init ModelWriters
-        mAudioLevelModelWriter = new ModelWriter(SKSensorModuleType.AUDIO_LEVEL, mSessionFolder, "Audio");
-        mAccelerometerModelWriter = new ModelWriter(SKSensorModuleType.ACCELEROMETER, mSessionFolder, "Accelerometer");
-        mGravityModelWriter = new ModelWriter(SKSensorModuleType.GRAVITY, mSessionFolder, "Gravity");
-        mLinearAccelerationModelWriter = new ModelWriter(SKSensorModuleType.LINEAR_ACCELERATION, mSessionFolder, "LinearAcceleration");
-        mGyroscopeModelWriter = new ModelWriter(SKSensorModuleType.GYROSCOPE, mSessionFolder, "Gyroscope");
-        mRotationModelWriter = new ModelWriter(SKSensorModuleType.ROTATION, mSessionFolder, "Rotation");
-        mMagnetometerModelWriter = new ModelWriter(SKSensorModuleType.MAGNETOMETER, mSessionFolder, "Magnetometer");
-
-        // Register Sensors
-        mSensingKitLib.registerSensorModule(SKSensorModuleType.AUDIO_LEVEL);
-        mSensingKitLib.registerSensorModule(SKSensorModuleType.ACCELEROMETER);
-        mSensingKitLib.registerSensorModule(SKSensorModuleType.GRAVITY);
-        mSensingKitLib.registerSensorModule(SKSensorModuleType.LINEAR_ACCELERATION);
-        mSensingKitLib.registerSensorModule(SKSensorModuleType.GYROSCOPE);
-        mSensingKitLib.registerSensorModule(SKSensorModuleType.ROTATION);
-        mSensingKitLib.registerSensorModule(SKSensorModuleType.MAGNETOMETER);
-
-        // Subscribe ModelWriters
-        mSensingKitLib.subscribeSensorDataListener(SKSensorModuleType.AUDIO_LEVEL, mAudioLevelModelWriter);
-        mSensingKitLib.subscribeSensorDataListener(SKSensorModuleType.ACCELEROMETER, mAccelerometerModelWriter);
-        mSensingKitLib.subscribeSensorDataListener(SKSensorModuleType.GRAVITY, mGravityModelWriter);
-        mSensingKitLib.subscribeSensorDataListener(SKSensorModuleType.LINEAR_ACCELERATION, mLinearAccelerationModelWriter);
-        mSensingKitLib.subscribeSensorDataListener(SKSensorModuleType.GYROSCOPE, mGyroscopeModelWriter);
-        mSensingKitLib.subscribeSensorDataListener(SKSensorModuleType.ROTATION, mRotationModelWriter);
-        mSensingKitLib.subscribeSensorDataListener(SKSensorModuleType.MAGNETOMETER, mMagnetometerModelWriter);
+        mSensingKitLib = sensingKitLib;
+
+        // The folder
+        mSessionFolder = sessionFolder;
+
+        mClock = options.getClock();
+
+        // Open the shared log or the manifest, the writer thread and the group flush
+        mBatchIntervalMillis = options.getPipelineConfig().getBatchIntervalMillis();
+        mMetricsIntervalMillis = options.getMetricsIntervalMillis();
+
+        try {
+            mPipeline = new SessionPipeline(mSessionFolder, options.getPipelineConfig());
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+        catch (IllegalArgumentException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        // Released again if the session cannot be set up
+        List<SKSensorModuleType> registered = new ArrayList<>();
+        List<SKSensorModuleType> subscribed = new ArrayList<>();
+
+        try {
+            // Upload every chunk once it is closed
+            mUploadQueue = options.getUploadQueue();
+
+            if (mUploadQueue != null && mPipeline.getManifest() != null) {
+                mPipeline.getManifest().setChunkListener(new SessionManifest.ChunkListener() {
+                    @Override
+                    public void onChunkAdded(SessionManifest manifest, SessionManifest.Chunk chunk) {
+                        try {
+                            mUploadQueue.enqueue(new File(manifest.getFolder(), chunk.getFileName()));
+                        }
+                        catch (IOException ex) {
+                            Log.e(TAG, "Chunk " + chunk.getFileName() + " not queued for upload: " + ex.getMessage());
+                        }
+                    }
+                });
+            }
+
+            // Init ModelWriters
+            SessionProfile profile = options.getProfile();
+
+            for (SKSensorModuleType moduleType : profile.getEnabledSensors()) {
+
+                // Not fused, triggered or buffered, see createLocation
+                if (moduleType == SKSensorModuleType.LOCATION) {
+                    continue;
+                }
+
+                ModelWriter modelWriter = createModelWriter(moduleType, options);
+                modelWriter.setTargetRate(profile.getConfig(moduleType).getTargetRateHz());
+                mModelWriters.put(moduleType, modelWriter);
+                mMetrics.register(moduleType, modelWriter.getMetrics());
+            }
+
+            // Gate all sensors on the trigger events
+            TriggerConfig trigger = options.getTriggerConfig();
+
+            if (trigger != null) {
+
+                mTriggerGate = new TriggerGate(trigger.getPreRollMillis(), trigger.getPostRollMillis());
+
+                for (Map.Entry<SKSensorModuleType, ModelWriter> entry : mModelWriters.entrySet()) {
+                    entry.getValue().setTrigger(mTriggerGate, trigger.getBufferCapacity(), trigger.getThreshold(entry.getKey()));
+                }
+            }
+
+            // Fuse the sensors with a record layout into one stream
+            if (options.getFusionConfig() != null) {
+                createFusion(options.getFusionConfig());
+            }
+
+            // Attach the writer thread, or the ring buffers drained in batches
+            boolean async = options.getPipelineConfig().isAsyncWriting() || isBatchedDelivery();
+
+            for (Map.Entry<SKSensorModuleType, ModelWriter> entry : mModelWriters.entrySet()) {
+                if (!mPipeline.attachAsyncWriter(entry.getValue().getChannel()) && async) {
+                    Log.w(TAG, "Sensor " + entry.getKey() + " has no record layout, writing synchronously.");
+                }
+            }
+
+            // Location is recorded as it is, with its own batching
+            if (profile.isEnabled(SKSensorModuleType.LOCATION)) {
+                createLocation(options, locationProvider);
+            }
+
+            // Kept out of checkpoint recovery until closed, starting with a checkpoint of the empty files
+            synchronized (OPEN_FOLDERS) {
+                OPEN_FOLDERS.add(mSessionFolder.getAbsoluteFile());
+            }
+            commitCheckpoint(Checkpoint.State.OPEN);
+
+            // One thread per sensor, released when idle
+            final AtomicInteger threadCount = new AtomicInteger();
+            int sensorCount = Math.max(1, mModelWriters.size());
+            mSensorExecutor = new ThreadPoolExecutor(sensorCount, sensorCount, 5, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CrowdSensing-Sensor-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            mSensorExecutor.allowCoreThreadTimeOut(true);
+
+            // Register Sensors and subscribe ModelWriters
+            for (Map.Entry<SKSensorModuleType, ModelWriter> entry : mModelWriters.entrySet()) {
+                mSensingKitLib.registerSensorModule(entry.getKey());
+                registered.add(entry.getKey());
+                mSensingKitLib.subscribeSensorDataListener(entry.getKey(), entry.getValue());
+                subscribed.add(entry.getKey());
+            }
+
+            if (options.isAdaptiveSampling()) {
+                createAdaptiveController();
+            }
+        }
+        catch (SKException ex) {
+            abandon(registered, subscribed);
+            throw ex;
+        }
+        catch (RuntimeException ex) {
+            abandon(registered, subscribed);
+            throw ex;
+        }
+    }
+
+    /**
+     * Releases what a constructor that failed part way had set up: the sensors, the threads, the pipeline and the
+     * folder's place in {@link #OPEN_FOLDERS}. Failures here are logged, the constructor's exception is the one thrown.
+     */
+    private void abandon(List<SKSensorModuleType> registered, List<SKSensorModuleType> subscribed) {
 
+        try {
+            if (mAdaptiveController != null) {
+                mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.ACCELEROMETER, mAdaptiveController);
+            }
+
+            for (SKSensorModuleType moduleType : subscribed) {
+                mSensingKitLib.unsubscribeSensorDataListener(moduleType, mModelWriters.get(moduleType));
+            }
+
+            for (SKSensorModuleType moduleType : registered) {
+                mSensingKitLib.deregisterSensorModule(moduleType);
+            }
+        }
+        catch (SKException ex) {
+            Log.w(TAG, "Sensors not released: " + ex.getMessage());
+        }
+
+        if (mAdaptiveExecutor != null) {
+            mAdaptiveExecutor.shutdown();
+        }
+
+        if (mSensorExecutor != null) {
+            mSensorExecutor.shutdown();
+        }
+
+        try {
+            mPipeline.close();
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Session " + mSessionFolder.getName() + " not closed: " + ex.getMessage());
+        }
+        finally {
+            synchronized (OPEN_FOLDERS) {
+                OPEN_FOLDERS.remove(mSessionFolder.getAbsoluteFile());
+            }
+        }
+
+        if (mMarkerWriter != null) {
+            try {
+                mMarkerWriter.close();
+            }
+            catch (IOException ex) {
+                Log.w(TAG, "Markers not closed: " + ex.getMessage());
+            }
+        }
     }
 
     public void start() throws SKException {
+        start(mClock.now());
+    }
+
+    /**
+     * Starts all sensors concurrently and returns once they are started.
+     *
+     * @param requestTime time of the start request on the session's clock, the origin of the start-up latency
+     */
+    public void start(long requestTime) throws SKException {
 
         this.isSensing = true;
 
-        // Start
-        mSensingKitLib.startContinuousSensingWithSensor(SKSensorModuleType.AUDIO_LEVEL);
-        mSensingKitLib.startContinuousSensingWithSensor(SKSensorModuleType.ACCELEROMETER);
-        mSensingKitLib.startContinuousSensingWithSensor(SKSensorModuleType.GRAVITY);
-        mSensingKitLib.startContinuousSensingWithSensor(SKSensorModuleType.LINEAR_ACCELERATION);
-        mSensingKitLib.startContinuousSensingWithSensor(SKSensorModuleType.GYROSCOPE);
-        mSensingKitLib.startContinuousSensingWithSensor(SKSensorModuleType.ROTATION);
-        mSensingKitLib.startContinuousSensingWithSensor(SKSensorModuleType.MAGNETOMETER);
+        mStartupLatency = new StartupLatency(mClock, requestTime, new ArrayList<>(mModelWriters.keySet()));
+        for (ModelWriter modelWriter : mModelWriters.values()) {
+            modelWriter.measureStartup(mStartupLatency);
+        }
+
+        mPipeline.start();
+
+        if (mMetricsIntervalMillis > 0) {
+            mMetrics.start(mSessionFolder, mMetricsIntervalMillis);
+        }
+
+        // Start; a sensor that fails, e.g. without its runtime permission, is left out and the others record
+        final List<SKSensorModuleType> failed = Collections.synchronizedList(new ArrayList<SKSensorModuleType>());
+
+        forEachSensor(new SensorAction() {
+            @Override
+            public void run(SKSensorModuleType moduleType) {
+                try {
+                    mSensingKitLib.startContinuousSensingWithSensor(moduleType);
+                }
+                catch (SKException ex) {
+                    Log.e(TAG, "Sensor " + moduleType + " not started: " + ex.getMessage());
+                    failed.add(moduleType);
+                }
+                catch (RuntimeException ex) {
+                    Log.e(TAG, "Sensor " + moduleType + " not started: " + ex);
+                    failed.add(moduleType);
+                }
+            }
+        });
+
+        if (!failed.isEmpty() && failed.size() == mModelWriters.size()) {
+            throw new SKException(TAG, "None of the sensors could be started.", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        mStartupLatency.markReady();
+
+        if (mAdaptiveController != null) {
+            mAdaptiveController.activate();
+        }
+
+        // The other sensors are recorded without location if it is not available
+        if (mLocationBatcher != null) {
+            try {
+                mLocationBatcher.start();
+            }
+            catch (IOException ex) {
+                Log.e(TAG, "Location not recorded: " + ex.getMessage());
+            }
+        }
     }
 
     public void stop() throws SKException {
 
         this.isSensing = false;
 
-        // Stop
-        mSensingKitLib.stopContinuousSensingWithSensor(SKSensorModuleType.AUDIO_LEVEL);
-        mSensingKitLib.stopContinuousSensingWithSensor(SKSensorModuleType.ACCELEROMETER);
-        mSensingKitLib.stopContinuousSensingWithSensor(SKSensorModuleType.GRAVITY);
-        mSensingKitLib.stopContinuousSensingWithSensor(SKSensorModuleType.LINEAR_ACCELERATION);
-        mSensingKitLib.stopContinuousSensingWithSensor(SKSensorModuleType.GYROSCOPE);
-        mSensingKitLib.stopContinuousSensingWithSensor(SKSensorModuleType.ROTATION);
-        mSensingKitLib.stopContinuousSensingWithSensor(SKSensorModuleType.MAGNETOMETER);
-
-        // Flush
-        mAudioLevelModelWriter.flush();
-        mAccelerometerModelWriter.flush();
-        mGravityModelWriter.flush();
-        mLinearAccelerationModelWriter.flush();
-        mGyroscopeModelWriter.flush();
-        mRotationModelWriter.flush();
-        mMagnetometerModelWriter.flush();
+        if (mAdaptiveController != null) {
+            mAdaptiveController.deactivate();
+        }
+
+        // Stop (sensors suspended by the adaptive controller are stopped already)
+        forEachSensor(new SensorAction() {
+            @Override
+            public void run(SKSensorModuleType moduleType) throws SKException {
+                if (mSensingKitLib.isSensorModuleSensing(moduleType)) {
+                    mSensingKitLib.stopContinuousSensingWithSensor(moduleType);
+                }
+            }
+        });
+
+        // Writes the fixes the provider held back for its next batch
+        if (mLocationBatcher != null) {
+            mLocationBatcher.stop();
+            Log.i(TAG, "Location: " + mLocationBatcher.getWrittenCount() + " fixes in "
+                    + mLocationBatcher.getBatchCount() + " batches");
+        }
+
+        // Wait for the writer thread, write the remaining frames, flush all writers together and checkpoint
+        try {
+            mPipeline.stop();
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        if (mPipeline.getFusionMerger() != null) {
+            Log.i(TAG, "Fusion: " + mPipeline.getFusionMerger());
+        }
+
+        // Final metrics of this run
+        mMetrics.stop();
     }
 
     public void close() throws SKException {
 
-        // Unsubscribe ModelWriters
-        mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.AUDIO_LEVEL, mAudioLevelModelWriter);
-        mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.ACCELEROMETER, mAccelerometerModelWriter);
-        mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.GRAVITY, mGravityModelWriter);
-        mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.LINEAR_ACCELERATION, mLinearAccelerationModelWriter);
-        mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.GYROSCOPE, mGyroscopeModelWriter);
-        mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.ROTATION, mRotationModelWriter);
-        mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.MAGNETOMETER, mMagnetometerModelWriter);
-
-        // Deregister Sensors
-        mSensingKitLib.deregisterSensorModule(SKSensorModuleType.AUDIO_LEVEL);
-        mSensingKitLib.deregisterSensorModule(SKSensorModuleType.ACCELEROMETER);
-        mSensingKitLib.deregisterSensorModule(SKSensorModuleType.GRAVITY);
-        mSensingKitLib.deregisterSensorModule(SKSensorModuleType.LINEAR_ACCELERATION);
-        mSensingKitLib.deregisterSensorModule(SKSensorModuleType.GYROSCOPE);
-        mSensingKitLib.deregisterSensorModule(SKSensorModuleType.ROTATION);
-        mSensingKitLib.deregisterSensorModule(SKSensorModuleType.MAGNETOMETER);
-        mSensingKitLib.deregisterSensorModule(SKSensorModuleType.BLUETOOTH);
-
-        // Close
-        mAudioLevelModelWriter.close();
-        mAccelerometerModelWriter.close();
-        mGravityModelWriter.close();
-        mLinearAccelerationModelWriter.close();
-        mGyroscopeModelWriter.close();
-        mRotationModelWriter.close();
-        mMagnetometerModelWriter.close();
+        if (mLocationBatcher != null) {
+            mLocationBatcher.stop();
+        }
+
+        if (mAdaptiveController != null) {
+            mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.ACCELEROMETER, mAdaptiveController);
+            mAdaptiveExecutor.shutdown();
+        }
+
+        // Unsubscribe ModelWriters and deregister Sensors
+        for (Map.Entry<SKSensorModuleType, ModelWriter> entry : mModelWriters.entrySet()) {
+            mSensingKitLib.unsubscribeSensorDataListener(entry.getKey(), entry.getValue());
+            mSensingKitLib.deregisterSensorModule(entry.getKey());
+        }
+
+        mSensorExecutor.shutdown();
+
+        // The last proximity windows
+        for (ModelWriter modelWriter : mModelWriters.values()) {
+            modelWriter.finish();
+        }
+
+        if (mLocationWriter != null) {
+            mLocationWriter.finish();
+        }
+
+        // Stop the writer thread, commit the final checkpoint and close
+        try {
+            mPipeline.close();
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+        finally {
+            synchronized (OPEN_FOLDERS) {
+                OPEN_FOLDERS.remove(mSessionFolder.getAbsoluteFile());
+            }
+        }
+
+        if (mMarkerWriter != null) {
+            try {
+                mMarkerWriter.close();
+            }
+            catch (IOException ex) {
+                throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+            }
+        }
+
+        // Upload the files not queued as chunks, e.g. the manifest and the session log
+        if (mUploadQueue != null) {
+            try {
+                mUploadQueue.enqueueSession(mSessionFolder);
+            }
+            catch (IOException ex) {
+                throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+            }
+        }
     }
 
     public boolean isSensing() {
         return this.isSensing;
     }
 
-    private File createFolder(final String folderName) throws SKException {
+    /**
+     * Warning of the storage manager that the session is about to run out
+     * of space. Commits a checkpoint, so that everything recorded so far
+     * survives the writes that will fail once the storage is full.
+     */
+    public void onStorageLow(long availableBytes) throws SKException {
+
+        Log.w(TAG, "Storage low: " + availableBytes + " bytes available to " + mSessionFolder.getName());
+
+        if (isSensing) {
+            commitCheckpoint(Checkpoint.State.OPEN);
+        }
+    }
+
+    /**
+     * Whether the buffers are only drained on scheduled wake-ups rather than by a writer thread.
+     */
+    public boolean isBatchedDelivery() {
+        return this.mBatchIntervalMillis > 0;
+    }
+
+    public long getBatchIntervalMillis() {
+        return this.mBatchIntervalMillis;
+    }
+
+    /**
+     * Writes the samples buffered since the last call, in batched delivery mode.
+     *
+     * @return the number of samples written
+     */
+    public long drainBuffers() {
+        return mPipeline.drainBuffers();
+    }
+
+    /**
+     * Samples dropped by the writer thread's ring buffers (always 0 when writing synchronously).
+     */
+    public long getDroppedSampleCount() {
+        return mPipeline.getDroppedCount();
+    }
+
+    /**
+     * Captured and discarded time of the event-triggered mode, or null when recording continuously.
+     */
+    public TriggerGate getTriggerGate() {
+        return this.mTriggerGate;
+    }
+
+    /**
+     * The adaptive sampling controller, or null if all sensors run all the time.
+     */
+    public AdaptiveSamplingController getAdaptiveController() {
+        return this.mAdaptiveController;
+    }
+
+    /**
+     * Start-up latency of the last start, or null if the session was never started.
+     */
+    public StartupLatency getStartupLatency() {
+        return this.mStartupLatency;
+    }
+
+    /**
+     * The closed chunks of the sensor files, or null in the session log modes.
+     */
+    public SessionManifest getManifest() {
+        return mPipeline.getManifest();
+    }
+
+    public File getSessionFolder() {
+        return this.mSessionFolder;
+    }
+
+    /**
+     * Runtime metrics of every sensor of this session.
+     */
+    public MetricsRegistry getMetrics() {
+        return this.mMetrics;
+    }
+
+    /**
+     * Frame and missing sample counts of the fused stream, or null if not fused.
+     */
+    public FusionMerger getFusionMerger() {
+        return mPipeline.getFusionMerger();
+    }
+
+    /**
+     * Flush and checkpoint statistics of this session.
+     */
+    public GroupFlusher getGroupFlusher() {
+        return mPipeline.getGroupFlusher();
+    }
+
+    private void commitCheckpoint(Checkpoint.State state) throws SKException {
+
+        try {
+            mPipeline.commit(state);
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+    }
+
+    private void createFusion(FusionConfig config) throws SKException {
+
+        FusionMerger merger;
+
+        try {
+            merger = mPipeline.addFusion(config);
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        if (merger == null) {
+            throw new SKException(TAG, "None of the sensors can be fused.", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+    }
+
+    private void createAdaptiveController() throws SKException {
+
+        if (!mModelWriters.containsKey(SKSensorModuleType.ACCELEROMETER)) {
+            throw new SKException(TAG, "Adaptive sampling requires the accelerometer.", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        List<SKSensorModuleType> sensors = new ArrayList<>();
+        for (SKSensorModuleType moduleType : ADAPTIVE_SENSORS) {
+            if (mModelWriters.containsKey(moduleType)) {
+                sensors.add(moduleType);
+            }
+        }
+
+        try {
+            mMarkerWriter = new MarkerWriter(mSessionFolder);
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        mAdaptiveExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CrowdSensing-Adaptive");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        mAdaptiveController = new AdaptiveSamplingController(mSensingKitLib, sensors,
+                new MotionClassifier(), mMarkerWriter, mAdaptiveExecutor);
+        mSensingKitLib.subscribeSensorDataListener(SKSensorModuleType.ACCELEROMETER, mAdaptiveController);
+    }
+
+    /**
+     * Runs the action for every sensor on its own thread and waits for all of them.
+     * Throws the first failure after every action has finished.
+     */
+    private void forEachSensor(final SensorAction action) throws SKException {
+
+        List<Future<Void>> futures = new ArrayList<>();
+
+        for (final SKSensorModuleType moduleType : mModelWriters.keySet()) {
+            futures.add(mSensorExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws SKException {
+                    action.run(moduleType);
+                    return null;
+                }
+            }));
+        }
+
+        SKException error = null;
+
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            }
+            catch (ExecutionException ex) {
+                if (error == null) {
+                    error = (ex.getCause() instanceof SKException)
+                            ? (SKException) ex.getCause()
+                            : new SKException(TAG, String.valueOf(ex.getCause()), SKExceptionErrorCode.UNKNOWN_ERROR);
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SKException(TAG, "Interrupted while waiting for the sensors.", SKExceptionErrorCode.UNKNOWN_ERROR);
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void createLocation(SessionOptions options, LocationProvider defaultProvider) throws SKException {
+
+        LocationProvider provider = (options.getLocationProvider() != null) ? options.getLocationProvider() : defaultProvider;
+        if (provider == null) {
+            throw new SKException(TAG, "No location provider.", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        final ModelWriter modelWriter = createModelWriter(SKSensorModuleType.LOCATION, options);
+
+        mLocationWriter = modelWriter;
+        mMetrics.register(SKSensorModuleType.LOCATION, modelWriter.getMetrics());
+
+        mLocationBatcher = new LocationBatcher(provider, options.getLocationConfig(), mSessionFolder, new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+                modelWriter.onRecordReceived(timestamp, values);
+            }
+        });
+    }
+
+    private ModelWriter createModelWriter(SKSensorModuleType moduleType, SessionOptions options) throws SKException {
+
+        String name = SensorRegistry.getFileName(moduleType);
+        RecordLayout layout = SensorDataExtractor.layoutFor(moduleType);
+
+        try {
+
+            // Proximity rows have no record layout, so they get a CSV file of their own in any storage mode
+            if (moduleType == SKSensorModuleType.BLUETOOTH) {
+
+                ModelWriter modelWriter = new ModelWriter(moduleType,
+                        mPipeline.openFileChannel(name, RecordFormat.CSV, null, null));
+                modelWriter.setProximityAggregation(options.getProximityConfig());
+                return modelWriter;
+            }
+
+            // Features of location offsets would mean nothing
+            FeatureConfig features = (moduleType != SKSensorModuleType.LOCATION) ? options.getFeatureConfig() : null;
+
+            if (features != null) {
+                RecordFormat format = options.getPipelineConfig().getRecordFormat();
+                return new ModelWriter(moduleType, mPipeline.openFileChannel(name, format, layout, features));
+            }
+
+            return new ModelWriter(moduleType, mPipeline.openChannel(name, layout));
+        }
+        catch (IllegalArgumentException ex) {
+            throw new SKException(TAG, "Sensor " + moduleType + ": " + ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+    }
+
+    /**
+     * The sensors recorded by this session.
+     */
+    public List<SKSensorModuleType> getSensors() {
+
+        List<SKSensorModuleType> sensors = new ArrayList<>(mModelWriters.keySet());
+        if (mLocationWriter != null) {
+            sensors.add(SKSensorModuleType.LOCATION);
+        }
+        return sensors;
+    }
+
+    /**
+     * @return the location stream, or null if location is not recorded
+     */
+    public LocationBatcher getLocationBatcher() {
+        return this.mLocationBatcher;
+    }
+
+    /**
+     * Whether a session of this process may still write to the folder: it
+     * was created and has not committed its final checkpoint, e.g. while
+     * it is closed in the background.
+     */
+    static boolean isOpen(File sessionFolder) {
+        synchronized (OPEN_FOLDERS) {
+            return OPEN_FOLDERS.contains(sessionFolder.getAbsoluteFile());
+        }
+    }
+
+    public static File getAppFolder() {
+        return new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/CrowdSensing/");
+    }
+
+    private static File createFolder(final String folderName) throws SKException {
 
         // Create App folder: CrowdSensing
-        File appFolder = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/CrowdSensing/");
+        File appFolder = getAppFolder();
 
         if (!appFolder.exists()) {
             if (!appFolder.mkdir()) {
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKAccelerometerData;
+import org.sensingkit.sensingkitlib.data.SKAudioLevelData;
+import org.sensingkit.sensingkitlib.data.SKGravityData;
+import org.sensingkit.sensingkitlib.data.SKGyroscopeData;
+import org.sensingkit.sensingkitlib.data.SKLinearAccelerationData;
+import org.sensingkit.sensingkitlib.data.SKMagnetometerData;
+import org.sensingkit.sensingkitlib.data.SKRotationData;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+/**
+ * Copies the fields of SensingKit data objects into primitive arrays, in the
+ * order described by the matching RecordLayout.
+ */
+public final class SensorDataExtractor {
+
+    private SensorDataExtractor() {
+    }
+
+    public static RecordLayout layoutFor(SKSensorModuleType moduleType) {
+
+        for (RecordLayout layout : RecordLayout.values()) {
+            if (layout.name().equals(moduleType.name())) {
+                return layout;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fills values with the fields of the given data object.
+     *
+     * @return the number of fields written, or -1 if the data type is not supported
+     */
+    public static int extract(SKSensorData data, float[] values) {
+
+        if (data instanceof SKAccelerometerData) {
+            SKAccelerometerData d = (SKAccelerometerData) data;
+            return put(values, d.getX(), d.getY(), d.getZ());
+        }
+        else if (data instanceof SKGravityData) {
+            SKGravityData d = (SKGravityData) data;
+            return put(values, d.getX(), d.getY(), d.getZ());
+        }
+        else if (data instanceof SKLinearAccelerationData) {
+            SKLinearAccelerationData d = (SKLinearAccelerationData) data;
+            return put(values, d.getX(), d.getY(), d.getZ());
+        }
+        else if (data instanceof SKGyroscopeData) {
+            SKGyroscopeData d = (SKGyroscopeData) data;
+            return put(values, d.getX(), d.getY(), d.getZ());
+        }
+        else if (data instanceof SKMagnetometerData) {
+            SKMagnetometerData d = (SKMagnetometerData) data;
+            return put(values, d.getX(), d.getY(), d.getZ());
+        }
+        else if (data instanceof SKRotationData) {
+            SKRotationData d = (SKRotationData) data;
+            values[0] = d.getX();
+            values[1] = d.getY();
+            values[2] = d.getZ();
+            values[3] = d.getCos();
+            values[4] = d.getHeadingAccuracy();
+            return 5;
+        }
+        else if (data instanceof SKAudioLevelData) {
+            values[0] = ((SKAudioLevelData) data).getLevel();
+            return 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * The inverse of extract(): builds the SensingKit data object of the
+     * given sensor from values in RecordLayout order.
+     *
+     * @return the data object, or null if the sensor type is not supported
+     */
+    public static SKSensorData create(SKSensorModuleType moduleType, long timestamp, float[] values) {
+
+        switch (moduleType) {
+
+            case ACCELEROMETER:
+                return new SKAccelerometerData(timestamp, values[0], values[1], values[2]);
+
+            case GRAVITY:
+                return new SKGravityData(timestamp, values[0], values[1], values[2]);
+
+            case LINEAR_ACCELERATION:
+                return new SKLinearAccelerationData(timestamp, values[0], values[1], values[2]);
+
+            case GYROSCOPE:
+                return new SKGyroscopeData(timestamp, values[0], values[1], values[2]);
+
+            case MAGNETOMETER:
+                return new SKMagnetometerData(timestamp, values[0], values[1], values[2]);
+
+            case ROTATION:
+                return new SKRotationData(timestamp, values[0], values[1], values[2], values[3], values[4]);
+
+            case AUDIO_LEVEL:
+                return new SKAudioLevelData(timestamp, (int) values[0]);
+
+            default:
+                return null;
+        }
+    }
+
+    private static int put(float[] values, float x, float y, float z) {
+        values[0] = x;
+        values[1] = y;
+        values[2] = z;
+        return 3;
+    }
+
+}
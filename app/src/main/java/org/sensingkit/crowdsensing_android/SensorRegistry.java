@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The sensors CrowdSensing can record and the file name each one is
+ * written to. Supporting a new sensor type takes one entry here (plus its
+ * RecordLayout for the binary formats).
+ */
+public final class SensorRegistry {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SensorRegistry";
+
+    private static final Map<SKSensorModuleType, String> FILE_NAMES;
+
+    static {
+        Map<SKSensorModuleType, String> names = new EnumMap<>(SKSensorModuleType.class);
+        names.put(SKSensorModuleType.AUDIO_LEVEL, "Audio");
+        names.put(SKSensorModuleType.ACCELEROMETER, "Accelerometer");
+        names.put(SKSensorModuleType.GRAVITY, "Gravity");
+        names.put(SKSensorModuleType.LINEAR_ACCELERATION, "LinearAcceleration");
+        names.put(SKSensorModuleType.GYROSCOPE, "Gyroscope");
+        names.put(SKSensorModuleType.ROTATION, "Rotation");
+        names.put(SKSensorModuleType.MAGNETOMETER, "Magnetometer");
+        names.put(SKSensorModuleType.LOCATION, "Location");
+        names.put(SKSensorModuleType.BLUETOOTH, "Bluetooth");
+        FILE_NAMES = Collections.unmodifiableMap(names);
+    }
+
+    // Need a runtime permission, so only recorded when a profile enables them
+    private static final Set<SKSensorModuleType> OPT_IN = Collections.unmodifiableSet(
+            EnumSet.of(SKSensorModuleType.LOCATION, SKSensorModuleType.BLUETOOTH));
+
+    private SensorRegistry() {
+    }
+
+    public static boolean isSupported(SKSensorModuleType moduleType) {
+        return FILE_NAMES.containsKey(moduleType);
+    }
+
+    /**
+     * All supported sensors, in SKSensorModuleType order.
+     */
+    public static List<SKSensorModuleType> getSupportedSensors() {
+        return new ArrayList<>(FILE_NAMES.keySet());
+    }
+
+    /**
+     * Whether the sensor is left out of the default profile, e.g. because
+     * its data needs a runtime permission (location fixes and, from Android
+     * 6.0 on, Bluetooth scans need the location permission).
+     */
+    public static boolean isOptIn(SKSensorModuleType moduleType) {
+        return OPT_IN.contains(moduleType);
+    }
+
+    /**
+     * The supported sensors that are recorded by default, in SKSensorModuleType order.
+     */
+    public static List<SKSensorModuleType> getDefaultSensors() {
+
+        List<SKSensorModuleType> sensors = getSupportedSensors();
+        sensors.removeAll(OPT_IN);
+        return sensors;
+    }
+
+    /**
+     * @return the file name (without extension) of the given sensor, or null if it is not supported
+     */
+    public static String getFileName(SKSensorModuleType moduleType) {
+        return FILE_NAMES.get(moduleType);
+    }
+
+    /**
+     * File names by record layout, for tools that only see the binary records.
+     */
+    public static Map<RecordLayout, String> getFileNamesByLayout() {
+
+        Map<RecordLayout, String> names = new EnumMap<>(RecordLayout.class);
+
+        for (Map.Entry<SKSensorModuleType, String> entry : FILE_NAMES.entrySet()) {
+            RecordLayout layout = SensorDataExtractor.layoutFor(entry.getKey());
+            if (layout != null) {
+                names.put(layout, entry.getValue());
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Record layouts by file name, for tools that only see the recorded files.
+     */
+    public static Map<String, RecordLayout> getLayoutsByFileName() {
+
+        Map<String, RecordLayout> layouts = new HashMap<>();
+
+        for (Map.Entry<RecordLayout, String> entry : getFileNamesByLayout().entrySet()) {
+            layouts.put(entry.getValue(), entry.getKey());
+        }
+
+        return layouts;
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Regenerates the per-sensor CSV files of a session recorded as a session
+ * log, so that existing tooling keeps working.
+ */
+public final class SessionLogDemultiplexer {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SessionLogDemultiplexer";
+
+    public static final Map<RecordLayout, String> DEFAULT_FILE_NAMES;
+
+    static {
+        DEFAULT_FILE_NAMES = Collections.unmodifiableMap(SensorRegistry.getFileNamesByLayout());
+    }
+
+    private SessionLogDemultiplexer() {
+    }
+
+    public static long demultiplex(File logFolder, File outputFolder) throws IOException {
+        return demultiplex(logFolder, outputFolder, DEFAULT_FILE_NAMES);
+    }
+
+    /**
+     * Writes one CSV file per sensor found in the log.
+     *
+     * @return the number of records written
+     */
+    public static long demultiplex(File logFolder, File outputFolder, Map<RecordLayout, String> fileNames) throws IOException {
+
+        Map<RecordLayout, OutputStream> outputs = new EnumMap<>(RecordLayout.class);
+        Map<RecordLayout, CsvRecordEncoder> encoders = new EnumMap<>(RecordLayout.class);
+        byte[] line = new byte[0];
+        long count = 0;
+
+        SessionLogReader reader = new SessionLogReader(logFolder);
+        boolean completed = false;
+
+        try {
+            while (reader.readRecord()) {
+
+                RecordLayout layout = reader.getLayout();
+                OutputStream output = outputs.get(layout);
+
+                if (output == null) {
+
+                    String name = fileNames.get(layout);
+                    if (name == null) {
+                        name = layout.name();
+                    }
+
+                    output = new BufferedOutputStream(new FileOutputStream(new File(outputFolder, name + ".csv")));
+                    outputs.put(layout, output);
+
+                    CsvRecordEncoder encoder = new CsvRecordEncoder(layout);
+                    encoders.put(layout, encoder);
+                    if (line.length < encoder.getMaxRecordSize()) {
+                        line = new byte[encoder.getMaxRecordSize()];
+                    }
+                }
+
+                int length = encoders.get(layout).encode(reader.getTimestamp(), reader.getValues(), line, 0);
+                output.write(line, 0, length);
+                count++;
+            }
+
+            completed = true;
+        }
+        finally {
+            // Every stream is closed, a failed close is only thrown when it does not hide an earlier failure
+            IOException failure = null;
+
+            try {
+                reader.close();
+            }
+            catch (IOException ex) {
+                failure = ex;
+            }
+
+            for (OutputStream output : outputs.values()) {
+                failure = close(output, failure);
+            }
+
+            if (completed && failure != null) {
+                throw failure;
+            }
+        }
+
+        return count;
+    }
+
+    private static IOException close(OutputStream output, IOException failure) {
+
+        try {
+            output.close();
+        }
+        catch (IOException ex) {
+            return (failure != null) ? failure : ex;
+        }
+
+        return failure;
+    }
+
+}
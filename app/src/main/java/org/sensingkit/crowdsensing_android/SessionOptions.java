@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Per-session recording options. Setters return this so that options can be chained.
+ */
+public class SessionOptions {
+
+    private SessionProfile mProfile = SessionProfile.allSensors();
+
+    // Feature extraction (null to record the samples)
+    private FeatureConfig mFeatureConfig = null;
+
+    // Event-triggered recording (null to record continuously)
+    private TriggerConfig mTriggerConfig = null;
+
+    // Adaptive sampling
+    private boolean mAdaptiveSampling = false;
+
+    // Storage, writing, flush and batched delivery
+    private PipelineConfig mPipelineConfig = new PipelineConfig();
+
+    // Metrics dump (0 for no metrics.csv)
+    private long mMetricsIntervalMillis = 0;
+
+    // Fused stream (null for no Fused.csv)
+    private FusionConfig mFusionConfig = null;
+
+    // Upload of the session files (null to keep them local)
+    private UploadQueue mUploadQueue = null;
+
+    // Bluetooth proximity windows
+    private ProximityConfig mProximityConfig = new ProximityConfig();
+
+    // Location stream (the provider is null for the fused location provider)
+    private LocationConfig mLocationConfig = new LocationConfig();
+    private LocationProvider mLocationProvider = null;
+
+    // Time source of the start-up latency
+    private Clock mClock = Clock.ELAPSED_REALTIME;
+
+    public SessionProfile getProfile() {
+        return this.mProfile;
+    }
+
+    /**
+     * The sensors to record, all supported sensors except the opt-in ones by default.
+     */
+    public SessionOptions setProfile(SessionProfile profile) {
+        this.mProfile = profile;
+        return this;
+    }
+
+    public FeatureConfig getFeatureConfig() {
+        return this.mFeatureConfig;
+    }
+
+    /**
+     * Records one CSV row of window features per hop and sensor instead of
+     * the samples, or null (the default) to record the samples. Only
+     * supported with per-sensor files; the record format is ignored.
+     */
+    public SessionOptions setFeatureConfig(FeatureConfig featureConfig) {
+        this.mFeatureConfig = featureConfig;
+        return this;
+    }
+
+    public TriggerConfig getTriggerConfig() {
+        return this.mTriggerConfig;
+    }
+
+    /**
+     * Only records the data around trigger events, or null (the default) to
+     * record continuously.
+     */
+    public SessionOptions setTriggerConfig(TriggerConfig triggerConfig) {
+        this.mTriggerConfig = triggerConfig;
+        return this;
+    }
+
+    public boolean isAdaptiveSampling() {
+        return this.mAdaptiveSampling;
+    }
+
+    /**
+     * Suspends the gyroscope, magnetometer, rotation and audio level sensors
+     * while the accelerometer shows that the device is stationary. Requires
+     * the accelerometer in the profile.
+     */
+    public SessionOptions setAdaptiveSampling(boolean adaptiveSampling) {
+        this.mAdaptiveSampling = adaptiveSampling;
+        return this;
+    }
+
+    public PipelineConfig getPipelineConfig() {
+        return this.mPipelineConfig;
+    }
+
+    /**
+     * Storage mode, record format, file rotation, group flush, asynchronous
+     * writing and batched delivery of the session's files. A batched session
+     * buffers the samples and writes them in bulk every batch interval
+     * instead of keeping the device awake for the whole session.
+     */
+    public SessionOptions setPipelineConfig(PipelineConfig pipelineConfig) {
+        this.mPipelineConfig = pipelineConfig;
+        return this;
+    }
+
+    public long getMetricsIntervalMillis() {
+        return this.mMetricsIntervalMillis;
+    }
+
+    /**
+     * Appends the runtime metrics of every sensor to metrics.csv in the
+     * session folder at this interval while sensing. Use 0 (the default)
+     * to keep the metrics in memory only.
+     */
+    public SessionOptions setMetricsIntervalMillis(long metricsIntervalMillis) {
+        this.mMetricsIntervalMillis = metricsIntervalMillis;
+        return this;
+    }
+
+    public FusionConfig getFusionConfig() {
+        return this.mFusionConfig;
+    }
+
+    /**
+     * Also writes Fused.csv, the samples of all sensors with a record layout
+     * aligned to one timeline, or null (the default) for no fused stream.
+     * Sensors are fused after resampling and triggering, before feature
+     * extraction.
+     */
+    public SessionOptions setFusionConfig(FusionConfig fusionConfig) {
+        this.mFusionConfig = fusionConfig;
+        return this;
+    }
+
+    public UploadQueue getUploadQueue() {
+        return this.mUploadQueue;
+    }
+
+    /**
+     * Queues every chunk of the sensor files for upload once it is closed,
+     * and the remaining files of the session when it is closed, or null
+     * (the default) to keep the session local.
+     */
+    public SessionOptions setUploadQueue(UploadQueue uploadQueue) {
+        this.mUploadQueue = uploadQueue;
+        return this;
+    }
+
+    public ProximityConfig getProximityConfig() {
+        return this.mProximityConfig;
+    }
+
+    /**
+     * Window and device limit of the Bluetooth sensor, which records
+     * per-device RSSI statistics rather than every scan.
+     */
+    public SessionOptions setProximityConfig(ProximityConfig proximityConfig) {
+        this.mProximityConfig = proximityConfig;
+        return this;
+    }
+
+    public LocationConfig getLocationConfig() {
+        return this.mLocationConfig;
+    }
+
+    /**
+     * Interval, batching and quantization of the location sensor.
+     */
+    public SessionOptions setLocationConfig(LocationConfig locationConfig) {
+        this.mLocationConfig = locationConfig;
+        return this;
+    }
+
+    public LocationProvider getLocationProvider() {
+        return this.mLocationProvider;
+    }
+
+    /**
+     * Source of the location fixes, or null (the default) for the fused
+     * location provider of Google Play services.
+     */
+    public SessionOptions setLocationProvider(LocationProvider locationProvider) {
+        this.mLocationProvider = locationProvider;
+        return this;
+    }
+
+    public Clock getClock() {
+        return this.mClock;
+    }
+
+    /**
+     * Time source of the start-up latency, SystemClock.elapsedRealtime()
+     * by default. Start requests must be timed with the same clock.
+     */
+    public SessionOptions setClock(Clock clock) {
+        this.mClock = clock;
+        return this;
+    }
+
+
+}
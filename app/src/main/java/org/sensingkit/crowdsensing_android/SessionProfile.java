@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which sensors a session records and how. Sensors that are not enabled
+ * are neither registered nor started. Setters return this so that a
+ * profile can be chained.
+ */
+public class SessionProfile {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SessionProfile";
+
+    /**
+     * Recording configuration of one sensor.
+     */
+    public static class SensorConfig {
+
+        private final double mTargetRateHz;
+
+        public SensorConfig(double targetRateHz) {
+            this.mTargetRateHz = targetRateHz;
+        }
+
+        /**
+         * Rate the sensor is filtered and decimated down to; 0 records every sample.
+         */
+        public double getTargetRateHz() {
+            return this.mTargetRateHz;
+        }
+    }
+
+    private final Map<SKSensorModuleType, SensorConfig> mSensors = new EnumMap<>(SKSensorModuleType.class);
+
+    /**
+     * An empty profile, see {@link #allSensors()} for the default one.
+     */
+    public SessionProfile() {
+    }
+
+    /**
+     * A profile that records every supported sensor at its full rate, except
+     * the opt-in ones (see SensorRegistry.isOptIn), which need to be enabled.
+     */
+    public static SessionProfile allSensors() {
+
+        SessionProfile profile = new SessionProfile();
+
+        for (SKSensorModuleType moduleType : SensorRegistry.getDefaultSensors()) {
+            profile.enable(moduleType);
+        }
+
+        return profile;
+    }
+
+    public SessionProfile enable(SKSensorModuleType moduleType) {
+        return enable(moduleType, 0);
+    }
+
+    /**
+     * @param targetRateHz rate the sensor is recorded at after anti-alias filtering, or 0 for every sample
+     */
+    public SessionProfile enable(SKSensorModuleType moduleType, double targetRateHz) {
+
+        if (!SensorRegistry.isSupported(moduleType)) {
+            throw new IllegalArgumentException("Sensor " + moduleType + " is not supported.");
+        }
+
+        mSensors.put(moduleType, new SensorConfig(targetRateHz));
+        return this;
+    }
+
+    public SessionProfile disable(SKSensorModuleType moduleType) {
+        mSensors.remove(moduleType);
+        return this;
+    }
+
+    public boolean isEnabled(SKSensorModuleType moduleType) {
+        return mSensors.containsKey(moduleType);
+    }
+
+    /**
+     * @return the configuration of the given sensor, or null if it is not enabled
+     */
+    public SensorConfig getConfig(SKSensorModuleType moduleType) {
+        return mSensors.get(moduleType);
+    }
+
+    /**
+     * The enabled sensors, in SKSensorModuleType order.
+     */
+    public List<SKSensorModuleType> getEnabledSensors() {
+        return new ArrayList<>(mSensors.keySet());
+    }
+
+}
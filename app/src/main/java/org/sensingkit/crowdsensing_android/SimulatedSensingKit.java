@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import android.util.Log;
+
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKExceptionErrorCode;
+import org.sensingkit.sensingkitlib.SKSensorDataListener;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.SensingKitLibInterface;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Stands in for SensingKit off-device: every sensor is fed from a
+ * RecordReader, either synthetic streams at a given rate and jitter or the
+ * recorded files of a previous session, on a thread of its own. Samples are
+ * paced by their timestamps at the given speed (1 for real time, 10 for ten
+ * times faster), or delivered as fast as the listeners take them when the
+ * speed is UNPACED.
+ */
+public class SimulatedSensingKit implements SensingKitLibInterface {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SimulatedSensingKit";
+
+    public static final double UNPACED = Double.POSITIVE_INFINITY;
+
+    // Chunk files of a rotated recording, e.g. Accelerometer-00003.csv
+    private static final Pattern CHUNK_SUFFIX = Pattern.compile("-\\d{5}");
+
+    private final double mSpeed;
+    private final long mStartTimestamp = System.currentTimeMillis();
+
+    private final Map<SKSensorModuleType, Emitter> mEmitters = new EnumMap<>(SKSensorModuleType.class);
+    private final Set<SKSensorModuleType> mRegistered = EnumSet.noneOf(SKSensorModuleType.class);
+    private final Map<SKSensorModuleType, List<SKSensorDataListener>> mListeners = new EnumMap<>(SKSensorModuleType.class);
+
+    // Pacing origin, shared so that the sensors stay aligned (guarded by this)
+    private long mOriginTimestamp;
+    private long mOriginNanos;
+
+    /**
+     * @param speed how many times faster than real time to deliver the samples, or UNPACED
+     */
+    public SimulatedSensingKit(double speed) {
+        this.mSpeed = speed;
+    }
+
+    /**
+     * Simulates a sensor with the given nominal rate and jitter (standard
+     * deviation of the sample times), starting now and ending after the
+     * given span of timestamps.
+     */
+    public synchronized SimulatedSensingKit addSyntheticSensor(SKSensorModuleType moduleType, double rateHz,
+                                                               double jitterMillis, long durationMillis) {
+
+        RecordLayout layout = SensorDataExtractor.layoutFor(moduleType);
+        if (layout == null) {
+            throw new IllegalArgumentException("Sensor " + moduleType + " has no record layout.");
+        }
+
+        return addSensor(moduleType, new SyntheticRecordReader(layout, rateHz, jitterMillis,
+                mStartTimestamp, durationMillis, moduleType.ordinal()));
+    }
+
+    /**
+     * Simulates a sensor that delivers the records of the given reader.
+     */
+    public synchronized SimulatedSensingKit addSensor(SKSensorModuleType moduleType, RecordReader reader) {
+        mEmitters.put(moduleType, new Emitter(moduleType, reader));
+        return this;
+    }
+
+    /**
+     * Replays a recorded session folder: per-sensor files in any format,
+     * rotated or not, or the session log.
+     */
+    public static SimulatedSensingKit replay(File sessionFolder, double speed) throws IOException {
+
+        SimulatedSensingKit sensingKit = new SimulatedSensingKit(speed);
+        Map<RecordLayout, String> fileNames = SensorRegistry.getFileNamesByLayout();
+
+        if (SessionLogReader.listSegments(sessionFolder).length > 0) {
+
+            // One pass to find the sensors in the log
+            Set<RecordLayout> layouts = EnumSet.noneOf(RecordLayout.class);
+            SessionLogReader reader = new SessionLogReader(sessionFolder);
+            try {
+                while (reader.readRecord()) {
+                    layouts.add(reader.getLayout());
+                }
+            }
+            finally {
+                reader.close();
+            }
+
+            for (RecordLayout layout : layouts) {
+                sensingKit.addSensor(SKSensorModuleType.valueOf(layout.name()),
+                        RecordReaders.filter(new SessionLogReader(sessionFolder), layout));
+            }
+
+            return sensingKit;
+        }
+
+        for (Map.Entry<RecordLayout, String> entry : fileNames.entrySet()) {
+
+            List<File> files = listRecordings(sessionFolder, entry.getValue());
+            if (!files.isEmpty()) {
+                sensingKit.addSensor(SKSensorModuleType.valueOf(entry.getKey().name()),
+                        RecordReaders.concat(files, entry.getKey()));
+            }
+        }
+
+        if (sensingKit.mEmitters.isEmpty()) {
+            throw new IOException("No recordings found in " + sessionFolder + ".");
+        }
+
+        return sensingKit;
+    }
+
+    /**
+     * The recordings of one sensor in write order: a single file, or its chunks.
+     */
+    private static List<File> listRecordings(File sessionFolder, final String fileName) {
+
+        File[] files = sessionFolder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+
+                int dot = name.lastIndexOf('.');
+                if (dot < 0 || RecordReaders.formatOf(new File(dir, name)) == null) {
+                    return false;
+                }
+
+                String base = name.substring(0, dot);
+                return base.equals(fileName)
+                        || (base.startsWith(fileName) && CHUNK_SUFFIX.matcher(base.substring(fileName.length())).matches());
+            }
+        });
+
+        if (files == null) {
+            return new ArrayList<>();
+        }
+
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    public synchronized List<SKSensorModuleType> getSensors() {
+        return new ArrayList<>(mEmitters.keySet());
+    }
+
+    /**
+     * Samples delivered so far by the given sensor.
+     */
+    public synchronized long getDeliveredCount(SKSensorModuleType moduleType) {
+        Emitter emitter = mEmitters.get(moduleType);
+        return (emitter != null) ? emitter.mDelivered : 0;
+    }
+
+    /**
+     * Waits until every started sensor has delivered all of its samples.
+     *
+     * @return false if the timeout passed first
+     */
+    public boolean awaitCompletion(long timeoutMillis) throws InterruptedException {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        List<Thread> threads = new ArrayList<>();
+        synchronized (this) {
+            for (Emitter emitter : mEmitters.values()) {
+                if (emitter.mThread != null) {
+                    threads.add(emitter.mThread);
+                }
+            }
+        }
+
+        for (Thread thread : threads) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            thread.join(remaining);
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // --- SensingKitLibInterface
+
+    @Override
+    public synchronized void registerSensorModule(SKSensorModuleType moduleType) throws SKException {
+
+        if (!mEmitters.containsKey(moduleType)) {
+            throw new SKException(TAG, "Sensor " + moduleType + " is not simulated.", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        mRegistered.add(moduleType);
+    }
+
+    @Override
+    public synchronized void deregisterSensorModule(SKSensorModuleType moduleType) throws SKException {
+
+        if (isSensorModuleSensing(moduleType)) {
+            throw new SKException(TAG, "Sensor " + moduleType + " is still sensing.", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        mRegistered.remove(moduleType);
+        mListeners.remove(moduleType);
+    }
+
+    @Override
+    public synchronized boolean isSensorModuleRegistered(SKSensorModuleType moduleType) {
+        return mRegistered.contains(moduleType);
+    }
+
+    @Override
+    public synchronized void subscribeSensorDataListener(SKSensorModuleType moduleType, SKSensorDataListener listener) throws SKException {
+
+        checkRegistered(moduleType);
+
+        List<SKSensorDataListener> listeners = mListeners.get(moduleType);
+        if (listeners == null) {
+            listeners = new CopyOnWriteArrayList<>();
+            mListeners.put(moduleType, listeners);
+        }
+        listeners.add(listener);
+    }
+
+    @Override
+    public synchronized void unsubscribeSensorDataListener(SKSensorModuleType moduleType, SKSensorDataListener listener) throws SKException {
+
+        checkRegistered(moduleType);
+
+        List<SKSensorDataListener> listeners = mListeners.get(moduleType);
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    @Override
+    public synchronized void unsubscribeAllSensorDataListeners(SKSensorModuleType moduleType) throws SKException {
+        checkRegistered(moduleType);
+        mListeners.remove(moduleType);
+    }
+
+    @Override
+    public synchronized void startContinuousSensingWithSensor(SKSensorModuleType moduleType) throws SKException {
+
+        checkRegistered(moduleType);
+
+        Emitter emitter = mEmitters.get(moduleType);
+        if (emitter.mThread != null) {
+            return;
+        }
+
+        // The first sensor to start sets the origin of the pacing
+        if (!isAnySensing()) {
+            mOriginNanos = System.nanoTime();
+            mOriginTimestamp = Long.MAX_VALUE;
+        }
+
+        emitter.start();
+    }
+
+    @Override
+    public void stopContinuousSensingWithSensor(SKSensorModuleType moduleType) throws SKException {
+
+        Thread thread;
+        synchronized (this) {
+            checkRegistered(moduleType);
+            thread = mEmitters.get(moduleType).stop();
+        }
+
+        if (thread == null) {
+            return;
+        }
+
+        thread.interrupt();
+        try {
+            thread.join();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized boolean isSensorModuleSensing(SKSensorModuleType moduleType) {
+        Emitter emitter = mEmitters.get(moduleType);
+        return emitter != null && emitter.mThread != null;
+    }
+
+    private boolean isAnySensing() {
+
+        for (Emitter emitter : mEmitters.values()) {
+            if (emitter.mThread != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void checkRegistered(SKSensorModuleType moduleType) throws SKException {
+
+        if (!mRegistered.contains(moduleType)) {
+            throw new SKException(TAG, "Sensor " + moduleType + " is not registered.", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+    }
+
+    /**
+     * Nanos (on System.nanoTime()) at which a sample with the given timestamp is due.
+     */
+    private synchronized long dueNanos(long timestamp) {
+
+        // The earliest sample after a start is the origin of its timestamps
+        if (timestamp < mOriginTimestamp) {
+            mOriginTimestamp = timestamp;
+        }
+
+        return mOriginNanos + (long) (TimeUnit.MILLISECONDS.toNanos(timestamp - mOriginTimestamp) / mSpeed);
+    }
+
+    private List<SKSensorDataListener> getListeners(SKSensorModuleType moduleType) {
+
+        synchronized (this) {
+            List<SKSensorDataListener> listeners = mListeners.get(moduleType);
+            return (listeners != null) ? listeners : new ArrayList<SKSensorDataListener>();
+        }
+    }
+
+    /**
+     * Delivers the records of one sensor on a thread of its own. A record
+     * read but not delivered before a stop is delivered after the next start.
+     */
+    private class Emitter implements Runnable {
+
+        private final SKSensorModuleType mModuleType;
+        private final RecordReader mReader;
+
+        // Guarded by the SimulatedSensingKit
+        private Thread mThread;
+
+        // Only touched by the emitting thread
+        private boolean mPending;
+        private boolean mFinished;
+
+        private volatile long mDelivered;
+
+        Emitter(SKSensorModuleType moduleType, RecordReader reader) {
+            this.mModuleType = moduleType;
+            this.mReader = reader;
+        }
+
+        void start() {
+            mThread = new Thread(this, "Simulated-" + mModuleType);
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+
+        Thread stop() {
+            Thread thread = mThread;
+            mThread = null;
+            return thread;
+        }
+
+        @Override
+        public void run() {
+
+            boolean paced = !Double.isInfinite(mSpeed);
+
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+
+                    if (!mPending) {
+                        if (mFinished || !mReader.readRecord()) {
+                            mFinished = true;
+                            mReader.close();
+                            return;
+                        }
+                        mPending = true;
+                    }
+
+                    long timestamp = mReader.getTimestamp();
+
+                    if (paced) {
+                        long delay = dueNanos(timestamp) - System.nanoTime();
+                        if (delay > 0) {
+                            TimeUnit.NANOSECONDS.sleep(delay);
+                        }
+                    }
+
+                    SKSensorData data = SensorDataExtractor.create(mModuleType, timestamp, mReader.getValues());
+                    for (SKSensorDataListener listener : getListeners(mModuleType)) {
+                        listener.onDataReceived(mModuleType, data);
+                    }
+
+                    mPending = false;
+                    mDelivered++;
+                }
+            }
+            catch (InterruptedException ex) {
+                // Stopped
+            }
+            catch (IOException ex) {
+                Log.e(TAG, "Replay of " + mModuleType + " failed: " + ex.getMessage());
+                mFinished = true;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How long a session took to come up: from the start request (e.g. the
+ * tap on the start button) until all sensors were started, and until the
+ * first sample of each sensor arrived. All times come from the session's
+ * clock, SystemClock.elapsedRealtime() unless the options name another.
+ */
+public class StartupLatency {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "StartupLatency";
+
+    private final Clock mClock;
+    private final long mRequestTime;
+    private final List<SKSensorModuleType> mSensors;
+    private long mReadyTime = -1;
+    private final Map<SKSensorModuleType, Long> mFirstSampleTimes = new EnumMap<>(SKSensorModuleType.class);
+
+    public StartupLatency(Clock clock, long requestTime, List<SKSensorModuleType> sensors) {
+        this.mClock = clock;
+        this.mRequestTime = requestTime;
+        this.mSensors = sensors;
+    }
+
+    public long getRequestTime() {
+        return this.mRequestTime;
+    }
+
+    synchronized void markReady() {
+        mReadyTime = mClock.now();
+    }
+
+    synchronized void markFirstSample(SKSensorModuleType moduleType) {
+
+        if (!mFirstSampleTimes.containsKey(moduleType)) {
+            mFirstSampleTimes.put(moduleType, mClock.now());
+        }
+    }
+
+    /**
+     * @return milliseconds from the request until all sensors were started, or -1 if not yet ready
+     */
+    public synchronized long getReadyLatencyMillis() {
+        return (mReadyTime < 0) ? -1 : mReadyTime - mRequestTime;
+    }
+
+    /**
+     * @return milliseconds from the request until the first sample of the sensor, or -1 if none arrived yet
+     */
+    public synchronized long getFirstSampleLatencyMillis(SKSensorModuleType moduleType) {
+
+        Long time = mFirstSampleTimes.get(moduleType);
+        return (time == null) ? -1 : time - mRequestTime;
+    }
+
+    /**
+     * First sample latency in milliseconds of every sensor that delivered a sample.
+     */
+    public synchronized Map<SKSensorModuleType, Long> getFirstSampleLatencies() {
+
+        Map<SKSensorModuleType, Long> latencies = new EnumMap<>(SKSensorModuleType.class);
+
+        for (Map.Entry<SKSensorModuleType, Long> entry : mFirstSampleTimes.entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue() - mRequestTime);
+        }
+
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * Whether every sensor of the session has delivered its first sample.
+     */
+    public synchronized boolean isComplete() {
+        return mFirstSampleTimes.keySet().containsAll(mSensors);
+    }
+
+    @Override
+    public synchronized String toString() {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "ready after %d ms", getReadyLatencyMillis()));
+
+        for (SKSensorModuleType moduleType : mSensors) {
+            builder.append(String.format(Locale.US, ", %s %d ms", moduleType, getFirstSampleLatencyMillis(moduleType)));
+        }
+
+        return builder.toString();
+    }
+
+}
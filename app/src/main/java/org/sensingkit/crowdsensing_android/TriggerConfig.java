@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Settings of the event-triggered recording mode: which sensors fire a
+ * trigger and at what threshold, and how much data around each event is
+ * kept. Setters return this so that a configuration can be chained.
+ */
+public class TriggerConfig {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "TriggerConfig";
+
+    public static final long DEFAULT_PRE_ROLL_MILLIS = 5000;
+    public static final long DEFAULT_POST_ROLL_MILLIS = 10000;
+    public static final int DEFAULT_BUFFER_CAPACITY = 4096;
+
+    private final Map<SKSensorModuleType, Double> mThresholds = new EnumMap<>(SKSensorModuleType.class);
+    private long mPreRollMillis = DEFAULT_PRE_ROLL_MILLIS;
+    private long mPostRollMillis = DEFAULT_POST_ROLL_MILLIS;
+    private int mBufferCapacity = DEFAULT_BUFFER_CAPACITY;
+
+    /**
+     * Fires a trigger when the magnitude of a sample of the sensor (its
+     * first three fields, e.g. the acceleration vector, or the audio level)
+     * exceeds the threshold.
+     */
+    public TriggerConfig addTrigger(SKSensorModuleType moduleType, double threshold) {
+        mThresholds.put(moduleType, threshold);
+        return this;
+    }
+
+    public Map<SKSensorModuleType, Double> getThresholds() {
+        return Collections.unmodifiableMap(mThresholds);
+    }
+
+    /**
+     * @return the trigger threshold of the sensor, or NaN if it does not fire triggers
+     */
+    public double getThreshold(SKSensorModuleType moduleType) {
+        Double threshold = mThresholds.get(moduleType);
+        return (threshold != null) ? threshold : Double.NaN;
+    }
+
+    public long getPreRollMillis() {
+        return this.mPreRollMillis;
+    }
+
+    /**
+     * Data kept from before each event.
+     */
+    public TriggerConfig setPreRollMillis(long preRollMillis) {
+        this.mPreRollMillis = preRollMillis;
+        return this;
+    }
+
+    public long getPostRollMillis() {
+        return this.mPostRollMillis;
+    }
+
+    /**
+     * Data kept from after each event.
+     */
+    public TriggerConfig setPostRollMillis(long postRollMillis) {
+        this.mPostRollMillis = postRollMillis;
+        return this;
+    }
+
+    public int getBufferCapacity() {
+        return this.mBufferCapacity;
+    }
+
+    /**
+     * Samples held in memory per sensor while no event is being captured.
+     * Must cover the pre-roll at the sensor's (resampled) rate.
+     */
+    public TriggerConfig setBufferCapacity(int bufferCapacity) {
+        this.mBufferCapacity = bufferCapacity;
+        return this;
+    }
+
+}
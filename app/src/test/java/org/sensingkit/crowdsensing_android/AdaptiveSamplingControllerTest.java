@@ -0,0 +1,218 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sensingkit.sensingkitlib.SKSensorDataListener;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.SensingKitLibInterface;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a synthetic accelerometer trace (still, walking, still, walking)
+ * through the controller, with sensor start/stop running inline.
+ */
+public class AdaptiveSamplingControllerTest {
+
+    private static final long SAMPLE_MILLIS = 10;
+
+    // Motion may be detected this long after it starts
+    private static final long RESUME_BOUND_MILLIS = 500;
+
+    private static final List<SKSensorModuleType> ADAPTIVE = Arrays.asList(
+            SKSensorModuleType.GYROSCOPE, SKSensorModuleType.MAGNETOMETER);
+
+    private static final Executor INLINE = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    /**
+     * Only tracks which sensors are sensing.
+     */
+    private static class SwitchingSensingKit implements SensingKitLibInterface {
+
+        final Set<SKSensorModuleType> mSensing = EnumSet.noneOf(SKSensorModuleType.class);
+        int mSwitches;
+
+        @Override
+        public void registerSensorModule(SKSensorModuleType moduleType) {
+        }
+
+        @Override
+        public void deregisterSensorModule(SKSensorModuleType moduleType) {
+        }
+
+        @Override
+        public boolean isSensorModuleRegistered(SKSensorModuleType moduleType) {
+            return true;
+        }
+
+        @Override
+        public void subscribeSensorDataListener(SKSensorModuleType moduleType, SKSensorDataListener listener) {
+        }
+
+        @Override
+        public void unsubscribeSensorDataListener(SKSensorModuleType moduleType, SKSensorDataListener listener) {
+        }
+
+        @Override
+        public void unsubscribeAllSensorDataListeners(SKSensorModuleType moduleType) {
+        }
+
+        @Override
+        public void startContinuousSensingWithSensor(SKSensorModuleType moduleType) {
+            mSensing.add(moduleType);
+            mSwitches++;
+        }
+
+        @Override
+        public void stopContinuousSensingWithSensor(SKSensorModuleType moduleType) {
+            mSensing.remove(moduleType);
+            mSwitches++;
+        }
+
+        @Override
+        public boolean isSensorModuleSensing(SKSensorModuleType moduleType) {
+            return mSensing.contains(moduleType);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void suspendsWhenStillAndResumesWithinBound() throws Exception {
+
+        List<String[]> markers = replay();
+
+        assertEquals(4, markers.size());
+
+        assertMarker(markers.get(0), AdaptiveSamplingController.MARKER_SUSPENDED, 5000, 8000);
+        assertMarker(markers.get(1), AdaptiveSamplingController.MARKER_RESUMED, 20000, 20000 + RESUME_BOUND_MILLIS);
+        assertMarker(markers.get(2), AdaptiveSamplingController.MARKER_SUSPENDED, 45000, 48000);
+        assertMarker(markers.get(3), AdaptiveSamplingController.MARKER_RESUMED, 60000, 60000 + RESUME_BOUND_MILLIS);
+
+        assertEquals("GYROSCOPE;MAGNETOMETER", markers.get(0)[2]);
+    }
+
+    @Test
+    public void replayIsDeterministic() throws Exception {
+
+        List<String[]> first = replay();
+        assertTrue(new File(mFolder, MarkerWriter.FILE_NAME).delete());
+        List<String[]> second = replay();
+
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertTrue(Arrays.equals(first.get(i), second.get(i)));
+        }
+    }
+
+    @Test
+    public void inactiveControllerLeavesSensorsAlone() throws Exception {
+
+        SwitchingSensingKit sensingKit = new SwitchingSensingKit();
+        MarkerWriter markers = new MarkerWriter(mFolder);
+        AdaptiveSamplingController controller = new AdaptiveSamplingController(sensingKit, ADAPTIVE,
+                new MotionClassifier(), markers, INLINE);
+
+        // Never activated
+        for (long t = 0; t < 20000; t += SAMPLE_MILLIS) {
+            controller.onAcceleration(t, 0f, 0f, 9.81f);
+        }
+
+        assertEquals(0, sensingKit.mSwitches);
+        assertFalse(controller.isSuspended());
+        assertEquals(0, markers.getCount());
+        markers.close();
+    }
+
+    /**
+     * Still 0-20 s, walking 20-40 s, still 40-60 s, walking 60-70 s.
+     *
+     * @return the markers as {timestamp, marker, detail}
+     */
+    private List<String[]> replay() throws Exception {
+
+        SwitchingSensingKit sensingKit = new SwitchingSensingKit();
+        sensingKit.mSensing.addAll(ADAPTIVE);
+
+        MarkerWriter markers = new MarkerWriter(mFolder);
+        AdaptiveSamplingController controller = new AdaptiveSamplingController(sensingKit, ADAPTIVE,
+                new MotionClassifier(), markers, INLINE);
+        controller.activate();
+
+        Random random = new Random(42);
+
+        for (long t = 0; t < 70000; t += SAMPLE_MILLIS) {
+
+            boolean walking = (t >= 20000 && t < 40000) || t >= 60000;
+            double step = walking ? 2.0 * Math.sin(2 * Math.PI * 2 * t / 1000.0) : 0;
+
+            float x = (float) (0.02 * random.nextGaussian());
+            float y = (float) (0.02 * random.nextGaussian() + 0.5 * step);
+            float z = (float) (9.81 + 0.02 * random.nextGaussian() + step);
+
+            controller.onAcceleration(t, x, y, z);
+
+            // The adaptive sensors only run while moving
+            boolean suspended = controller.isSuspended();
+            for (SKSensorModuleType moduleType : ADAPTIVE) {
+                assertEquals(!suspended, sensingKit.isSensorModuleSensing(moduleType));
+            }
+        }
+
+        controller.deactivate();
+        assertEquals(4, controller.getTransitionCount());
+        markers.close();
+
+        return readMarkers();
+    }
+
+    private List<String[]> readMarkers() throws Exception {
+
+        List<String[]> markers = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(new File(mFolder, MarkerWriter.FILE_NAME)));
+
+        assertEquals("timestamp,marker,detail", reader.readLine());
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            markers.add(line.split(","));
+        }
+        reader.close();
+
+        return markers;
+    }
+
+    private static void assertMarker(String[] marker, String name, long from, long to) {
+
+        long timestamp = Long.parseLong(marker[0]);
+        assertEquals(name, marker[1]);
+        assertTrue(name + " at " + timestamp, timestamp >= from && timestamp <= to);
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates an hour of a 200 Hz sensor on a fake clock, with the samples
+ * buffered in a ring buffer and drained by scheduled wake-ups.
+ */
+public class BatchedDeliveryTest {
+
+    private static final long INTERVAL_MILLIS = 30000;
+    private static final long SAMPLE_MILLIS = 5;
+    private static final long HOUR_MILLIS = 3600000;
+
+    private static class FakeClock implements Clock {
+
+        long time;
+
+        @Override
+        public long now() {
+            return time;
+        }
+    }
+
+    private static class FakeScheduler implements BatchedDelivery.Scheduler {
+
+        long wakeTime = -1;
+        int cancelCount;
+
+        @Override
+        public void schedule(long time) {
+            wakeTime = time;
+        }
+
+        @Override
+        public void cancel() {
+            wakeTime = -1;
+            cancelCount++;
+        }
+    }
+
+    private static class FakeWakeLock implements BatchedDelivery.WakeLock {
+
+        boolean held;
+        int acquireCount;
+
+        @Override
+        public void acquire() {
+            assertFalse(held);
+            held = true;
+            acquireCount++;
+        }
+
+        @Override
+        public void release() {
+            assertTrue(held);
+            held = false;
+        }
+    }
+
+    /**
+     * Checks that every sample is written in order while the wake lock is held.
+     */
+    private class WakeLockedSink implements RecordSink {
+
+        long count;
+        long lastTimestamp = -1;
+
+        @Override
+        public void writeRecord(long timestamp, float[] values) {
+            assertTrue(mWakeLock.held);
+            assertTrue(timestamp > lastTimestamp);
+            lastTimestamp = timestamp;
+            count++;
+        }
+    }
+
+    private FakeClock mClock;
+    private FakeScheduler mScheduler;
+    private FakeWakeLock mWakeLock;
+    private WakeLockedSink mSink;
+    private AsyncRecordWriter mWriter;
+    private SampleRingBuffer mRingBuffer;
+    private BatchedDelivery mDelivery;
+
+    private final float[] mValues = new float[3];
+
+    @Before
+    public void setUp() {
+
+        mClock = new FakeClock();
+        mScheduler = new FakeScheduler();
+        mWakeLock = new FakeWakeLock();
+        mSink = new WakeLockedSink();
+
+        // No writer thread, the buffer is only drained on wake-ups
+        mWriter = new AsyncRecordWriter(PipelineConfig.DEFAULT_DRAIN_INTERVAL_MILLIS);
+        mRingBuffer = mWriter.addChannel(mSink, mValues.length, 8192, OverflowPolicy.DROP_OLDEST);
+
+        BatchedDelivery.Source source = new BatchedDelivery.Source() {
+            @Override
+            public long drain() {
+                return mWriter.drainNow();
+            }
+        };
+
+        mDelivery = new BatchedDelivery(mClock, mScheduler, mWakeLock, source, INTERVAL_MILLIS);
+    }
+
+    /**
+     * Produces one sample every SAMPLE_MILLIS until the end time, delivering
+     * alarms the given delay after their scheduled time.
+     */
+    private void run(long endTime, long alarmDelayMillis) {
+
+        while (mClock.time < endTime) {
+
+            mClock.time += SAMPLE_MILLIS;
+            mRingBuffer.offer(mClock.time, mValues);
+
+            if (mScheduler.wakeTime >= 0 && mClock.time >= mScheduler.wakeTime + alarmDelayMillis) {
+                mDelivery.onWake();
+            }
+        }
+    }
+
+    @Test
+    public void hourAtTwoHundredHz() {
+
+        mDelivery.start();
+        assertEquals(INTERVAL_MILLIS, mScheduler.wakeTime);
+
+        run(HOUR_MILLIS, 0);
+
+        assertEquals(120, mDelivery.getWakeUpCount());
+        assertEquals(120.0, mDelivery.getWakeUpsPerHour(), 1e-9);
+        assertEquals(6000.0, mDelivery.getSamplesPerWakeUp(), 1e-9);
+        assertEquals(6000, mDelivery.getMaxSamplesPerWakeUp());
+
+        // Every sample made it to the sink, none dropped in the buffer
+        assertEquals(HOUR_MILLIS / SAMPLE_MILLIS, mSink.count);
+        assertEquals(0, mRingBuffer.getDroppedCount());
+
+        // The wake lock was only held during the drains
+        assertFalse(mWakeLock.held);
+        assertEquals(120, mWakeLock.acquireCount);
+    }
+
+    @Test
+    public void lateAlarmsKeepTheCadence() {
+
+        mDelivery.start();
+
+        run(10 * INTERVAL_MILLIS + 2000, 2000);
+
+        assertEquals(10, mDelivery.getWakeUpCount());
+        assertEquals(11 * INTERVAL_MILLIS, mScheduler.wakeTime);
+        assertEquals(10 * INTERVAL_MILLIS / SAMPLE_MILLIS + 400, mSink.count);
+    }
+
+    @Test
+    public void missedIntervalReschedulesFromNow() {
+
+        mDelivery.start();
+
+        // The first alarm fires after two and a half intervals
+        long lateTime = INTERVAL_MILLIS * 5 / 2;
+        run(lateTime, lateTime - INTERVAL_MILLIS);
+
+        assertEquals(1, mDelivery.getWakeUpCount());
+        assertEquals(lateTime + INTERVAL_MILLIS, mScheduler.wakeTime);
+
+        // More than the buffer holds: the oldest samples were dropped
+        assertEquals(8192, mSink.count);
+        assertEquals(lateTime / SAMPLE_MILLIS - 8192, mRingBuffer.getDroppedCount());
+    }
+
+    @Test
+    public void stopDrainsTheRemainder() {
+
+        mDelivery.start();
+
+        run(INTERVAL_MILLIS + 10000, 0);
+        assertEquals(INTERVAL_MILLIS / SAMPLE_MILLIS, mSink.count);
+
+        mDelivery.stop();
+
+        assertFalse(mDelivery.isRunning());
+        assertEquals(1, mScheduler.cancelCount);
+        assertEquals(-1, mScheduler.wakeTime);
+        assertEquals((INTERVAL_MILLIS + 10000) / SAMPLE_MILLIS, mSink.count);
+        assertEquals(2, mDelivery.getWakeUpCount());
+        assertFalse(mWakeLock.held);
+
+        // A pending alarm after the stop is ignored
+        mDelivery.onWake();
+        assertEquals(2, mDelivery.getWakeUpCount());
+    }
+
+}
@@ -0,0 +1,196 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CheckpointRecoveryTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void truncatesFilesToLastCheckpoint() throws Exception {
+
+        ModelWriter accelerometer = new ModelWriter(SKSensorModuleType.ACCELEROMETER, mFolder, "Accelerometer");
+        ModelWriter audio = new ModelWriter(SKSensorModuleType.AUDIO_LEVEL, mFolder, "Audio", RecordFormat.BINARY);
+
+        GroupFlusher flusher = new GroupFlusher(new Checkpoint(mFolder), 60000, Long.MAX_VALUE);
+        flusher.addWriter(accelerometer);
+        flusher.addWriter(audio);
+        flusher.flush(Checkpoint.State.OPEN);
+
+        write(accelerometer, audio, 0, 100);
+        flusher.flush(Checkpoint.State.OPEN);
+
+        File csv = new File(mFolder, "Accelerometer.csv");
+        File bin = new File(mFolder, "Audio.bin");
+        long csvLength = csv.length();
+        long binLength = bin.length();
+
+        // Written and pushed to the OS, but never checkpointed
+        write(accelerometer, audio, 100, 50);
+        accelerometer.flush();
+        audio.flush();
+        assertTrue(csv.length() > csvLength);
+
+        CheckpointRecovery.Report report = CheckpointRecovery.recover(mFolder);
+
+        assertEquals(csvLength, csv.length());
+        assertEquals(binLength, bin.length());
+        assertEquals(50L * RecordLayout.AUDIO_LEVEL.getRecordSize(), (long) report.getLostBytes().get("Audio.bin"));
+        assertTrue(report.getTotalLostBytes() > 50L * RecordLayout.AUDIO_LEVEL.getRecordSize());
+
+        // Recovered only once
+        assertNull(CheckpointRecovery.recover(mFolder));
+        assertEquals(Checkpoint.State.RECOVERED, Checkpoint.read(mFolder).getState());
+
+        accelerometer.close();
+        audio.close();
+    }
+
+    @Test
+    public void sessionIsOpenUntilItsFinalCheckpoint() throws Exception {
+
+        SimulatedSensingKit sensingKit = new SimulatedSensingKit(SimulatedSensingKit.UNPACED)
+                .addSyntheticSensor(SKSensorModuleType.ACCELEROMETER, 100, 0, 1000);
+        SessionOptions options = new SessionOptions()
+                .setProfile(new SessionProfile().enable(SKSensorModuleType.ACCELEROMETER))
+                .setPipelineConfig(new PipelineConfig().setFlushIntervalMillis(0));
+
+        SensingSession session = new SensingSession(sensingKit, mFolder, options);
+        assertTrue(SensingSession.isOpen(mFolder));
+        assertEquals(Checkpoint.State.OPEN, Checkpoint.read(mFolder).getState());
+
+        // Until then a new service must not recover it
+        session.close();
+        assertFalse(SensingSession.isOpen(mFolder));
+        assertNull(CheckpointRecovery.recover(mFolder));
+    }
+
+    @Test
+    public void sessionThatFailsToOpenIsReleased() throws Exception {
+
+        SimulatedSensingKit sensingKit = new SimulatedSensingKit(SimulatedSensingKit.UNPACED)
+                .addSyntheticSensor(SKSensorModuleType.GYROSCOPE, 100, 0, 1000);
+
+        // Fails once the gyroscope is registered, adaptive sampling needs the accelerometer
+        SessionOptions options = new SessionOptions()
+                .setProfile(new SessionProfile().enable(SKSensorModuleType.GYROSCOPE))
+                .setAdaptiveSampling(true);
+
+        try {
+            new SensingSession(sensingKit, mFolder, options);
+            fail("Adaptive sampling needs the accelerometer");
+        }
+        catch (SKException ex) {
+            // Expected
+        }
+
+        assertFalse(SensingSession.isOpen(mFolder));
+        assertFalse(sensingKit.isSensorModuleRegistered(SKSensorModuleType.GYROSCOPE));
+        assertEquals(Checkpoint.State.CLOSED, Checkpoint.read(mFolder).getState());
+    }
+
+    @Test
+    public void deletesSegmentsCreatedAfterCheckpoint() throws Exception {
+
+        SessionLogWriter log = new SessionLogWriter(mFolder, 1024);
+        GroupFlusher flusher = new GroupFlusher(new Checkpoint(mFolder), 60000, Long.MAX_VALUE);
+        flusher.addWriter(log);
+
+        float[] values = {1f, 2f, 3f};
+        for (int i = 0; i < 100; i++) {
+            log.append(RecordLayout.GYROSCOPE, i, values);
+        }
+        flusher.flush(Checkpoint.State.OPEN);
+        int checkpointedSegments = log.getSegmentCount();
+
+        for (int i = 100; i < 300; i++) {
+            log.append(RecordLayout.GYROSCOPE, i, values);
+        }
+        log.flush();
+        assertTrue(log.getSegmentCount() > checkpointedSegments);
+
+        CheckpointRecovery.recover(mFolder);
+
+        assertEquals(checkpointedSegments, SessionLogReader.listSegments(mFolder).length);
+
+        SessionLogReader reader = new SessionLogReader(mFolder);
+        int count = 0;
+        while (reader.readRecord()) {
+            assertEquals(count, reader.getTimestamp());
+            count++;
+        }
+        reader.close();
+        assertEquals(100, count);
+
+        log.close();
+    }
+
+    @Test
+    public void leavesClosedSessionsAlone() throws Exception {
+
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.GRAVITY, mFolder, "Gravity");
+        GroupFlusher flusher = new GroupFlusher(new Checkpoint(mFolder), 60000, Long.MAX_VALUE);
+        flusher.addWriter(writer);
+
+        write(writer, null, 0, 10);
+        flusher.flush(Checkpoint.State.CLOSED);
+        writer.close();
+
+        long length = new File(mFolder, "Gravity.csv").length();
+        assertNull(CheckpointRecovery.recover(mFolder));
+        assertEquals(length, new File(mFolder, "Gravity.csv").length());
+        assertEquals(Checkpoint.State.CLOSED, Checkpoint.read(mFolder).getState());
+    }
+
+    @Test(timeout = 10000)
+    public void flushesWhenThresholdIsReached() throws Exception {
+
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.GRAVITY, mFolder, "Gravity");
+        GroupFlusher flusher = new GroupFlusher(new Checkpoint(mFolder), 60000, 1024);
+        flusher.addWriter(writer);
+        flusher.start();
+
+        write(writer, null, 0, 100);
+        while (flusher.getFlushCount() == 0) {
+            Thread.sleep(10);
+        }
+        flusher.stop();
+
+        assertEquals(0L, flusher.getFailureCount());
+        assertFalse(Checkpoint.read(mFolder).getLengths().isEmpty());
+        writer.close();
+    }
+
+    private static void write(ModelWriter first, ModelWriter second, int from, int count) {
+
+        float[] values = {0.1f, 0.2f, 9.81f};
+        for (int i = from; i < from + count; i++) {
+            first.writeRecord(1000L + i, values);
+            if (second != null) {
+                second.writeRecord(1000L + i, new float[]{i});
+            }
+        }
+    }
+
+}
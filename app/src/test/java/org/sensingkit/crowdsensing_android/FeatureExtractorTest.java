@@ -0,0 +1,176 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FeatureExtractorTest {
+
+    private static final int WINDOW = 128;
+    private static final int HOP = 64;
+    private static final int BANDS = 4;
+
+    // Features per channel
+    private static final int STRIDE = FeatureExtractor.STAT_NAMES.length + BANDS;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void emitsOneRowPerHop() {
+
+        List<float[]> rows = new ArrayList<>();
+        List<Long> timestamps = new ArrayList<>();
+        FeatureExtractor extractor = collect(1, rows, timestamps);
+
+        for (int i = 0; i < 1000; i++) {
+            extractor.writeRecord(i, new float[]{i});
+        }
+
+        assertEquals((1000 - WINDOW) / HOP + 1, rows.size());
+        assertEquals(WINDOW - 1, (long) timestamps.get(0));
+        assertEquals(WINDOW - 1 + HOP, (long) timestamps.get(1));
+    }
+
+    @Test
+    public void computesStatistics() {
+
+        List<float[]> rows = new ArrayList<>();
+        FeatureExtractor extractor = collect(3, rows, new ArrayList<Long>());
+
+        // Square wave of +-1 around 2 on x, constant y and z (magnitude 5 with x = 0)
+        for (int i = 0; i < WINDOW; i++) {
+            extractor.writeRecord(i, new float[]{(i / 8) % 2 == 0 ? 3f : 1f, 3f, 4f});
+        }
+
+        float[] row = rows.get(0);
+        assertEquals(2f, row[0], 1e-6);
+        assertEquals(1f, row[1], 1e-6);
+        assertEquals(1f, row[2], 0);
+        assertEquals(3f, row[3], 0);
+        assertEquals(WINDOW / 8 - 1, row[4], 0);
+
+        // Constant channel: no variance, no crossings, no band energy
+        assertEquals(3f, row[STRIDE], 0);
+        assertEquals(0f, row[STRIDE + 1], 1e-6);
+        assertEquals(0f, row[STRIDE + 4], 0);
+        for (int b = 0; b < BANDS; b++) {
+            assertEquals(0f, row[STRIDE + 5 + b], 1e-6);
+        }
+
+        // Mean of sqrt(9 + 9 + 16) and sqrt(1 + 9 + 16)
+        double magnitude = (Math.sqrt(34) + Math.sqrt(26)) / 2;
+        assertEquals(magnitude, row[3 * STRIDE], 1e-5);
+    }
+
+    @Test
+    public void bandEnergiesFollowTheSineFrequency() {
+
+        // Bins of a 128-point FFT: 64 bins in 4 bands of 16, band b covers bins 1 + 16b to 16 + 16b
+        for (int band = 0; band < BANDS; band++) {
+
+            int bin = 8 + 16 * band;
+
+            List<float[]> rows = new ArrayList<>();
+            FeatureExtractor extractor = collect(1, rows, new ArrayList<Long>());
+
+            for (int i = 0; i < WINDOW; i++) {
+                extractor.writeRecord(i, new float[]{(float) Math.sin(2 * Math.PI * bin * i / WINDOW)});
+            }
+
+            float[] row = rows.get(0);
+            float total = 0;
+            for (int b = 0; b < BANDS; b++) {
+                total += row[5 + b];
+            }
+
+            assertTrue("band " + band, row[5 + band] > 0.99 * total);
+
+            // Parseval over the positive bins: half of sum (x w)^2, with mean
+            // square 1/2 for the sine and 3/8 for the Hann window
+            double expected = 0.5 * WINDOW * 0.5 * 0.375;
+            assertEquals(expected, total, expected * 0.02);
+        }
+    }
+
+    @Test
+    public void doesNotAllocatePerWindow() {
+
+        FeatureExtractor extractor = new FeatureExtractor(3, new FeatureConfig(WINDOW, HOP, BANDS), new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+            }
+        });
+        float[] values = new float[3];
+
+        feed(extractor, values, 0, 10000);
+        long before = allocatedBytes();
+        feed(extractor, values, 10000, 100000);
+        long allocated = allocatedBytes() - before;
+
+        assertTrue("Allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    @Test
+    public void modelWriterWritesFeatureRows() throws Exception {
+
+        File folder = mTemporaryFolder.newFolder();
+
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.GYROSCOPE, folder, "GyroscopeFeatures",
+                RecordFormat.BINARY, new FeatureConfig(WINDOW, HOP, BANDS), null, 0, 0);
+        feed(writer, new float[3], 0, 1000);
+        writer.close();
+
+        File file = new File(folder, "GyroscopeFeatures.csv");
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String header = reader.readLine();
+        List<String> lines = new ArrayList<>();
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lines.add(line);
+        }
+        reader.close();
+
+        assertTrue(header, header.startsWith("timestamp,x_mean,x_variance,x_min,x_max,x_zeroCrossings,x_band0,"));
+        assertTrue(header, header.endsWith(",z_band3,magnitude"));
+        assertEquals((1000 - WINDOW) / HOP + 1, lines.size());
+        assertEquals(header.split(",").length, lines.get(0).split(",").length);
+    }
+
+    private static FeatureExtractor collect(int channels, final List<float[]> rows, final List<Long> timestamps) {
+
+        return new FeatureExtractor(channels, new FeatureConfig(WINDOW, HOP, BANDS), new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+                rows.add(values.clone());
+                timestamps.add(timestamp);
+            }
+        });
+    }
+
+    private static void feed(RecordSink sink, float[] values, int from, int count) {
+
+        for (int i = from; i < from + count; i++) {
+            values[0] = (float) Math.sin(i / 5.0);
+            values[1] = (float) Math.cos(i / 7.0);
+            values[2] = 9.81f;
+            sink.writeRecord(5L * i, values);
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
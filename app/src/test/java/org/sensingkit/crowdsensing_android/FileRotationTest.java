@@ -0,0 +1,158 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileRotationTest {
+
+    private static final float[] VALUES = {0.1f, 0.2f, 9.81f};
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void rotatesBySize() throws Exception {
+
+        SessionManifest manifest = new SessionManifest(mFolder);
+        int recordSize = RecordLayout.GYROSCOPE.getRecordSize();
+
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.GYROSCOPE, mFolder, "Gyroscope",
+                RecordFormat.BINARY, manifest, 100L * recordSize, 0);
+
+        for (int i = 0; i < 250; i++) {
+            writer.writeRecord(1000L + i, VALUES);
+        }
+        writer.close();
+
+        List<SessionManifest.Chunk> chunks = manifest.getChunks();
+        assertEquals(3, chunks.size());
+        assertEquals("Gyroscope-00000.bin", chunks.get(0).getFileName());
+        assertEquals("Gyroscope-00002.bin", chunks.get(2).getFileName());
+        assertEquals(100, chunks.get(0).getRecordCount());
+        assertEquals(50, chunks.get(2).getRecordCount());
+        assertEquals(1000L, chunks.get(0).getFirstTimestamp());
+        assertEquals(1099L, chunks.get(0).getLastTimestamp());
+        assertEquals(1100L, chunks.get(1).getFirstTimestamp());
+
+        for (SessionManifest.Chunk chunk : chunks) {
+            File file = new File(mFolder, chunk.getFileName());
+            assertEquals(file.length(), chunk.getByteSize());
+            assertEquals(BinaryRecordEncoder.encodeHeader(RecordLayout.GYROSCOPE,
+                    BinaryRecordEncoder.MAGIC, BinaryRecordEncoder.SCHEMA_VERSION).length
+                    + chunk.getRecordCount() * recordSize, file.length());
+        }
+    }
+
+    @Test
+    public void rotatesByTime() throws Exception {
+
+        SessionManifest manifest = new SessionManifest(mFolder);
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.ACCELEROMETER, mFolder, "Accelerometer",
+                RecordFormat.CSV, manifest, 0, 1000);
+
+        // 10 Hz for 3.5 seconds
+        for (int i = 0; i < 35; i++) {
+            writer.writeRecord(i * 100L, VALUES);
+        }
+        writer.close();
+
+        List<SessionManifest.Chunk> chunks = manifest.getChunks();
+        assertEquals(4, chunks.size());
+        assertEquals(10, chunks.get(0).getRecordCount());
+        assertEquals(0L, chunks.get(0).getFirstTimestamp());
+        assertEquals(900L, chunks.get(0).getLastTimestamp());
+        assertEquals(5, chunks.get(3).getRecordCount());
+
+        // Range lookup
+        List<SessionManifest.Chunk> range = manifest.getChunks("Accelerometer", 1500, 2500);
+        assertEquals(2, range.size());
+        assertEquals("Accelerometer-00001.csv", range.get(0).getFileName());
+        assertEquals("Accelerometer-00002.csv", range.get(1).getFileName());
+        assertTrue(manifest.getChunks("Gravity", 0, 5000).isEmpty());
+    }
+
+    @Test
+    public void manifestRoundTrip() throws Exception {
+
+        SessionManifest manifest = new SessionManifest(mFolder);
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.GRAVITY, mFolder, "Gravity",
+                RecordFormat.COMPRESSED, manifest, 0, 500);
+
+        for (int i = 0; i < 20; i++) {
+            writer.writeRecord(i * 100L, VALUES);
+        }
+        writer.close();
+
+        SessionManifest read = SessionManifest.read(mFolder);
+        assertEquals(manifest.getChunks().size(), read.getChunks().size());
+
+        for (int i = 0; i < read.getChunks().size(); i++) {
+            SessionManifest.Chunk expected = manifest.getChunks().get(i);
+            SessionManifest.Chunk actual = read.getChunks().get(i);
+            assertEquals(expected.getSensor(), actual.getSensor());
+            assertEquals(expected.getFileName(), actual.getFileName());
+            assertEquals(expected.getFirstTimestamp(), actual.getFirstTimestamp());
+            assertEquals(expected.getLastTimestamp(), actual.getLastTimestamp());
+            assertEquals(expected.getRecordCount(), actual.getRecordCount());
+            assertEquals(expected.getByteSize(), actual.getByteSize());
+        }
+    }
+
+    @Test
+    public void noRotationKeepsSingleFile() throws Exception {
+
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.GRAVITY, mFolder, "Gravity");
+        for (int i = 0; i < 20; i++) {
+            writer.writeRecord(i * 100L, VALUES);
+        }
+        writer.close();
+
+        assertTrue(new File(mFolder, "Gravity.csv").exists());
+        assertFalse(new File(mFolder, "Gravity-00000.csv").exists());
+    }
+
+    @Test
+    public void recoveryKeepsClosedChunksAndDropsNewOnes() throws Exception {
+
+        SessionManifest manifest = new SessionManifest(mFolder);
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.GYROSCOPE, mFolder, "Gyroscope",
+                RecordFormat.BINARY, manifest, 0, 1000);
+
+        GroupFlusher flusher = new GroupFlusher(new Checkpoint(mFolder), 60000, Long.MAX_VALUE);
+        flusher.addWriter(writer);
+        flusher.flush(Checkpoint.State.OPEN);
+
+        // Two closed chunks and an open one, none of them checkpointed
+        for (int i = 0; i < 25; i++) {
+            writer.writeRecord(i * 100L, VALUES);
+        }
+        writer.flush();
+
+        CheckpointRecovery.Report report = CheckpointRecovery.recover(mFolder);
+
+        assertTrue(new File(mFolder, "Gyroscope-00000.bin").exists());
+        assertTrue(new File(mFolder, "Gyroscope-00001.bin").exists());
+        assertFalse(new File(mFolder, "Gyroscope-00002.bin").exists());
+        assertEquals(1, report.getLostBytes().size());
+
+        writer.close();
+    }
+
+}
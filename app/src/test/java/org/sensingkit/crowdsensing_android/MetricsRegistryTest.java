@@ -0,0 +1,161 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKAccelerometerData;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    private static List<String> readLines(File file) throws Exception {
+
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        return lines;
+    }
+
+    @Test
+    public void countsSamplesBytesAndLatencies() throws Exception {
+
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.ACCELEROMETER, mFolder, "Accelerometer", RecordFormat.BINARY);
+
+        // 100 Hz for 5 seconds
+        for (int i = 0; i < 500; i++) {
+            writer.onDataReceived(SKSensorModuleType.ACCELEROMETER, new SKAccelerometerData(10000L + i * 10, 0f, 0f, 1f));
+        }
+        writer.flush();
+
+        SensorMetrics metrics = writer.getMetrics();
+        assertEquals(500, metrics.getReceivedCount());
+        assertEquals(500, metrics.getWrittenCount());
+        assertEquals(500L * RecordLayout.ACCELEROMETER.getRecordSize(), metrics.getBytesWritten());
+        assertEquals(0, metrics.getDroppedCount());
+        assertEquals(0, metrics.getErrorCount());
+        assertEquals(100.0, metrics.getSampleRateHz(), 1e-9);
+        assertEquals(0.0, metrics.getJitterMillis(), 1e-9);
+        assertEquals(500, metrics.getWriteLatency().getCount());
+        assertEquals(1, metrics.getFlushLatency().getCount());
+
+        writer.close();
+    }
+
+    @Test
+    public void jitterFollowsIntervalChanges() {
+
+        SensorMetrics metrics = new SensorMetrics();
+
+        // Alternating 8 and 12 ms intervals, 100 Hz on average
+        long timestamp = 0;
+        for (int i = 0; i < 1000; i++) {
+            metrics.sampleReceived(timestamp);
+            timestamp += (i % 2 == 0) ? 8 : 12;
+        }
+
+        assertEquals(4.0, metrics.getJitterMillis(), 1e-6);
+        assertEquals(100.0, metrics.getSampleRateHz(), 0.1);
+    }
+
+    @Test
+    public void reportsDropsAndQueueDepth() throws Exception {
+
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.ACCELEROMETER, mFolder, "Accelerometer", RecordFormat.BINARY);
+
+        // The writer thread is never started
+        AsyncRecordWriter asyncWriter = new AsyncRecordWriter(10);
+        writer.attachAsyncWriter(asyncWriter, 16, OverflowPolicy.DROP_OLDEST);
+
+        for (int i = 0; i < 100; i++) {
+            writer.onDataReceived(SKSensorModuleType.ACCELEROMETER, new SKAccelerometerData(i * 10L, 0f, 0f, 1f));
+        }
+
+        SensorMetrics metrics = writer.getMetrics();
+        assertEquals(100, metrics.getReceivedCount());
+        assertEquals(0, metrics.getWrittenCount());
+        assertEquals(16, metrics.getQueueDepth());
+        assertEquals(84, metrics.getDroppedCount());
+
+        assertEquals(16, asyncWriter.drainNow());
+        assertEquals(16, metrics.getWrittenCount());
+        assertEquals(0, metrics.getQueueDepth());
+
+        writer.close();
+    }
+
+    @Test
+    public void dumpAppendsRowsPerSensor() throws Exception {
+
+        MetricsRegistry registry = new MetricsRegistry();
+        SensorMetrics accelerometer = new SensorMetrics();
+        SensorMetrics gyroscope = new SensorMetrics();
+        registry.register(SKSensorModuleType.ACCELEROMETER, accelerometer);
+        registry.register(SKSensorModuleType.GYROSCOPE, gyroscope);
+
+        accelerometer.sampleReceived(0);
+        accelerometer.recordWritten(28);
+
+        File file = new File(mFolder, MetricsRegistry.FILE_NAME);
+        registry.dump(file, 1000);
+        registry.dump(file, 2000);
+
+        List<String> lines = readLines(file);
+        assertEquals(5, lines.size());
+        assertEquals(MetricsRegistry.HEADER, lines.get(0));
+        assertTrue(lines.get(1).startsWith("1000,Accelerometer,1,1,0,28,0,0,"));
+        assertTrue(lines.get(2).startsWith("1000,Gyroscope,0,0,0,0,0,0,"));
+        assertTrue(lines.get(3).startsWith("2000,Accelerometer,"));
+        assertEquals(MetricsRegistry.HEADER.split(",").length, lines.get(4).split(",").length);
+    }
+
+    @Test
+    public void histogramPercentilesAreWithinABucket() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1000000, histogram.getMaxNanos());
+        assertEquals((99 * 1000 + 1000000) / 100.0, histogram.getMeanNanos(), 1e-9);
+
+        long median = histogram.getPercentileNanos(50);
+        assertTrue(median >= 1000 && median < 2000);
+        long p99 = histogram.getPercentileNanos(99);
+        assertTrue(p99 >= 1000 && p99 < 2000);
+        assertEquals(1000000, histogram.getPercentileNanos(100));
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKAccelerometerData;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the heap bytes allocated by the current thread in ModelWriter's
+ * sensor callback, once warmed up: extraction, metrics, encoding and
+ * buffering. The data object is reused, as SensingKit allocates it
+ * before the callback.
+ */
+public class ModelWriterAllocationTest {
+
+    private static final int WARM_UP_SAMPLES = 50000;
+    private static final int SAMPLES = 200000;
+
+    // Constant noise from the allocation counter itself, independent of SAMPLES
+    private static final long MEASUREMENT_OVERHEAD = 4096;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void csvPathDoesNotAllocatePerSample() throws Exception {
+        assertZeroAllocations(RecordFormat.CSV);
+    }
+
+    @Test
+    public void binaryPathDoesNotAllocatePerSample() throws Exception {
+        assertZeroAllocations(RecordFormat.BINARY);
+    }
+
+    private void assertZeroAllocations(RecordFormat format) throws Exception {
+
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.ACCELEROMETER, mFolder, "Accelerometer", format);
+        MutableAccelerometerData data = new MutableAccelerometerData();
+
+        write(writer, data, 0, WARM_UP_SAMPLES);
+
+        long before = allocatedBytes();
+        write(writer, data, WARM_UP_SAMPLES, SAMPLES);
+        long allocated = allocatedBytes() - before;
+
+        writer.close();
+
+        assertEquals("Bytes allocated per sample (" + format + ")", 0L, allocated / SAMPLES);
+        assertTrue("Allocated " + allocated + " bytes in steady state (" + format + ")", allocated < MEASUREMENT_OVERHEAD);
+    }
+
+    private static void write(ModelWriter writer, MutableAccelerometerData data, int from, int count) {
+
+        for (int i = from; i < from + count; i++) {
+            data.mTimestamp = 1420070400000L + 5L * i;
+            data.mX = (float) Math.sin(i / 50.0);
+            data.mY = (float) Math.cos(i / 50.0);
+            data.mZ = 9.81f;
+            writer.onDataReceived(SKSensorModuleType.ACCELEROMETER, data);
+        }
+    }
+
+    private static class MutableAccelerometerData extends SKAccelerometerData {
+
+        long mTimestamp;
+        float mX;
+        float mY;
+        float mZ;
+
+        MutableAccelerometerData() {
+            super(0, 0, 0, 0);
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public float getX() {
+            return mX;
+        }
+
+        @Override
+        public float getY() {
+            return mY;
+        }
+
+        @Override
+        public float getZ() {
+            return mZ;
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
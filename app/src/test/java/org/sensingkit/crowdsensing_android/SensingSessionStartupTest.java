@@ -0,0 +1,173 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKExceptionErrorCode;
+import org.sensingkit.sensingkitlib.SKSensorDataListener;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.SensingKitLibInterface;
+import org.sensingkit.sensingkitlib.data.SKAccelerometerData;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SensingSessionStartupTest {
+
+    private static final long START_DELAY_MILLIS = 200;
+    private static final long REQUEST_TIME = 10000;
+
+    private static final SKSensorModuleType[] SENSORS = {
+            SKSensorModuleType.ACCELEROMETER,
+            SKSensorModuleType.GRAVITY,
+            SKSensorModuleType.LINEAR_ACCELERATION,
+            SKSensorModuleType.GYROSCOPE,
+            SKSensorModuleType.MAGNETOMETER
+    };
+
+    private static class FakeClock implements Clock {
+
+        volatile long time = REQUEST_TIME;
+
+        @Override
+        public long now() {
+            return time;
+        }
+    }
+
+    /**
+     * Starts a sensor only once all of them are being started, which takes
+     * START_DELAY_MILLIS on the fake clock, then delivers one sample.
+     * Started one by one, the first start times out.
+     */
+    private static class SlowSensingKit implements SensingKitLibInterface {
+
+        private final CyclicBarrier mBarrier;
+
+        SlowSensingKit(final FakeClock clock) {
+            mBarrier = new CyclicBarrier(SENSORS.length, new Runnable() {
+                @Override
+                public void run() {
+                    clock.time += START_DELAY_MILLIS;
+                }
+            });
+        }
+
+        private final Map<SKSensorModuleType, SKSensorDataListener> mListeners = new EnumMap<>(SKSensorModuleType.class);
+        private final Map<SKSensorModuleType, Boolean> mSensing = new EnumMap<>(SKSensorModuleType.class);
+
+        @Override
+        public void registerSensorModule(SKSensorModuleType moduleType) {
+            mSensing.put(moduleType, false);
+        }
+
+        @Override
+        public void deregisterSensorModule(SKSensorModuleType moduleType) {
+            mSensing.remove(moduleType);
+        }
+
+        @Override
+        public boolean isSensorModuleRegistered(SKSensorModuleType moduleType) {
+            return mSensing.containsKey(moduleType);
+        }
+
+        @Override
+        public void subscribeSensorDataListener(SKSensorModuleType moduleType, SKSensorDataListener listener) {
+            mListeners.put(moduleType, listener);
+        }
+
+        @Override
+        public void unsubscribeSensorDataListener(SKSensorModuleType moduleType, SKSensorDataListener listener) {
+            mListeners.remove(moduleType);
+        }
+
+        @Override
+        public void unsubscribeAllSensorDataListeners(SKSensorModuleType moduleType) {
+            mListeners.remove(moduleType);
+        }
+
+        @Override
+        public void startContinuousSensingWithSensor(SKSensorModuleType moduleType) throws SKException {
+
+            try {
+                mBarrier.await(10, TimeUnit.SECONDS);
+            }
+            catch (Exception ex) {
+                throw new SKException("SlowSensingKit", "Sensors not started concurrently.", SKExceptionErrorCode.UNKNOWN_ERROR);
+            }
+
+            SKSensorDataListener listener;
+            synchronized (this) {
+                mSensing.put(moduleType, true);
+                listener = mListeners.get(moduleType);
+            }
+            listener.onDataReceived(moduleType, new SKAccelerometerData(1000, 0f, 0f, 1f));
+        }
+
+        @Override
+        public synchronized void stopContinuousSensingWithSensor(SKSensorModuleType moduleType) {
+            mSensing.put(moduleType, false);
+        }
+
+        @Override
+        public synchronized boolean isSensorModuleSensing(SKSensorModuleType moduleType) {
+            return mSensing.get(moduleType);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void startsSensorsConcurrentlyAndMeasuresLatency() throws Exception {
+
+        SessionProfile profile = new SessionProfile();
+        for (SKSensorModuleType moduleType : SENSORS) {
+            profile.enable(moduleType);
+        }
+
+        FakeClock clock = new FakeClock();
+        SlowSensingKit sensingKit = new SlowSensingKit(clock);
+        SensingSession session = new SensingSession(sensingKit, mFolder,
+                new SessionOptions().setProfile(profile).setClock(clock)
+                        .setPipelineConfig(new PipelineConfig().setFlushIntervalMillis(0)));
+
+        session.start(REQUEST_TIME);
+
+        StartupLatency latency = session.getStartupLatency();
+
+        // Started one by one this would take SENSORS.length * START_DELAY_MILLIS
+        assertEquals(latency.toString(), START_DELAY_MILLIS, latency.getReadyLatencyMillis());
+
+        assertTrue(latency.isComplete());
+        assertEquals(SENSORS.length, latency.getFirstSampleLatencies().size());
+        for (SKSensorModuleType moduleType : SENSORS) {
+            assertEquals(START_DELAY_MILLIS, latency.getFirstSampleLatencyMillis(moduleType));
+            assertTrue(sensingKit.isSensorModuleSensing(moduleType));
+        }
+
+        session.stop();
+        session.close();
+
+        for (SKSensorModuleType moduleType : SENSORS) {
+            assertFalse(sensingKit.isSensorModuleRegistered(moduleType));
+        }
+    }
+
+}
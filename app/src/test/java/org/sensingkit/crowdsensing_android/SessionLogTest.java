@@ -0,0 +1,125 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionLogTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void rollsOverSegmentsAndReadsBackInOrder() throws Exception {
+
+        SessionLogWriter writer = new SessionLogWriter(mFolder, 1024);
+        write(writer, 1000);
+        writer.close();
+
+        File[] segments = SessionLogReader.listSegments(mFolder);
+        assertEquals(writer.getSegmentCount(), segments.length);
+        assertTrue(segments.length > 1);
+        for (File segment : segments) {
+            assertTrue(segment.length() <= 1024);
+        }
+
+        SessionLogReader reader = new SessionLogReader(mFolder);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(reader.readRecord());
+            assertEquals(layoutOf(i), reader.getLayout());
+            assertEquals(1000L + i, reader.getTimestamp());
+            assertEquals((float) i, reader.getValues()[0], 0.0);
+        }
+        assertFalse(reader.readRecord());
+        reader.close();
+    }
+
+    @Test
+    public void skipsTruncatedRecordAtEndOfLastSegment() throws Exception {
+
+        SessionLogWriter writer = new SessionLogWriter(mFolder, SessionLogWriter.DEFAULT_SEGMENT_SIZE);
+        write(writer, 10);
+        writer.close();
+
+        File segment = SessionLogReader.listSegments(mFolder)[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 5);
+        file.close();
+
+        SessionLogReader reader = new SessionLogReader(mFolder);
+        int count = 0;
+        while (reader.readRecord()) {
+            count++;
+        }
+        reader.close();
+
+        assertEquals(9, count);
+        assertEquals(1L, reader.getTruncatedSegmentCount());
+    }
+
+    @Test
+    public void demultiplexesIntoPerSensorCsv() throws Exception {
+
+        SessionLogWriter writer = new SessionLogWriter(mFolder, 4096);
+        write(writer, 300);
+        writer.close();
+
+        assertEquals(300L, SessionLogDemultiplexer.demultiplex(mFolder, mFolder));
+
+        BufferedReader audio = new BufferedReader(new FileReader(new File(mFolder, "Audio.csv")));
+        assertEquals("1000,0", audio.readLine());
+        assertEquals("1003,3", audio.readLine());
+        audio.close();
+
+        BufferedReader accelerometer = new BufferedReader(new FileReader(new File(mFolder, "Accelerometer.csv")));
+        assertEquals(String.format(Locale.US, "%d,%f,%f,%f", 1001L, 1f, 0.5f, -1f), accelerometer.readLine());
+        int lines = 1;
+        while (accelerometer.readLine() != null) {
+            lines++;
+        }
+        accelerometer.close();
+        assertEquals(100, lines);
+    }
+
+    private static RecordLayout layoutOf(int i) {
+
+        switch (i % 3) {
+            case 0:
+                return RecordLayout.AUDIO_LEVEL;
+            case 1:
+                return RecordLayout.ACCELEROMETER;
+            default:
+                return RecordLayout.ROTATION;
+        }
+    }
+
+    private static void write(SessionLogWriter writer, int count) throws Exception {
+
+        float[] values = new float[5];
+        for (int i = 0; i < count; i++) {
+            values[0] = i;
+            values[1] = i / 2f;
+            values[2] = -i;
+            writer.append(layoutOf(i), 1000L + i, values);
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKAccelerometerData;
+import org.sensingkit.sensingkitlib.data.SKBluetoothData;
+import org.sensingkit.sensingkitlib.data.SKBluetoothDevice;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionProfileTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void defaultProfileRecordsTheDefaultSensors() {
+
+        SessionProfile profile = new SessionOptions().getProfile();
+
+        assertEquals(SensorRegistry.getDefaultSensors(), profile.getEnabledSensors());
+        assertEquals(7, profile.getEnabledSensors().size());
+        assertEquals(0, profile.getConfig(SKSensorModuleType.GYROSCOPE).getTargetRateHz(), 0);
+    }
+
+    @Test
+    public void permissionSensorsAreOptIn() {
+
+        for (SKSensorModuleType moduleType : Arrays.asList(SKSensorModuleType.LOCATION, SKSensorModuleType.BLUETOOTH)) {
+            assertTrue(SensorRegistry.isOptIn(moduleType));
+            assertTrue(SensorRegistry.isSupported(moduleType));
+            assertFalse(SessionProfile.allSensors().isEnabled(moduleType));
+            assertTrue(SessionProfile.allSensors().enable(moduleType).isEnabled(moduleType));
+        }
+    }
+
+    @Test
+    public void customProfileOnlyEnablesSelectedSensors() {
+
+        SessionProfile profile = new SessionProfile()
+                .enable(SKSensorModuleType.GYROSCOPE)
+                .enable(SKSensorModuleType.ACCELEROMETER, 50);
+
+        List<SKSensorModuleType> expected = Arrays.asList(SKSensorModuleType.ACCELEROMETER, SKSensorModuleType.GYROSCOPE);
+        assertEquals(expected, profile.getEnabledSensors());
+        assertEquals(50, profile.getConfig(SKSensorModuleType.ACCELEROMETER).getTargetRateHz(), 0);
+        assertNull(profile.getConfig(SKSensorModuleType.GRAVITY));
+
+        profile.disable(SKSensorModuleType.GYROSCOPE);
+        assertFalse(profile.isEnabled(SKSensorModuleType.GYROSCOPE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedSensorIsRejected() {
+        new SessionProfile().enable(SKSensorModuleType.LIGHT);
+    }
+
+    @Test
+    public void registryNamesTheDemultiplexedFiles() {
+
+        assertEquals("Audio", SensorRegistry.getFileName(SKSensorModuleType.AUDIO_LEVEL));
+        assertEquals("LinearAcceleration", SessionLogDemultiplexer.DEFAULT_FILE_NAMES.get(RecordLayout.LINEAR_ACCELERATION));
+        assertEquals(RecordLayout.values().length, SessionLogDemultiplexer.DEFAULT_FILE_NAMES.size());
+    }
+
+    @Test
+    public void targetRateDecimatesBeforeWriting() throws Exception {
+
+        File folder = mTemporaryFolder.newFolder();
+
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.ACCELEROMETER, folder, "Accelerometer", RecordFormat.BINARY);
+        writer.setTargetRate(50);
+
+        // 200 Hz for ten seconds, recorded at 50 Hz
+        for (int i = 0; i < 2000; i++) {
+            writer.onDataReceived(SKSensorModuleType.ACCELEROMETER, new SKAccelerometerData(i * 5L, 0f, 0f, 1f));
+        }
+        writer.close();
+
+        Resampler resampler = writer.getResampler();
+        assertEquals(4, resampler.getFactor());
+        assertEquals(200, resampler.getInputRateHz(), 0.01);
+
+        // Every fourth sample, from the first to the last
+        long expected = 2000 / 4;
+        assertEquals(expected, resampler.getOutputCount());
+        assertEquals(expected * RecordLayout.ACCELEROMETER.getRecordSize(), writer.getBytesWritten());
+    }
+
+    @Test
+    public void bluetoothScansAreAggregatedPerDevice() throws Exception {
+
+        File folder = mTemporaryFolder.newFolder();
+
+        ModelWriter writer = new ModelWriter(SKSensorModuleType.BLUETOOTH, folder,
+                SensorRegistry.getFileName(SKSensorModuleType.BLUETOOTH));
+        writer.setProximityAggregation(new ProximityConfig().setWindowMillis(10000));
+
+        // A scan every second for 30 s, three devices in each
+        for (int i = 0; i < 30; i++) {
+            ArrayList<SKBluetoothDevice> devices = new ArrayList<>();
+            long timestamp = 1420070400000L + i * 1000L;
+            devices.add(new SKBluetoothDevice(timestamp, "Phone", "00:11:22:33:44:55", -60 - i % 2));
+            devices.add(new SKBluetoothDevice(timestamp, "Watch", "66:77:88:99:aa:bb", -80));
+            devices.add(new SKBluetoothDevice(timestamp, null, "CC:DD:EE:FF:00:11", -90 + i));
+            writer.onDataReceived(SKSensorModuleType.BLUETOOTH, new SKBluetoothData(timestamp, devices));
+        }
+        writer.close();
+
+        File file = new File(folder, "Bluetooth.csv");
+        List<String> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            rows.add(line);
+        }
+        reader.close();
+
+        // Three windows of three devices, without the addresses
+        assertEquals(9, rows.size());
+        assertEquals(90, writer.getProximityAggregator().getSightingCount());
+
+        String[] phone = rows.get(0).split(",");
+        assertEquals("1420070400000", phone[0]);
+        assertEquals(16, phone[1].length());
+        assertEquals("10", phone[2]);
+        assertEquals(-60.5, Double.parseDouble(phone[3]), 1e-6);
+        assertEquals("-61", phone[4]);
+        assertEquals("-60", phone[5]);
+
+        assertEquals(phone[1], rows.get(3).split(",")[1]);
+        assertEquals("-70,-61", rows.get(8).substring(rows.get(8).length() - 7));
+        for (String row : rows) {
+            assertFalse(row, row.contains(":") || row.toLowerCase().contains("phone"));
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKSensorDataListener;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs whole SensingSession start/stop/close cycles on simulated sensors.
+ */
+public class SimulatedSensingKitTest {
+
+    private static final long DURATION_MILLIS = 10000;
+
+    // The simulated sensors are paced on System.nanoTime(), so the start-up latency is too
+    private static final Clock CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+    };
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final List<File> mFolders = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mFolders.add(mTemporaryFolder.newFolder());
+        mFolders.add(mTemporaryFolder.newFolder());
+    }
+
+    private static SessionOptions options(SimulatedSensingKit sensingKit, RecordFormat format) {
+
+        SessionProfile profile = new SessionProfile();
+        for (SKSensorModuleType moduleType : sensingKit.getSensors()) {
+            profile.enable(moduleType);
+        }
+
+        return new SessionOptions().setProfile(profile).setClock(CLOCK)
+                .setPipelineConfig(new PipelineConfig().setRecordFormat(format).setFlushIntervalMillis(0));
+    }
+
+    private static void record(SimulatedSensingKit sensingKit, File folder, SessionOptions options) throws Exception {
+
+        SensingSession session = new SensingSession(sensingKit, folder, options);
+        session.start(CLOCK.now());
+        assertTrue(sensingKit.awaitCompletion(30000));
+        session.stop();
+        session.close();
+    }
+
+    private static List<long[]> readTimestamps(File file, RecordLayout layout) throws Exception {
+
+        List<long[]> records = new ArrayList<>();
+        RecordReader reader = RecordReaders.open(file, layout);
+        while (reader.readRecord()) {
+            records.add(new long[]{reader.getTimestamp(), Float.floatToIntBits(reader.getValues()[0])});
+        }
+        reader.close();
+
+        return records;
+    }
+
+    @Test
+    public void recordsSyntheticStreams() throws Exception {
+
+        SimulatedSensingKit sensingKit = new SimulatedSensingKit(SimulatedSensingKit.UNPACED)
+                .addSyntheticSensor(SKSensorModuleType.ACCELEROMETER, 200, 1, DURATION_MILLIS)
+                .addSyntheticSensor(SKSensorModuleType.GYROSCOPE, 100, 0, DURATION_MILLIS)
+                .addSyntheticSensor(SKSensorModuleType.AUDIO_LEVEL, 10, 0, DURATION_MILLIS);
+
+        File folder = mFolders.get(0);
+        record(sensingKit, folder, options(sensingKit, RecordFormat.BINARY));
+
+        assertEquals(2000, sensingKit.getDeliveredCount(SKSensorModuleType.ACCELEROMETER));
+        assertEquals(1000, sensingKit.getDeliveredCount(SKSensorModuleType.GYROSCOPE));
+        assertEquals(100, sensingKit.getDeliveredCount(SKSensorModuleType.AUDIO_LEVEL));
+
+        List<long[]> accelerometer = readTimestamps(new File(folder, "Accelerometer.bin"), RecordLayout.ACCELEROMETER);
+        assertEquals(2000, accelerometer.size());
+        for (int i = 1; i < accelerometer.size(); i++) {
+            assertTrue(accelerometer.get(i)[0] > accelerometer.get(i - 1)[0]);
+        }
+
+        assertEquals(1000, readTimestamps(new File(folder, "Gyroscope.bin"), RecordLayout.GYROSCOPE).size());
+        assertEquals(100, readTimestamps(new File(folder, "Audio.bin"), RecordLayout.AUDIO_LEVEL).size());
+    }
+
+    @Test
+    public void sensorThatFailsToStartIsLeftOut() throws Exception {
+
+        // Like a Bluetooth scan without the location permission
+        SimulatedSensingKit sensingKit = new SimulatedSensingKit(SimulatedSensingKit.UNPACED) {
+            @Override
+            public synchronized void startContinuousSensingWithSensor(SKSensorModuleType moduleType) throws SKException {
+                if (moduleType == SKSensorModuleType.GYROSCOPE) {
+                    throw new SecurityException("Need ACCESS_FINE_LOCATION permission");
+                }
+                super.startContinuousSensingWithSensor(moduleType);
+            }
+        };
+        sensingKit.addSyntheticSensor(SKSensorModuleType.ACCELEROMETER, 100, 0, 1000)
+                .addSyntheticSensor(SKSensorModuleType.GYROSCOPE, 100, 0, 1000);
+
+        File folder = mFolders.get(0);
+        record(sensingKit, folder, options(sensingKit, RecordFormat.BINARY));
+
+        assertEquals(0, sensingKit.getDeliveredCount(SKSensorModuleType.GYROSCOPE));
+        assertEquals(100, readTimestamps(new File(folder, "Accelerometer.bin"), RecordLayout.ACCELEROMETER).size());
+    }
+
+    @Test
+    public void replaysARecordedSession() throws Exception {
+
+        SimulatedSensingKit synthetic = new SimulatedSensingKit(SimulatedSensingKit.UNPACED)
+                .addSyntheticSensor(SKSensorModuleType.ACCELEROMETER, 100, 2, DURATION_MILLIS)
+                .addSyntheticSensor(SKSensorModuleType.ROTATION, 50, 0, DURATION_MILLIS);
+
+        // Record in chunks, replay into a single binary file per sensor
+        File original = mFolders.get(0);
+        SessionOptions chunked = options(synthetic, RecordFormat.BINARY);
+        chunked.getPipelineConfig().setMaxChunkMillis(3000);
+        record(synthetic, original, chunked);
+
+        SimulatedSensingKit replay = SimulatedSensingKit.replay(original, SimulatedSensingKit.UNPACED);
+        assertEquals(2, replay.getSensors().size());
+
+        File copy = mFolders.get(1);
+        record(replay, copy, options(replay, RecordFormat.BINARY));
+
+        List<File> chunks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            chunks.add(new File(original, String.format("Accelerometer-%05d.bin", i)));
+        }
+
+        List<long[]> expected = new ArrayList<>();
+        RecordReader reader = RecordReaders.concat(chunks, RecordLayout.ACCELEROMETER);
+        while (reader.readRecord()) {
+            expected.add(new long[]{reader.getTimestamp(), Float.floatToIntBits(reader.getValues()[0])});
+        }
+        reader.close();
+
+        List<long[]> replayed = readTimestamps(new File(copy, "Accelerometer.bin"), RecordLayout.ACCELEROMETER);
+
+        assertEquals(1000, expected.size());
+        assertEquals(expected.size(), replayed.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i)[0], replayed.get(i)[0]);
+            assertEquals(expected.get(i)[1], replayed.get(i)[1]);
+        }
+
+        assertEquals(500, readTimestamps(new File(copy, "Rotation.bin"), RecordLayout.ROTATION).size());
+    }
+
+    @Test
+    public void pacesBySpeed() throws Exception {
+
+        // One second of samples at ten times real time
+        SimulatedSensingKit sensingKit = new SimulatedSensingKit(10)
+                .addSyntheticSensor(SKSensorModuleType.ACCELEROMETER, 100, 0, 1000);
+
+        final List<Long> arrivals = new ArrayList<>();
+        sensingKit.registerSensorModule(SKSensorModuleType.ACCELEROMETER);
+        sensingKit.subscribeSensorDataListener(SKSensorModuleType.ACCELEROMETER, new SKSensorDataListener() {
+            @Override
+            public void onDataReceived(SKSensorModuleType moduleType, SKSensorData moduleData) {
+                arrivals.add(System.nanoTime());
+            }
+        });
+
+        sensingKit.startContinuousSensingWithSensor(SKSensorModuleType.ACCELEROMETER);
+        assertTrue(sensingKit.awaitCompletion(5000));
+        sensingKit.stopContinuousSensingWithSensor(SKSensorModuleType.ACCELEROMETER);
+
+        assertEquals(100, arrivals.size());
+
+        long elapsedMillis = (arrivals.get(99) - arrivals.get(0)) / 1000000;
+        assertTrue("Elapsed " + elapsedMillis + " ms", elapsedMillis >= 90 && elapsedMillis < 1000);
+    }
+
+    @Test
+    public void resumesWhereItStopped() throws Exception {
+
+        SimulatedSensingKit sensingKit = new SimulatedSensingKit(1)
+                .addSyntheticSensor(SKSensorModuleType.GYROSCOPE, 100, 0, 600);
+
+        SensingSession session = new SensingSession(sensingKit, mFolders.get(0), options(sensingKit, RecordFormat.CSV));
+
+        session.start(CLOCK.now());
+        Thread.sleep(200);
+        session.stop();
+        long firstRun = sensingKit.getDeliveredCount(SKSensorModuleType.GYROSCOPE);
+        assertTrue(firstRun > 0 && firstRun < 60);
+
+        session.start(CLOCK.now());
+        assertTrue(sensingKit.awaitCompletion(5000));
+        session.stop();
+        session.close();
+
+        List<long[]> records = readTimestamps(new File(mFolders.get(0), "Gyroscope.csv"), RecordLayout.GYROSCOPE);
+        assertEquals(60, records.size());
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of the compressed format per deflate level and block size, for
+ * a 200 Hz accelerometer stream. Blocks are deflated into the void, so the
+ * latency percentiles show the cost of the samples that close a block.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    // Deflater.BEST_SPEED, DEFAULT_COMPRESSION and BEST_COMPRESSION
+    @Param({"1", "-1", "9"})
+    public int level;
+
+    @Param({"256", "1024", "4096"})
+    public int blockRecords;
+
+    private SyntheticSamples mSamples;
+    private CompressedRecordWriter mWriter;
+
+    @Setup
+    public void setUp() throws IOException {
+
+        mSamples = new SyntheticSamples(RecordLayout.ACCELEROMETER, 200);
+        mWriter = new CompressedRecordWriter(RecordLayout.ACCELEROMETER, new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, blockRecords, level);
+    }
+
+    private void write() throws IOException {
+        mSamples.next();
+        mWriter.write(mSamples.getTimestamp(), mSamples.getValues());
+    }
+
+    /**
+     * Samples per second.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput() throws IOException {
+        write();
+    }
+
+    /**
+     * Latency percentiles per sample.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void latency() throws IOException {
+        write();
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of one sample into bytes, without I/O. SENSINGKIT_CSV is the
+ * String.format line SensingKit builds in getDataInCSV(), which the app
+ * wrote for every sample before the record encoders, and still writes for
+ * sensors without a record layout.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Param({"SENSINGKIT_CSV", "CSV", "BINARY", "COMPRESSED"})
+    public String format;
+
+    @Param({"ACCELEROMETER", "ROTATION"})
+    public String layout;
+
+    private SyntheticSamples mSamples;
+    private String mLineFormat;
+    private RecordEncoder mEncoder;
+    private byte[] mRecord;
+    private CompressedRecordWriter mBlockWriter;
+
+    @Setup
+    public void setUp() throws IOException {
+
+        RecordLayout recordLayout = RecordLayout.valueOf(layout);
+        mSamples = new SyntheticSamples(recordLayout, 200);
+
+        if (format.equals("SENSINGKIT_CSV")) {
+
+            StringBuilder lineFormat = new StringBuilder("%d");
+            for (int i = 0; i < recordLayout.getFieldCount(); i++) {
+                lineFormat.append(",%f");
+            }
+            mLineFormat = lineFormat.toString();
+        }
+        else if (format.equals("COMPRESSED")) {
+
+            // Blocks are deflated into the void
+            mBlockWriter = new CompressedRecordWriter(recordLayout, new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+        }
+        else {
+            mEncoder = RecordFileWriter.createEncoder(RecordFormat.valueOf(format), recordLayout);
+            mRecord = new byte[mEncoder.getMaxRecordSize()];
+        }
+    }
+
+    private int encode() throws IOException {
+
+        mSamples.next();
+        long timestamp = mSamples.getTimestamp();
+        float[] values = mSamples.getValues();
+
+        if (mLineFormat != null) {
+            Object[] arguments = new Object[values.length + 1];
+            arguments[0] = timestamp;
+            for (int i = 0; i < values.length; i++) {
+                arguments[i + 1] = values[i];
+            }
+            return (String.format(Locale.US, mLineFormat, arguments) + "\n").getBytes(UTF_8).length;
+        }
+
+        if (mBlockWriter != null) {
+            mBlockWriter.write(timestamp, values);
+            return 0;
+        }
+
+        return mEncoder.encode(timestamp, values, mRecord, 0);
+    }
+
+    /**
+     * Samples per second.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int throughput() throws IOException {
+        return encode();
+    }
+
+    /**
+     * Latency percentiles per sample.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int latency() throws IOException {
+        return encode();
+    }
+
+}
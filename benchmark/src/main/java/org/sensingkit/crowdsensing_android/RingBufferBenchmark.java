@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand-over of samples through the SampleRingBuffer between the callback
+ * thread and the writer thread, without encoding or I/O.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+
+    private static final int BATCH = AsyncRecordWriter.DEFAULT_BATCH_SIZE;
+    private static final int CAPACITY = 4096;
+
+    private static final RecordSink DISCARD = new RecordSink() {
+        @Override
+        public void writeRecord(long timestamp, float[] values) {
+        }
+    };
+
+    private SyntheticSamples mSamples;
+    private SampleRingBuffer mRingBuffer;
+    private float[] mScratch;
+
+    @Setup
+    public void setUp() {
+        mSamples = new SyntheticSamples(RecordLayout.ACCELEROMETER, 200);
+        mRingBuffer = new SampleRingBuffer(CAPACITY, 3, OverflowPolicy.DROP_OLDEST);
+        mScratch = new float[3];
+    }
+
+    /**
+     * Offers a batch and drains it on the same thread: samples per second.
+     */
+    @Benchmark
+    @Group("sameThread")
+    @OperationsPerInvocation(BATCH)
+    public int offerAndDrain() {
+
+        for (int i = 0; i < BATCH; i++) {
+            mSamples.next();
+            mRingBuffer.offer(mSamples.getTimestamp(), mSamples.getValues());
+        }
+
+        return mRingBuffer.drainTo(DISCARD, mScratch, BATCH);
+    }
+
+    /**
+     * Producer side of the hand-over: samples offered per second.
+     */
+    @Benchmark
+    @Group("handOver")
+    @GroupThreads(1)
+    public boolean offer() {
+        mSamples.next();
+        return mRingBuffer.offer(mSamples.getTimestamp(), mSamples.getValues());
+    }
+
+    /**
+     * Consumer side of the hand-over: batches drained per second.
+     */
+    @Benchmark
+    @Group("handOver")
+    @GroupThreads(1)
+    public int drain() {
+        return mRingBuffer.drainTo(DISCARD, mScratch, BATCH);
+    }
+
+}
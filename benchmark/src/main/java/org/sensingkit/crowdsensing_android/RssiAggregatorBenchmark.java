@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proximity aggregation of a crowded place: one minute of Bluetooth
+ * sightings per invocation, most of them of a few devices close by,
+ * aggregated and encoded into CSV rows without I/O. The throughput is in
+ * sightings per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RssiAggregatorBenchmark {
+
+    private static final int SIGHTINGS_PER_MINUTE = 50000;
+    private static final int MAX_DEVICES = 2048;
+    private static final byte[] SALT = "0123456789abcdef".getBytes();
+
+    @Param({"500", "5000"})
+    public int devices;
+
+    private String[] mAddresses;
+    private int[] mPicks;
+    private int[] mRssis;
+    private long mMinuteStart;
+    private RssiAggregator mAggregator;
+
+    private final byte[] mRow = new byte[RssiAggregator.MAX_ROW_SIZE];
+    private long mBytes;
+
+    @Setup
+    public void setUp() {
+
+        mAddresses = new String[devices];
+        for (int i = 0; i < devices; i++) {
+            mAddresses[i] = String.format(Locale.US, "02:00:%02X:%02X:%02X:%02X", i >>> 24, (i >>> 16) & 0xFF, (i >>> 8) & 0xFF, i & 0xFF);
+        }
+
+        // Pre-drawn, so that the benchmark only measures the aggregator
+        Random random = new Random(42);
+        mPicks = new int[SIGHTINGS_PER_MINUTE];
+        mRssis = new int[SIGHTINGS_PER_MINUTE];
+        for (int i = 0; i < SIGHTINGS_PER_MINUTE; i++) {
+            mPicks[i] = (random.nextInt(4) == 0) ? random.nextInt(Math.min(50, devices)) : random.nextInt(devices);
+            mRssis[i] = -40 - random.nextInt(60);
+        }
+
+        mAggregator = new RssiAggregator(new ProximityConfig().setMaxDevices(MAX_DEVICES), SALT,
+                new RssiAggregator.Sink() {
+                    @Override
+                    public void writeDevice(long windowStart, long deviceId, int count, float meanRssi, int minRssi, int maxRssi) {
+                        mBytes += RssiAggregator.encodeRow(windowStart, deviceId, count, meanRssi, minRssi, maxRssi, mRow, 0);
+                    }
+                });
+        mMinuteStart = 1420070400000L;
+    }
+
+    /**
+     * Sightings per second, including the rows of the windows they close.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SIGHTINGS_PER_MINUTE)
+    public long aggregate() {
+
+        for (int i = 0; i < SIGHTINGS_PER_MINUTE; i++) {
+            mAggregator.add(mMinuteStart + (60000L * i) / SIGHTINGS_PER_MINUTE, mAddresses[mPicks[i]], mRssis[i]);
+        }
+        mMinuteStart += 60000;
+
+        return mBytes;
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole session through the SessionPipeline that SensingSession records
+ * with, with asynchronous writing: one sample per sensor layout per
+ * operation, handed to the writer thread through ring buffers that block
+ * when full, written to per-sensor files or the session log, and
+ * group-flushed with checkpoints once a second. The throughput is the rate
+ * the writer thread sustains, in samples per second.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionFanOutBenchmark {
+
+    private static final RecordLayout[] LAYOUTS = RecordLayout.values();
+
+    // One sample of every layout per operation, checked against LAYOUTS in setUp
+    private static final int LAYOUT_COUNT = 8;
+
+    private static final int RING_BUFFER_CAPACITY = 4096;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long FLUSH_THRESHOLD_BYTES = 4 * 1024 * 1024;
+    private static final long SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    @Param({"CSV_FILES", "BINARY_FILES", "SESSION_LOG", "MAPPED_SESSION_LOG"})
+    public String storage;
+
+    private File mFolder;
+    private SyntheticSamples[] mSamples;
+    private RecordChannel[] mChannels;
+    private SessionPipeline mPipeline;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+
+        if (LAYOUTS.length != LAYOUT_COUNT) {
+            throw new IllegalStateException("LAYOUT_COUNT is " + LAYOUT_COUNT + ", but there are "
+                    + LAYOUTS.length + " record layouts.");
+        }
+
+        mFolder = SyntheticSamples.createTempFolder();
+
+        PipelineConfig config = new PipelineConfig()
+                .setStorageMode(storageMode())
+                .setRecordFormat(storage.equals("CSV_FILES") ? RecordFormat.CSV : RecordFormat.BINARY)
+                .setSegmentSize(SEGMENT_SIZE)
+                .setAsyncWriting(true)
+                .setDrainIntervalMillis(1)
+                .setRingBufferCapacity(RING_BUFFER_CAPACITY)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .setFlushIntervalMillis(FLUSH_INTERVAL_MILLIS)
+                .setFlushThresholdBytes(FLUSH_THRESHOLD_BYTES);
+
+        mPipeline = new SessionPipeline(mFolder, config);
+        mSamples = new SyntheticSamples[LAYOUTS.length];
+        mChannels = new RecordChannel[LAYOUTS.length];
+
+        for (int i = 0; i < LAYOUTS.length; i++) {
+            mSamples[i] = new SyntheticSamples(LAYOUTS[i], 200);
+            mChannels[i] = mPipeline.openChannel(LAYOUTS[i].name(), LAYOUTS[i]);
+            mPipeline.attachAsyncWriter(mChannels[i]);
+        }
+
+        mPipeline.start();
+    }
+
+    private StorageMode storageMode() {
+
+        if (storage.equals("SESSION_LOG")) {
+            return StorageMode.SESSION_LOG;
+        }
+
+        if (storage.equals("MAPPED_SESSION_LOG")) {
+            return StorageMode.MAPPED_SESSION_LOG;
+        }
+
+        return StorageMode.PER_SENSOR_FILES;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+
+        mPipeline.close();
+        SyntheticSamples.deleteFolder(mFolder);
+    }
+
+    /**
+     * Samples per second, over all sensors.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(LAYOUT_COUNT)
+    public void throughput() {
+
+        for (int i = 0; i < LAYOUTS.length; i++) {
+            SyntheticSamples samples = mSamples[i];
+            samples.next();
+            mChannels[i].receive(samples.getTimestamp(), samples.getValues());
+        }
+    }
+
+}
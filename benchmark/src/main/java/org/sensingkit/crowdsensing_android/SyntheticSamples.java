@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Pre-generated samples equivalent to what SensorDataExtractor produces
+ * from SensingKit's SKSensorData: a slow sine per field plus noise, at a
+ * fixed rate. Generated once so that the benchmarks do not measure the
+ * generator.
+ */
+public class SyntheticSamples {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SyntheticSamples";
+
+    // A power of two, so that next() can wrap with a mask
+    public static final int COUNT = 4096;
+
+    private final RecordLayout mLayout;
+    private final long[] mTimestamps = new long[COUNT];
+    private final float[][] mValues = new float[COUNT][];
+    private final long mCycleMillis;
+    private long mOffset;
+    private int mIndex;
+
+    public SyntheticSamples(RecordLayout layout, double rateHz) {
+
+        this.mLayout = layout;
+
+        Random random = new Random(42);
+        long start = 1500000000000L;
+        int fieldCount = layout.getFieldCount();
+
+        for (int i = 0; i < COUNT; i++) {
+
+            mTimestamps[i] = start + Math.round(i * 1000 / rateHz);
+            mValues[i] = new float[fieldCount];
+
+            for (int field = 0; field < fieldCount; field++) {
+                double signal = Math.sin(2 * Math.PI * (field + 1) * i / rateHz);
+                mValues[i][field] = (layout.getFieldType(field) == RecordLayout.FieldType.INT32)
+                        ? (float) Math.round(50 + 20 * signal + random.nextGaussian())
+                        : (float) (9.81 * signal + 0.05 * random.nextGaussian());
+            }
+        }
+
+        mCycleMillis = Math.round(COUNT * 1000 / rateHz);
+    }
+
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    /**
+     * Moves on to the next sample, cycling through the samples. The
+     * timestamps keep increasing from one cycle to the next.
+     */
+    public void next() {
+
+        mIndex = (mIndex + 1) & (COUNT - 1);
+
+        if (mIndex == 0) {
+            mOffset += mCycleMillis;
+        }
+    }
+
+    public long getTimestamp() {
+        return mTimestamps[mIndex] + mOffset;
+    }
+
+    public float[] getValues() {
+        return mValues[mIndex];
+    }
+
+    static File createTempFolder() throws IOException {
+
+        File folder = File.createTempFile("benchmark", "");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IOException("Folder " + folder + " could not be created.");
+        }
+
+        return folder;
+    }
+
+    static void deleteFolder(File folder) {
+
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+}
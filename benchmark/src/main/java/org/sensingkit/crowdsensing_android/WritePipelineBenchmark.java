@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One sensor's write path as ModelWriter runs it on the callback thread:
+ * encode, buffer and append to the file, flushing every flushEvery samples
+ * (0 for never). Each iteration writes a new file, which is deleted
+ * afterwards.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WritePipelineBenchmark {
+
+    @Param({"CSV", "BINARY", "COMPRESSED"})
+    public String format;
+
+    @Param({"0", "256"})
+    public int flushEvery;
+
+    private SyntheticSamples mSamples;
+    private File mFolder;
+    private RecordFileWriter mWriter;
+    private int mCount;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+
+        mSamples = new SyntheticSamples(RecordLayout.ACCELEROMETER, 200);
+        mFolder = SyntheticSamples.createTempFolder();
+        mWriter = new RecordFileWriter(mFolder, "Accelerometer", RecordFormat.valueOf(format), RecordLayout.ACCELEROMETER);
+        mCount = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        mWriter.close();
+        SyntheticSamples.deleteFolder(mFolder);
+    }
+
+    private void write() throws IOException {
+
+        mSamples.next();
+        mWriter.write(mSamples.getTimestamp(), mSamples.getValues());
+
+        if (flushEvery > 0 && ++mCount == flushEvery) {
+            mWriter.flush();
+            mCount = 0;
+        }
+    }
+
+    /**
+     * Samples per second.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput() throws IOException {
+        write();
+    }
+
+    /**
+     * Latency percentiles per sample, including the periodic flushes.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void latency() throws IOException {
+        write();
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the entries of an export archive (see SessionExporter). File
+ * contents are copied from a channel, with FileChannel.transferTo when the
+ * archive stores them as they are, so that no file is held in memory.
+ */
+public abstract class ArchiveOutput {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "ArchiveOutput";
+
+    /**
+     * Receives the number of bytes copied into the archive as they are copied.
+     */
+    public interface CopyListener {
+        void onCopied(long bytes);
+    }
+
+    // Bytes copied per transferTo call, between two progress reports
+    static final long TRANSFER_SLICE = 4 * 1024 * 1024;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private CopyListener mCopyListener;
+
+    public void setCopyListener(CopyListener copyListener) {
+        this.mCopyListener = copyListener;
+    }
+
+    /**
+     * Adds the first length bytes of the source as an entry.
+     *
+     * @param crc32 the CRC-32 of those bytes
+     */
+    public abstract void putFile(String name, FileChannel source, long length, long lastModified, long crc32) throws IOException;
+
+    /**
+     * Adds a small entry held in memory, e.g. the export manifest.
+     */
+    public abstract void putBytes(String name, byte[] data, long lastModified, long crc32) throws IOException;
+
+    /**
+     * Writes the end of the archive and closes it.
+     */
+    public abstract void finish() throws IOException;
+
+    /**
+     * Closes the archive without finishing it, e.g. after a failure.
+     */
+    public abstract void abort();
+
+    /**
+     * Copies length bytes from the start of the source with transferTo.
+     */
+    protected void transfer(FileChannel source, long length, WritableByteChannel target) throws IOException {
+
+        long position = 0;
+
+        while (position < length) {
+
+            long count = source.transferTo(position, Math.min(TRANSFER_SLICE, length - position), target);
+
+            if (count <= 0) {
+                throw new IOException("File shrank during export: " + position + " of " + length + " bytes.");
+            }
+
+            position += count;
+            copied(count);
+        }
+    }
+
+    /**
+     * Copies length bytes from the start of the source through a buffer, e.g. into a compressing stream.
+     */
+    protected void copy(FileChannel source, long length, OutputStream target) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = 0;
+        long reported = 0;
+
+        while (position < length) {
+
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - position));
+
+            int count = source.read(buffer, position);
+            if (count <= 0) {
+                throw new IOException("File shrank during export: " + position + " of " + length + " bytes.");
+            }
+
+            target.write(buffer.array(), 0, count);
+            position += count;
+
+            if (position - reported >= TRANSFER_SLICE || position == length) {
+                copied(position - reported);
+                reported = position;
+            }
+        }
+    }
+
+    protected void copied(long bytes) {
+        if (mCopyListener != null) {
+            mCopyListener.onCopied(bytes);
+        }
+    }
+
+}
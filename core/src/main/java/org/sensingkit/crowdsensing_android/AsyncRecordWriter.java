@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background I/O stage between the sensor callbacks and the RecordSinks.
+ * Every sink gets its own SampleRingBuffer; a single thread drains all of
+ * them in batches, so that callbacks never wait on a disk write.
+ */
+public class AsyncRecordWriter implements Runnable {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "AsyncRecordWriter";
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static class Channel {
+
+        final SampleRingBuffer ringBuffer;
+        final RecordSink sink;
+        final float[] scratch;
+
+        Channel(SampleRingBuffer ringBuffer, RecordSink sink) {
+            this.ringBuffer = ringBuffer;
+            this.sink = sink;
+            this.scratch = new float[ringBuffer.getFieldCount()];
+        }
+    }
+
+    private final List<Channel> mChannels = new CopyOnWriteArrayList<>();
+    private final long mIdleNanos;
+    private final int mBatchSize;
+
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    // Drain requests, guarded by this
+    private long mDrainRequested;
+    private long mDrainCompleted;
+
+    public AsyncRecordWriter(long drainIntervalMillis) {
+        this(drainIntervalMillis, DEFAULT_BATCH_SIZE);
+    }
+
+    public AsyncRecordWriter(long drainIntervalMillis, int batchSize) {
+        this.mIdleNanos = TimeUnit.MILLISECONDS.toNanos(drainIntervalMillis);
+        this.mBatchSize = batchSize;
+    }
+
+    /**
+     * Creates the ring buffer that feeds the given sink. Must be called once per sink.
+     */
+    public SampleRingBuffer addChannel(RecordSink sink, int fieldCount, int capacity, OverflowPolicy policy) {
+
+        SampleRingBuffer ringBuffer = new SampleRingBuffer(capacity, fieldCount, policy);
+        mChannels.add(new Channel(ringBuffer, sink));
+        return ringBuffer;
+    }
+
+    public synchronized void start() {
+
+        if (mThread != null) {
+            return;
+        }
+
+        mRunning = true;
+        mThread = new Thread(this, "CrowdSensing-Writer");
+        mThread.start();
+    }
+
+    public boolean isRunning() {
+        return this.mRunning;
+    }
+
+    public long getDroppedCount() {
+
+        long dropped = 0;
+        for (Channel channel : mChannels) {
+            dropped += channel.ringBuffer.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    /**
+     * Blocks until every sample offered before this call has reached its sink.
+     */
+    public void drain() {
+
+        synchronized (this) {
+
+            if (mThread == null) {
+                drainNow();
+                return;
+            }
+
+            long request = ++mDrainRequested;
+            LockSupport.unpark(mThread);
+
+            boolean interrupted = false;
+            while (mDrainCompleted < request && mRunning) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Empties every ring buffer into its sink on the calling thread. Only for
+     * use while the writer thread is not running (e.g. in batched mode, where
+     * the buffers are drained on a schedule instead).
+     *
+     * @return the number of samples written
+     */
+    public long drainNow() {
+
+        long count = 0;
+
+        for (Channel channel : mChannels) {
+            int drained;
+            do {
+                drained = channel.ringBuffer.drainTo(channel.sink, channel.scratch, mBatchSize);
+                count += drained;
+            } while (drained == mBatchSize);
+        }
+
+        return count;
+    }
+
+    /**
+     * Drains all buffers, stops the thread and closes the ring buffers.
+     */
+    public void close() {
+
+        drain();
+
+        Thread thread;
+        synchronized (this) {
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+            notifyAll();
+        }
+
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (Channel channel : mChannels) {
+            channel.ringBuffer.close();
+        }
+
+        // Anything that slipped in while stopping
+        drainNow();
+    }
+
+    @Override
+    public void run() {
+
+        while (mRunning) {
+
+            long request;
+            synchronized (this) {
+                request = mDrainRequested;
+            }
+
+            boolean empty = drainAll();
+
+            if (empty) {
+
+                synchronized (this) {
+                    if (mDrainCompleted < request) {
+                        mDrainCompleted = request;
+                        notifyAll();
+                    }
+                }
+
+                LockSupport.parkNanos(this, mIdleNanos);
+            }
+        }
+    }
+
+    /**
+     * Runs one pass over all channels.
+     *
+     * @return true if every ring buffer was emptied during the pass
+     */
+    private boolean drainAll() {
+
+        boolean empty = true;
+
+        for (Channel channel : mChannels) {
+            if (channel.ringBuffer.drainTo(channel.sink, channel.scratch, mBatchSize) == mBatchSize) {
+                empty = false;
+            }
+        }
+
+        return empty;
+    }
+
+}
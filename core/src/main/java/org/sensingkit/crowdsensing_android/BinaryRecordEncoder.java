@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Encodes samples into the binary recording format: a self-describing header
+ * (magic, schema version, sensor layout and field list) followed by
+ * fixed-width little-endian records.
+ */
+public class BinaryRecordEncoder implements RecordEncoder {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "BinaryRecordEncoder";
+
+    public static final byte[] MAGIC = {'C', 'S', 'K', 'B'};
+    public static final int SCHEMA_VERSION = 1;
+
+    private final RecordLayout mLayout;
+
+    public BinaryRecordEncoder(RecordLayout layout) {
+        this.mLayout = layout;
+    }
+
+    @Override
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    @Override
+    public int getMaxRecordSize() {
+        return mLayout.getRecordSize();
+    }
+
+    @Override
+    public byte[] encodeHeader() {
+        return encodeHeader(mLayout, MAGIC, SCHEMA_VERSION);
+    }
+
+    /**
+     * Builds the self-describing header: magic, schema version, layout code,
+     * field count, record size and the type and name of every field.
+     */
+    static byte[] encodeHeader(RecordLayout layout, byte[] magic, int schemaVersion) {
+
+        int size = magic.length + 6;
+        for (int i = 0; i < layout.getFieldCount(); i++) {
+            size += 2 + layout.getFieldName(i).length();
+        }
+
+        byte[] header = new byte[size];
+        System.arraycopy(magic, 0, header, 0, magic.length);
+
+        int offset = magic.length;
+        LittleEndian.putShort(header, offset, schemaVersion);
+        header[offset + 2] = (byte) layout.getCode();
+        header[offset + 3] = (byte) layout.getFieldCount();
+        LittleEndian.putShort(header, offset + 4, layout.getRecordSize());
+        offset += 6;
+
+        for (int i = 0; i < layout.getFieldCount(); i++) {
+            String name = layout.getFieldName(i);
+            header[offset++] = (byte) layout.getFieldType(i).getCode();
+            header[offset++] = (byte) name.length();
+            for (int c = 0; c < name.length(); c++) {
+                header[offset++] = (byte) name.charAt(c);
+            }
+        }
+
+        return header;
+    }
+
+    /**
+     * Writes one record into dst and returns the number of bytes written,
+     * which is always the layout's record size.
+     */
+    @Override
+    public int encode(long timestamp, float[] values, byte[] dst, int offset) {
+
+        LittleEndian.putLong(dst, offset, timestamp);
+        int position = offset + RecordLayout.TIMESTAMP_SIZE;
+
+        for (int i = 0; i < mLayout.getFieldCount(); i++) {
+
+            int bits;
+            if (mLayout.getFieldType(i) == RecordLayout.FieldType.INT32) {
+                bits = (int) values[i];
+            }
+            else {
+                bits = Float.floatToRawIntBits(values[i]);
+            }
+
+            LittleEndian.putInt(dst, position, bits);
+            position += RecordLayout.FIELD_SIZE;
+        }
+
+        return position - offset;
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream written by BinaryRecordEncoder. The header is parsed on
+ * construction; records are then read one at a time into reusable fields.
+ */
+public class BinaryRecordReader implements RecordReader {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "BinaryRecordReader";
+
+    private final InputStream mInputStream;
+    private final RecordLayout mLayout;
+    private final int mSchemaVersion;
+
+    private final byte[] mRecord;
+    private final float[] mValues;
+    private long mTimestamp;
+
+    /**
+     * Layout and schema version found in a recording's header.
+     */
+    static class Header {
+
+        final RecordLayout layout;
+        final int schemaVersion;
+
+        Header(RecordLayout layout, int schemaVersion) {
+            this.layout = layout;
+            this.schemaVersion = schemaVersion;
+        }
+    }
+
+    public BinaryRecordReader(InputStream inputStream) throws IOException {
+        this(inputStream, readHeader(inputStream, BinaryRecordEncoder.MAGIC, BinaryRecordEncoder.SCHEMA_VERSION));
+    }
+
+    /**
+     * Reads records from a stream positioned past the header, e.g. at an indexed record.
+     */
+    BinaryRecordReader(InputStream inputStream, Header header) {
+
+        this.mInputStream = inputStream;
+
+        mLayout = header.layout;
+        mSchemaVersion = header.schemaVersion;
+
+        mRecord = new byte[mLayout.getRecordSize()];
+        mValues = new float[mLayout.getFieldCount()];
+    }
+
+    /**
+     * Parses a header written by BinaryRecordEncoder.encodeHeader with the given magic.
+     */
+    static Header readHeader(InputStream inputStream, byte[] magic, int supportedVersion) throws IOException {
+
+        byte[] fixed = new byte[magic.length + 6];
+        if (!readFully(inputStream, fixed, fixed.length)) {
+            throw new IOException("Truncated header.");
+        }
+
+        for (int i = 0; i < magic.length; i++) {
+            if (fixed[i] != magic[i]) {
+                throw new IOException("Not a binary recording.");
+            }
+        }
+
+        int offset = magic.length;
+        int schemaVersion = LittleEndian.getShort(fixed, offset);
+        if (schemaVersion > supportedVersion) {
+            throw new IOException("Unsupported schema version " + schemaVersion + ".");
+        }
+
+        RecordLayout layout = RecordLayout.forCode(fixed[offset + 2] & 0xFF);
+        if (layout == null) {
+            throw new IOException("Unknown record layout " + (fixed[offset + 2] & 0xFF) + ".");
+        }
+
+        int fieldCount = fixed[offset + 3] & 0xFF;
+        int recordSize = LittleEndian.getShort(fixed, offset + 4);
+        if (fieldCount != layout.getFieldCount() || recordSize != layout.getRecordSize()) {
+            throw new IOException("Header does not match layout " + layout + ".");
+        }
+
+        // Skip the field descriptors, the layout already describes them
+        byte[] descriptor = new byte[2];
+        for (int i = 0; i < fieldCount; i++) {
+            if (!readFully(inputStream, descriptor, descriptor.length) || !skipFully(inputStream, descriptor[1] & 0xFF)) {
+                throw new IOException("Truncated header.");
+            }
+        }
+
+        return new Header(layout, schemaVersion);
+    }
+
+    @Override
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    public int getSchemaVersion() {
+        return this.mSchemaVersion;
+    }
+
+    /**
+     * Reads the next record. Returns false at the end of the stream, or when
+     * the stream ends in the middle of a record.
+     */
+    @Override
+    public boolean readRecord() throws IOException {
+
+        if (!readFully(mInputStream, mRecord, mRecord.length)) {
+            return false;
+        }
+
+        mTimestamp = decode(mLayout, mRecord, 0, mValues);
+
+        return true;
+    }
+
+    /**
+     * Decodes one fixed-width record starting at offset into values.
+     *
+     * @return the record's timestamp
+     */
+    static long decode(RecordLayout layout, byte[] src, int offset, float[] values) {
+
+        int position = offset + RecordLayout.TIMESTAMP_SIZE;
+
+        for (int i = 0; i < layout.getFieldCount(); i++) {
+
+            int bits = LittleEndian.getInt(src, position);
+            if (layout.getFieldType(i) == RecordLayout.FieldType.INT32) {
+                values[i] = bits;
+            }
+            else {
+                values[i] = Float.intBitsToFloat(bits);
+            }
+            position += RecordLayout.FIELD_SIZE;
+        }
+
+        return LittleEndian.getLong(src, offset);
+    }
+
+    @Override
+    public long getTimestamp() {
+        return this.mTimestamp;
+    }
+
+    @Override
+    public float[] getValues() {
+        return this.mValues;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInputStream.close();
+    }
+
+    static boolean readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+
+        int read = 0;
+        while (read < length) {
+            int count = inputStream.read(buffer, read, length - read);
+            if (count < 0) {
+                return false;
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    private static boolean skipFully(InputStream inputStream, long count) throws IOException {
+
+        while (count > 0) {
+            if (inputStream.read() < 0) {
+                return false;
+            }
+            count--;
+        }
+        return true;
+    }
+
+}
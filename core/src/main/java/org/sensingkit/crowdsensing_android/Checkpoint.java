@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Durable lengths of the files of a session, as of the last group flush.
+ * Stored as a small text file in the session folder that is replaced
+ * atomically (write, sync, rename) on every commit.
+ */
+public class Checkpoint {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "Checkpoint";
+
+    public static final String FILE_NAME = "Checkpoint.csv";
+    private static final String TEMP_FILE_NAME = "Checkpoint.tmp";
+
+    public enum State {
+        OPEN,
+        CLOSED,
+        RECOVERED
+    }
+
+    private final File mFolder;
+    private final Map<String, Long> mLengths = new LinkedHashMap<>();
+    private long mSequence;
+    private long mTimestamp;
+    private State mState = State.OPEN;
+
+    public Checkpoint(File folder) {
+        this.mFolder = folder;
+    }
+
+    public File getFolder() {
+        return this.mFolder;
+    }
+
+    /**
+     * Records the durable length of a file. Takes effect on the next commit.
+     */
+    public synchronized void update(String fileName, long length) {
+        mLengths.put(fileName, length);
+    }
+
+    public synchronized Map<String, Long> getLengths() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(mLengths));
+    }
+
+    public synchronized long getSequence() {
+        return this.mSequence;
+    }
+
+    public synchronized long getTimestamp() {
+        return this.mTimestamp;
+    }
+
+    public synchronized State getState() {
+        return this.mState;
+    }
+
+    /**
+     * Atomically replaces the checkpoint file with the current lengths.
+     */
+    public synchronized void commit(State state) throws IOException {
+
+        mSequence++;
+        mTimestamp = System.currentTimeMillis();
+        mState = state;
+
+        File temp = new File(mFolder, TEMP_FILE_NAME);
+        FileOutputStream stream = new FileOutputStream(temp);
+
+        try {
+            Writer writer = new OutputStreamWriter(stream, "UTF-8");
+            writer.write("sequence," + mSequence + "\n");
+            writer.write("timestamp," + mTimestamp + "\n");
+            writer.write("state," + mState.name() + "\n");
+            for (Map.Entry<String, Long> entry : mLengths.entrySet()) {
+                writer.write("file," + entry.getKey() + "," + entry.getValue() + "\n");
+            }
+            writer.flush();
+            stream.getFD().sync();
+        }
+        finally {
+            stream.close();
+        }
+
+        if (!temp.renameTo(new File(mFolder, FILE_NAME))) {
+            throw new IOException("Checkpoint could not be committed.");
+        }
+    }
+
+    /**
+     * Loads the checkpoint of the given session folder.
+     *
+     * @return the checkpoint, or null if the folder has none
+     */
+    public static Checkpoint read(File folder) throws IOException {
+
+        File file = new File(folder, FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+
+        Checkpoint checkpoint = new Checkpoint(folder);
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                String[] parts = line.split(",");
+
+                if (parts[0].equals("sequence")) {
+                    checkpoint.mSequence = Long.parseLong(parts[1]);
+                }
+                else if (parts[0].equals("timestamp")) {
+                    checkpoint.mTimestamp = Long.parseLong(parts[1]);
+                }
+                else if (parts[0].equals("state")) {
+                    checkpoint.mState = State.valueOf(parts[1]);
+                }
+                else if (parts[0].equals("file") && parts.length == 3) {
+                    checkpoint.mLengths.put(parts[1], Long.parseLong(parts[2]));
+                }
+            }
+        }
+        catch (IllegalArgumentException ex) {
+            throw new IOException("Corrupt checkpoint: " + ex.getMessage());
+        }
+        finally {
+            reader.close();
+        }
+
+        return checkpoint;
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Brings sessions that were not closed cleanly back to their last
+ * checkpoint: files are truncated to their checkpointed length, and data
+ * files created after the checkpoint (session log segments and sensor file
+ * chunks) are deleted. Chunks listed in the manifest were synced when they
+ * were closed and are kept as they are. Other files that the checkpoint
+ * does not know about are left alone. Time indexes stay valid, as their
+ * entries past the truncated length are ignored.
+ */
+public final class CheckpointRecovery {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "CheckpointRecovery";
+
+    // Sensor file chunks, e.g. Accelerometer-00012.csv
+    private static final Pattern CHUNK_PATTERN = Pattern.compile(".+-\\d{5}\\.[a-z]+");
+
+    /**
+     * What a recovery pass discarded from one session.
+     */
+    public static class Report {
+
+        private final File mFolder;
+        private final long mCheckpointTimestamp;
+        private final Map<String, Long> mLostBytes = new LinkedHashMap<>();
+
+        Report(File folder, long checkpointTimestamp) {
+            this.mFolder = folder;
+            this.mCheckpointTimestamp = checkpointTimestamp;
+        }
+
+        public File getFolder() {
+            return this.mFolder;
+        }
+
+        /**
+         * Wall-clock time of the checkpoint the session was recovered to.
+         */
+        public long getCheckpointTimestamp() {
+            return this.mCheckpointTimestamp;
+        }
+
+        /**
+         * Bytes discarded per file name.
+         */
+        public Map<String, Long> getLostBytes() {
+            return this.mLostBytes;
+        }
+
+        public long getTotalLostBytes() {
+
+            long total = 0;
+            for (long bytes : mLostBytes.values()) {
+                total += bytes;
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d bytes in %d files discarded after checkpoint at %d",
+                    mFolder.getName(), getTotalLostBytes(), mLostBytes.size(), mCheckpointTimestamp);
+        }
+    }
+
+    private CheckpointRecovery() {
+    }
+
+    /**
+     * Recovers every session folder in the list that has an open checkpoint.
+     */
+    public static List<Report> recoverAll(File[] sessionFolders) {
+
+        List<Report> reports = new ArrayList<>();
+
+        for (File folder : sessionFolders) {
+            try {
+                Report report = recover(folder);
+                if (report != null) {
+                    reports.add(report);
+                }
+            }
+            catch (IOException ex) {
+                // Leave this session untouched and carry on with the others
+            }
+        }
+
+        return reports;
+    }
+
+    public static File[] listSessionFolders(File appFolder) {
+
+        File[] folders = appFolder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+
+        return (folders != null) ? folders : new File[0];
+    }
+
+    /**
+     * @return what was discarded, or null if the session was closed cleanly or has no checkpoint
+     */
+    public static Report recover(File folder) throws IOException {
+
+        Checkpoint checkpoint = Checkpoint.read(folder);
+
+        if (checkpoint == null || checkpoint.getState() != Checkpoint.State.OPEN) {
+            return null;
+        }
+
+        Map<String, Long> lengths = checkpoint.getLengths();
+        SessionManifest manifest = SessionManifest.read(folder);
+        Report report = new Report(folder, checkpoint.getTimestamp());
+
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return null;
+        }
+
+        for (File file : files) {
+
+            String name = file.getName();
+            if (name.startsWith("Checkpoint.") || file.isDirectory()) {
+                continue;
+            }
+
+            // Closed chunks are complete
+            if (manifest != null && manifest.contains(name)) {
+                continue;
+            }
+
+            Long length = lengths.get(name);
+
+            if (length == null && isCreatedDuringRecording(name)) {
+
+                // Created after the checkpoint
+                report.mLostBytes.put(name, file.length());
+                if (!file.delete()) {
+                    throw new IOException("File " + name + " could not be deleted.");
+                }
+                TimeIndex.fileFor(file).delete();
+            }
+            else if (length != null && file.length() > length) {
+
+                report.mLostBytes.put(name, file.length() - length);
+                RandomAccessFile access = new RandomAccessFile(file, "rw");
+                try {
+                    access.setLength(length);
+                }
+                finally {
+                    access.close();
+                }
+            }
+        }
+
+        // Only recover once
+        checkpoint.commit(Checkpoint.State.RECOVERED);
+
+        return report;
+    }
+
+    static boolean isCreatedDuringRecording(String name) {
+        return name.startsWith(SessionLogWriter.SEGMENT_PREFIX) || CHUNK_PATTERN.matcher(name).matches();
+    }
+
+}
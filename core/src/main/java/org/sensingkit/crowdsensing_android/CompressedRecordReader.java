@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a stream written by CompressedRecordWriter, one block at a time.
+ * A block cut short at the end of the stream is ignored.
+ */
+public class CompressedRecordReader implements RecordReader {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "CompressedRecordReader";
+
+    private final InputStream mInputStream;
+    private final RecordLayout mLayout;
+    private final Inflater mInflater = new Inflater();
+
+    private final byte[] mBlockHeader = new byte[CompressedRecordWriter.BLOCK_HEADER_SIZE];
+    private byte[] mCompressed = new byte[0];
+    private byte[] mRaw = new byte[0];
+    private int mRawLength;
+    private int mPosition;
+
+    private final float[] mValues;
+    private long mTimestamp;
+
+    public CompressedRecordReader(InputStream inputStream) throws IOException {
+        this(inputStream, BinaryRecordReader.readHeader(inputStream,
+                CompressedRecordWriter.MAGIC, CompressedRecordWriter.SCHEMA_VERSION).layout);
+    }
+
+    /**
+     * Reads blocks from a stream positioned past the header, e.g. at an indexed block.
+     */
+    CompressedRecordReader(InputStream inputStream, RecordLayout layout) {
+        this.mInputStream = inputStream;
+        this.mLayout = layout;
+        this.mValues = new float[mLayout.getFieldCount()];
+    }
+
+    @Override
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    @Override
+    public boolean readRecord() throws IOException {
+
+        if (mPosition >= mRawLength) {
+            if (!readBlock()) {
+                return false;
+            }
+        }
+
+        // Timestamp delta
+        long delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = mRaw[mPosition++];
+            delta |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        mTimestamp += VarInt.unZigZag(delta);
+
+        for (int i = 0; i < mValues.length; i++) {
+
+            int bits = LittleEndian.getInt(mRaw, mPosition);
+            if (mLayout.getFieldType(i) == RecordLayout.FieldType.INT32) {
+                mValues[i] = bits;
+            }
+            else {
+                mValues[i] = Float.intBitsToFloat(bits);
+            }
+            mPosition += RecordLayout.FIELD_SIZE;
+        }
+
+        return true;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return this.mTimestamp;
+    }
+
+    @Override
+    public float[] getValues() {
+        return this.mValues;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInflater.end();
+        mInputStream.close();
+    }
+
+    private boolean readBlock() throws IOException {
+
+        if (!BinaryRecordReader.readFully(mInputStream, mBlockHeader, mBlockHeader.length)) {
+            return false;
+        }
+
+        int compressedLength = LittleEndian.getInt(mBlockHeader, 0);
+        int rawLength = LittleEndian.getInt(mBlockHeader, 4);
+
+        if (compressedLength < 0 || rawLength <= 0) {
+            throw new IOException("Corrupt block header.");
+        }
+
+        if (mCompressed.length < compressedLength) {
+            mCompressed = new byte[compressedLength];
+        }
+        if (mRaw.length < rawLength) {
+            mRaw = new byte[rawLength];
+        }
+
+        if (!BinaryRecordReader.readFully(mInputStream, mCompressed, compressedLength)) {
+            return false;
+        }
+
+        mInflater.reset();
+        mInflater.setInput(mCompressed, 0, compressedLength);
+
+        try {
+            int length = 0;
+            while (length < rawLength && !mInflater.finished()) {
+                int count = mInflater.inflate(mRaw, length, rawLength - length);
+                if (count == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) {
+                    break;
+                }
+                length += count;
+            }
+
+            if (length != rawLength) {
+                throw new IOException("Corrupt block: expected " + rawLength + " bytes, got " + length + ".");
+            }
+        }
+        catch (DataFormatException ex) {
+            throw new IOException(ex.getMessage());
+        }
+
+        mRawLength = rawLength;
+        mPosition = 0;
+        mTimestamp = 0;
+
+        return true;
+    }
+
+}
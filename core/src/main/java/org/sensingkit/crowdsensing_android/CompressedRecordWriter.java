@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes samples as independently decodable compressed blocks. Inside a
+ * block, each record is the zig-zag varint delta of its timestamp from the
+ * previous record (from zero for the first one), followed by the fields as
+ * little-endian 32-bit values. The block is then deflated.
+ *
+ * File layout: a BinaryRecordEncoder-style header with its own magic, then
+ * blocks of [compressed length][raw length][record count] (32-bit each)
+ * followed by the zlib stream.
+ */
+public class CompressedRecordWriter {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "CompressedRecordWriter";
+
+    public static final byte[] MAGIC = {'C', 'S', 'K', 'Z'};
+    public static final int SCHEMA_VERSION = 1;
+    public static final int BLOCK_HEADER_SIZE = 12;
+
+    public static final int DEFAULT_BLOCK_RECORDS = 1024;
+
+    private final RecordLayout mLayout;
+    private final OutputStream mOutput;
+    private final Deflater mDeflater;
+    private final int mBlockRecords;
+
+    private final byte[] mRaw;
+    private int mRawLength;
+    private int mRecordCount;
+    private long mPreviousTimestamp;
+
+    private byte[] mCompressed;
+    private final byte[] mBlockHeader = new byte[BLOCK_HEADER_SIZE];
+
+    // Totals
+    private long mRawBytes;
+    private long mCompressedBytes;
+    private long mBlockCount;
+
+    public CompressedRecordWriter(RecordLayout layout, OutputStream output) throws IOException {
+        this(layout, output, DEFAULT_BLOCK_RECORDS, Deflater.BEST_SPEED);
+    }
+
+    public CompressedRecordWriter(RecordLayout layout, OutputStream output, int blockRecords, int level) throws IOException {
+        this(layout, output, blockRecords, level, true);
+    }
+
+    /**
+     * @param writeHeader false to append blocks to a file that has its header already
+     */
+    CompressedRecordWriter(RecordLayout layout, OutputStream output, int blockRecords, int level, boolean writeHeader) throws IOException {
+
+        this.mLayout = layout;
+        this.mOutput = output;
+        this.mBlockRecords = blockRecords;
+        this.mDeflater = new Deflater(level);
+
+        int maxRecordSize = VarInt.MAX_SIZE + RecordLayout.FIELD_SIZE * layout.getFieldCount();
+        this.mRaw = new byte[blockRecords * maxRecordSize];
+        this.mCompressed = new byte[mRaw.length + mRaw.length / 16 + 64];
+
+        if (writeHeader) {
+            output.write(BinaryRecordEncoder.encodeHeader(layout, MAGIC, SCHEMA_VERSION));
+        }
+    }
+
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    public void write(long timestamp, float[] values) throws IOException {
+
+        int position = VarInt.write(VarInt.zigZag(timestamp - mPreviousTimestamp), mRaw, mRawLength);
+        mPreviousTimestamp = timestamp;
+
+        for (int i = 0; i < mLayout.getFieldCount(); i++) {
+
+            int bits;
+            if (mLayout.getFieldType(i) == RecordLayout.FieldType.INT32) {
+                bits = (int) values[i];
+            }
+            else {
+                bits = Float.floatToRawIntBits(values[i]);
+            }
+
+            LittleEndian.putInt(mRaw, position, bits);
+            position += RecordLayout.FIELD_SIZE;
+        }
+
+        mRawLength = position;
+        mRecordCount++;
+
+        if (mRecordCount == mBlockRecords) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Compresses and writes the pending records as one block, if any.
+     *
+     * @return the number of bytes written to the output
+     */
+    public int flushBlock() throws IOException {
+
+        if (mRecordCount == 0) {
+            return 0;
+        }
+
+        mDeflater.reset();
+        mDeflater.setInput(mRaw, 0, mRawLength);
+        mDeflater.finish();
+
+        int length = 0;
+        while (!mDeflater.finished()) {
+            if (length == mCompressed.length) {
+                mCompressed = Arrays.copyOf(mCompressed, mCompressed.length * 2);
+            }
+            length += mDeflater.deflate(mCompressed, length, mCompressed.length - length);
+        }
+
+        LittleEndian.putInt(mBlockHeader, 0, length);
+        LittleEndian.putInt(mBlockHeader, 4, mRawLength);
+        LittleEndian.putInt(mBlockHeader, 8, mRecordCount);
+        mOutput.write(mBlockHeader);
+        mOutput.write(mCompressed, 0, length);
+
+        mRawBytes += mRawLength;
+        mCompressedBytes += BLOCK_HEADER_SIZE + length;
+        mBlockCount++;
+
+        // Every block starts from scratch so that it can be decoded on its own
+        mRawLength = 0;
+        mRecordCount = 0;
+        mPreviousTimestamp = 0;
+
+        return BLOCK_HEADER_SIZE + length;
+    }
+
+    /**
+     * Writes the pending block and releases the compressor. Does not close the output.
+     */
+    public void close() throws IOException {
+        flushBlock();
+        mDeflater.end();
+    }
+
+    /**
+     * Records written since the last block, 0 when the next record starts a block.
+     */
+    public int getPendingRecordCount() {
+        return this.mRecordCount;
+    }
+
+    public long getRawBytes() {
+        return this.mRawBytes;
+    }
+
+    public long getCompressedBytes() {
+        return this.mCompressedBytes;
+    }
+
+    public long getBlockCount() {
+        return this.mBlockCount;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.util.Locale;
+
+/**
+ * Encodes samples as CSV lines straight into a byte array, using the same
+ * "%d,%f,..." layout as SensingKit's getDataInCSV(), without creating any
+ * intermediate Strings.
+ */
+public class CsvRecordEncoder implements RecordEncoder {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "CsvRecordEncoder";
+
+    private static final int FRACTION_DIGITS = 6;
+    private static final long FRACTION_SCALE = 1000000L;
+
+    // Values at or above this magnitude would overflow the scaled long and
+    // are formatted through String.format (never reached by motion sensors)
+    private static final double MAX_FAST_VALUE = 1e12;
+
+    // Sign, 39 integer digits of Float.MAX_VALUE, point and fraction
+    static final int MAX_FIELD_SIZE = 1 + 39 + 1 + FRACTION_DIGITS;
+    static final int MAX_LONG_SIZE = 20;
+
+    private static final byte[] EMPTY_HEADER = new byte[0];
+
+    private final RecordLayout mLayout;
+
+    public CsvRecordEncoder(RecordLayout layout) {
+        this.mLayout = layout;
+    }
+
+    @Override
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    @Override
+    public byte[] encodeHeader() {
+        return EMPTY_HEADER;
+    }
+
+    @Override
+    public int getMaxRecordSize() {
+        return MAX_LONG_SIZE + mLayout.getFieldCount() * (1 + MAX_FIELD_SIZE) + 1;
+    }
+
+    @Override
+    public int encode(long timestamp, float[] values, byte[] dst, int offset) {
+
+        int position = writeLong(timestamp, dst, offset);
+
+        for (int i = 0; i < mLayout.getFieldCount(); i++) {
+
+            dst[position++] = ',';
+
+            if (mLayout.getFieldType(i) == RecordLayout.FieldType.INT32) {
+                position = writeLong((long) values[i], dst, position);
+            }
+            else {
+                position = writeFloat(values[i], dst, position);
+            }
+        }
+
+        dst[position++] = '\n';
+
+        return position - offset;
+    }
+
+    /**
+     * Writes the decimal representation of value and returns the new position.
+     */
+    static int writeLong(long value, byte[] dst, int position) {
+
+        // Work on the negative value so that Long.MIN_VALUE is handled too
+        if (value < 0) {
+            dst[position++] = '-';
+        }
+        else {
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            dst[i] = (byte) ('0' - (value % 10));
+            value /= 10;
+        }
+
+        return end;
+    }
+
+    /**
+     * Writes value with six fraction digits (as "%f" does) and returns the new position.
+     */
+    static int writeFloat(float value, byte[] dst, int position) {
+
+        if (Float.isNaN(value)) {
+            return writeAscii("NaN", dst, position);
+        }
+
+        boolean negative = Float.floatToRawIntBits(value) < 0;
+
+        if (Float.isInfinite(value)) {
+            return writeAscii(negative ? "-Infinity" : "Infinity", dst, position);
+        }
+
+        double magnitude = Math.abs((double) value);
+
+        if (magnitude >= MAX_FAST_VALUE) {
+            return writeAscii(String.format(Locale.US, "%f", value), dst, position);
+        }
+
+        long scaled = (long) (magnitude * FRACTION_SCALE + 0.5);
+
+        if (negative) {
+            dst[position++] = '-';
+        }
+
+        position = writeLong(scaled / FRACTION_SCALE, dst, position);
+        dst[position++] = '.';
+
+        long fraction = scaled % FRACTION_SCALE;
+        for (int i = position + FRACTION_DIGITS - 1; i >= position; i--) {
+            dst[i] = (byte) ('0' + (fraction % 10));
+            fraction /= 10;
+        }
+
+        return position + FRACTION_DIGITS;
+    }
+
+    private static int writeAscii(String text, byte[] dst, int position) {
+
+        for (int i = 0; i < text.length(); i++) {
+            dst[position++] = (byte) text.charAt(i);
+        }
+
+        return position;
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reads a stream written by CsvRecordEncoder. CSV files carry no header,
+ * so the layout is given by the caller (e.g. from the file name). Lines
+ * that cannot be parsed, such as a line cut short at the end of the file,
+ * are skipped.
+ */
+public class CsvRecordReader implements RecordReader {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "CsvRecordReader";
+
+    private final BufferedReader mReader;
+    private final RecordLayout mLayout;
+    private final float[] mValues;
+    private long mTimestamp;
+    private long mSkippedLines;
+
+    public CsvRecordReader(InputStream inputStream, RecordLayout layout) throws IOException {
+        this.mReader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        this.mLayout = layout;
+        this.mValues = new float[layout.getFieldCount()];
+    }
+
+    @Override
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    @Override
+    public boolean readRecord() throws IOException {
+
+        String line;
+        while ((line = mReader.readLine()) != null) {
+
+            if (parse(line)) {
+                return true;
+            }
+
+            mSkippedLines++;
+        }
+
+        return false;
+    }
+
+    private boolean parse(String line) {
+
+        String[] fields = line.split(",");
+        if (fields.length != mValues.length + 1) {
+            return false;
+        }
+
+        try {
+            mTimestamp = Long.parseLong(fields[0]);
+            for (int i = 0; i < mValues.length; i++) {
+                mValues[i] = Float.parseFloat(fields[i + 1]);
+            }
+        }
+        catch (NumberFormatException ex) {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return this.mTimestamp;
+    }
+
+    @Override
+    public float[] getValues() {
+        return this.mValues;
+    }
+
+    /**
+     * Number of lines that could not be parsed.
+     */
+    public long getSkippedLineCount() {
+        return this.mSkippedLines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+}
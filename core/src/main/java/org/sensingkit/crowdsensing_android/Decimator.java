@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Streaming low-pass FIR filter followed by decimation by an integer
+ * factor, applied to every channel of a sample. The filter is a
+ * Blackman-windowed sinc with linear phase; the filter is only evaluated
+ * for the samples that are kept. Output timestamps are those of the input
+ * sample at the centre of the filter, so they are not shifted by the
+ * filter delay. The stream is extended backwards with its first sample and,
+ * on flush, forwards with its last, so that every factor-th input sample
+ * from the first to the last is kept. Does not allocate after construction.
+ */
+public class Decimator {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "Decimator";
+
+    // Filter length per unit of decimation factor
+    public static final int TAPS_PER_FACTOR = 20;
+
+    // Cut-off as a fraction of the output Nyquist frequency
+    public static final double CUTOFF_RATIO = 0.8;
+
+    private final int mChannels;
+    private final int mFactor;
+    private final double[] mCoefficients;
+
+    // Circular history of the last taps samples
+    private final float[] mHistory;
+    private final long[] mTimestamps;
+    private int mPosition;
+    private long mCount;
+
+    private final float[] mOutput;
+    private long mOutputTimestamp;
+
+    // The last sample, repeated on flush
+    private final float[] mLast;
+
+    public Decimator(int channels, int factor) {
+        this(channels, factor, TAPS_PER_FACTOR * factor + 1);
+    }
+
+    /**
+     * @param taps filter length, must be odd
+     */
+    public Decimator(int channels, int factor, int taps) {
+
+        if (factor < 1) {
+            throw new IllegalArgumentException("Factor must be at least 1.");
+        }
+        if (taps % 2 == 0) {
+            throw new IllegalArgumentException("Number of taps must be odd.");
+        }
+
+        this.mChannels = channels;
+        this.mFactor = factor;
+        this.mCoefficients = designLowPass(taps, CUTOFF_RATIO * 0.5 / factor);
+        this.mHistory = new float[taps * channels];
+        this.mTimestamps = new long[taps];
+        this.mOutput = new float[channels];
+        this.mLast = new float[channels];
+    }
+
+    /**
+     * Designs a unity-gain windowed-sinc low-pass filter.
+     *
+     * @param cutoff cut-off frequency in cycles per sample (0 to 0.5)
+     */
+    public static double[] designLowPass(int taps, double cutoff) {
+
+        double[] coefficients = new double[taps];
+        int middle = taps / 2;
+        double sum = 0;
+
+        for (int i = 0; i < taps; i++) {
+
+            int n = i - middle;
+            double sinc = (n == 0) ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * n) / (Math.PI * n);
+
+            double window = (taps == 1) ? 1 : 0.42
+                    - 0.5 * Math.cos(2 * Math.PI * i / (taps - 1))
+                    + 0.08 * Math.cos(4 * Math.PI * i / (taps - 1));
+
+            coefficients[i] = sinc * window;
+            sum += coefficients[i];
+        }
+
+        for (int i = 0; i < taps; i++) {
+            coefficients[i] /= sum;
+        }
+
+        return coefficients;
+    }
+
+    /**
+     * Gain of the filter at the given frequency in cycles per input sample.
+     */
+    public static double gainAt(double[] coefficients, double frequency) {
+
+        double re = 0;
+        double im = 0;
+
+        for (int i = 0; i < coefficients.length; i++) {
+            re += coefficients[i] * Math.cos(2 * Math.PI * frequency * i);
+            im -= coefficients[i] * Math.sin(2 * Math.PI * frequency * i);
+        }
+
+        return Math.sqrt(re * re + im * im);
+    }
+
+    public int getFactor() {
+        return this.mFactor;
+    }
+
+    public double[] getCoefficients() {
+        return this.mCoefficients.clone();
+    }
+
+    /**
+     * Adds one input sample. The first sample of a stream also fills the
+     * history before it, so that it is the centre of the first output.
+     *
+     * @return true if an output sample is ready in {@link #getOutput()}
+     */
+    public boolean process(long timestamp, float[] values) {
+
+        if (mCount == 0) {
+            for (int i = 0; i < mTimestamps.length / 2; i++) {
+                push(timestamp, values);
+            }
+        }
+
+        push(timestamp, values);
+        return filter();
+    }
+
+    /**
+     * Repeats the last sample until it is at the centre of the filter,
+     * writing the outputs still due to the sink. The next sample starts a
+     * new stream.
+     *
+     * @return the number of samples written
+     */
+    public int flush(RecordSink sink) {
+
+        if (mCount == 0) {
+            return 0;
+        }
+
+        int taps = mTimestamps.length;
+        int last = (mPosition + taps - 1) % taps;
+        long timestamp = mTimestamps[last];
+        System.arraycopy(mHistory, last * mChannels, mLast, 0, mChannels);
+
+        int written = 0;
+        for (int i = 0; i < taps / 2; i++) {
+            push(timestamp, mLast);
+            if (filter()) {
+                sink.writeRecord(mOutputTimestamp, mOutput);
+                written++;
+            }
+        }
+
+        mPosition = 0;
+        mCount = 0;
+        return written;
+    }
+
+    private void push(long timestamp, float[] values) {
+
+        System.arraycopy(values, 0, mHistory, mPosition * mChannels, mChannels);
+        mTimestamps[mPosition] = timestamp;
+        mPosition = (mPosition + 1) % mTimestamps.length;
+        mCount++;
+    }
+
+    private boolean filter() {
+
+        int taps = mTimestamps.length;
+
+        // Wait for a full history, then keep every factor-th sample
+        if (mCount < taps || (mCount - taps) % mFactor != 0) {
+            return false;
+        }
+
+        // mPosition is now the oldest sample
+        for (int c = 0; c < mChannels; c++) {
+
+            double sum = 0;
+            int index = mPosition;
+
+            for (int i = 0; i < taps; i++) {
+                sum += mCoefficients[i] * mHistory[index * mChannels + c];
+                index = (index + 1 == taps) ? 0 : index + 1;
+            }
+
+            mOutput[c] = (float) sum;
+        }
+
+        mOutputTimestamp = mTimestamps[(mPosition + taps / 2) % taps];
+        return true;
+    }
+
+    public float[] getOutput() {
+        return this.mOutput;
+    }
+
+    public long getOutputTimestamp() {
+        return this.mOutputTimestamp;
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.IOException;
+
+/**
+ * A writer that can take part in a group flush.
+ */
+public interface DurableWriter {
+
+    /**
+     * Bytes handed to the writer so far, whether durable or not.
+     */
+    long getBytesWritten();
+
+    /**
+     * Flushes and syncs everything written so far to storage, then records
+     * the resulting file lengths in the checkpoint.
+     */
+    void sync(Checkpoint checkpoint) throws IOException;
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Window, hop and FFT band settings of the feature extraction mode.
+ * Sizes are in samples, as delivered to the writer (after resampling).
+ */
+public class FeatureConfig {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "FeatureConfig";
+
+    public static final int DEFAULT_WINDOW_SIZE = 256;
+    public static final int DEFAULT_HOP_SIZE = 128;
+    public static final int DEFAULT_BAND_COUNT = 4;
+
+    private final int mWindowSize;
+    private final int mHopSize;
+    private final int mBandCount;
+
+    public FeatureConfig() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_HOP_SIZE, DEFAULT_BAND_COUNT);
+    }
+
+    /**
+     * @param windowSize samples per window
+     * @param hopSize    samples between the starts of two windows (windowSize for no overlap)
+     * @param bandCount  number of equal-width FFT bands between 0 and the Nyquist frequency
+     */
+    public FeatureConfig(int windowSize, int hopSize, int bandCount) {
+
+        if (windowSize < 2 || hopSize < 1 || bandCount < 1) {
+            throw new IllegalArgumentException("Invalid feature window: " + windowSize + "/" + hopSize + "/" + bandCount);
+        }
+
+        this.mWindowSize = windowSize;
+        this.mHopSize = hopSize;
+        this.mBandCount = bandCount;
+    }
+
+    public int getWindowSize() {
+        return this.mWindowSize;
+    }
+
+    public int getHopSize() {
+        return this.mHopSize;
+    }
+
+    public int getBandCount() {
+        return this.mBandCount;
+    }
+
+    /**
+     * Smallest power of two that holds a window.
+     */
+    public int getFftSize() {
+
+        int size = 1;
+        while (size < mWindowSize) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Sliding-window features of a sensor stream. Every hop, the last window of
+ * samples is summarised into one feature row that is passed to the target:
+ * per channel the mean, variance, min, max, zero crossings (around the
+ * mean) and FFT band energies, followed by the mean magnitude of the first
+ * (up to three) channels. The row timestamp is that of the newest sample.
+ * All buffers are allocated up front; the radix-2 FFT works in place.
+ */
+public class FeatureExtractor implements RecordSink {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "FeatureExtractor";
+
+    public static final String[] STAT_NAMES = {"mean", "variance", "min", "max", "zeroCrossings"};
+
+    private static final int MAGNITUDE_CHANNELS = 3;
+
+    private final int mChannels;
+    private final int mWindowSize;
+    private final int mHopSize;
+    private final int mBandCount;
+    private final RecordSink mTarget;
+
+    // Circular window of samples, channel-interleaved
+    private final float[] mWindow;
+    private int mPosition;
+    private long mCount;
+
+    // FFT (Hann window, bit reversal and twiddle tables)
+    private final int mFftSize;
+    private final double[] mHann;
+    private final int[] mReversed;
+    private final double[] mCos;
+    private final double[] mSin;
+    private final double[] mReal;
+    private final double[] mImaginary;
+
+    private final float[] mFeatures;
+
+    public FeatureExtractor(int channels, FeatureConfig config, RecordSink target) {
+
+        this.mChannels = channels;
+        this.mWindowSize = config.getWindowSize();
+        this.mHopSize = config.getHopSize();
+        this.mBandCount = config.getBandCount();
+        this.mTarget = target;
+
+        this.mWindow = new float[mWindowSize * channels];
+
+        this.mFftSize = config.getFftSize();
+        this.mHann = new double[mWindowSize];
+        for (int i = 0; i < mWindowSize; i++) {
+            mHann[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (mWindowSize - 1));
+        }
+
+        int bits = Integer.numberOfTrailingZeros(mFftSize);
+        this.mReversed = new int[mFftSize];
+        for (int i = 0; i < mFftSize; i++) {
+            mReversed[i] = (bits == 0) ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+
+        this.mCos = new double[mFftSize / 2];
+        this.mSin = new double[mFftSize / 2];
+        for (int i = 0; i < mFftSize / 2; i++) {
+            mCos[i] = Math.cos(2 * Math.PI * i / mFftSize);
+            mSin[i] = -Math.sin(2 * Math.PI * i / mFftSize);
+        }
+
+        this.mReal = new double[mFftSize];
+        this.mImaginary = new double[mFftSize];
+
+        this.mFeatures = new float[getFeatureCount(channels, mBandCount)];
+    }
+
+    public static int getFeatureCount(int channels, int bandCount) {
+        return channels * (STAT_NAMES.length + bandCount) + 1;
+    }
+
+    /**
+     * Column names of a feature row, e.g. x_mean, ..., x_band0, ..., magnitude.
+     */
+    public static String[] getFeatureNames(RecordLayout layout, int bandCount) {
+
+        int channels = layout.getFieldCount();
+        String[] names = new String[getFeatureCount(channels, bandCount)];
+        int index = 0;
+
+        for (int c = 0; c < channels; c++) {
+            for (String stat : STAT_NAMES) {
+                names[index++] = layout.getFieldName(c) + "_" + stat;
+            }
+            for (int b = 0; b < bandCount; b++) {
+                names[index++] = layout.getFieldName(c) + "_band" + b;
+            }
+        }
+        names[index] = "magnitude";
+
+        return names;
+    }
+
+    public int getFeatureCount() {
+        return this.mFeatures.length;
+    }
+
+    @Override
+    public void writeRecord(long timestamp, float[] values) {
+
+        System.arraycopy(values, 0, mWindow, mPosition * mChannels, mChannels);
+        mPosition = (mPosition + 1 == mWindowSize) ? 0 : mPosition + 1;
+        mCount++;
+
+        if (mCount >= mWindowSize && (mCount - mWindowSize) % mHopSize == 0) {
+            extract();
+            mTarget.writeRecord(timestamp, mFeatures);
+        }
+    }
+
+    private void extract() {
+
+        int index = 0;
+
+        for (int c = 0; c < mChannels; c++) {
+
+            // Copy the channel in time order, mPosition is the oldest sample
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            int position = mPosition;
+
+            for (int i = 0; i < mWindowSize; i++) {
+                double value = mWindow[position * mChannels + c];
+                mReal[i] = value;
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                position = (position + 1 == mWindowSize) ? 0 : position + 1;
+            }
+
+            double mean = sum / mWindowSize;
+            double squares = 0;
+            double previous = 0;
+            int crossings = 0;
+
+            for (int i = 0; i < mWindowSize; i++) {
+
+                double centred = mReal[i] - mean;
+                squares += centred * centred;
+
+                if (i > 0 && (previous < 0) != (centred < 0)) {
+                    crossings++;
+                }
+                previous = centred;
+
+                mReal[i] = centred * mHann[i];
+                mImaginary[i] = 0;
+            }
+
+            for (int i = mWindowSize; i < mFftSize; i++) {
+                mReal[i] = 0;
+                mImaginary[i] = 0;
+            }
+
+            mFeatures[index++] = (float) mean;
+            mFeatures[index++] = (float) (squares / mWindowSize);
+            mFeatures[index++] = (float) min;
+            mFeatures[index++] = (float) max;
+            mFeatures[index++] = crossings;
+
+            fft();
+            index = bandEnergies(index);
+        }
+
+        mFeatures[index] = (float) meanMagnitude();
+    }
+
+    /**
+     * Sums |X(k)|^2 / fftSize over equal-width bands of bins 1 to fftSize / 2.
+     */
+    private int bandEnergies(int index) {
+
+        int bins = mFftSize / 2;
+
+        for (int b = 0; b < mBandCount; b++) {
+
+            int from = 1 + b * bins / mBandCount;
+            int to = 1 + (b + 1) * bins / mBandCount;
+            double energy = 0;
+
+            for (int k = from; k < to && k <= bins; k++) {
+                energy += mReal[k] * mReal[k] + mImaginary[k] * mImaginary[k];
+            }
+
+            mFeatures[index++] = (float) (energy / mFftSize);
+        }
+
+        return index;
+    }
+
+    private double meanMagnitude() {
+
+        int channels = Math.min(mChannels, MAGNITUDE_CHANNELS);
+        double sum = 0;
+
+        for (int i = 0; i < mWindowSize; i++) {
+
+            double squares = 0;
+            for (int c = 0; c < channels; c++) {
+                double value = mWindow[i * mChannels + c];
+                squares += value * value;
+            }
+            sum += Math.sqrt(squares);
+        }
+
+        return sum / mWindowSize;
+    }
+
+    /**
+     * Iterative radix-2 FFT of mReal / mImaginary, in place.
+     */
+    private void fft() {
+
+        for (int i = 0; i < mFftSize; i++) {
+            int j = mReversed[i];
+            if (j > i) {
+                double real = mReal[i];
+                mReal[i] = mReal[j];
+                mReal[j] = real;
+                double imaginary = mImaginary[i];
+                mImaginary[i] = mImaginary[j];
+                mImaginary[j] = imaginary;
+            }
+        }
+
+        for (int size = 2; size <= mFftSize; size <<= 1) {
+
+            int half = size / 2;
+            int step = mFftSize / size;
+
+            for (int start = 0; start < mFftSize; start += size) {
+                for (int k = 0; k < half; k++) {
+
+                    double cos = mCos[k * step];
+                    double sin = mSin[k * step];
+                    int even = start + k;
+                    int odd = even + half;
+
+                    double real = mReal[odd] * cos - mImaginary[odd] * sin;
+                    double imaginary = mReal[odd] * sin + mImaginary[odd] * cos;
+
+                    mReal[odd] = mReal[even] - real;
+                    mImaginary[odd] = mImaginary[even] - imaginary;
+                    mReal[even] += real;
+                    mImaginary[even] += imaginary;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.nio.charset.Charset;
+
+/**
+ * Encodes feature rows of a sensor as CSV lines, with a header line naming
+ * the columns. Like CsvRecordEncoder, it does not allocate per row.
+ */
+public class FeatureRecordEncoder implements RecordEncoder {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "FeatureRecordEncoder";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Sign, 39 integer digits of Float.MAX_VALUE, point and fraction (see CsvRecordEncoder)
+    private static final int MAX_FIELD_SIZE = 1 + 39 + 1 + 6;
+    private static final int MAX_LONG_SIZE = 20;
+
+    private final RecordLayout mLayout;
+    private final String[] mFeatureNames;
+
+    public FeatureRecordEncoder(RecordLayout layout, FeatureConfig config) {
+        this.mLayout = layout;
+        this.mFeatureNames = FeatureExtractor.getFeatureNames(layout, config.getBandCount());
+    }
+
+    /**
+     * The layout of the sensor the features are computed from.
+     */
+    @Override
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    @Override
+    public byte[] encodeHeader() {
+
+        StringBuilder header = new StringBuilder("timestamp");
+        for (String name : mFeatureNames) {
+            header.append(',').append(name);
+        }
+        header.append('\n');
+
+        return header.toString().getBytes(UTF_8);
+    }
+
+    @Override
+    public int getMaxRecordSize() {
+        return MAX_LONG_SIZE + mFeatureNames.length * (1 + MAX_FIELD_SIZE) + 1;
+    }
+
+    @Override
+    public int encode(long timestamp, float[] values, byte[] dst, int offset) {
+
+        int position = CsvRecordEncoder.writeLong(timestamp, dst, offset);
+
+        for (int i = 0; i < mFeatureNames.length; i++) {
+            dst[position++] = ',';
+            position = CsvRecordEncoder.writeFloat(values[i], dst, position);
+        }
+
+        dst[position++] = '\n';
+
+        return position - offset;
+    }
+
+}
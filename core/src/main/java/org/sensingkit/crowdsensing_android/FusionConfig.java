@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Settings of the fusion stage, which merges the sensor streams into
+ * frames on a common timeline. Setters return this so that a
+ * configuration can be chained.
+ */
+public class FusionConfig {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "FusionConfig";
+
+    public enum Interpolation {
+
+        /** The sample closest to the frame time. */
+        NEAREST,
+
+        /** Linear between the samples on both sides of the frame time, else the nearest. */
+        LINEAR
+    }
+
+    public static final long DEFAULT_FRAME_INTERVAL_MILLIS = 20;
+    public static final long DEFAULT_TOLERANCE_MILLIS = 20;
+    public static final long DEFAULT_MAX_LAG_MILLIS = 1000;
+    public static final int DEFAULT_BUFFER_CAPACITY = 256;
+
+    private long mFrameIntervalMillis = DEFAULT_FRAME_INTERVAL_MILLIS;
+    private long mToleranceMillis = DEFAULT_TOLERANCE_MILLIS;
+    private Interpolation mInterpolation = Interpolation.LINEAR;
+    private long mMaxLagMillis = DEFAULT_MAX_LAG_MILLIS;
+    private int mBufferCapacity = DEFAULT_BUFFER_CAPACITY;
+
+    public long getFrameIntervalMillis() {
+        return this.mFrameIntervalMillis;
+    }
+
+    /**
+     * Time between two frames, e.g. 20 ms for 50 frames per second.
+     */
+    public FusionConfig setFrameIntervalMillis(long frameIntervalMillis) {
+
+        if (frameIntervalMillis < 1) {
+            throw new IllegalArgumentException("Invalid frame interval: " + frameIntervalMillis);
+        }
+
+        this.mFrameIntervalMillis = frameIntervalMillis;
+        return this;
+    }
+
+    public long getToleranceMillis() {
+        return this.mToleranceMillis;
+    }
+
+    /**
+     * How far from the frame time a sample may be to be used for the frame.
+     * A sensor without a sample that close is missing from the frame.
+     */
+    public FusionConfig setToleranceMillis(long toleranceMillis) {
+        this.mToleranceMillis = toleranceMillis;
+        return this;
+    }
+
+    public Interpolation getInterpolation() {
+        return this.mInterpolation;
+    }
+
+    public FusionConfig setInterpolation(Interpolation interpolation) {
+        this.mInterpolation = interpolation;
+        return this;
+    }
+
+    public long getMaxLagMillis() {
+        return this.mMaxLagMillis;
+    }
+
+    /**
+     * How far a sensor may fall behind the others before frames are written
+     * without waiting for it (e.g. a suspended sensor).
+     */
+    public FusionConfig setMaxLagMillis(long maxLagMillis) {
+        this.mMaxLagMillis = maxLagMillis;
+        return this;
+    }
+
+    public int getBufferCapacity() {
+        return this.mBufferCapacity;
+    }
+
+    /**
+     * Samples held per sensor while waiting for the other sensors. Should
+     * hold the max lag worth of samples of the fastest sensor.
+     */
+    public FusionConfig setBufferCapacity(int bufferCapacity) {
+
+        if (bufferCapacity < 2) {
+            throw new IllegalArgumentException("Invalid buffer capacity: " + bufferCapacity);
+        }
+
+        this.mBufferCapacity = bufferCapacity;
+        return this;
+    }
+
+}
@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Merges the sample streams of several sensors into frames on a common
+ * timeline, one frame every frame interval, as a bounded k-way merge: each
+ * sensor (channel) holds its latest samples in a fixed-size lookahead
+ * buffer, and a frame is written once every channel has a sample past the
+ * frame time plus the tolerance. Memory stays constant however long the
+ * session runs.
+ * <p>
+ * A channel without a sample within the tolerance of a frame time is
+ * missing from that frame. A channel that falls more than the max lag
+ * behind the others is not waited for, and its samples that arrive after
+ * their frames were written are counted as late. Frames in which all
+ * channels are missing (e.g. while the session is paused) are skipped.
+ * Channels are fed from any thread through their RecordSink.
+ */
+public class FusionMerger {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "FusionMerger";
+
+    /**
+     * Receives the merged frames.
+     */
+    public interface FrameSink {
+
+        /**
+         * @param values  the fields of all channels, in channel order
+         * @param present whether each channel has a value in this frame; the fields of a missing channel are undefined
+         */
+        void writeFrame(long timestamp, float[] values, boolean[] present);
+    }
+
+    private final long mInterval;
+    private final long mTolerance;
+    private final long mMaxLag;
+    private final int mCapacity;
+    private final boolean mLinear;
+
+    private final List<Channel> mChannels = new ArrayList<>();
+    private FrameSink mSink;
+
+    // Frame scratch buffers (allocated once all channels are added)
+    private float[] mFrame;
+    private boolean[] mPresent;
+
+    // Timeline (guarded by this)
+    private boolean mStarted;
+    private long mFirstTimestamp;
+    private long mNewestTimestamp;
+    private long mFirstFrame;
+    private long mNextFrame;
+
+    // Statistics
+    private long mFrameCount;
+    private long mSkippedFrameCount;
+    private long mForcedFrameCount;
+
+    public FusionMerger(FusionConfig config) {
+        this.mInterval = config.getFrameIntervalMillis();
+        this.mTolerance = config.getToleranceMillis();
+        this.mMaxLag = config.getMaxLagMillis();
+        this.mCapacity = config.getBufferCapacity();
+        this.mLinear = config.getInterpolation() == FusionConfig.Interpolation.LINEAR;
+    }
+
+    /**
+     * Adds a sensor stream. All channels must be added before the first sample.
+     *
+     * @return the sink the sensor's samples are written to
+     */
+    public synchronized RecordSink addChannel(String name, RecordLayout layout) {
+
+        int offset = (mFrame != null) ? mFrame.length : 0;
+        Channel channel = new Channel(name, layout, offset);
+        mChannels.add(channel);
+
+        mFrame = new float[offset + layout.getFieldCount()];
+        mPresent = new boolean[mChannels.size()];
+
+        return channel;
+    }
+
+    public synchronized void setFrameSink(FrameSink sink) {
+        this.mSink = sink;
+    }
+
+    // --- Merge
+
+    private synchronized void offer(Channel channel, long timestamp, float[] values) {
+
+        channel.mSampleCount++;
+
+        // Out of order within the channel
+        if (timestamp <= channel.mLatest) {
+            channel.mLateCount++;
+            return;
+        }
+
+        if (!mStarted) {
+            mStarted = true;
+            mFirstTimestamp = timestamp;
+            mNewestTimestamp = timestamp;
+            mFirstFrame = ceilToFrame(timestamp);
+            mNextFrame = mFirstFrame;
+        }
+        else if (mNextFrame > mFirstFrame && timestamp <= mNextFrame - mInterval + mTolerance) {
+
+            // Would have been used by a frame that is written already
+            channel.mLateCount++;
+        }
+
+        // Make room by writing frames without waiting for the other channels
+        while (channel.mSize == mCapacity) {
+
+            if (channel.timestampAt(1) <= mNextFrame) {
+                evict(channel);
+            }
+            else {
+                writeNextFrame();
+                mForcedFrameCount++;
+            }
+        }
+
+        channel.append(timestamp, values);
+        mNewestTimestamp = Math.max(mNewestTimestamp, timestamp);
+
+        writeReadyFrames();
+    }
+
+    /**
+     * Writes every frame that all channels within the max lag have moved past.
+     */
+    private void writeReadyFrames() {
+
+        long watermark = Long.MAX_VALUE;
+
+        for (Channel channel : mChannels) {
+
+            if (channel.mSize == 0) {
+
+                // Wait for the first sample of a channel, up to the max lag
+                if (mNewestTimestamp - mFirstTimestamp <= mMaxLag) {
+                    return;
+                }
+                continue;
+            }
+
+            if (channel.mLatest >= mNewestTimestamp - mMaxLag) {
+                watermark = Math.min(watermark, channel.mLatest);
+            }
+        }
+
+        while (mNextFrame + mTolerance <= watermark) {
+            writeNextFrame();
+        }
+    }
+
+    private void writeNextFrame() {
+
+        skipGap();
+
+        long frame = mNextFrame;
+        boolean any = false;
+
+        for (int i = 0; i < mChannels.size(); i++) {
+            mPresent[i] = mChannels.get(i).fill(frame, mFrame);
+            any |= mPresent[i];
+        }
+
+        if (any) {
+            if (mSink != null) {
+                mSink.writeFrame(frame, mFrame, mPresent);
+            }
+            mFrameCount++;
+        }
+        else {
+            mSkippedFrameCount++;
+        }
+
+        mNextFrame += mInterval;
+
+        for (Channel channel : mChannels) {
+            while (channel.mSize >= 2 && channel.timestampAt(1) <= mNextFrame) {
+                evict(channel);
+            }
+        }
+    }
+
+    /**
+     * Moves the next frame up to the earliest buffered sample if no sample is
+     * within reach, e.g. after a pause.
+     */
+    private void skipGap() {
+
+        long reach = mNextFrame - mTolerance;
+        long earliest = Long.MAX_VALUE;
+
+        for (Channel channel : mChannels) {
+            for (int i = 0; i < channel.mSize; i++) {
+                long timestamp = channel.timestampAt(i);
+                if (timestamp >= reach) {
+                    earliest = Math.min(earliest, timestamp);
+                    break;
+                }
+            }
+        }
+
+        if (earliest == Long.MAX_VALUE || earliest <= mNextFrame + mTolerance) {
+            return;
+        }
+
+        long next = ceilToFrame(earliest - mTolerance);
+        mSkippedFrameCount += (next - mNextFrame) / mInterval;
+        mNextFrame = next;
+    }
+
+    private void evict(Channel channel) {
+        channel.mHead = (channel.mHead + 1) % mCapacity;
+        channel.mSize--;
+    }
+
+    private long ceilToFrame(long timestamp) {
+        long frame = (timestamp / mInterval) * mInterval;
+        return (frame < timestamp) ? frame + mInterval : frame;
+    }
+
+    /**
+     * Writes the frames up to the newest sample without waiting for the
+     * other channels, and starts a new timeline with the next sample, e.g.
+     * when the session is stopped.
+     */
+    public synchronized void flush() {
+
+        if (!mStarted) {
+            return;
+        }
+
+        while (mNextFrame <= mNewestTimestamp) {
+            writeNextFrame();
+        }
+
+        mStarted = false;
+        for (Channel channel : mChannels) {
+            channel.mSize = 0;
+            channel.mLatest = Long.MIN_VALUE;
+        }
+    }
+
+    // --- Statistics
+
+    public synchronized int getChannelCount() {
+        return mChannels.size();
+    }
+
+    public synchronized String getChannelName(int channel) {
+        return mChannels.get(channel).mName;
+    }
+
+    public synchronized RecordLayout getChannelLayout(int channel) {
+        return mChannels.get(channel).mLayout;
+    }
+
+    /**
+     * Frames written, with at least one channel present.
+     */
+    public synchronized long getFrameCount() {
+        return this.mFrameCount;
+    }
+
+    /**
+     * Frame times without any channel present, which were not written.
+     */
+    public synchronized long getSkippedFrameCount() {
+        return this.mSkippedFrameCount;
+    }
+
+    /**
+     * Frames written early because a lookahead buffer was full.
+     */
+    public synchronized long getForcedFrameCount() {
+        return this.mForcedFrameCount;
+    }
+
+    public synchronized long getSampleCount(int channel) {
+        return mChannels.get(channel).mSampleCount;
+    }
+
+    /**
+     * Samples of the channel that arrived out of order or after their frames were written.
+     */
+    public synchronized long getLateCount(int channel) {
+        return mChannels.get(channel).mLateCount;
+    }
+
+    /**
+     * Written frames in which the channel had no sample within the tolerance.
+     */
+    public synchronized long getMissingCount(int channel) {
+        return mChannels.get(channel).mMissingCount;
+    }
+
+    /**
+     * Written frames in which the channel's values were interpolated.
+     */
+    public synchronized long getInterpolatedCount(int channel) {
+        return mChannels.get(channel).mInterpolatedCount;
+    }
+
+    /**
+     * Samples currently held in the channel's lookahead buffer.
+     */
+    public synchronized int getBufferedCount(int channel) {
+        return mChannels.get(channel).mSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+
+        StringBuilder builder = new StringBuilder(String.format(Locale.US, "%d frames (%d skipped, %d forced)",
+                mFrameCount, mSkippedFrameCount, mForcedFrameCount));
+
+        for (Channel channel : mChannels) {
+            builder.append(String.format(Locale.US, ", %s: %d missing, %d late",
+                    channel.mName, channel.mMissingCount, channel.mLateCount));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * One sensor stream and its lookahead buffer, guarded by the FusionMerger.
+     */
+    private class Channel implements RecordSink {
+
+        private final String mName;
+        private final RecordLayout mLayout;
+        private final int mFieldCount;
+        private final int mOffset;
+
+        // Lookahead buffer, oldest first
+        private final long[] mTimestamps;
+        private final float[] mValues;
+        private int mHead;
+        private int mSize;
+        private long mLatest = Long.MIN_VALUE;
+
+        private long mSampleCount;
+        private long mLateCount;
+        private long mMissingCount;
+        private long mInterpolatedCount;
+
+        Channel(String name, RecordLayout layout, int offset) {
+            this.mName = name;
+            this.mLayout = layout;
+            this.mFieldCount = layout.getFieldCount();
+            this.mOffset = offset;
+            this.mTimestamps = new long[mCapacity];
+            this.mValues = new float[mCapacity * mFieldCount];
+        }
+
+        @Override
+        public void writeRecord(long timestamp, float[] values) {
+            offer(this, timestamp, values);
+        }
+
+        void append(long timestamp, float[] values) {
+
+            int slot = (mHead + mSize) % mCapacity;
+            mTimestamps[slot] = timestamp;
+            System.arraycopy(values, 0, mValues, slot * mFieldCount, mFieldCount);
+            mSize++;
+            mLatest = timestamp;
+        }
+
+        long timestampAt(int index) {
+            return mTimestamps[(mHead + index) % mCapacity];
+        }
+
+        int lastAtOrBefore(long time) {
+
+            int last = -1;
+            for (int i = 0; i < mSize && timestampAt(i) <= time; i++) {
+                last = i;
+            }
+            return last;
+        }
+
+        /**
+         * Writes the channel's values at the frame time into the frame.
+         *
+         * @return false if the channel is missing from the frame
+         */
+        boolean fill(long frame, float[] dst) {
+
+            int before = lastAtOrBefore(frame);
+            int after = (before + 1 < mSize) ? before + 1 : -1;
+            if (before >= 0 && timestampAt(before) == frame) {
+                after = before;
+            }
+
+            boolean beforeOk = before >= 0 && frame - timestampAt(before) <= mTolerance;
+            boolean afterOk = after >= 0 && timestampAt(after) - frame <= mTolerance;
+
+            if (mLinear && beforeOk && afterOk && after != before) {
+                interpolate(before, after, frame, dst);
+                mInterpolatedCount++;
+                return true;
+            }
+
+            if (beforeOk && (!afterOk || frame - timestampAt(before) <= timestampAt(after) - frame)) {
+                copy(before, dst);
+                return true;
+            }
+
+            if (afterOk) {
+                copy(after, dst);
+                return true;
+            }
+
+            mMissingCount++;
+            return false;
+        }
+
+        private void copy(int index, float[] dst) {
+            int slot = (mHead + index) % mCapacity;
+            System.arraycopy(mValues, slot * mFieldCount, dst, mOffset, mFieldCount);
+        }
+
+        private void interpolate(int before, int after, long frame, float[] dst) {
+
+            long t0 = timestampAt(before);
+            double weight = (double) (frame - t0) / (timestampAt(after) - t0);
+            int slot0 = ((mHead + before) % mCapacity) * mFieldCount;
+            int slot1 = ((mHead + after) % mCapacity) * mFieldCount;
+
+            for (int i = 0; i < mFieldCount; i++) {
+
+                double value = mValues[slot0 + i] + weight * (mValues[slot1 + i] - mValues[slot0 + i]);
+                if (mLayout.getFieldType(i) == RecordLayout.FieldType.INT32) {
+                    value = Math.round(value);
+                }
+                dst[mOffset + i] = (float) value;
+            }
+        }
+    }
+
+}
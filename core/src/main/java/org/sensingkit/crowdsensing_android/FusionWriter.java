@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes the frames of a FusionMerger to Fused.csv in the session folder:
+ * the frame timestamp followed by the fields of every sensor, with the
+ * columns named "&lt;Sensor&gt;.&lt;field&gt;". The fields of a sensor that is
+ * missing from a frame are left empty.
+ * <p>
+ * Frames are written on the thread that feeds the merger, so a write
+ * error is kept and thrown by the next sync or close.
+ */
+public class FusionWriter implements FusionMerger.FrameSink, DurableWriter {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "FusionWriter";
+
+    public static final String FILE_NAME = "Fused.csv";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String mFileName;
+    private final FileOutputStream mFileStream;
+    private final BufferedOutputStream mFileBuffer;
+
+    private final RecordLayout[] mLayouts;
+    private final byte[] mLine;
+
+    private long mBytesWritten;
+    private long mFrameCount;
+    private IOException mLastError;
+    private boolean mClosed;
+
+    /**
+     * Opens the file for the channels added to the merger so far.
+     */
+    public FusionWriter(File sessionFolder, FusionMerger merger) throws IOException {
+
+        File file = new File(sessionFolder, FILE_NAME);
+        mFileName = file.getName();
+
+        int channelCount = merger.getChannelCount();
+        mLayouts = new RecordLayout[channelCount];
+
+        StringBuilder header = new StringBuilder("timestamp");
+        int fieldCount = 0;
+
+        for (int i = 0; i < channelCount; i++) {
+
+            String name = merger.getChannelName(i);
+            mLayouts[i] = merger.getChannelLayout(i);
+
+            for (int field = 0; field < mLayouts[i].getFieldCount(); field++) {
+                header.append(',').append(name).append('.').append(mLayouts[i].getFieldName(field));
+            }
+            fieldCount += mLayouts[i].getFieldCount();
+        }
+        header.append('\n');
+
+        mLine = new byte[CsvRecordEncoder.MAX_LONG_SIZE + fieldCount * (1 + CsvRecordEncoder.MAX_FIELD_SIZE) + 1];
+
+        mFileStream = new FileOutputStream(file);
+        mFileBuffer = new BufferedOutputStream(mFileStream, BUFFER_SIZE);
+
+        byte[] bytes = header.toString().getBytes("UTF-8");
+        mFileBuffer.write(bytes);
+        mBytesWritten = bytes.length;
+    }
+
+    @Override
+    public synchronized void writeFrame(long timestamp, float[] values, boolean[] present) {
+
+        if (mClosed || mLastError != null) {
+            return;
+        }
+
+        int position = CsvRecordEncoder.writeLong(timestamp, mLine, 0);
+        int offset = 0;
+
+        for (int i = 0; i < mLayouts.length; i++) {
+
+            RecordLayout layout = mLayouts[i];
+
+            for (int field = 0; field < layout.getFieldCount(); field++) {
+
+                mLine[position++] = ',';
+
+                if (!present[i]) {
+                    continue;
+                }
+
+                float value = values[offset + field];
+                if (layout.getFieldType(field) == RecordLayout.FieldType.INT32) {
+                    position = CsvRecordEncoder.writeLong((long) value, mLine, position);
+                }
+                else {
+                    position = CsvRecordEncoder.writeFloat(value, mLine, position);
+                }
+            }
+
+            offset += layout.getFieldCount();
+        }
+
+        mLine[position++] = '\n';
+
+        try {
+            mFileBuffer.write(mLine, 0, position);
+            mBytesWritten += position;
+            mFrameCount++;
+        }
+        catch (IOException ex) {
+            mLastError = ex;
+        }
+    }
+
+    public synchronized long getFrameCount() {
+        return this.mFrameCount;
+    }
+
+    @Override
+    public synchronized long getBytesWritten() {
+        return this.mBytesWritten;
+    }
+
+    @Override
+    public synchronized void sync(Checkpoint checkpoint) throws IOException {
+
+        if (mClosed) {
+            return;
+        }
+
+        throwLastError();
+
+        mFileBuffer.flush();
+        mFileStream.getFD().sync();
+        checkpoint.update(mFileName, mBytesWritten);
+    }
+
+    public synchronized void close() throws IOException {
+
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        try {
+            throwLastError();
+            mFileBuffer.flush();
+            mFileStream.getFD().sync();
+        }
+        finally {
+            mFileBuffer.close();
+        }
+    }
+
+    private void throwLastError() throws IOException {
+
+        if (mLastError != null) {
+            IOException error = mLastError;
+            mLastError = null;
+            throw error;
+        }
+    }
+
+}
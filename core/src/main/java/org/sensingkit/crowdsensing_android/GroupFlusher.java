@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for all writers of a session: once the flush interval has
+ * passed, or once enough bytes are pending, every writer is synced and a
+ * new Checkpoint is committed. At most one interval, or the size threshold,
+ * worth of data can be lost if the process dies.
+ */
+public class GroupFlusher implements Runnable {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "GroupFlusher";
+
+    // The size threshold is checked at least this often
+    private static final long MAX_POLL_MILLIS = 1000;
+
+    private final Checkpoint mCheckpoint;
+    private final List<DurableWriter> mWriters = new CopyOnWriteArrayList<>();
+    private final long mIntervalNanos;
+    private final long mThresholdBytes;
+    private final long mPollMillis;
+
+    private ScheduledExecutorService mExecutor;
+
+    // Guarded by this
+    private long mLastFlushNanos = System.nanoTime();
+    private long mBytesAtLastFlush;
+    private long mFlushCount;
+    private long mFailureCount;
+    private IOException mLastError;
+
+    public GroupFlusher(Checkpoint checkpoint, long intervalMillis, long thresholdBytes) {
+        this.mCheckpoint = checkpoint;
+        this.mIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.mThresholdBytes = thresholdBytes;
+        this.mPollMillis = Math.max(1, Math.min(intervalMillis, MAX_POLL_MILLIS));
+    }
+
+    public void addWriter(DurableWriter writer) {
+        mWriters.add(writer);
+    }
+
+    public Checkpoint getCheckpoint() {
+        return this.mCheckpoint;
+    }
+
+    public synchronized void start() {
+
+        if (mExecutor != null) {
+            return;
+        }
+
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CrowdSensing-Flusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.scheduleWithFixedDelay(this, mPollMillis, mPollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic flushes. Does not flush; call flush() for a final checkpoint.
+     */
+    public void stop() {
+
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = mExecutor;
+            mExecutor = null;
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+
+        if (!isFlushDue()) {
+            return;
+        }
+
+        try {
+            flush(Checkpoint.State.OPEN);
+        }
+        catch (IOException ex) {
+            synchronized (this) {
+                mFailureCount++;
+                mLastError = ex;
+            }
+        }
+    }
+
+    /**
+     * Syncs every writer and commits the checkpoint with the given state.
+     */
+    public synchronized void flush(Checkpoint.State state) throws IOException {
+
+        long bytes = 0;
+        for (DurableWriter writer : mWriters) {
+            bytes += writer.getBytesWritten();
+            writer.sync(mCheckpoint);
+        }
+
+        mCheckpoint.commit(state);
+
+        mLastFlushNanos = System.nanoTime();
+        mBytesAtLastFlush = bytes;
+        mFlushCount++;
+    }
+
+    public synchronized long getFlushCount() {
+        return this.mFlushCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return this.mFailureCount;
+    }
+
+    public synchronized IOException getLastError() {
+        return this.mLastError;
+    }
+
+    private synchronized boolean isFlushDue() {
+
+        if (System.nanoTime() - mLastFlushNanos >= mIntervalNanos) {
+            return true;
+        }
+
+        long bytes = 0;
+        for (DurableWriter writer : mWriters) {
+            bytes += writer.getBytesWritten();
+        }
+
+        return bytes - mBytesAtLastFlush >= mThresholdBytes;
+    }
+
+}
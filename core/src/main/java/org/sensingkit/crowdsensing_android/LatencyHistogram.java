@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, with one bucket per
+ * power of two. Percentiles are reported as the upper bound of their
+ * bucket, i.e. they are accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "LatencyHistogram";
+
+    // Bucket b holds durations in [2^(b-1), 2^b) ns, the last one everything above
+    private static final int BUCKET_COUNT = 48;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long nanos) {
+
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSum.addAndGet(nanos);
+
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxNanos() {
+        return mMax.get();
+    }
+
+    public double getMeanNanos() {
+        long count = mCount.get();
+        return (count > 0) ? (double) mSum.get() / count : 0;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, or 0 if empty
+     */
+    public long getPercentileNanos(double percentile) {
+
+        long count = 0;
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank && buckets[i] > 0) {
+                return Math.min(upperBound(i), getMaxNanos());
+            }
+        }
+
+        return getMaxNanos();
+    }
+
+    private static long upperBound(int bucket) {
+        return (bucket == 0) ? 0 : (1L << bucket) - 1;
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+final class LittleEndian {
+
+    private LittleEndian() {
+    }
+
+    static void putShort(final byte[] dst, final int offset, final int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >>> 8);
+    }
+
+    static void putInt(final byte[] dst, final int offset, final int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >>> 8);
+        dst[offset + 2] = (byte) (value >>> 16);
+        dst[offset + 3] = (byte) (value >>> 24);
+    }
+
+    static void putLong(final byte[] dst, final int offset, final long value) {
+        putInt(dst, offset, (int) value);
+        putInt(dst, offset + 4, (int) (value >>> 32));
+    }
+
+    static int getShort(final byte[] src, final int offset) {
+        return (src[offset] & 0xFF) | ((src[offset + 1] & 0xFF) << 8);
+    }
+
+    static int getInt(final byte[] src, final int offset) {
+        return (src[offset] & 0xFF)
+                | ((src[offset + 1] & 0xFF) << 8)
+                | ((src[offset + 2] & 0xFF) << 16)
+                | ((src[offset + 3] & 0xFF) << 24);
+    }
+
+    static long getLong(final byte[] src, final int offset) {
+        return (getInt(src, offset) & 0xFFFFFFFFL) | ((long) getInt(src, offset + 4) << 32);
+    }
+
+}
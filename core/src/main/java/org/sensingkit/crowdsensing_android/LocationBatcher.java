@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Records the fixes of a LocationProvider. The provider is asked for
+ * batched delivery (see LocationConfig.setMaxWaitMillis), so that the
+ * device wakes up once per batch rather than once per fix. Each batch is
+ * put in time order, fixes already written (e.g. delivered again after a
+ * flush) or too inaccurate are dropped, and the rest are quantized (see
+ * LocationQuantizer) and handed to the sink as RecordLayout.LOCATION
+ * records, with the coordinates as offsets from the session's
+ * LocationOrigin.
+ */
+public class LocationBatcher implements LocationProvider.Callback {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "LocationBatcher";
+
+    private static final Comparator<LocationFix> BY_TIMESTAMP = new Comparator<LocationFix>() {
+        @Override
+        public int compare(LocationFix first, LocationFix second) {
+            return (first.getTimestamp() < second.getTimestamp()) ? -1
+                    : (first.getTimestamp() == second.getTimestamp()) ? 0 : 1;
+        }
+    };
+
+    private final LocationProvider mProvider;
+    private final LocationConfig mConfig;
+    private final LocationQuantizer mQuantizer;
+    private final File mFolder;
+    private final RecordSink mSink;
+
+    // Scratch buffers, reused for every batch
+    private final List<LocationFix> mBatch = new ArrayList<>();
+    private final float[] mValues = new float[RecordLayout.LOCATION.getFieldCount()];
+
+    // Written once, before the first record (null until then)
+    private LocationOrigin mOrigin;
+
+    private long mLastTimestamp = Long.MIN_VALUE;
+    private boolean mStarted;
+
+    // Counters
+    private long mBatchCount;
+    private int mMaxBatchSize;
+    private long mWrittenCount;
+    private long mStaleCount;
+    private long mInaccurateCount;
+    private long mFailedCount;
+    private IOException mLastError;
+
+    /**
+     * @param sessionFolder where the LocationOrigin is written
+     * @param sink          receives the records, e.g. a ModelWriter
+     */
+    public LocationBatcher(LocationProvider provider, LocationConfig config, File sessionFolder, RecordSink sink) {
+        this.mProvider = provider;
+        this.mConfig = config;
+        this.mQuantizer = new LocationQuantizer(config);
+        this.mFolder = sessionFolder;
+        this.mSink = sink;
+    }
+
+    public synchronized void start() throws IOException {
+
+        if (mStarted) {
+            return;
+        }
+
+        // A session continued in the same folder keeps its origin
+        if (mOrigin == null) {
+            mOrigin = LocationOrigin.read(mFolder);
+        }
+
+        mProvider.requestUpdates(mConfig, this);
+        mStarted = true;
+    }
+
+    /**
+     * Stops the updates once the provider has delivered the fixes it held
+     * back. Must not be called from the provider's thread.
+     */
+    public void stop() {
+
+        // Not holding the lock, the provider's thread may still be delivering
+        synchronized (this) {
+            if (!mStarted) {
+                return;
+            }
+            mStarted = false;
+        }
+
+        mProvider.removeUpdates();
+    }
+
+    @Override
+    public synchronized void onLocations(List<LocationFix> fixes) {
+
+        mBatchCount++;
+        mMaxBatchSize = Math.max(mMaxBatchSize, fixes.size());
+
+        // Batches are not always in order, and may overlap
+        mBatch.addAll(fixes);
+        Collections.sort(mBatch, BY_TIMESTAMP);
+
+        float maxAccuracy = mConfig.getMaxAccuracyMeters();
+
+        for (LocationFix fix : mBatch) {
+
+            if (fix.getTimestamp() <= mLastTimestamp) {
+                mStaleCount++;
+            }
+            else if (maxAccuracy > 0 && !(fix.getAccuracy() <= maxAccuracy)) {
+                mInaccurateCount++;
+            }
+            else {
+                write(fix);
+            }
+        }
+
+        mBatch.clear();
+    }
+
+    /**
+     * @return the origin of the records, or null before the first one
+     */
+    public synchronized LocationOrigin getOrigin() {
+        return this.mOrigin;
+    }
+
+    public synchronized long getBatchCount() {
+        return this.mBatchCount;
+    }
+
+    /**
+     * Fixes in the largest batch so far.
+     */
+    public synchronized int getMaxBatchSize() {
+        return this.mMaxBatchSize;
+    }
+
+    public synchronized long getWrittenCount() {
+        return this.mWrittenCount;
+    }
+
+    /**
+     * Fixes dropped for not being newer than the last one written.
+     */
+    public synchronized long getStaleCount() {
+        return this.mStaleCount;
+    }
+
+    /**
+     * Fixes dropped for being less accurate than the configured limit.
+     */
+    public synchronized long getInaccurateCount() {
+        return this.mInaccurateCount;
+    }
+
+    /**
+     * Fixes dropped because the origin could not be written.
+     */
+    public synchronized long getFailedCount() {
+        return this.mFailedCount;
+    }
+
+    public synchronized IOException getLastError() {
+        return this.mLastError;
+    }
+
+    private void write(LocationFix fix) {
+
+        double latitude = mQuantizer.quantizeLatitude(fix.getLatitude());
+        double longitude = mQuantizer.quantizeLongitude(latitude, fix.getLongitude());
+
+        // A quantized fix is no more accurate than its cell
+        float accuracy = fix.getAccuracy();
+        if (mQuantizer.isEnabled()) {
+            float error = (float) mQuantizer.getErrorMeters(latitude);
+            accuracy = Float.isNaN(accuracy) ? error : Math.max(accuracy, error);
+        }
+
+        if (mOrigin == null) {
+
+            LocationOrigin origin = LocationOrigin.near(latitude, longitude);
+            try {
+                origin.write(mFolder);
+            }
+            catch (IOException ex) {
+                mLastError = ex;
+                mFailedCount++;
+                return;
+            }
+            mOrigin = origin;
+        }
+
+        mValues[0] = mOrigin.encodeLatitude(latitude);
+        mValues[1] = mOrigin.encodeLongitude(longitude);
+        mValues[2] = accuracy;
+        mValues[3] = fix.getAltitude();
+        mValues[4] = fix.getSpeed();
+
+        mSink.writeRecord(fix.getTimestamp(), mValues);
+
+        mLastTimestamp = fix.getTimestamp();
+        mWrittenCount++;
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Settings of the location stream: how often fixes are taken, how long
+ * the provider may hold them back to deliver them in one batch, and how
+ * coarsely they are stored. Setters return this so that a configuration
+ * can be chained.
+ */
+public class LocationConfig {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "LocationConfig";
+
+    /**
+     * Power and accuracy trade-off, from GPS to passive fixes only.
+     */
+    public enum Accuracy {
+        HIGH,
+        BALANCED,
+        LOW_POWER,
+        PASSIVE
+    }
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 10 * 1000;
+    public static final long DEFAULT_FASTEST_INTERVAL_MILLIS = 5 * 1000;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 5 * 60 * 1000;
+
+    private Accuracy mAccuracy = Accuracy.BALANCED;
+    private long mIntervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private long mFastestIntervalMillis = DEFAULT_FASTEST_INTERVAL_MILLIS;
+    private long mMaxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private float mMaxAccuracyMeters = 0;
+    private double mGridMeters = 0;
+    private int mGeohashPrecision = 0;
+
+    public Accuracy getAccuracy() {
+        return this.mAccuracy;
+    }
+
+    public LocationConfig setAccuracy(Accuracy accuracy) {
+        this.mAccuracy = accuracy;
+        return this;
+    }
+
+    public long getIntervalMillis() {
+        return this.mIntervalMillis;
+    }
+
+    /**
+     * Desired time between two fixes.
+     */
+    public LocationConfig setIntervalMillis(long intervalMillis) {
+        this.mIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    public long getFastestIntervalMillis() {
+        return this.mFastestIntervalMillis;
+    }
+
+    /**
+     * Shortest time between two fixes, when other apps request them faster.
+     */
+    public LocationConfig setFastestIntervalMillis(long fastestIntervalMillis) {
+        this.mFastestIntervalMillis = fastestIntervalMillis;
+        return this;
+    }
+
+    public long getMaxWaitMillis() {
+        return this.mMaxWaitMillis;
+    }
+
+    /**
+     * How long the provider may hold fixes back and deliver them in one
+     * batch, so that the device is not woken up for every fix. Use 0 to
+     * deliver every fix as it is taken.
+     */
+    public LocationConfig setMaxWaitMillis(long maxWaitMillis) {
+        this.mMaxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    public float getMaxAccuracyMeters() {
+        return this.mMaxAccuracyMeters;
+    }
+
+    /**
+     * Drops fixes less accurate than this; 0 (the default) keeps every fix.
+     */
+    public LocationConfig setMaxAccuracyMeters(float maxAccuracyMeters) {
+        this.mMaxAccuracyMeters = maxAccuracyMeters;
+        return this;
+    }
+
+    public double getGridMeters() {
+        return this.mGridMeters;
+    }
+
+    /**
+     * Snaps every fix to the centre of a grid cell of about this size
+     * before it is written; 0 (the default) for no grid. Replaces a geohash
+     * precision.
+     */
+    public LocationConfig setGridMeters(double gridMeters) {
+
+        if (gridMeters < 0) {
+            throw new IllegalArgumentException("Invalid grid size: " + gridMeters);
+        }
+
+        this.mGridMeters = gridMeters;
+        this.mGeohashPrecision = 0;
+        return this;
+    }
+
+    public int getGeohashPrecision() {
+        return this.mGeohashPrecision;
+    }
+
+    /**
+     * Snaps every fix to the centre of its geohash cell of this many
+     * characters (e.g. 7 for about 150 m) before it is written; 0 (the
+     * default) for no geohash. Replaces a grid size.
+     */
+    public LocationConfig setGeohashPrecision(int geohashPrecision) {
+
+        if (geohashPrecision < 0 || geohashPrecision > LocationQuantizer.MAX_GEOHASH_PRECISION) {
+            throw new IllegalArgumentException("Invalid geohash precision: " + geohashPrecision);
+        }
+
+        this.mGeohashPrecision = geohashPrecision;
+        this.mGridMeters = 0;
+        return this;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * One location fix, independent of the platform's Location class.
+ * Unknown accuracy, altitude or speed is NaN.
+ */
+public class LocationFix {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "LocationFix";
+
+    private final long mTimestamp;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final float mAccuracy;
+    private final float mAltitude;
+    private final float mSpeed;
+
+    public LocationFix(long timestamp, double latitude, double longitude) {
+        this(timestamp, latitude, longitude, Float.NaN, Float.NaN, Float.NaN);
+    }
+
+    /**
+     * @param timestamp when the fix was taken, in milliseconds since the epoch
+     * @param accuracy  radius of 68% confidence in metres
+     * @param altitude  in metres above the WGS84 ellipsoid
+     * @param speed     in metres per second
+     */
+    public LocationFix(long timestamp, double latitude, double longitude, float accuracy, float altitude, float speed) {
+        this.mTimestamp = timestamp;
+        this.mLatitude = latitude;
+        this.mLongitude = longitude;
+        this.mAccuracy = accuracy;
+        this.mAltitude = altitude;
+        this.mSpeed = speed;
+    }
+
+    public long getTimestamp() {
+        return this.mTimestamp;
+    }
+
+    public double getLatitude() {
+        return this.mLatitude;
+    }
+
+    public double getLongitude() {
+        return this.mLongitude;
+    }
+
+    public float getAccuracy() {
+        return this.mAccuracy;
+    }
+
+    public float getAltitude() {
+        return this.mAltitude;
+    }
+
+    public float getSpeed() {
+        return this.mSpeed;
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Reference point of the location records of a session, near its first
+ * fix. Records store the coordinates of a fix as offsets from the origin
+ * in microdegrees, which stay small and compress well. The offsets pass
+ * through the float fields of a sample: they are exact up to about 16
+ * degrees (2^24 microdegrees) away, and further away within 16
+ * microdegrees, under 2 m and below the accuracy of a fix. Stored as a
+ * small text file in the session folder, written once before the first
+ * record.
+ */
+public class LocationOrigin {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "LocationOrigin";
+
+    public static final String FILE_NAME = "LocationOrigin.csv";
+    private static final String TEMP_FILE_NAME = "LocationOrigin.tmp";
+
+    public static final double UNITS_PER_DEGREE = 1e6;
+
+    // Origins are rounded so that on their own they only tell the region of a session
+    private static final double ORIGIN_STEPS_PER_DEGREE = 10;
+
+    private final double mLatitude;
+    private final double mLongitude;
+
+    public LocationOrigin(double latitude, double longitude) {
+        this.mLatitude = latitude;
+        this.mLongitude = longitude;
+    }
+
+    /**
+     * An origin close to the given coordinates, rounded to a tenth of a degree.
+     */
+    public static LocationOrigin near(double latitude, double longitude) {
+        return new LocationOrigin(round(latitude), wrap(round(longitude)));
+    }
+
+    public double getLatitude() {
+        return this.mLatitude;
+    }
+
+    public double getLongitude() {
+        return this.mLongitude;
+    }
+
+    public int encodeLatitude(double latitude) {
+        return (int) Math.round((latitude - mLatitude) * UNITS_PER_DEGREE);
+    }
+
+    /**
+     * Takes the short way round, so that offsets never exceed 180 degrees.
+     */
+    public int encodeLongitude(double longitude) {
+        return (int) Math.round(wrap(longitude - mLongitude) * UNITS_PER_DEGREE);
+    }
+
+    public double decodeLatitude(double offset) {
+        return mLatitude + offset / UNITS_PER_DEGREE;
+    }
+
+    public double decodeLongitude(double offset) {
+        return wrap(mLongitude + offset / UNITS_PER_DEGREE);
+    }
+
+    /**
+     * Atomically writes the origin into the given session folder.
+     */
+    public void write(File folder) throws IOException {
+
+        File temp = new File(folder, TEMP_FILE_NAME);
+        FileOutputStream stream = new FileOutputStream(temp);
+
+        try {
+            Writer writer = new OutputStreamWriter(stream, "UTF-8");
+            writer.write("latitude," + mLatitude + "\n");
+            writer.write("longitude," + mLongitude + "\n");
+            writer.write("unitsPerDegree," + (long) UNITS_PER_DEGREE + "\n");
+            writer.flush();
+            stream.getFD().sync();
+        }
+        finally {
+            stream.close();
+        }
+
+        if (!temp.renameTo(new File(folder, FILE_NAME))) {
+            throw new IOException("Location origin could not be written.");
+        }
+    }
+
+    /**
+     * Loads the origin of the given session folder.
+     *
+     * @return the origin, or null if the folder has none
+     */
+    public static LocationOrigin read(File folder) throws IOException {
+
+        File file = new File(folder, FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                String[] parts = line.split(",");
+
+                if (parts[0].equals("latitude")) {
+                    latitude = Double.parseDouble(parts[1]);
+                }
+                else if (parts[0].equals("longitude")) {
+                    longitude = Double.parseDouble(parts[1]);
+                }
+            }
+        }
+        catch (IllegalArgumentException ex) {
+            throw new IOException("Corrupt location origin: " + ex.getMessage());
+        }
+        finally {
+            reader.close();
+        }
+
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            throw new IOException("Corrupt location origin: " + file);
+        }
+
+        return new LocationOrigin(latitude, longitude);
+    }
+
+    private static double round(double degrees) {
+        return Math.round(degrees * ORIGIN_STEPS_PER_DEGREE) / ORIGIN_STEPS_PER_DEGREE;
+    }
+
+    // Into [-180, 180)
+    private static double wrap(double longitude) {
+
+        if (longitude >= 180 || longitude < -180) {
+            longitude -= 360 * Math.floor((longitude + 180) / 360);
+        }
+        return longitude;
+    }
+
+}
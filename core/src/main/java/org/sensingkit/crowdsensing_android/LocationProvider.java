@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Source of location fixes, e.g. the fused location provider of Google
+ * Play Services. Kept free of platform types so that the batching and
+ * encoding of the fixes (see LocationBatcher) run on any JVM.
+ */
+public interface LocationProvider {
+
+    /**
+     * Receives the fixes, one batch at a time, on the provider's thread.
+     */
+    interface Callback {
+
+        void onLocations(List<LocationFix> fixes);
+    }
+
+    /**
+     * Starts delivering fixes as configured, in batches of up to
+     * maxWaitMillis worth of fixes.
+     */
+    void requestUpdates(LocationConfig config, Callback callback) throws IOException;
+
+    /**
+     * Delivers the fixes held back for the current batch, then stops the
+     * updates. The callback is not called once this returns.
+     */
+    void removeUpdates();
+
+}
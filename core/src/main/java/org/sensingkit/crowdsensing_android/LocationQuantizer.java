@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Coarsens fixes on the device, before they are written: snaps them to
+ * the centre of a grid cell of a given size in metres, or of their geohash
+ * cell. The cell centre of a geohash is the same as decoding the geohash,
+ * so the written coordinates can be mapped back to geohashes exactly.
+ */
+public class LocationQuantizer {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "LocationQuantizer";
+
+    public static final int MAX_GEOHASH_PRECISION = 12;
+
+    // Length of a degree of latitude, and of longitude at the equator
+    private static final double METERS_PER_DEGREE = 111320;
+
+    private final double mGridMeters;
+
+    // Cell sizes of the geohash, in degrees (0 when not a geohash)
+    private final double mGeohashLatitudeStep;
+    private final double mGeohashLongitudeStep;
+
+    public LocationQuantizer(LocationConfig config) {
+
+        this.mGridMeters = config.getGridMeters();
+
+        int bits = 5 * config.getGeohashPrecision();
+        if (bits > 0) {
+            // Geohash bits alternate, starting with longitude
+            this.mGeohashLatitudeStep = 180.0 / (1L << (bits / 2));
+            this.mGeohashLongitudeStep = 360.0 / (1L << (bits - bits / 2));
+        }
+        else {
+            this.mGeohashLatitudeStep = 0;
+            this.mGeohashLongitudeStep = 0;
+        }
+    }
+
+    public boolean isEnabled() {
+        return mGridMeters > 0 || mGeohashLatitudeStep > 0;
+    }
+
+    public double quantizeLatitude(double latitude) {
+
+        double step = getLatitudeStep();
+        return (step > 0) ? snap(latitude, -90, 90, step) : latitude;
+    }
+
+    /**
+     * @param latitude the quantized latitude of the fix, which sets the width of grid cells
+     */
+    public double quantizeLongitude(double latitude, double longitude) {
+
+        double step = getLongitudeStep(latitude);
+        return (step > 0) ? snap(longitude, -180, 180, step) : longitude;
+    }
+
+    /**
+     * Largest distance in metres between a fix and the centre of its cell
+     * at the given latitude, half the diagonal of the cell (0 when disabled).
+     */
+    public double getErrorMeters(double latitude) {
+
+        if (!isEnabled()) {
+            return 0;
+        }
+
+        double height = getLatitudeStep() * METERS_PER_DEGREE;
+        double width = getLongitudeStep(latitude) * METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+
+        return Math.sqrt(height * height + width * width) / 2;
+    }
+
+    private double getLatitudeStep() {
+        return (mGridMeters > 0) ? mGridMeters / METERS_PER_DEGREE : mGeohashLatitudeStep;
+    }
+
+    private double getLongitudeStep(double latitude) {
+
+        if (mGridMeters <= 0) {
+            return mGeohashLongitudeStep;
+        }
+
+        // Cells get wider in degrees towards the poles, up to the whole circle
+        double cos = Math.cos(Math.toRadians(latitude));
+        return Math.min(360, mGridMeters / (METERS_PER_DEGREE * Math.max(cos, 1e-9)));
+    }
+
+    private static double snap(double value, double min, double max, double step) {
+
+        long cells = (long) Math.ceil((max - min) / step);
+        long cell = (long) Math.floor((value - min) / step);
+        cell = Math.max(0, Math.min(cells - 1, cell));
+
+        return Math.min(max, min + (cell + 0.5) * step);
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes segments through a MappedByteBuffer. Each segment file is
+ * pre-allocated to the full segment size and mapped once, so appending a
+ * record is a memory copy and write-back is left to the kernel. On close
+ * the file is truncated to the bytes actually written.
+ *
+ * If the process dies before close, the segment keeps its full size and
+ * the unwritten tail reads as zeros.
+ */
+public class MappedSegmentOutput implements SegmentOutput {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "MappedSegmentOutput";
+
+    private final long mSegmentSize;
+
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+
+    public MappedSegmentOutput(long segmentSize) {
+
+        if (segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Mapped segments are limited to 2 GB.");
+        }
+
+        this.mSegmentSize = segmentSize;
+    }
+
+    @Override
+    public void open(File file) throws IOException {
+
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(mSegmentSize);
+        mChannel = mFile.getChannel();
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+    }
+
+    @Override
+    public void write(byte[] src, int offset, int length) throws IOException {
+
+        if (length > mBuffer.remaining()) {
+            throw new IOException("Record does not fit in the mapped segment.");
+        }
+
+        mBuffer.put(src, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mBuffer.force();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        mBuffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (mFile == null) {
+            return;
+        }
+
+        int length = mBuffer.position();
+        mBuffer.force();
+        mBuffer = null;
+
+        mChannel.truncate(length);
+        mFile.close();
+
+        mFile = null;
+        mChannel = null;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Appends annotations to Markers.csv in the session folder, e.g. where
+ * the adaptive sampling controller suspended or resumed sensors. Each
+ * marker is flushed as soon as it is written.
+ */
+public class MarkerWriter {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "MarkerWriter";
+
+    public static final String FILE_NAME = "Markers.csv";
+
+    private static final String HEADER = "timestamp,marker,detail";
+
+    private final FileOutputStream mStream;
+    private final Writer mWriter;
+    private long mCount;
+
+    public MarkerWriter(File sessionFolder) throws IOException {
+
+        File file = new File(sessionFolder, FILE_NAME);
+        boolean exists = file.exists();
+
+        mStream = new FileOutputStream(file, true);
+        mWriter = new OutputStreamWriter(mStream, "UTF-8");
+
+        if (!exists) {
+            mWriter.write(HEADER + "\n");
+            mWriter.flush();
+        }
+    }
+
+    /**
+     * @param detail free text, must not contain commas or line breaks
+     */
+    public synchronized void write(long timestamp, String marker, String detail) throws IOException {
+        mWriter.write(timestamp + "," + marker + "," + detail + "\n");
+        mWriter.flush();
+        mCount++;
+    }
+
+    public synchronized long getCount() {
+        return this.mCount;
+    }
+
+    public synchronized void close() throws IOException {
+        mWriter.flush();
+        mStream.getFD().sync();
+        mWriter.close();
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Cheap stationary/moving classifier on the accelerometer stream. Tracks
+ * exponentially weighted averages of the acceleration magnitude and its
+ * square, and compares the resulting standard deviation with two
+ * thresholds: above the moving threshold the device is moving at once,
+ * and it becomes stationary only after staying below the stationary
+ * threshold for the hold time. Works on sample timestamps (milliseconds),
+ * so replaying a recording gives the same decisions.
+ */
+public class MotionClassifier {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "MotionClassifier";
+
+    public enum State {
+        MOVING,
+        STATIONARY
+    }
+
+    public static final double DEFAULT_TIME_CONSTANT_MILLIS = 500;
+    public static final double DEFAULT_MOVING_THRESHOLD = 0.3;
+    public static final double DEFAULT_STATIONARY_THRESHOLD = 0.15;
+    public static final long DEFAULT_STATIONARY_HOLD_MILLIS = 5000;
+
+    private final double mTimeConstantMillis;
+    private final double mMovingThreshold;
+    private final double mStationaryThreshold;
+    private final long mStationaryHoldMillis;
+
+    private State mState;
+    private boolean mHasSample;
+    private long mLastTimestamp;
+    private double mMean;
+    private double mMeanSquare;
+    private long mQuietSince;
+
+    public MotionClassifier() {
+        this(DEFAULT_TIME_CONSTANT_MILLIS, DEFAULT_MOVING_THRESHOLD, DEFAULT_STATIONARY_THRESHOLD, DEFAULT_STATIONARY_HOLD_MILLIS);
+    }
+
+    /**
+     * @param movingThreshold     standard deviation of the magnitude (m/s^2) above which the device moves
+     * @param stationaryThreshold standard deviation below which the device may be stationary
+     */
+    public MotionClassifier(double timeConstantMillis, double movingThreshold, double stationaryThreshold, long stationaryHoldMillis) {
+        this.mTimeConstantMillis = timeConstantMillis;
+        this.mMovingThreshold = movingThreshold;
+        this.mStationaryThreshold = stationaryThreshold;
+        this.mStationaryHoldMillis = stationaryHoldMillis;
+        reset();
+    }
+
+    /**
+     * Starts over in the moving state.
+     */
+    public void reset() {
+        mState = State.MOVING;
+        mHasSample = false;
+        mQuietSince = -1;
+    }
+
+    public State update(long timestamp, float x, float y, float z) {
+
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+
+        if (!mHasSample) {
+            mMean = magnitude;
+            mMeanSquare = magnitude * magnitude;
+            mLastTimestamp = timestamp;
+            mHasSample = true;
+            return mState;
+        }
+
+        long elapsed = Math.max(0, timestamp - mLastTimestamp);
+        mLastTimestamp = timestamp;
+
+        double alpha = 1 - Math.exp(-elapsed / mTimeConstantMillis);
+        mMean += alpha * (magnitude - mMean);
+        mMeanSquare += alpha * (magnitude * magnitude - mMeanSquare);
+
+        double deviation = getDeviation();
+
+        if (deviation > mMovingThreshold) {
+            mState = State.MOVING;
+            mQuietSince = -1;
+        }
+        else if (deviation < mStationaryThreshold) {
+
+            if (mQuietSince < 0) {
+                mQuietSince = timestamp;
+            }
+            if (timestamp - mQuietSince >= mStationaryHoldMillis) {
+                mState = State.STATIONARY;
+            }
+        }
+        else {
+            mQuietSince = -1;
+        }
+
+        return mState;
+    }
+
+    public State getState() {
+        return this.mState;
+    }
+
+    /**
+     * Current standard deviation estimate of the acceleration magnitude.
+     */
+    public double getDeviation() {
+        return Math.sqrt(Math.max(0, mMeanSquare - mMean * mMean));
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Settings of a SessionPipeline: where the records go, how they reach the
+ * disk and how often they are checkpointed. Setters return this so that a
+ * configuration can be chained.
+ */
+public class PipelineConfig {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "PipelineConfig";
+
+    public static final int DEFAULT_RING_BUFFER_CAPACITY = 4096;
+    public static final long DEFAULT_DRAIN_INTERVAL_MILLIS = 50;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 30000;
+    public static final long DEFAULT_FLUSH_THRESHOLD_BYTES = 4 * 1024 * 1024;
+    public static final double DEFAULT_MAX_SAMPLE_RATE_HZ = 200;
+
+    // Largest ring buffer sized for a batch interval, about 3 MB for a three-axis sensor
+    public static final int MAX_RING_BUFFER_CAPACITY = 1 << 17;
+
+    // Batches held in a ring buffer, the extra half for wake-ups that come late
+    private static final double BATCH_HEADROOM = 1.5;
+
+    // Storage
+    private StorageMode mStorageMode = StorageMode.PER_SENSOR_FILES;
+    private long mSegmentSize = SessionLogWriter.DEFAULT_SEGMENT_SIZE;
+    private RecordFormat mRecordFormat = RecordFormat.CSV;
+
+    // File rotation
+    private long mMaxChunkBytes = 0;
+    private long mMaxChunkMillis = 0;
+
+    // Time index (0 for no index files)
+    private int mIndexInterval = TimeIndex.DEFAULT_INTERVAL;
+
+    // Group flush
+    private long mFlushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private long mFlushThresholdBytes = DEFAULT_FLUSH_THRESHOLD_BYTES;
+
+    // Asynchronous writing
+    private boolean mAsyncWriting = false;
+    private long mBatchIntervalMillis = 0;
+    private int mRingBufferCapacity = DEFAULT_RING_BUFFER_CAPACITY;
+    private OverflowPolicy mOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long mDrainIntervalMillis = DEFAULT_DRAIN_INTERVAL_MILLIS;
+    private double mMaxSampleRateHz = DEFAULT_MAX_SAMPLE_RATE_HZ;
+
+    public StorageMode getStorageMode() {
+        return this.mStorageMode;
+    }
+
+    public PipelineConfig setStorageMode(StorageMode storageMode) {
+        this.mStorageMode = storageMode;
+        return this;
+    }
+
+    public long getSegmentSize() {
+        return this.mSegmentSize;
+    }
+
+    /**
+     * Size of the session log segments, in the session log modes.
+     */
+    public PipelineConfig setSegmentSize(long segmentSize) {
+        this.mSegmentSize = segmentSize;
+        return this;
+    }
+
+    public RecordFormat getRecordFormat() {
+        return this.mRecordFormat;
+    }
+
+    /**
+     * Format of the files of their own, in the per-sensor files mode.
+     */
+    public PipelineConfig setRecordFormat(RecordFormat recordFormat) {
+        this.mRecordFormat = recordFormat;
+        return this;
+    }
+
+    public long getMaxChunkBytes() {
+        return this.mMaxChunkBytes;
+    }
+
+    /**
+     * Rotates a file once a chunk holds this many bytes of records, or 0 for no limit.
+     */
+    public PipelineConfig setMaxChunkBytes(long maxChunkBytes) {
+        this.mMaxChunkBytes = maxChunkBytes;
+        return this;
+    }
+
+    public long getMaxChunkMillis() {
+        return this.mMaxChunkMillis;
+    }
+
+    /**
+     * Rotates a file once a chunk spans this much time, or 0 for no limit.
+     */
+    public PipelineConfig setMaxChunkMillis(long maxChunkMillis) {
+        this.mMaxChunkMillis = maxChunkMillis;
+        return this;
+    }
+
+    public int getIndexInterval() {
+        return this.mIndexInterval;
+    }
+
+    /**
+     * Records between two entries of the time index of each file, or 0 for no index.
+     */
+    public PipelineConfig setIndexInterval(int indexInterval) {
+        this.mIndexInterval = indexInterval;
+        return this;
+    }
+
+    public long getFlushIntervalMillis() {
+        return this.mFlushIntervalMillis;
+    }
+
+    /**
+     * Time between two group flushes, or 0 to only flush on stop and close.
+     */
+    public PipelineConfig setFlushIntervalMillis(long flushIntervalMillis) {
+        this.mFlushIntervalMillis = flushIntervalMillis;
+        return this;
+    }
+
+    public long getFlushThresholdBytes() {
+        return this.mFlushThresholdBytes;
+    }
+
+    /**
+     * Flushes early once this many bytes are pending over all writers.
+     */
+    public PipelineConfig setFlushThresholdBytes(long flushThresholdBytes) {
+        this.mFlushThresholdBytes = flushThresholdBytes;
+        return this;
+    }
+
+    public boolean isAsyncWriting() {
+        return this.mAsyncWriting;
+    }
+
+    /**
+     * Hands the samples to a writer thread through ring buffers instead of
+     * writing them on the thread that delivers them.
+     */
+    public PipelineConfig setAsyncWriting(boolean asyncWriting) {
+        this.mAsyncWriting = asyncWriting;
+        return this;
+    }
+
+    public long getBatchIntervalMillis() {
+        return this.mBatchIntervalMillis;
+    }
+
+    public boolean isBatchedDelivery() {
+        return this.mBatchIntervalMillis > 0;
+    }
+
+    /**
+     * Holds the samples in the ring buffers until SessionPipeline.drainBuffers
+     * is called, e.g. on scheduled wake-ups every interval, rather than
+     * running a writer thread. Use 0 (the default) to write continuously.
+     * The ring buffers grow to hold the interval, see getRequiredRingBufferCapacity.
+     */
+    public PipelineConfig setBatchIntervalMillis(long batchIntervalMillis) {
+        this.mBatchIntervalMillis = batchIntervalMillis;
+        return this;
+    }
+
+    public int getRingBufferCapacity() {
+        return this.mRingBufferCapacity;
+    }
+
+    /**
+     * Samples buffered per channel before the overflow policy applies.
+     */
+    public PipelineConfig setRingBufferCapacity(int ringBufferCapacity) {
+        this.mRingBufferCapacity = ringBufferCapacity;
+        return this;
+    }
+
+    /**
+     * The ring buffer capacity, or in batched delivery the samples of one and
+     * a half batch intervals at the maximum sample rate if that is more.
+     */
+    public int getRequiredRingBufferCapacity() {
+
+        if (!isBatchedDelivery()) {
+            return mRingBufferCapacity;
+        }
+
+        double batchSamples = Math.ceil(BATCH_HEADROOM * mMaxSampleRateHz * mBatchIntervalMillis / 1000.0);
+        return (int) Math.max(mRingBufferCapacity, Math.min(batchSamples, Integer.MAX_VALUE));
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return this.mOverflowPolicy;
+    }
+
+    /**
+     * What a full ring buffer does with the next sample.
+     */
+    public PipelineConfig setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.mOverflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    public long getDrainIntervalMillis() {
+        return this.mDrainIntervalMillis;
+    }
+
+    /**
+     * How long the writer thread sleeps while the ring buffers are empty.
+     */
+    public PipelineConfig setDrainIntervalMillis(long drainIntervalMillis) {
+        this.mDrainIntervalMillis = drainIntervalMillis;
+        return this;
+    }
+
+    public double getMaxSampleRateHz() {
+        return this.mMaxSampleRateHz;
+    }
+
+    /**
+     * Rate of the fastest channel, which sizes the ring buffers in batched delivery.
+     */
+    public PipelineConfig setMaxSampleRateHz(double maxSampleRateHz) {
+        this.mMaxSampleRateHz = maxSampleRateHz;
+        return this;
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Holds the latest samples of one sensor in memory while no event is
+ * being captured, and passes them to the target once a TriggerGate
+ * window opens: first the buffered samples inside the window (the
+ * pre-roll), then every new sample until the window closes. Samples that
+ * fall out of the buffer are counted as discarded. Does not allocate
+ * after construction.
+ */
+public class PreRollBuffer implements RecordSink {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "PreRollBuffer";
+
+    private static final int MAGNITUDE_CHANNELS = 3;
+
+    private final int mChannels;
+    private final int mCapacity;
+    private final TriggerGate mGate;
+    private final double mThreshold;
+    private final RecordSink mTarget;
+
+    // Circular buffer, channel-interleaved
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    private final float[] mScratch;
+    private int mHead;
+    private int mSize;
+
+    private long mCapturedCount;
+    private long mDiscardedCount;
+
+    /**
+     * @param threshold magnitude above which a sample fires the gate, or NaN if this sensor does not fire
+     */
+    public PreRollBuffer(int channels, int capacity, TriggerGate gate, double threshold, RecordSink target) {
+        this.mChannels = channels;
+        this.mCapacity = capacity;
+        this.mGate = gate;
+        this.mThreshold = threshold;
+        this.mTarget = target;
+        this.mTimestamps = new long[capacity];
+        this.mValues = new float[capacity * channels];
+        this.mScratch = new float[channels];
+    }
+
+    @Override
+    public void writeRecord(long timestamp, float[] values) {
+
+        if (!Double.isNaN(mThreshold) && magnitude(values) > mThreshold) {
+            mGate.fire(timestamp);
+        }
+
+        if (!mGate.isCapturing(timestamp)) {
+            buffer(timestamp, values);
+            return;
+        }
+
+        if (mSize > 0) {
+            flush(mGate.getWindowStart());
+        }
+
+        mTarget.writeRecord(timestamp, values);
+        mCapturedCount++;
+    }
+
+    private void buffer(long timestamp, float[] values) {
+
+        int tail = (mHead + mSize) % mCapacity;
+
+        if (mSize == mCapacity) {
+            // Full, overwrite the oldest
+            mHead = (mHead + 1) % mCapacity;
+            mDiscardedCount++;
+        }
+        else {
+            mSize++;
+        }
+
+        mTimestamps[tail] = timestamp;
+        System.arraycopy(values, 0, mValues, tail * mChannels, mChannels);
+    }
+
+    /**
+     * Passes on the buffered samples from windowStart on and drops the older ones.
+     */
+    private void flush(long windowStart) {
+
+        for (; mSize > 0; mSize--) {
+
+            if (mTimestamps[mHead] >= windowStart) {
+                System.arraycopy(mValues, mHead * mChannels, mScratch, 0, mChannels);
+                mTarget.writeRecord(mTimestamps[mHead], mScratch);
+                mCapturedCount++;
+            }
+            else {
+                mDiscardedCount++;
+            }
+
+            mHead = (mHead + 1) % mCapacity;
+        }
+    }
+
+    private double magnitude(float[] values) {
+
+        int channels = Math.min(mChannels, MAGNITUDE_CHANNELS);
+        double squares = 0;
+
+        for (int c = 0; c < channels; c++) {
+            squares += values[c] * values[c];
+        }
+
+        return Math.sqrt(squares);
+    }
+
+    public long getCapturedCount() {
+        return this.mCapturedCount;
+    }
+
+    /**
+     * Samples dropped so far, not counting those still in the buffer.
+     */
+    public long getDiscardedCount() {
+        return this.mDiscardedCount;
+    }
+
+    /**
+     * Samples currently held in the buffer.
+     */
+    public int size() {
+        return this.mSize;
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Settings of the Bluetooth proximity aggregation: how long each window
+ * is and how many devices a window tracks. Setters return this so that a
+ * configuration can be chained.
+ */
+public class ProximityConfig {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "ProximityConfig";
+
+    public static final long DEFAULT_WINDOW_MILLIS = 60 * 1000;
+    public static final int DEFAULT_MAX_DEVICES = 2048;
+
+    private long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+    private int mMaxDevices = DEFAULT_MAX_DEVICES;
+
+    public long getWindowMillis() {
+        return this.mWindowMillis;
+    }
+
+    /**
+     * Length of the windows, aligned to multiples of it since the epoch.
+     * Each device seen in a window is written as one row.
+     */
+    public ProximityConfig setWindowMillis(long windowMillis) {
+
+        if (windowMillis < 1) {
+            throw new IllegalArgumentException("Invalid window: " + windowMillis);
+        }
+
+        this.mWindowMillis = windowMillis;
+        return this;
+    }
+
+    public int getMaxDevices() {
+        return this.mMaxDevices;
+    }
+
+    /**
+     * Devices tracked individually per window. Sightings of further devices
+     * are pooled into a single row, so a window never writes more than
+     * maxDevices + 1 rows.
+     */
+    public ProximityConfig setMaxDevices(int maxDevices) {
+
+        if (maxDevices < 1) {
+            throw new IllegalArgumentException("Invalid device limit: " + maxDevices);
+        }
+
+        this.mMaxDevices = maxDevices;
+        return this;
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The stages one sensor's samples go through once they are extracted into
+ * RecordLayout order: resampling, the trigger's pre-roll, the writer
+ * thread's ring buffer, the fused stream, feature extraction, and finally
+ * a file of the sensor's own or the shared session log. Every stage is
+ * optional and set up before the first sample.
+ * <p>
+ * This is the Android-free part of ModelWriter, shared with the benchmarks.
+ * A failed write is counted in the metrics and kept as the last error; the
+ * next samples are still written.
+ */
+public class RecordChannel implements RecordSink, DurableWriter {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "RecordChannel";
+
+    private final RecordFormat mFormat;
+
+    // Fields of the samples (null for pre-encoded lines only)
+    private final RecordLayout mLayout;
+
+    // File of our own, in chunks (null when writing to the session log)
+    private RecordFileWriter mFileWriter;
+
+    // Shared session log (null when writing to a file of our own)
+    private SessionLogWriter mSessionLog;
+
+    // Runtime counters
+    private final SensorMetrics mMetrics = new SensorMetrics();
+
+    // Asynchronous writing (null when writing on the receiving thread)
+    private SampleRingBuffer mRingBuffer;
+
+    // Feature extraction (null when the samples are recorded)
+    private FeatureExtractor mFeatureExtractor;
+
+    // Resampling stage (null when every sample is recorded)
+    private Resampler mResampler;
+
+    // Event-triggered recording (null when recording continuously)
+    private PreRollBuffer mPreRoll;
+
+    // Fused stream (null when not fused)
+    private RecordSink mFusionInput;
+
+    private IOException mLastError;
+    private volatile boolean mClosed;
+
+    /**
+     * Creates a channel that writes a file of its own, rotated into chunks
+     * as described in RecordFileWriter.
+     * <p>
+     * If features is not null, the channel records one CSV row of window
+     * features (see FeatureExtractor) per hop instead of the samples, and
+     * the format is ignored.
+     *
+     * @param layout the fields of the samples, or null for pre-encoded CSV lines only (see {@link #writeLine})
+     */
+    public RecordChannel(File folder, String fileName, RecordFormat format, RecordLayout layout, FeatureConfig features,
+                         SessionManifest manifest, long maxChunkBytes, long maxChunkMillis) throws IOException {
+
+        this.mFormat = (features != null) ? RecordFormat.CSV : format;
+        this.mLayout = layout;
+
+        RecordEncoder encoder = null;
+
+        if (features != null) {
+
+            if (layout == null) {
+                throw new IllegalArgumentException("Features need a record layout.");
+            }
+
+            encoder = new FeatureRecordEncoder(layout, features);
+
+            this.mFeatureExtractor = new FeatureExtractor(layout.getFieldCount(), features, new RecordSink() {
+                @Override
+                public void writeRecord(long timestamp, float[] values) {
+                    writeEncoded(timestamp, values);
+                }
+            });
+        }
+        else if (layout != null) {
+            encoder = RecordFileWriter.createEncoder(format, layout);
+        }
+        else if (format != RecordFormat.CSV) {
+            throw new IllegalArgumentException("Format " + format + " needs a record layout.");
+        }
+
+        this.mFileWriter = new RecordFileWriter(folder, fileName, mFormat, layout, encoder,
+                manifest, maxChunkBytes, maxChunkMillis, mMetrics);
+    }
+
+    /**
+     * Creates a channel that appends tagged records to the session log
+     * instead of its own file. The log is flushed and closed by its owner.
+     */
+    public RecordChannel(SessionLogWriter sessionLog, RecordLayout layout) {
+
+        if (layout == null) {
+            throw new IllegalArgumentException("The session log needs a record layout.");
+        }
+
+        this.mFormat = RecordFormat.BINARY;
+        this.mLayout = layout;
+        this.mSessionLog = sessionLog;
+    }
+
+    public RecordFormat getFormat() {
+        return this.mFormat;
+    }
+
+    /**
+     * @return the fields of the samples, or null for pre-encoded lines only
+     */
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    /**
+     * Whether the records go to the shared session log rather than a file of their own.
+     */
+    public boolean isSessionLog() {
+        return this.mSessionLog != null;
+    }
+
+    /**
+     * Whether window features are recorded instead of the samples.
+     */
+    public boolean isFeatureExtraction() {
+        return this.mFeatureExtractor != null;
+    }
+
+    /**
+     * Whether samples are still accepted.
+     */
+    public boolean isOpen() {
+        return !mClosed && (mSessionLog != null || mFileWriter.isOpen());
+    }
+
+    /**
+     * Low-pass filters and decimates the samples down to the given rate
+     * before they are written. Use 0 to record every sample. Ignored
+     * without a record layout.
+     */
+    public void setTargetRate(double targetRateHz) {
+
+        if (targetRateHz <= 0 || mLayout == null) {
+            mResampler = null;
+            return;
+        }
+
+        mResampler = new Resampler(mLayout.getFieldCount(), targetRateHz, new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+                deliver(timestamp, values);
+            }
+        });
+    }
+
+    /**
+     * @return the resampling stage, or null if every sample is recorded
+     */
+    public Resampler getResampler() {
+        return this.mResampler;
+    }
+
+    /**
+     * Only records samples inside the gate's capture windows, holding the
+     * latest capacity samples in memory for the pre-roll. Samples of this
+     * channel fire the gate when their magnitude exceeds the threshold
+     * (NaN for never). Ignored without a record layout.
+     *
+     * @return whether the trigger applies
+     */
+    public boolean setTrigger(TriggerGate gate, int capacity, double threshold) {
+
+        if (mLayout == null) {
+            return false;
+        }
+
+        mPreRoll = new PreRollBuffer(mLayout.getFieldCount(), capacity, gate, threshold, new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+                enqueue(timestamp, values);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @return the pre-roll buffer, or null if recording continuously
+     */
+    public PreRollBuffer getPreRollBuffer() {
+        return this.mPreRoll;
+    }
+
+    /**
+     * Also hands every sample that is recorded to the given sink, e.g. a
+     * channel of a FusionMerger. Ignored without a record layout.
+     */
+    public void setFusionInput(RecordSink fusionInput) {
+        this.mFusionInput = (mLayout != null) ? fusionInput : null;
+    }
+
+    /**
+     * Hands samples over to the given AsyncRecordWriter instead of writing
+     * them on the receiving thread. Ignored without a record layout.
+     *
+     * @return whether the samples are written asynchronously
+     */
+    public boolean attachAsyncWriter(AsyncRecordWriter asyncWriter, int capacity, OverflowPolicy policy) {
+
+        if (mLayout == null) {
+            return false;
+        }
+
+        mRingBuffer = asyncWriter.addChannel(this, mLayout.getFieldCount(), capacity, policy);
+        mMetrics.setQueue(mRingBuffer);
+        return true;
+    }
+
+    /**
+     * Writes a sparse time index next to each file, see RecordFileWriter.setIndexInterval.
+     * Ignored when writing to the session log.
+     */
+    public void setIndexInterval(int indexInterval) {
+        if (mFileWriter != null) {
+            mFileWriter.setIndexInterval(indexInterval);
+        }
+    }
+
+    public SensorMetrics getMetrics() {
+        return this.mMetrics;
+    }
+
+    /**
+     * Samples dropped by the ring buffer's overflow policy.
+     */
+    public long getDroppedCount() {
+        return (mRingBuffer != null) ? mRingBuffer.getDroppedCount() : 0;
+    }
+
+    /**
+     * @return the last failed write, or null
+     */
+    public synchronized IOException getLastError() {
+        return this.mLastError;
+    }
+
+    /**
+     * Takes one sample, in RecordLayout order, through all stages. The
+     * values are copied before the call returns, so the caller may reuse
+     * the array.
+     */
+    public void receive(long timestamp, float[] values) {
+
+        if (!isOpen()) {
+            return;
+        }
+
+        mMetrics.sampleReceived(timestamp);
+
+        if (mResampler != null) {
+            mResampler.writeRecord(timestamp, values);
+        }
+        else {
+            deliver(timestamp, values);
+        }
+    }
+
+    /**
+     * Appends length bytes of an already encoded CSV line to the file, e.g.
+     * a row of a sensor without a record layout. Not supported in the
+     * session log.
+     */
+    public synchronized void writeLine(long timestamp, byte[] line, int offset, int length) throws IOException {
+
+        if (mFileWriter == null) {
+            throw new IOException("The session log only takes records.");
+        }
+
+        mFileWriter.writeLine(timestamp, line, offset, length);
+    }
+
+    private void deliver(long timestamp, float[] values) {
+
+        if (mPreRoll != null) {
+            mPreRoll.writeRecord(timestamp, values);
+        }
+        else {
+            enqueue(timestamp, values);
+        }
+    }
+
+    private void enqueue(long timestamp, float[] values) {
+
+        if (mRingBuffer != null) {
+            mRingBuffer.offer(timestamp, values);
+        }
+        else {
+            writeRecord(timestamp, values);
+        }
+    }
+
+    /**
+     * Encodes one sample (or, in feature mode, adds it to the feature window)
+     * and appends it to the file or the session log. This is the last stage,
+     * run by the writer thread in asynchronous mode. Does not allocate.
+     */
+    @Override
+    public synchronized void writeRecord(long timestamp, float[] values) {
+
+        if (mFusionInput != null) {
+            mFusionInput.writeRecord(timestamp, values);
+        }
+
+        if (mFeatureExtractor != null) {
+            mFeatureExtractor.writeRecord(timestamp, values);
+        }
+        else {
+            writeEncoded(timestamp, values);
+        }
+    }
+
+    private void writeEncoded(long timestamp, float[] values) {
+
+        if (mSessionLog != null) {
+            long start = System.nanoTime();
+            try {
+                mSessionLog.append(mLayout, timestamp, values);
+                mMetrics.recordWritten(mLayout.getRecordSize());
+                mMetrics.recordWriteLatency(System.nanoTime() - start);
+            } catch (IOException ex) {
+                mLastError = ex;
+                mMetrics.writeFailed();
+            }
+            return;
+        }
+
+        try {
+            mFileWriter.write(timestamp, values);
+        } catch (IOException ex) {
+            mLastError = ex;
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (mFileWriter != null) {
+            mFileWriter.flush();
+        }
+    }
+
+    /**
+     * Writes the samples the resampler still holds and closes the file.
+     * The session log is closed by its owner.
+     */
+    public synchronized void close() throws IOException {
+
+        if (!isOpen()) {
+            return;
+        }
+        mClosed = true;
+
+        // The filter's last outputs, or a stream too short for the rate estimate as it is
+        if (mResampler != null) {
+            mResampler.flush(this);
+        }
+
+        if (mFileWriter != null) {
+            mFileWriter.close();
+        }
+    }
+
+    /**
+     * Number of the chunk currently being written, starting at 0.
+     */
+    public synchronized int getChunkIndex() {
+        return (mFileWriter != null) ? mFileWriter.getChunkIndex() : 0;
+    }
+
+    @Override
+    public synchronized long getBytesWritten() {
+        return (mFileWriter != null) ? mFileWriter.getBytesWritten() : 0;
+    }
+
+    @Override
+    public synchronized void sync(Checkpoint checkpoint) throws IOException {
+
+        // The session log is synced by its owner
+        if (mFileWriter != null) {
+            mFileWriter.sync(checkpoint);
+        }
+    }
+
+}
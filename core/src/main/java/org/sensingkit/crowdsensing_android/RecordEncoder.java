@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Encodes one sample into a caller-provided byte array. Implementations
+ * must not allocate on the encode path, so that a writer can reuse a single
+ * scratch array for every sample it receives.
+ */
+public interface RecordEncoder {
+
+    RecordLayout getLayout();
+
+    /**
+     * Bytes to write once at the start of the file (may be empty).
+     */
+    byte[] encodeHeader();
+
+    /**
+     * Upper bound of the bytes produced by a single call to encode.
+     */
+    int getMaxRecordSize();
+
+    /**
+     * Writes one record into dst and returns the number of bytes written.
+     */
+    int encode(long timestamp, float[] values, byte[] dst, int offset);
+
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Encodes records into a buffered file of one sensor, rotating the output
+ * into numbered chunk files (e.g. Accelerometer-00000.csv) once a chunk
+ * holds maxChunkBytes of records or spans maxChunkMillis of timestamps.
+ * Use 0 to disable a limit. Every closed chunk is added to the manifest,
+ * if one is given. In the compressed format the byte limit applies to
+ * uncompressed records.
+ * <p>
+ * With an index interval set, every chunk also gets a sparse TimeIndex
+ * for range queries, which is rebuilt from the chunk if it is lost.
+ * <p>
+ * This is the Android-free part of ModelWriter, shared with the benchmarks.
+ * After an I/O error during rotation the writer is closed and ignores
+ * further records.
+ */
+public class RecordFileWriter implements DurableWriter {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "RecordFileWriter";
+
+    private final File mFolder;
+    private final String mFilename;
+    private final RecordFormat mFormat;
+    private final RecordLayout mLayout;
+    private final SessionManifest mManifest;
+    private final long mMaxChunkBytes;
+    private final long mMaxChunkMillis;
+    private final SensorMetrics mMetrics;
+
+    // Encoding (the scratch buffer is reused for every record)
+    private final RecordEncoder mEncoder;
+    private final byte[] mRecord;
+
+    private File mFile;
+    private FileOutputStream mFileStream;
+    private BufferedOutputStream mFileBuffer;
+    private long mBytesWritten;
+
+    // Compressed format (null for the other formats)
+    private CompressedRecordWriter mBlockWriter;
+
+    // Sparse time index of the current chunk (null until its first entry, or when not indexed)
+    private int mIndexInterval;
+    private TimeIndex.Writer mIndexWriter;
+    private long mChunkHeaderBytes;
+
+    // Current chunk
+    private int mChunkIndex;
+    private long mChunkBytes;
+    private long mChunkRecords;
+    private long mChunkFirstTimestamp;
+    private long mChunkLastTimestamp;
+    private final Map<String, Long> mClosedChunks = new LinkedHashMap<>();
+
+    public RecordFileWriter(File folder, String filename, RecordFormat format, RecordLayout layout) throws IOException {
+        this(folder, filename, format, layout, createEncoder(format, layout), null, 0, 0, new SensorMetrics());
+    }
+
+    /**
+     * @param layout  the layout of the records, or null for pre-encoded lines (see {@link #writeLine})
+     * @param encoder the encoder of the records, or null for the compressed format and pre-encoded lines
+     */
+    public RecordFileWriter(File folder, String filename, RecordFormat format, RecordLayout layout, RecordEncoder encoder,
+                            SessionManifest manifest, long maxChunkBytes, long maxChunkMillis, SensorMetrics metrics) throws IOException {
+
+        this.mFolder = folder;
+        this.mFilename = filename;
+        this.mFormat = format;
+        this.mLayout = layout;
+        this.mEncoder = encoder;
+        this.mRecord = (encoder != null) ? new byte[encoder.getMaxRecordSize()] : null;
+        this.mManifest = manifest;
+        this.mMaxChunkBytes = maxChunkBytes;
+        this.mMaxChunkMillis = maxChunkMillis;
+        this.mMetrics = metrics;
+
+        openChunk();
+    }
+
+    /**
+     * @return the encoder of the format, or null for the compressed format
+     */
+    public static RecordEncoder createEncoder(RecordFormat format, RecordLayout layout) {
+
+        switch (format) {
+
+            case COMPRESSED:
+                return null;
+
+            case BINARY:
+                return new BinaryRecordEncoder(layout);
+
+            case CSV:
+            default:
+                return new CsvRecordEncoder(layout);
+        }
+    }
+
+    public RecordFormat getFormat() {
+        return this.mFormat;
+    }
+
+    public SensorMetrics getMetrics() {
+        return this.mMetrics;
+    }
+
+    /**
+     * Adds an entry to the chunk's TimeIndex every interval records (every
+     * block in the compressed format). Use 0 (the default) for no index.
+     * Must be set before the first record.
+     */
+    public synchronized void setIndexInterval(int indexInterval) {
+        this.mIndexInterval = indexInterval;
+    }
+
+    public synchronized boolean isOpen() {
+        return mFileBuffer != null;
+    }
+
+    /**
+     * Encodes one record into the scratch buffer and appends it to the file. Does not allocate.
+     */
+    public synchronized void write(long timestamp, float[] values) throws IOException {
+
+        if (mFileBuffer == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        int length = (mEncoder != null)
+                ? mEncoder.encode(timestamp, values, mRecord, 0)
+                : mLayout.getRecordSize();
+
+        rotateIfNeeded(timestamp, length);
+        indexRecord(timestamp);
+
+        try {
+            if (mBlockWriter != null) {
+                mBlockWriter.write(timestamp, values);
+            }
+            else {
+                mFileBuffer.write(mRecord, 0, length);
+            }
+        }
+        catch (IOException ex) {
+            mMetrics.writeFailed();
+            throw ex;
+        }
+
+        recordWritten(timestamp, length);
+        mMetrics.recordWriteLatency(System.nanoTime() - start);
+    }
+
+    /**
+     * Appends an already encoded line, e.g. SensingKit's own CSV of a sensor without a record layout.
+     */
+    public synchronized void writeLine(long timestamp, byte[] line) throws IOException {
+        writeLine(timestamp, line, 0, line.length);
+    }
+
+    /**
+     * Appends length bytes of an already encoded line, e.g. from a scratch buffer.
+     */
+    public synchronized void writeLine(long timestamp, byte[] line, int offset, int length) throws IOException {
+
+        if (mFileBuffer == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        rotateIfNeeded(timestamp, length);
+        indexRecord(timestamp);
+
+        try {
+            mFileBuffer.write(line, offset, length);
+        }
+        catch (IOException ex) {
+            mMetrics.writeFailed();
+            throw ex;
+        }
+
+        recordWritten(timestamp, length);
+        mMetrics.recordWriteLatency(System.nanoTime() - start);
+    }
+
+    public synchronized void flush() throws IOException {
+
+        if (mFileBuffer == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            if (mBlockWriter != null) {
+                mBlockWriter.flushBlock();
+            }
+            mFileBuffer.flush();
+        }
+        catch (IOException ex) {
+            mMetrics.writeFailed();
+            throw ex;
+        }
+
+        flushIndex();
+        mMetrics.recordFlushLatency(System.nanoTime() - start);
+    }
+
+    public synchronized void close() throws IOException {
+
+        if (mFileBuffer == null) {
+            return;
+        }
+
+        closeChunk();
+    }
+
+    /**
+     * Number of the chunk currently being written, starting at 0.
+     */
+    public synchronized int getChunkIndex() {
+        return this.mChunkIndex;
+    }
+
+    @Override
+    public synchronized long getBytesWritten() {
+        return this.mBytesWritten;
+    }
+
+    @Override
+    public synchronized void sync(Checkpoint checkpoint) throws IOException {
+
+        // Closed chunks were synced when they were closed
+        for (Map.Entry<String, Long> chunk : mClosedChunks.entrySet()) {
+            checkpoint.update(chunk.getKey(), chunk.getValue());
+        }
+        mClosedChunks.clear();
+
+        if (mFileBuffer == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            if (mBlockWriter != null) {
+                mBlockWriter.flushBlock();
+            }
+            mFileBuffer.flush();
+            mFileStream.getFD().sync();
+        }
+        catch (IOException ex) {
+            mMetrics.writeFailed();
+            throw ex;
+        }
+
+        flushIndex();
+        mMetrics.recordFlushLatency(System.nanoTime() - start);
+
+        checkpoint.update(mFile.getName(), mFile.length());
+    }
+
+    private boolean isRotating() {
+        return mMaxChunkBytes > 0 || mMaxChunkMillis > 0;
+    }
+
+    private String chunkFilename() {
+
+        if (!isRotating()) {
+            return mFilename + "." + mFormat.getFileExtension();
+        }
+
+        return String.format(Locale.US, "%s-%05d.%s", mFilename, mChunkIndex, mFormat.getFileExtension());
+    }
+
+    private void openChunk() throws IOException {
+
+        mFile = createFile(mFolder, chunkFilename());
+        mFileStream = new FileOutputStream(mFile);
+        mFileBuffer = new BufferedOutputStream(mFileStream);
+
+        mChunkBytes = 0;
+        mChunkRecords = 0;
+        mChunkFirstTimestamp = 0;
+        mChunkLastTimestamp = 0;
+        mChunkHeaderBytes = 0;
+
+        if (mFormat == RecordFormat.COMPRESSED) {
+            mBlockWriter = new CompressedRecordWriter(mLayout, mFileBuffer);
+            mChunkHeaderBytes = BinaryRecordEncoder.encodeHeader(mLayout,
+                    CompressedRecordWriter.MAGIC, CompressedRecordWriter.SCHEMA_VERSION).length;
+        }
+        else if (mEncoder != null) {
+            byte[] header = mEncoder.encodeHeader();
+            mFileBuffer.write(header);
+            mChunkHeaderBytes = header.length;
+        }
+    }
+
+    private void closeChunk() throws IOException {
+
+        if (mBlockWriter != null) {
+            mBlockWriter.close();
+        }
+        mFileBuffer.flush();
+        mFileStream.getFD().sync();
+        mFileBuffer.close();
+        mFileBuffer = null;
+        closeIndex();
+
+        long length = mFile.length();
+        mClosedChunks.put(mFile.getName(), length);
+
+        if (mManifest != null) {
+            mManifest.addChunk(new SessionManifest.Chunk(mFilename, mFile.getName(),
+                    mChunkFirstTimestamp, mChunkLastTimestamp, mChunkRecords, length));
+        }
+    }
+
+    /**
+     * Closes the current chunk and opens the next one if the record about to be
+     * written would exceed a limit. On failure the writer stays closed.
+     */
+    private void rotateIfNeeded(long timestamp, int length) throws IOException {
+
+        if (mChunkRecords == 0) {
+            return;
+        }
+
+        boolean sizeExceeded = mMaxChunkBytes > 0 && mChunkBytes + length > mMaxChunkBytes;
+        boolean timeExceeded = mMaxChunkMillis > 0 && timestamp - mChunkFirstTimestamp >= mMaxChunkMillis;
+
+        if (!sizeExceeded && !timeExceeded) {
+            return;
+        }
+
+        try {
+            closeChunk();
+            mChunkIndex++;
+            openChunk();
+        }
+        catch (IOException ex) {
+            mMetrics.writeFailed();
+            mFileBuffer = null;
+            throw ex;
+        }
+    }
+
+    /**
+     * Adds the record about to be written to the index if it starts a new
+     * stretch (or block). The index is only an aid: after an I/O error it is
+     * deleted, to be rebuilt from the chunk when it is needed.
+     */
+    private void indexRecord(long timestamp) {
+
+        if (mIndexInterval <= 0) {
+            return;
+        }
+
+        long offset;
+        if (mBlockWriter != null) {
+            if (mBlockWriter.getPendingRecordCount() != 0) {
+                return;
+            }
+            offset = mChunkHeaderBytes + mBlockWriter.getCompressedBytes();
+        }
+        else {
+            if (mChunkRecords % mIndexInterval != 0) {
+                return;
+            }
+            offset = mChunkHeaderBytes + mChunkBytes;
+        }
+
+        try {
+            if (mIndexWriter == null) {
+                mIndexWriter = new TimeIndex.Writer(TimeIndex.fileFor(mFile));
+            }
+            mIndexWriter.add(timestamp, offset);
+        }
+        catch (IOException ex) {
+            dropIndex();
+        }
+    }
+
+    private void flushIndex() {
+
+        if (mIndexWriter == null) {
+            return;
+        }
+
+        try {
+            mIndexWriter.flush();
+        }
+        catch (IOException ex) {
+            dropIndex();
+        }
+    }
+
+    private void closeIndex() {
+
+        if (mIndexWriter == null) {
+            return;
+        }
+
+        try {
+            mIndexWriter.close();
+            mIndexWriter = null;
+        }
+        catch (IOException ex) {
+            dropIndex();
+        }
+    }
+
+    private void dropIndex() {
+
+        if (mIndexWriter != null) {
+            try {
+                mIndexWriter.close();
+            }
+            catch (IOException ex) {
+                // Deleted anyway
+            }
+            mIndexWriter = null;
+        }
+
+        // Stop indexing this writer, the chunks are indexed again on demand
+        mIndexInterval = 0;
+        TimeIndex.fileFor(mFile).delete();
+    }
+
+    private void recordWritten(long timestamp, int length) {
+
+        if (mChunkRecords == 0) {
+            mChunkFirstTimestamp = timestamp;
+        }
+        mChunkLastTimestamp = timestamp;
+        mChunkRecords++;
+        mChunkBytes += length;
+        mBytesWritten += length;
+        mMetrics.recordWritten(length);
+    }
+
+    private static File createFile(File folder, String filename) throws IOException {
+
+        File file = new File(folder, filename);
+
+        if (!file.createNewFile()) {
+            throw new IOException("File " + filename + " could not be created.");
+        }
+
+        return file;
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Fixed-width layout of a single binary record. Every record starts with a
+ * 64-bit timestamp, followed by the 32-bit fields listed here, all in
+ * little-endian order. Constant names match SKSensorModuleType.
+ */
+public enum RecordLayout {
+
+    AUDIO_LEVEL(1, new String[]{"level"}, new FieldType[]{FieldType.INT32}),
+    ACCELEROMETER(2, new String[]{"x", "y", "z"}),
+    GRAVITY(3, new String[]{"x", "y", "z"}),
+    LINEAR_ACCELERATION(4, new String[]{"x", "y", "z"}),
+    GYROSCOPE(5, new String[]{"x", "y", "z"}),
+    ROTATION(6, new String[]{"x", "y", "z", "cos", "headingAccuracy"}),
+    MAGNETOMETER(7, new String[]{"x", "y", "z"}),
+
+    // Offsets from the session's LocationOrigin in microdegrees, then metres and metres per second
+    LOCATION(8, new String[]{"latitudeOffset", "longitudeOffset", "accuracy", "altitude", "speed"},
+            new FieldType[]{FieldType.INT32, FieldType.INT32, FieldType.FLOAT32, FieldType.FLOAT32, FieldType.FLOAT32});
+
+    public enum FieldType {
+        FLOAT32(1),
+        INT32(2);
+
+        private final int mCode;
+
+        FieldType(final int code) {
+            this.mCode = code;
+        }
+
+        public int getCode() {
+            return this.mCode;
+        }
+
+        public static FieldType forCode(final int code) {
+            for (FieldType type : values()) {
+                if (type.mCode == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static final int TIMESTAMP_SIZE = 8;
+    public static final int FIELD_SIZE = 4;
+
+    private final int mCode;
+    private final String[] mFieldNames;
+    private final FieldType[] mFieldTypes;
+
+    RecordLayout(final int code, final String[] fieldNames) {
+        this(code, fieldNames, floatFields(fieldNames.length));
+    }
+
+    RecordLayout(final int code, final String[] fieldNames, final FieldType[] fieldTypes) {
+        this.mCode = code;
+        this.mFieldNames = fieldNames;
+        this.mFieldTypes = fieldTypes;
+    }
+
+    private static FieldType[] floatFields(final int count) {
+        FieldType[] types = new FieldType[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = FieldType.FLOAT32;
+        }
+        return types;
+    }
+
+    public int getCode() {
+        return this.mCode;
+    }
+
+    public int getFieldCount() {
+        return this.mFieldNames.length;
+    }
+
+    public String getFieldName(final int index) {
+        return this.mFieldNames[index];
+    }
+
+    public FieldType getFieldType(final int index) {
+        return this.mFieldTypes[index];
+    }
+
+    public int getRecordSize() {
+        return TIMESTAMP_SIZE + FIELD_SIZE * getFieldCount();
+    }
+
+    public static RecordLayout forCode(final int code) {
+        for (RecordLayout layout : values()) {
+            if (layout.mCode == code) {
+                return layout;
+            }
+        }
+        return null;
+    }
+
+}
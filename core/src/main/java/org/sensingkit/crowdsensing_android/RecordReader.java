@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.IOException;
+
+/**
+ * A stream of records read one at a time into reusable fields, whatever
+ * format they were written in.
+ */
+public interface RecordReader {
+
+    /**
+     * Layout of the current record.
+     */
+    RecordLayout getLayout();
+
+    /**
+     * Reads the next record.
+     *
+     * @return false at the end of the stream
+     */
+    boolean readRecord() throws IOException;
+
+    long getTimestamp();
+
+    /**
+     * Values of the current record; only the first getLayout().getFieldCount() are valid.
+     */
+    float[] getValues();
+
+    void close() throws IOException;
+
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Opens the recorded files of a session as RecordReaders.
+ */
+public final class RecordReaders {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "RecordReaders";
+
+    private RecordReaders() {
+    }
+
+    /**
+     * @return the format of a recorded file from its extension, or null if it is not a recording
+     */
+    public static RecordFormat formatOf(File file) {
+
+        String name = file.getName();
+        String extension = name.substring(name.lastIndexOf('.') + 1);
+
+        for (RecordFormat format : RecordFormat.values()) {
+            if (format.getFileExtension().equals(extension)) {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Opens a recorded file in any format. The layout is only needed for
+     * CSV files, the binary formats carry it in their header.
+     */
+    public static RecordReader open(File file, RecordLayout layout) throws IOException {
+
+        RecordFormat format = formatOf(file);
+        if (format == null) {
+            throw new IOException("File " + file.getName() + " is not a recording.");
+        }
+
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+
+        try {
+            switch (format) {
+
+                case BINARY:
+                    return new BinaryRecordReader(inputStream);
+
+                case COMPRESSED:
+                    return new CompressedRecordReader(inputStream);
+
+                case CSV:
+                default:
+                    return new CsvRecordReader(inputStream, layout);
+            }
+        }
+        catch (IOException ex) {
+            inputStream.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads the given files one after the other, e.g. the chunks of a rotated recording.
+     */
+    public static RecordReader concat(List<File> files, RecordLayout layout) {
+        return new ConcatReader(new ArrayList<>(files), layout);
+    }
+
+    /**
+     * Only the records of the given layout, e.g. of one sensor in the session log.
+     */
+    public static RecordReader filter(RecordReader reader, RecordLayout layout) {
+        return new FilterReader(reader, layout);
+    }
+
+    /**
+     * Only the records from (inclusive) to (exclusive) of a recorded file,
+     * found through its TimeIndex (rebuilt first if it is missing).
+     */
+    public static RecordReader range(File file, RecordLayout layout, long from, long to) {
+        return range(Collections.singletonList(file), layout, from, to);
+    }
+
+    /**
+     * Only the records from (inclusive) to (exclusive) of the given files in
+     * time order, e.g. the chunks of a rotated recording. Stops at the first
+     * record past the range.
+     */
+    public static RecordReader range(List<File> files, RecordLayout layout, long from, long to) {
+        return new RangeReader(new ArrayList<>(files), layout, from, to);
+    }
+
+    /**
+     * Opens a recorded file at a byte offset found in its TimeIndex, or at its first record for -1.
+     */
+    static RecordReader openAt(File file, RecordLayout layout, long offset) throws IOException {
+
+        RecordFormat format = formatOf(file);
+        if (format == null) {
+            throw new IOException("File " + file.getName() + " is not a recording.");
+        }
+
+        FileInputStream fileStream = new FileInputStream(file);
+
+        try {
+            switch (format) {
+
+                case BINARY: {
+                    BinaryRecordReader.Header header = BinaryRecordReader.readHeader(fileStream,
+                            BinaryRecordEncoder.MAGIC, BinaryRecordEncoder.SCHEMA_VERSION);
+                    seek(fileStream, offset);
+                    return new BinaryRecordReader(new BufferedInputStream(fileStream), header);
+                }
+
+                case COMPRESSED: {
+                    BinaryRecordReader.Header header = BinaryRecordReader.readHeader(fileStream,
+                            CompressedRecordWriter.MAGIC, CompressedRecordWriter.SCHEMA_VERSION);
+                    seek(fileStream, offset);
+                    return new CompressedRecordReader(new BufferedInputStream(fileStream), header.layout);
+                }
+
+                case CSV:
+                default:
+                    seek(fileStream, offset);
+                    return new CsvRecordReader(new BufferedInputStream(fileStream), layout);
+            }
+        }
+        catch (IOException ex) {
+            fileStream.close();
+            throw ex;
+        }
+    }
+
+    private static void seek(FileInputStream fileStream, long offset) throws IOException {
+        if (offset >= 0) {
+            fileStream.getChannel().position(offset);
+        }
+    }
+
+    private static class ConcatReader implements RecordReader {
+
+        private final List<File> mFiles;
+        private final RecordLayout mLayout;
+        private int mFileIndex;
+        private RecordReader mReader;
+
+        ConcatReader(List<File> files, RecordLayout layout) {
+            this.mFiles = files;
+            this.mLayout = layout;
+        }
+
+        @Override
+        public RecordLayout getLayout() {
+            return (mReader != null) ? mReader.getLayout() : mLayout;
+        }
+
+        @Override
+        public boolean readRecord() throws IOException {
+
+            while (true) {
+
+                if (mReader == null) {
+                    if (mFileIndex == mFiles.size()) {
+                        return false;
+                    }
+                    mReader = open(mFiles.get(mFileIndex++), mLayout);
+                }
+
+                if (mReader.readRecord()) {
+                    return true;
+                }
+
+                mReader.close();
+                mReader = null;
+            }
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mReader.getTimestamp();
+        }
+
+        @Override
+        public float[] getValues() {
+            return mReader.getValues();
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (mReader != null) {
+                mReader.close();
+                mReader = null;
+            }
+            mFileIndex = mFiles.size();
+        }
+    }
+
+    private static class FilterReader implements RecordReader {
+
+        private final RecordReader mReader;
+        private final RecordLayout mLayout;
+
+        FilterReader(RecordReader reader, RecordLayout layout) {
+            this.mReader = reader;
+            this.mLayout = layout;
+        }
+
+        @Override
+        public RecordLayout getLayout() {
+            return this.mLayout;
+        }
+
+        @Override
+        public boolean readRecord() throws IOException {
+
+            while (mReader.readRecord()) {
+                if (mReader.getLayout() == mLayout) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mReader.getTimestamp();
+        }
+
+        @Override
+        public float[] getValues() {
+            return mReader.getValues();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    private static class RangeReader implements RecordReader {
+
+        private final List<File> mFiles;
+        private final RecordLayout mLayout;
+        private final long mFrom;
+        private final long mTo;
+        private int mFileIndex;
+        private RecordReader mReader;
+
+        RangeReader(List<File> files, RecordLayout layout, long from, long to) {
+            this.mFiles = files;
+            this.mLayout = layout;
+            this.mFrom = from;
+            this.mTo = to;
+        }
+
+        @Override
+        public RecordLayout getLayout() {
+            return (mReader != null) ? mReader.getLayout() : mLayout;
+        }
+
+        @Override
+        public boolean readRecord() throws IOException {
+
+            while (true) {
+
+                if (mReader == null) {
+                    if (mFileIndex == mFiles.size()) {
+                        return false;
+                    }
+                    File file = mFiles.get(mFileIndex++);
+                    long offset = TimeIndex.open(file, mLayout).findOffset(mFrom);
+                    mReader = openAt(file, mLayout, offset);
+                }
+
+                while (mReader.readRecord()) {
+
+                    long timestamp = mReader.getTimestamp();
+
+                    if (timestamp >= mTo) {
+                        close();
+                        return false;
+                    }
+
+                    if (timestamp >= mFrom) {
+                        return true;
+                    }
+                }
+
+                mReader.close();
+                mReader = null;
+            }
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mReader.getTimestamp();
+        }
+
+        @Override
+        public float[] getValues() {
+            return mReader.getValues();
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (mReader != null) {
+                mReader.close();
+                mReader = null;
+            }
+            mFileIndex = mFiles.size();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Brings a sensor stream down to a target rate before it is written.
+ * The input rate is estimated from the timestamps (in milliseconds) of
+ * the first samples, which are held back until the estimate is known;
+ * then a Decimator filters and decimates the stream by the largest integer
+ * factor that keeps the output rate at or above the target, e.g. 100 Hz by
+ * 2 for a 40 Hz target. Streams less than twice as fast as the target pass
+ * through unchanged.
+ */
+public class Resampler implements RecordSink {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "Resampler";
+
+    public static final int ESTIMATION_SAMPLES = 32;
+
+    private final int mChannels;
+    private final double mTargetRateHz;
+    private final RecordSink mTarget;
+
+    // Samples held back while the input rate is estimated
+    private final long[] mPendingTimestamps = new long[ESTIMATION_SAMPLES];
+    private final float[] mPendingValues;
+    private final float[] mScratch;
+    private int mPendingCount;
+
+    private boolean mEstimated;
+    private double mInputRateHz;
+    private Decimator mDecimator;
+
+    private long mInputCount;
+    private long mOutputCount;
+
+    public Resampler(int channels, double targetRateHz, RecordSink target) {
+        this.mChannels = channels;
+        this.mTargetRateHz = targetRateHz;
+        this.mTarget = target;
+        this.mPendingValues = new float[ESTIMATION_SAMPLES * channels];
+        this.mScratch = new float[channels];
+    }
+
+    @Override
+    public void writeRecord(long timestamp, float[] values) {
+
+        mInputCount++;
+
+        if (mEstimated) {
+            forward(timestamp, values);
+            return;
+        }
+
+        mPendingTimestamps[mPendingCount] = timestamp;
+        System.arraycopy(values, 0, mPendingValues, mPendingCount * mChannels, mChannels);
+        mPendingCount++;
+
+        if (mPendingCount == ESTIMATION_SAMPLES) {
+            estimate();
+        }
+    }
+
+    /**
+     * Writes the samples still due when the stream ends to the given sink:
+     * the decimator's last outputs, or the samples held back for the rate
+     * estimate, unfiltered, when the stream ends before it is known.
+     */
+    public void flush(RecordSink sink) {
+
+        if (mDecimator != null) {
+            mOutputCount += mDecimator.flush(sink);
+        }
+
+        for (int i = 0; i < mPendingCount; i++) {
+            System.arraycopy(mPendingValues, i * mChannels, mScratch, 0, mChannels);
+            sink.writeRecord(mPendingTimestamps[i], mScratch);
+            mOutputCount++;
+        }
+        mPendingCount = 0;
+    }
+
+    private void estimate() {
+
+        long span = mPendingTimestamps[mPendingCount - 1] - mPendingTimestamps[0];
+        mInputRateHz = (span > 0) ? (mPendingCount - 1) * 1000.0 / span : 0;
+
+        int factor = (mInputRateHz > 0) ? (int) Math.floor(mInputRateHz / mTargetRateHz) : 1;
+        if (factor > 1) {
+            mDecimator = new Decimator(mChannels, factor);
+        }
+        mEstimated = true;
+
+        // Replay the held back samples
+        for (int i = 0; i < mPendingCount; i++) {
+            System.arraycopy(mPendingValues, i * mChannels, mScratch, 0, mChannels);
+            forward(mPendingTimestamps[i], mScratch);
+        }
+        mPendingCount = 0;
+    }
+
+    private void forward(long timestamp, float[] values) {
+
+        if (mDecimator == null) {
+            mTarget.writeRecord(timestamp, values);
+            mOutputCount++;
+        }
+        else if (mDecimator.process(timestamp, values)) {
+            mTarget.writeRecord(mDecimator.getOutputTimestamp(), mDecimator.getOutput());
+            mOutputCount++;
+        }
+    }
+
+    public double getTargetRateHz() {
+        return this.mTargetRateHz;
+    }
+
+    /**
+     * @return the estimated input rate, or 0 while it is not known yet
+     */
+    public double getInputRateHz() {
+        return this.mInputRateHz;
+    }
+
+    /**
+     * @return the decimation factor, or 1 while the input rate is not known or the stream passes through
+     */
+    public int getFactor() {
+        return (mDecimator != null) ? mDecimator.getFactor() : 1;
+    }
+
+    public long getInputCount() {
+        return this.mInputCount;
+    }
+
+    public long getOutputCount() {
+        return this.mOutputCount;
+    }
+
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Aggregates Bluetooth sightings into per-device RSSI statistics (count,
+ * mean, min and max) over fixed windows, so that the output grows with the
+ * number of devices around rather than with the number of sightings.
+ * <p>
+ * Devices are keyed on an anonymised 64-bit ID, the first 8 bytes of the
+ * SHA-256 of a random per-aggregator salt and the address. The salt is never
+ * written, so the IDs can be compared within a session but neither traced
+ * back to an address nor linked across sessions.
+ * <p>
+ * The statistics live in an open-addressing table of primitive arrays that
+ * is allocated once, holding up to maxDevices devices per window. Sightings
+ * of further devices are pooled into the {@link #OTHER_DEVICES} row, so
+ * memory, CPU per sighting and rows per window all stay bounded. Not thread
+ * safe.
+ */
+public class RssiAggregator {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "RssiAggregator";
+
+    /**
+     * ID of the row pooling the devices beyond the limit; never the ID of a device.
+     */
+    public static final long OTHER_DEVICES = 0;
+
+    public static final int SALT_SIZE = 16;
+
+    // Window start, device, count, mean, min and max (see CsvRecordEncoder for the sizes)
+    public static final int MAX_ROW_SIZE = 20 + 1 + 16 + 1 + 11 + 1 + 47 + 1 + 11 + 1 + 11 + 1;
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+    /**
+     * Receives the rows of each closed window.
+     */
+    public interface Sink {
+
+        void writeDevice(long windowStart, long deviceId, int count, float meanRssi, int minRssi, int maxRssi);
+    }
+
+    private final long mWindowMillis;
+    private final int mMaxDevices;
+    private final Sink mSink;
+
+    // Anonymisation (the scratch arrays are reused for every sighting)
+    private final byte[] mSalt;
+    private final MessageDigest mDigest;
+    private final byte[] mHash;
+    private byte[] mAddress = new byte[32];
+
+    // Devices of the current window, empty slots have the key OTHER_DEVICES
+    private final int mMask;
+    private final long[] mKeys;
+    private final int[] mCounts;
+    private final long[] mSums;
+    private final byte[] mMins;
+    private final byte[] mMaxs;
+
+    // Occupied slots, in the order the devices were first seen
+    private final int[] mSlots;
+    private int mDeviceCount;
+
+    // Pooled devices of the current window
+    private int mOtherCount;
+    private long mOtherSum;
+    private int mOtherMin;
+    private int mOtherMax;
+
+    // Current window (none until the first sighting)
+    private long mWindowStart;
+    private long mWindowEnd = Long.MIN_VALUE;
+
+    // Counters
+    private long mSightingCount;
+    private long mPooledCount;
+    private long mRowCount;
+
+    public RssiAggregator(ProximityConfig config, Sink sink) {
+        this(config, createSalt(), sink);
+    }
+
+    /**
+     * @param salt mixed into every device ID; use the same salt to get the same IDs
+     */
+    public RssiAggregator(ProximityConfig config, byte[] salt, Sink sink) {
+
+        this.mWindowMillis = config.getWindowMillis();
+        this.mMaxDevices = config.getMaxDevices();
+        this.mSink = sink;
+
+        this.mSalt = salt.clone();
+
+        try {
+            this.mDigest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex.getMessage());
+        }
+        this.mHash = new byte[mDigest.getDigestLength()];
+
+        // At most half full
+        int capacity = Integer.highestOneBit(mMaxDevices) << 2;
+        this.mMask = capacity - 1;
+        this.mKeys = new long[capacity];
+        this.mCounts = new int[capacity];
+        this.mSums = new long[capacity];
+        this.mMins = new byte[capacity];
+        this.mMaxs = new byte[capacity];
+        this.mSlots = new int[mMaxDevices];
+    }
+
+    /**
+     * Adds a sighting of the device with the given address, e.g. its MAC address.
+     */
+    public void add(long timestamp, String address, int rssi) {
+        add(timestamp, anonymise(address), rssi);
+    }
+
+    /**
+     * Adds a sighting of the device with the given anonymised ID. A sighting
+     * past the current window closes it first; older sightings are counted
+     * in the current window.
+     */
+    public void add(long timestamp, long deviceId, int rssi) {
+
+        if (timestamp >= mWindowEnd) {
+            flush();
+
+            long offset = timestamp % mWindowMillis;
+            if (offset < 0) {
+                offset += mWindowMillis;
+            }
+            mWindowStart = timestamp - offset;
+            mWindowEnd = mWindowStart + mWindowMillis;
+        }
+
+        mSightingCount++;
+
+        // RSSI is reported in dBm, well within a byte
+        rssi = Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, rssi));
+
+        if (deviceId == OTHER_DEVICES) {
+            deviceId = 1;
+        }
+
+        int slot = (int) mix(deviceId) & mMask;
+        while (mKeys[slot] != deviceId && mKeys[slot] != OTHER_DEVICES) {
+            slot = (slot + 1) & mMask;
+        }
+
+        if (mKeys[slot] == OTHER_DEVICES) {
+
+            if (mDeviceCount == mMaxDevices) {
+                addOther(rssi);
+                return;
+            }
+
+            mKeys[slot] = deviceId;
+            mCounts[slot] = 0;
+            mSums[slot] = 0;
+            mMins[slot] = Byte.MAX_VALUE;
+            mMaxs[slot] = Byte.MIN_VALUE;
+            mSlots[mDeviceCount++] = slot;
+        }
+
+        mCounts[slot]++;
+        mSums[slot] += rssi;
+        if (rssi < mMins[slot]) {
+            mMins[slot] = (byte) rssi;
+        }
+        if (rssi > mMaxs[slot]) {
+            mMaxs[slot] = (byte) rssi;
+        }
+    }
+
+    /**
+     * Writes the devices of the current window to the sink and empties it,
+     * e.g. when recording stops. Does nothing if the window has no sightings.
+     */
+    public void flush() {
+
+        for (int i = 0; i < mDeviceCount; i++) {
+            int slot = mSlots[i];
+            mSink.writeDevice(mWindowStart, mKeys[slot], mCounts[slot],
+                    (float) ((double) mSums[slot] / mCounts[slot]), mMins[slot], mMaxs[slot]);
+            mKeys[slot] = OTHER_DEVICES;
+        }
+        mRowCount += mDeviceCount;
+        mDeviceCount = 0;
+
+        if (mOtherCount > 0) {
+            mSink.writeDevice(mWindowStart, OTHER_DEVICES, mOtherCount,
+                    (float) ((double) mOtherSum / mOtherCount), mOtherMin, mOtherMax);
+            mRowCount++;
+            mOtherCount = 0;
+        }
+    }
+
+    /**
+     * The anonymised ID of the given address. Case is ignored.
+     */
+    public long anonymise(String address) {
+
+        int length = address.length();
+        if (mAddress.length < length) {
+            mAddress = new byte[length];
+        }
+        for (int i = 0; i < length; i++) {
+            mAddress[i] = (byte) Character.toUpperCase(address.charAt(i));
+        }
+
+        mDigest.update(mSalt);
+        mDigest.update(mAddress, 0, length);
+
+        try {
+            mDigest.digest(mHash, 0, mHash.length);
+        }
+        catch (DigestException ex) {
+            throw new IllegalStateException(ex.getMessage());
+        }
+
+        long id = 0;
+        for (int i = 0; i < 8; i++) {
+            id = (id << 8) | (mHash[i] & 0xFF);
+        }
+
+        return (id != OTHER_DEVICES) ? id : 1;
+    }
+
+    /**
+     * Devices in the current window, not counting the pooled ones.
+     */
+    public int getDeviceCount() {
+        return this.mDeviceCount;
+    }
+
+    public long getSightingCount() {
+        return this.mSightingCount;
+    }
+
+    /**
+     * Sightings of devices beyond the limit, written in the OTHER_DEVICES rows.
+     */
+    public long getPooledCount() {
+        return this.mPooledCount;
+    }
+
+    public long getRowCount() {
+        return this.mRowCount;
+    }
+
+    /**
+     * Writes one row as a CSV line (window start, device ID in hex, count,
+     * mean, min and max RSSI) into dst and returns the number of bytes written.
+     */
+    public static int encodeRow(long windowStart, long deviceId, int count, float meanRssi, int minRssi, int maxRssi,
+                                byte[] dst, int offset) {
+
+        int position = CsvRecordEncoder.writeLong(windowStart, dst, offset);
+        dst[position++] = ',';
+
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            dst[position++] = HEX_DIGITS[(int) (deviceId >>> shift) & 0xF];
+        }
+        dst[position++] = ',';
+
+        position = CsvRecordEncoder.writeLong(count, dst, position);
+        dst[position++] = ',';
+        position = CsvRecordEncoder.writeFloat(meanRssi, dst, position);
+        dst[position++] = ',';
+        position = CsvRecordEncoder.writeLong(minRssi, dst, position);
+        dst[position++] = ',';
+        position = CsvRecordEncoder.writeLong(maxRssi, dst, position);
+        dst[position++] = '\n';
+
+        return position - offset;
+    }
+
+    private void addOther(int rssi) {
+
+        if (mOtherCount == 0) {
+            mOtherSum = 0;
+            mOtherMin = rssi;
+            mOtherMax = rssi;
+        }
+
+        mOtherCount++;
+        mOtherSum += rssi;
+        mOtherMin = Math.min(mOtherMin, rssi);
+        mOtherMax = Math.max(mOtherMax, rssi);
+        mPooledCount++;
+    }
+
+    // Spreads IDs that were not hashed (e.g. sequential ones) over the table
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static byte[] createSalt() {
+        byte[] salt = new byte[SALT_SIZE];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer queue of samples, stored in
+ * primitive arrays. The producer is the SensingKit callback thread, the
+ * consumer the AsyncRecordWriter thread. Neither side takes a lock.
+ *
+ * The consumer claims each slot with a CAS on the head, so that the producer
+ * may also advance the head when it drops the oldest sample.
+ */
+public class SampleRingBuffer {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SampleRingBuffer";
+
+    private static final long BLOCK_PARK_NANOS = 100000L;
+
+    private final int mCapacity;
+    private final int mMask;
+    private final int mFieldCount;
+    private final OverflowPolicy mPolicy;
+
+    private final long[] mTimestamps;
+    private final float[] mValues;
+
+    // Next slot to read (consumer, or producer when dropping the oldest)
+    private final AtomicLong mHead = new AtomicLong();
+
+    // Next slot to write (producer only)
+    private final AtomicLong mTail = new AtomicLong();
+
+    // Only incremented by the producer
+    private volatile long mDroppedCount;
+
+    private volatile boolean mClosed;
+
+    public SampleRingBuffer(int capacity, int fieldCount, OverflowPolicy policy) {
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        // Round up to a power of two so that indices are a simple mask
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.mCapacity = size;
+        this.mMask = size - 1;
+        this.mFieldCount = fieldCount;
+        this.mPolicy = policy;
+        this.mTimestamps = new long[size];
+        this.mValues = new float[size * fieldCount];
+    }
+
+    public int getCapacity() {
+        return this.mCapacity;
+    }
+
+    public int getFieldCount() {
+        return this.mFieldCount;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return this.mPolicy;
+    }
+
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    public long getDroppedCount() {
+        return this.mDroppedCount;
+    }
+
+    /**
+     * Stops accepting samples. A producer blocked on a full buffer gives up.
+     */
+    public void close() {
+        this.mClosed = true;
+    }
+
+    /**
+     * Called by the producer only.
+     *
+     * @return false if the sample was dropped
+     */
+    @SuppressWarnings("NonAtomicOperationOnVolatileField")
+    public boolean offer(long timestamp, float[] values) {
+
+        long tail = mTail.get();
+
+        while (tail - mHead.get() >= mCapacity) {
+
+            if (mClosed) {
+                mDroppedCount++;
+                return false;
+            }
+
+            switch (mPolicy) {
+
+                case DROP_NEWEST:
+                    mDroppedCount++;
+                    return false;
+
+                case DROP_OLDEST:
+                    long head = mHead.get();
+                    if (tail - head >= mCapacity && mHead.compareAndSet(head, head + 1)) {
+                        mDroppedCount++;
+                    }
+                    break;
+
+                case BLOCK:
+                default:
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    break;
+            }
+        }
+
+        int index = (int) tail & mMask;
+        mTimestamps[index] = timestamp;
+        System.arraycopy(values, 0, mValues, index * mFieldCount, mFieldCount);
+
+        // Publish the slot
+        mTail.lazySet(tail + 1);
+
+        return true;
+    }
+
+    /**
+     * Called by the consumer only. Moves up to maxCount samples into the sink,
+     * using scratch (of at least getFieldCount() floats) to pass the values.
+     *
+     * @return the number of samples delivered
+     */
+    public int drainTo(RecordSink sink, float[] scratch, int maxCount) {
+
+        int count = 0;
+
+        while (count < maxCount) {
+
+            long head = mHead.get();
+            if (head >= mTail.get()) {
+                break;
+            }
+
+            int index = (int) head & mMask;
+            long timestamp = mTimestamps[index];
+            System.arraycopy(mValues, index * mFieldCount, scratch, 0, mFieldCount);
+
+            // Fails if the producer dropped this slot while it was being read
+            if (mHead.compareAndSet(head, head + 1)) {
+                sink.writeRecord(timestamp, scratch);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runtime counters of one sensor: samples received from SensingKit, records
+ * written, samples dropped by the ring buffer, bytes, write errors, write
+ * and flush latencies, queue depth and timestamp jitter. Every sensor has
+ * counters of its own, so they are never contended across sensors.
+ */
+public class SensorMetrics {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SensorMetrics";
+
+    private final AtomicLong mReceived = new AtomicLong();
+    private final AtomicLong mWritten = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+
+    private final LatencyHistogram mWriteLatency = new LatencyHistogram();
+    private final LatencyHistogram mFlushLatency = new LatencyHistogram();
+
+    // Ring buffer of the writer thread (null when writing on the callback thread)
+    private volatile SampleRingBuffer mQueue;
+
+    // Timestamps in milliseconds, only updated by the callback thread
+    private volatile long mFirstTimestamp;
+    private volatile long mLastTimestamp;
+    private long mLastInterval = -1;
+    private volatile double mJitter;
+
+    /**
+     * Counts a sample delivered by SensingKit and updates the jitter, an
+     * exponential average of the change between consecutive sample
+     * intervals (as RTP's interarrival jitter). Called by one thread at a time.
+     */
+    void sampleReceived(long timestamp) {
+
+        long received = mReceived.incrementAndGet();
+
+        if (received == 1) {
+            mFirstTimestamp = timestamp;
+        }
+        else {
+            long interval = timestamp - mLastTimestamp;
+
+            if (mLastInterval >= 0) {
+                mJitter += (Math.abs(interval - mLastInterval) - mJitter) / 16;
+            }
+            mLastInterval = interval;
+        }
+
+        mLastTimestamp = timestamp;
+    }
+
+    void recordWritten(int length) {
+        mWritten.incrementAndGet();
+        mBytes.addAndGet(length);
+    }
+
+    void writeFailed() {
+        mErrors.incrementAndGet();
+    }
+
+    void recordWriteLatency(long nanos) {
+        mWriteLatency.record(nanos);
+    }
+
+    void recordFlushLatency(long nanos) {
+        mFlushLatency.record(nanos);
+    }
+
+    void setQueue(SampleRingBuffer queue) {
+        this.mQueue = queue;
+    }
+
+    public long getReceivedCount() {
+        return mReceived.get();
+    }
+
+    /**
+     * Records written to the file or session log. Less than the received
+     * samples when resampling, trigger gating or features are enabled.
+     */
+    public long getWrittenCount() {
+        return mWritten.get();
+    }
+
+    /**
+     * Samples dropped by the ring buffer's overflow policy.
+     */
+    public long getDroppedCount() {
+        SampleRingBuffer queue = mQueue;
+        return (queue != null) ? queue.getDroppedCount() : 0;
+    }
+
+    public long getBytesWritten() {
+        return mBytes.get();
+    }
+
+    public long getErrorCount() {
+        return mErrors.get();
+    }
+
+    /**
+     * Samples waiting for the writer thread.
+     */
+    public int getQueueDepth() {
+        SampleRingBuffer queue = mQueue;
+        return (queue != null) ? queue.size() : 0;
+    }
+
+    /**
+     * Average rate of the received samples, from their timestamps.
+     */
+    public double getSampleRateHz() {
+
+        long received = mReceived.get();
+        long span = mLastTimestamp - mFirstTimestamp;
+
+        return (received > 1 && span > 0) ? (received - 1) * 1000.0 / span : 0;
+    }
+
+    public double getJitterMillis() {
+        return mJitter;
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return this.mWriteLatency;
+    }
+
+    public LatencyHistogram getFlushLatency() {
+        return this.mFlushLatency;
+    }
+
+}
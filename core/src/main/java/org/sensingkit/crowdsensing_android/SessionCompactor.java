@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * Rewrites the CSV recordings of a completed session in the compressed
+ * format, one file after the other and a bounded number of records per
+ * step, so that compaction can be spread over idle periods.
+ *
+ * Progress is kept in Compaction.csv in the session folder after every
+ * step: the file being compacted, the records read from it and the length
+ * of the compressed output so far. A compactor created after a restart
+ * truncates the output to that length and resumes after those records.
+ * A file is replaced only once its compressed copy is complete: the copy
+ * is renamed into place and listed in the manifest, then the CSV file and
+ * its time index are deleted.
+ */
+public class SessionCompactor {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SessionCompactor";
+
+    public static final String STATE_FILE_NAME = "Compaction.csv";
+    private static final String TEMP_STATE_FILE_NAME = "Compaction.tmp";
+
+    // Sensor name and optional chunk number of a recorded file, e.g. Accelerometer-00003
+    private static final Pattern CHUNK_NAME = Pattern.compile("(.+?)(-\\d{5})?");
+
+    private final File mFolder;
+    private final Map<String, RecordLayout> mLayouts;
+
+    // File in progress (null between files)
+    private File mSource;
+    private RecordReader mReader;
+    private FileOutputStream mOutputStream;
+    private BufferedOutputStream mOutputBuffer;
+    private CompressedRecordWriter mWriter;
+    private long mRecordsRead;
+    private long mOutputLength;
+
+    private long mCompactedFiles;
+    private long mBytesSaved;
+
+    /**
+     * @param layouts record layouts by the sensor part of the file names, e.g. "Accelerometer"
+     */
+    public SessionCompactor(File folder, Map<String, RecordLayout> layouts) {
+        this.mFolder = folder;
+        this.mLayouts = layouts;
+    }
+
+    public File getFolder() {
+        return this.mFolder;
+    }
+
+    /**
+     * Whether the session is completed and has CSV recordings left to compact.
+     */
+    public static boolean isCompactable(File folder, Map<String, RecordLayout> layouts) throws IOException {
+
+        Checkpoint checkpoint = Checkpoint.read(folder);
+        if (checkpoint == null || checkpoint.getState() == Checkpoint.State.OPEN) {
+            return false;
+        }
+
+        return new File(folder, STATE_FILE_NAME).exists() || nextFile(folder, layouts) != null;
+    }
+
+    /**
+     * Compacts up to maxRecords records of the session.
+     *
+     * @return true once every recording of the session is compacted
+     */
+    public boolean step(int maxRecords) throws IOException {
+
+        if (mReader == null && !open()) {
+            return true;
+        }
+
+        int count = 0;
+        boolean finished = false;
+
+        while (count < maxRecords) {
+            if (!mReader.readRecord()) {
+                finished = true;
+                break;
+            }
+            mWriter.write(mReader.getTimestamp(), mReader.getValues());
+            count++;
+        }
+
+        mRecordsRead += count;
+
+        if (finished) {
+            finishFile();
+            return nextFile(mFolder, mLayouts) == null;
+        }
+
+        // Make the progress durable at a block boundary
+        mWriter.flushBlock();
+        mOutputBuffer.flush();
+        mOutputStream.getFD().sync();
+        mOutputLength = mOutputStream.getChannel().position();
+        writeState();
+
+        return false;
+    }
+
+    /**
+     * Releases the file in progress. Its progress is kept for the next compactor.
+     */
+    public void close() throws IOException {
+
+        if (mReader == null) {
+            return;
+        }
+
+        try {
+            mReader.close();
+            mOutputStream.close();
+        }
+        finally {
+            mReader = null;
+            mWriter = null;
+            mOutputStream = null;
+            mOutputBuffer = null;
+        }
+    }
+
+    public long getCompactedFileCount() {
+        return this.mCompactedFiles;
+    }
+
+    /**
+     * Size of the CSV files minus the size of their compressed copies.
+     */
+    public long getBytesSaved() {
+        return this.mBytesSaved;
+    }
+
+    // Opens the file in progress, or the next one; false if there is none
+    private boolean open() throws IOException {
+
+        String name = null;
+        long records = 0;
+        long outputLength = 0;
+
+        File stateFile = new File(mFolder, STATE_FILE_NAME);
+
+        if (stateFile.exists()) {
+
+            BufferedReader reader = new BufferedReader(new FileReader(stateFile));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+
+                    String[] parts = line.split(",", 2);
+                    if (parts.length != 2) {
+                        throw new IOException("Corrupt compaction line: " + line);
+                    }
+
+                    if (parts[0].equals("file")) {
+                        name = parts[1];
+                    }
+                    else if (parts[0].equals("records")) {
+                        records = Long.parseLong(parts[1]);
+                    }
+                    else if (parts[0].equals("output")) {
+                        outputLength = Long.parseLong(parts[1]);
+                    }
+                }
+            }
+            catch (NumberFormatException ex) {
+                throw new IOException("Corrupt compaction state: " + ex.getMessage());
+            }
+            finally {
+                reader.close();
+            }
+
+            if (name == null) {
+                throw new IOException("Corrupt compaction state: no file");
+            }
+        }
+
+        File source = (name != null) ? new File(mFolder, name) : nextFile(mFolder, mLayouts);
+
+        if (source == null) {
+            stateFile.delete();
+            return false;
+        }
+
+        File target = targetOf(source);
+        File temp = tempOf(source);
+
+        // Interrupted after the copy was renamed into place
+        if (name != null && !temp.exists() && target.exists()) {
+            replace(source, target);
+            return open();
+        }
+
+        if (!source.exists()) {
+            stateFile.delete();
+            return open();
+        }
+
+        RecordLayout layout = layoutOf(source.getName(), mLayouts);
+        boolean resume = name != null && temp.exists() && outputLength > 0;
+
+        if (resume) {
+            RandomAccessFile file = new RandomAccessFile(temp, "rw");
+            try {
+                if (file.length() < outputLength) {
+                    throw new IOException("Compacted copy of " + name + " is shorter than its state");
+                }
+                file.setLength(outputLength);
+            }
+            finally {
+                file.close();
+            }
+        }
+
+        mReader = new CsvRecordReader(new BufferedInputStream(new FileInputStream(source)), layout);
+        mOutputStream = new FileOutputStream(temp, resume);
+        mOutputBuffer = new BufferedOutputStream(mOutputStream);
+        mWriter = new CompressedRecordWriter(layout, mOutputBuffer,
+                CompressedRecordWriter.DEFAULT_BLOCK_RECORDS, Deflater.DEFAULT_COMPRESSION, !resume);
+        mSource = source;
+        mRecordsRead = 0;
+
+        // Skip the records already compacted
+        if (resume) {
+            while (mRecordsRead < records && mReader.readRecord()) {
+                mRecordsRead++;
+            }
+        }
+
+        mOutputLength = resume ? outputLength : 0;
+        writeState();
+
+        return true;
+    }
+
+    private void finishFile() throws IOException {
+
+        mWriter.close();
+        mOutputBuffer.flush();
+        mOutputStream.getFD().sync();
+        close();
+
+        File target = targetOf(mSource);
+        if (!tempOf(mSource).renameTo(target)) {
+            throw new IOException("Compacted copy of " + mSource.getName() + " could not be renamed.");
+        }
+
+        replace(mSource, target);
+        mSource = null;
+    }
+
+    // Lists the copy in the manifest and deletes the CSV file
+    private void replace(File source, File target) throws IOException {
+
+        SessionManifest manifest = SessionManifest.read(mFolder);
+        if (manifest != null) {
+            manifest.replaceChunk(source.getName(), target.getName(), target.length());
+        }
+
+        if (source.exists()) {
+            mBytesSaved += source.length() - target.length();
+            mCompactedFiles++;
+        }
+
+        if (source.exists() && !source.delete()) {
+            throw new IOException(source.getName() + " could not be deleted.");
+        }
+        TimeIndex.fileFor(source).delete();
+
+        new File(mFolder, STATE_FILE_NAME).delete();
+    }
+
+    private void writeState() throws IOException {
+
+        File temp = new File(mFolder, TEMP_STATE_FILE_NAME);
+        FileOutputStream stream = new FileOutputStream(temp);
+
+        try {
+            Writer writer = new OutputStreamWriter(stream, "UTF-8");
+            writer.write("file," + mSource.getName() + "\n");
+            writer.write("records," + mRecordsRead + "\n");
+            writer.write("output," + mOutputLength + "\n");
+            writer.flush();
+            stream.getFD().sync();
+        }
+        finally {
+            stream.close();
+        }
+
+        if (!temp.renameTo(new File(mFolder, STATE_FILE_NAME))) {
+            throw new IOException("Compaction state could not be written.");
+        }
+    }
+
+    private static File nextFile(File folder, Map<String, RecordLayout> layouts) throws IOException {
+
+        File[] files = folder.listFiles();
+        if (files == null) {
+            throw new IOException("Folder " + folder.getName() + " could not be listed.");
+        }
+        Arrays.sort(files);
+
+        for (File file : files) {
+            if (file.isFile() && RecordReaders.formatOf(file) == RecordFormat.CSV
+                    && layoutOf(file.getName(), layouts) != null) {
+                return file;
+            }
+        }
+
+        return null;
+    }
+
+    private static RecordLayout layoutOf(String fileName, Map<String, RecordLayout> layouts) {
+
+        String base = fileName.substring(0, fileName.lastIndexOf('.'));
+        Matcher matcher = CHUNK_NAME.matcher(base);
+
+        return matcher.matches() ? layouts.get(matcher.group(1)) : null;
+    }
+
+    private static File targetOf(File source) {
+        String name = source.getName();
+        return new File(source.getParentFile(),
+                name.substring(0, name.lastIndexOf('.') + 1) + RecordFormat.COMPRESSED.getFileExtension());
+    }
+
+    private static File tempOf(File source) {
+        return new File(source.getParentFile(), targetOf(source).getName() + ".tmp");
+    }
+
+}
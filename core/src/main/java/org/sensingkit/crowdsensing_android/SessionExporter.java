@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Packs a session folder into one zip or tar archive (optionally
+ * compressed), streaming every file instead of loading it, with
+ * Export.csv listing the size and SHA-256 of each file. Entries are
+ * placed under the session folder's name.
+ * <p>
+ * A session that is still being recorded is exported as of its last
+ * checkpoint, without pausing it: files are cut at their checkpointed
+ * length, and chunks and segments created since are left out, as
+ * CheckpointRecovery would. Files outside the checkpoint (e.g. markers
+ * and time indexes) are exported at their length when the export starts.
+ * <p>
+ * Each file is read twice: once for its checksums, then copied into the
+ * archive (with transferTo unless compressed) while it is in the page cache.
+ */
+public class SessionExporter {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SessionExporter";
+
+    public static final String MANIFEST_FILE_NAME = "Export.csv";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Format {
+        ZIP,
+        TAR
+    }
+
+    /**
+     * Receives the progress of an export, on the exporting thread.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param fileName   the file being copied
+         * @param bytesDone  bytes of all files copied into the archive so far
+         * @param bytesTotal bytes of all files to copy
+         */
+        void onProgress(String fileName, long bytesDone, long bytesTotal);
+    }
+
+    /**
+     * One exported file.
+     */
+    public static class Entry {
+
+        private final String mFileName;
+        private final long mLength;
+        private final String mSha256;
+
+        Entry(String fileName, long length, String sha256) {
+            this.mFileName = fileName;
+            this.mLength = length;
+            this.mSha256 = sha256;
+        }
+
+        public String getFileName() {
+            return this.mFileName;
+        }
+
+        public long getLength() {
+            return this.mLength;
+        }
+
+        /**
+         * SHA-256 of the exported bytes, in lower-case hex.
+         */
+        public String getSha256() {
+            return this.mSha256;
+        }
+    }
+
+    /**
+     * What an export wrote.
+     */
+    public static class Report {
+
+        private final File mFolder;
+        private final File mArchive;
+        private final Checkpoint mCheckpoint;
+        private final List<Entry> mEntries = new ArrayList<>();
+
+        Report(File folder, File archive, Checkpoint checkpoint) {
+            this.mFolder = folder;
+            this.mArchive = archive;
+            this.mCheckpoint = checkpoint;
+        }
+
+        public File getFolder() {
+            return this.mFolder;
+        }
+
+        public File getArchive() {
+            return this.mArchive;
+        }
+
+        public List<Entry> getEntries() {
+            return Collections.unmodifiableList(mEntries);
+        }
+
+        public long getTotalBytes() {
+
+            long total = 0;
+            for (Entry entry : mEntries) {
+                total += entry.mLength;
+            }
+            return total;
+        }
+
+        /**
+         * False if the session was still open, and was exported up to its last checkpoint.
+         */
+        public boolean isComplete() {
+            return mCheckpoint == null || mCheckpoint.getState() != Checkpoint.State.OPEN;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d bytes in %d files exported to %s%s",
+                    mFolder.getName(), getTotalBytes(), mEntries.size(), mArchive.getName(),
+                    isComplete() ? "" : " (up to checkpoint " + mCheckpoint.getSequence() + ")");
+        }
+    }
+
+    private Format mFormat = Format.ZIP;
+    private boolean mCompressed = false;
+    private ProgressListener mProgressListener;
+
+    public Format getFormat() {
+        return this.mFormat;
+    }
+
+    public SessionExporter setFormat(Format format) {
+        this.mFormat = format;
+        return this;
+    }
+
+    public boolean isCompressed() {
+        return this.mCompressed;
+    }
+
+    /**
+     * Deflates the zip entries, or gzips the tar archive. Off by default, in
+     * which case the files are copied with transferTo.
+     */
+    public SessionExporter setCompressed(boolean compressed) {
+        this.mCompressed = compressed;
+        return this;
+    }
+
+    public SessionExporter setProgressListener(ProgressListener progressListener) {
+        this.mProgressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * File extension of the archives: zip, tar or tar.gz.
+     */
+    public String getFileExtension() {
+        if (mFormat == Format.TAR) {
+            return mCompressed ? "tar.gz" : "tar";
+        }
+        return "zip";
+    }
+
+    /**
+     * Writes the archive, replacing any existing file. On failure the partial archive is deleted.
+     */
+    public Report export(File sessionFolder, File archive) throws IOException {
+
+        Checkpoint checkpoint = Checkpoint.read(sessionFolder);
+        Map<String, Long> files = listFiles(sessionFolder, checkpoint, archive);
+
+        long total = 0;
+        for (long length : files.values()) {
+            total += length;
+        }
+
+        Report report = new Report(sessionFolder, archive, checkpoint);
+        String prefix = sessionFolder.getName() + "/";
+
+        CRC32 crc = new CRC32();
+        MessageDigest digest = createDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        Progress progress = new Progress(total);
+
+        ArchiveOutput output = (mFormat == Format.TAR)
+                ? new TarArchiveOutput(archive, mCompressed)
+                : new ZipArchiveOutput(archive, mCompressed);
+        output.setCopyListener(progress);
+
+        boolean finished = false;
+        byte[] manifest;
+
+        try {
+            for (Map.Entry<String, Long> file : files.entrySet()) {
+
+                String name = file.getKey();
+                long length = file.getValue();
+                File source = new File(sessionFolder, name);
+                progress.mFileName = name;
+
+                FileInputStream inputStream = new FileInputStream(source);
+                try {
+                    FileChannel channel = inputStream.getChannel();
+                    checksum(channel, length, crc, digest, buffer);
+                    output.putFile(prefix + name, channel, length, source.lastModified(), crc.getValue());
+                }
+                finally {
+                    inputStream.close();
+                }
+
+                report.mEntries.add(new Entry(name, length, toHex(digest.digest())));
+            }
+
+            manifest = encodeManifest(sessionFolder, checkpoint, report.mEntries);
+            crc.reset();
+            crc.update(manifest);
+            output.putBytes(prefix + MANIFEST_FILE_NAME, manifest, System.currentTimeMillis(), crc.getValue());
+
+            output.finish();
+            finished = true;
+        }
+        finally {
+            if (!finished) {
+                output.abort();
+                archive.delete();
+            }
+        }
+
+        // Keep the manifest of a complete export, marking the session as exported
+        if (report.isComplete()) {
+            writeManifest(sessionFolder, manifest);
+        }
+
+        return report;
+    }
+
+    private static void writeManifest(File folder, byte[] manifest) throws IOException {
+
+        File temp = new File(folder, MANIFEST_FILE_NAME + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+
+        try {
+            stream.write(manifest);
+            stream.getFD().sync();
+        }
+        finally {
+            stream.close();
+        }
+
+        if (!temp.renameTo(new File(folder, MANIFEST_FILE_NAME))) {
+            throw new IOException("Export manifest could not be written.");
+        }
+    }
+
+    /**
+     * The files to export and their lengths, by name.
+     */
+    static Map<String, Long> listFiles(File folder, Checkpoint checkpoint, File archive) throws IOException {
+
+        File[] files = folder.listFiles();
+        if (files == null) {
+            throw new IOException("Folder " + folder.getName() + " could not be listed.");
+        }
+        Arrays.sort(files);
+
+        boolean open = checkpoint != null && checkpoint.getState() == Checkpoint.State.OPEN;
+        Map<String, Long> lengths = (checkpoint != null) ? checkpoint.getLengths() : Collections.<String, Long>emptyMap();
+        SessionManifest manifest = open ? SessionManifest.read(folder) : null;
+
+        Map<String, Long> exported = new LinkedHashMap<>();
+
+        for (File file : files) {
+
+            String name = file.getName();
+
+            if (file.isDirectory() || file.equals(archive) || name.startsWith("Checkpoint.")
+                    || name.endsWith(".tmp") || name.equals(MANIFEST_FILE_NAME)
+                    || name.equals(UploadQueue.UPLOADED_FILE_NAME) || name.equals(SessionCompactor.STATE_FILE_NAME)) {
+                continue;
+            }
+
+            if (!open || (manifest != null && manifest.contains(name))) {
+
+                // Complete
+                exported.put(name, file.length());
+            }
+            else if (lengths.containsKey(name)) {
+
+                // Durable up to the last checkpoint
+                exported.put(name, lengths.get(name));
+            }
+            else if (!CheckpointRecovery.isCreatedDuringRecording(name)) {
+                exported.put(name, file.length());
+            }
+        }
+
+        return exported;
+    }
+
+    private static void checksum(FileChannel channel, long length, CRC32 crc, MessageDigest digest,
+                                 ByteBuffer buffer) throws IOException {
+
+        crc.reset();
+        digest.reset();
+
+        long position = 0;
+
+        while (position < length) {
+
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - position));
+
+            int count = channel.read(buffer, position);
+            if (count <= 0) {
+                throw new IOException("File shrank during export: " + position + " of " + length + " bytes.");
+            }
+
+            crc.update(buffer.array(), 0, count);
+            digest.update(buffer.array(), 0, count);
+            position += count;
+        }
+    }
+
+    private static byte[] encodeManifest(File folder, Checkpoint checkpoint, List<Entry> entries) throws IOException {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("session,").append(folder.getName()).append('\n');
+        builder.append("exported,").append(System.currentTimeMillis()).append('\n');
+
+        if (checkpoint != null) {
+            builder.append("state,").append(checkpoint.getState().name()).append('\n');
+            builder.append("checkpoint,").append(checkpoint.getSequence()).append('\n');
+        }
+
+        for (Entry entry : entries) {
+            builder.append("file,").append(entry.mFileName).append(',')
+                    .append(entry.mLength).append(',').append(entry.mSha256).append('\n');
+        }
+
+        return builder.toString().getBytes("UTF-8");
+    }
+
+    private static MessageDigest createDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex.getMessage());
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[2 * i + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    private class Progress implements ArchiveOutput.CopyListener {
+
+        private final long mTotal;
+        private long mDone;
+        private String mFileName;
+
+        Progress(long total) {
+            this.mTotal = total;
+        }
+
+        @Override
+        public void onCopied(long bytes) {
+            mDone += bytes;
+            if (mProgressListener != null) {
+                mProgressListener.onProgress(mFileName, mDone, mTotal);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the records of a segmented session log in write order, across all
+ * segments. A record cut short at the end of a segment (e.g. when the app
+ * was killed) is skipped, and so is the zero padding left in a
+ * pre-allocated segment that was never truncated.
+ */
+public class SessionLogReader implements RecordReader {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SessionLogReader";
+
+    private static final int MAX_FIELD_COUNT = 8;
+
+    private final File[] mSegments;
+    private int mSegmentIndex = -1;
+    private InputStream mInputStream;
+
+    private final byte[] mRecord;
+    private final float[] mValues = new float[MAX_FIELD_COUNT];
+    private RecordLayout mLayout;
+    private long mTimestamp;
+
+    private long mTruncatedSegments;
+
+    public SessionLogReader(File folder) throws IOException {
+
+        this.mSegments = listSegments(folder);
+
+        int maxRecordSize = 0;
+        for (RecordLayout layout : RecordLayout.values()) {
+            maxRecordSize = Math.max(maxRecordSize, layout.getRecordSize());
+        }
+        this.mRecord = new byte[maxRecordSize];
+    }
+
+    /**
+     * Returns the segment files of the log in the given folder, in write order.
+     */
+    public static File[] listSegments(File folder) {
+
+        File[] segments = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SessionLogWriter.SEGMENT_PREFIX)
+                        && name.endsWith(SessionLogWriter.SEGMENT_EXTENSION);
+            }
+        });
+
+        if (segments == null) {
+            return new File[0];
+        }
+
+        // Segment indices are zero-padded, so names sort in write order
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    @Override
+    public boolean readRecord() throws IOException {
+
+        while (true) {
+
+            if (mInputStream == null && !openNextSegment()) {
+                return false;
+            }
+
+            int tag = mInputStream.read();
+
+            // Layout codes start at 1, a zero tag is unwritten padding
+            if (tag > 0) {
+
+                mLayout = RecordLayout.forCode(tag);
+                if (mLayout == null) {
+                    throw new IOException("Unknown record tag " + tag + " in " + mSegments[mSegmentIndex].getName() + ".");
+                }
+
+                if (readFully(mRecord, mLayout.getRecordSize())) {
+                    mTimestamp = BinaryRecordReader.decode(mLayout, mRecord, 0, mValues);
+                    return true;
+                }
+
+                mTruncatedSegments++;
+            }
+
+            // End of this segment
+            mInputStream.close();
+            mInputStream = null;
+        }
+    }
+
+    @Override
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return this.mTimestamp;
+    }
+
+    /**
+     * Values of the current record; only the first getLayout().getFieldCount() are valid.
+     */
+    @Override
+    public float[] getValues() {
+        return this.mValues;
+    }
+
+    /**
+     * Number of segments that ended in the middle of a record.
+     */
+    public long getTruncatedSegmentCount() {
+        return this.mTruncatedSegments;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (mInputStream != null) {
+            mInputStream.close();
+            mInputStream = null;
+        }
+        mSegmentIndex = mSegments.length;
+    }
+
+    private boolean openNextSegment() throws IOException {
+
+        if (mSegmentIndex + 1 >= mSegments.length) {
+            return false;
+        }
+
+        mSegmentIndex++;
+        mInputStream = new BufferedInputStream(new FileInputStream(mSegments[mSegmentIndex]));
+
+        byte[] header = new byte[SessionLogWriter.SEGMENT_HEADER_SIZE];
+        if (!readFully(header, header.length)) {
+            throw new IOException("Truncated header in " + mSegments[mSegmentIndex].getName() + ".");
+        }
+
+        for (int i = 0; i < SessionLogWriter.MAGIC.length; i++) {
+            if (header[i] != SessionLogWriter.MAGIC[i]) {
+                throw new IOException(mSegments[mSegmentIndex].getName() + " is not a session log segment.");
+            }
+        }
+
+        int version = LittleEndian.getShort(header, SessionLogWriter.MAGIC.length);
+        if (version > SessionLogWriter.SCHEMA_VERSION) {
+            throw new IOException("Unsupported schema version " + version + ".");
+        }
+
+        return true;
+    }
+
+    private boolean readFully(byte[] buffer, int length) throws IOException {
+
+        int read = 0;
+        while (read < length) {
+            int count = mInputStream.read(buffer, read, length - read);
+            if (count < 0) {
+                return false;
+            }
+            read += count;
+        }
+        return true;
+    }
+
+}
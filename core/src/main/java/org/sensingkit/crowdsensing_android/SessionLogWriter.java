@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Append-only log shared by all sensors of a session. Every record is the
+ * RecordLayout code followed by the fixed-width binary record, so the log
+ * is one sequential write stream. The log is split into segment files of a
+ * fixed maximum size; each segment starts with a small header. Bytes reach
+ * the segment files through a SegmentOutput.
+ */
+public class SessionLogWriter implements DurableWriter {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SessionLogWriter";
+
+    public static final byte[] MAGIC = {'C', 'S', 'K', 'L'};
+    public static final int SCHEMA_VERSION = 1;
+    public static final int SEGMENT_HEADER_SIZE = 10;
+
+    public static final String SEGMENT_PREFIX = "Session-";
+    public static final String SEGMENT_EXTENSION = ".log";
+
+    public static final long DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private final File mFolder;
+    private final long mSegmentSize;
+    private final BinaryRecordEncoder[] mEncoders;
+    private final byte[] mRecord;
+
+    private final SegmentOutput mOutput;
+    private int mSegmentIndex = -1;
+    private long mSegmentLength;
+    private boolean mClosed;
+
+    // Durability
+    private long mBytesWritten;
+    private final Map<String, Long> mClosedSegments = new LinkedHashMap<>();
+
+    public SessionLogWriter(File folder, long segmentSize) throws IOException {
+        this(folder, segmentSize, new StreamSegmentOutput());
+    }
+
+    public SessionLogWriter(File folder, long segmentSize, SegmentOutput output) throws IOException {
+
+        int maxRecordSize = 0;
+        mEncoders = new BinaryRecordEncoder[256];
+        for (RecordLayout layout : RecordLayout.values()) {
+            mEncoders[layout.getCode()] = new BinaryRecordEncoder(layout);
+            maxRecordSize = Math.max(maxRecordSize, layout.getRecordSize());
+        }
+
+        if (segmentSize < SEGMENT_HEADER_SIZE + 1 + maxRecordSize) {
+            throw new IllegalArgumentException("Segment size " + segmentSize + " is too small.");
+        }
+
+        this.mFolder = folder;
+        this.mSegmentSize = segmentSize;
+        this.mOutput = output;
+        this.mRecord = new byte[1 + maxRecordSize];
+
+        openSegment();
+    }
+
+    public static String segmentName(int index) {
+        return String.format(Locale.US, "%s%05d%s", SEGMENT_PREFIX, index, SEGMENT_EXTENSION);
+    }
+
+    public int getSegmentCount() {
+        return mSegmentIndex + 1;
+    }
+
+    /**
+     * Appends one tagged record, rolling over to a new segment when the current one is full.
+     */
+    public synchronized void append(RecordLayout layout, long timestamp, float[] values) throws IOException {
+
+        if (mClosed) {
+            throw new IOException("Session log is closed.");
+        }
+
+        mRecord[0] = (byte) layout.getCode();
+        int length = 1 + mEncoders[layout.getCode()].encode(timestamp, values, mRecord, 1);
+
+        if (mSegmentLength + length > mSegmentSize) {
+            closeSegment();
+            openSegment();
+        }
+
+        mOutput.write(mRecord, 0, length);
+        mSegmentLength += length;
+        mBytesWritten += length;
+    }
+
+    public synchronized void flush() throws IOException {
+
+        if (!mClosed) {
+            mOutput.flush();
+        }
+    }
+
+    @Override
+    public synchronized long getBytesWritten() {
+        return this.mBytesWritten;
+    }
+
+    @Override
+    public synchronized void sync(Checkpoint checkpoint) throws IOException {
+
+        if (mClosed) {
+            return;
+        }
+
+        mOutput.sync();
+
+        for (Map.Entry<String, Long> segment : mClosedSegments.entrySet()) {
+            checkpoint.update(segment.getKey(), segment.getValue());
+        }
+        mClosedSegments.clear();
+
+        checkpoint.update(segmentName(mSegmentIndex), mSegmentLength);
+    }
+
+    public synchronized void close() throws IOException {
+
+        if (!mClosed) {
+            mClosed = true;
+            mOutput.close();
+        }
+    }
+
+    private void closeSegment() throws IOException {
+
+        // A finished segment is durable before the next one is started
+        mOutput.sync();
+        mOutput.close();
+
+        mClosedSegments.put(segmentName(mSegmentIndex), mSegmentLength);
+    }
+
+    private void openSegment() throws IOException {
+
+        mSegmentIndex++;
+        File file = new File(mFolder, segmentName(mSegmentIndex));
+
+        if (!file.createNewFile()) {
+            throw new IOException("Segment " + file.getName() + " already exists.");
+        }
+
+        mOutput.open(file);
+
+        byte[] header = new byte[SEGMENT_HEADER_SIZE];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        LittleEndian.putShort(header, MAGIC.length, SCHEMA_VERSION);
+        LittleEndian.putInt(header, MAGIC.length + 2, mSegmentIndex);
+        mOutput.write(header, 0, header.length);
+
+        mSegmentLength = SEGMENT_HEADER_SIZE;
+        mBytesWritten += SEGMENT_HEADER_SIZE;
+    }
+
+}
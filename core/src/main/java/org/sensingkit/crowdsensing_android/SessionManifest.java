@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lists the closed file chunks of a session: the sensor, the time range
+ * and the size of each chunk, so that chunks can be processed in parallel
+ * and fetched by time range. Replaced atomically whenever a chunk is added.
+ */
+public class SessionManifest {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SessionManifest";
+
+    public static final String FILE_NAME = "Manifest.csv";
+    private static final String TEMP_FILE_NAME = "Manifest.tmp";
+
+    private static final String HEADER = "sensor,file,firstTimestamp,lastTimestamp,records,bytes";
+
+    /**
+     * One closed chunk file. Timestamps are 0 when the chunk has no records.
+     */
+    public static class Chunk {
+
+        private final String mSensor;
+        private final String mFileName;
+        private final long mFirstTimestamp;
+        private final long mLastTimestamp;
+        private final long mRecordCount;
+        private final long mByteSize;
+
+        public Chunk(String sensor, String fileName, long firstTimestamp, long lastTimestamp, long recordCount, long byteSize) {
+            this.mSensor = sensor;
+            this.mFileName = fileName;
+            this.mFirstTimestamp = firstTimestamp;
+            this.mLastTimestamp = lastTimestamp;
+            this.mRecordCount = recordCount;
+            this.mByteSize = byteSize;
+        }
+
+        public String getSensor() {
+            return this.mSensor;
+        }
+
+        public String getFileName() {
+            return this.mFileName;
+        }
+
+        public long getFirstTimestamp() {
+            return this.mFirstTimestamp;
+        }
+
+        public long getLastTimestamp() {
+            return this.mLastTimestamp;
+        }
+
+        public long getRecordCount() {
+            return this.mRecordCount;
+        }
+
+        public long getByteSize() {
+            return this.mByteSize;
+        }
+
+        /**
+         * Whether any record of this chunk may fall in [from, to].
+         */
+        public boolean overlaps(long from, long to) {
+            return mRecordCount > 0 && mFirstTimestamp <= to && mLastTimestamp >= from;
+        }
+    }
+
+    /**
+     * Notified of every chunk once it is listed in the manifest file,
+     * e.g. to queue it for upload.
+     */
+    public interface ChunkListener {
+        void onChunkAdded(SessionManifest manifest, Chunk chunk);
+    }
+
+    private final File mFolder;
+    private final List<Chunk> mChunks = new ArrayList<>();
+    private ChunkListener mChunkListener;
+
+    public SessionManifest(File folder) {
+        this.mFolder = folder;
+    }
+
+    public File getFolder() {
+        return this.mFolder;
+    }
+
+    public synchronized void setChunkListener(ChunkListener chunkListener) {
+        this.mChunkListener = chunkListener;
+    }
+
+    /**
+     * Adds a closed chunk and rewrites the manifest file.
+     */
+    public synchronized void addChunk(Chunk chunk) throws IOException {
+        mChunks.add(chunk);
+        write();
+
+        if (mChunkListener != null) {
+            mChunkListener.onChunkAdded(this, chunk);
+        }
+    }
+
+    /**
+     * Replaces a chunk by a rewritten copy, e.g. after compaction, and
+     * rewrites the manifest file. Does nothing if the chunk is not listed.
+     */
+    public synchronized void replaceChunk(String fileName, String newFileName, long byteSize) throws IOException {
+
+        for (int i = 0; i < mChunks.size(); i++) {
+
+            Chunk chunk = mChunks.get(i);
+            if (chunk.getFileName().equals(fileName)) {
+                mChunks.set(i, new Chunk(chunk.getSensor(), newFileName, chunk.getFirstTimestamp(),
+                        chunk.getLastTimestamp(), chunk.getRecordCount(), byteSize));
+                write();
+                return;
+            }
+        }
+    }
+
+    public synchronized List<Chunk> getChunks() {
+        return Collections.unmodifiableList(new ArrayList<>(mChunks));
+    }
+
+    /**
+     * Chunks of the given sensor that may contain records in [from, to], in recording order.
+     */
+    public synchronized List<Chunk> getChunks(String sensor, long from, long to) {
+
+        List<Chunk> chunks = new ArrayList<>();
+
+        for (Chunk chunk : mChunks) {
+            if (chunk.getSensor().equals(sensor) && chunk.overlaps(from, to)) {
+                chunks.add(chunk);
+            }
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Whether the given file is a closed chunk of this session.
+     */
+    public synchronized boolean contains(String fileName) {
+
+        for (Chunk chunk : mChunks) {
+            if (chunk.getFileName().equals(fileName)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void write() throws IOException {
+
+        File temp = new File(mFolder, TEMP_FILE_NAME);
+        FileOutputStream stream = new FileOutputStream(temp);
+
+        try {
+            Writer writer = new OutputStreamWriter(stream, "UTF-8");
+            writer.write(HEADER + "\n");
+            for (Chunk chunk : mChunks) {
+                writer.write(chunk.getSensor() + "," + chunk.getFileName() + ","
+                        + chunk.getFirstTimestamp() + "," + chunk.getLastTimestamp() + ","
+                        + chunk.getRecordCount() + "," + chunk.getByteSize() + "\n");
+            }
+            writer.flush();
+            stream.getFD().sync();
+        }
+        finally {
+            stream.close();
+        }
+
+        if (!temp.renameTo(new File(mFolder, FILE_NAME))) {
+            throw new IOException("Manifest could not be written.");
+        }
+    }
+
+    /**
+     * Loads the manifest of the given session folder.
+     *
+     * @return the manifest, or null if the folder has none
+     */
+    public static SessionManifest read(File folder) throws IOException {
+
+        File file = new File(folder, FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+
+        SessionManifest manifest = new SessionManifest(folder);
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.equals(HEADER)) {
+                throw new IOException("Unknown manifest header: " + line);
+            }
+
+            while ((line = reader.readLine()) != null) {
+
+                String[] parts = line.split(",");
+                if (parts.length != 6) {
+                    throw new IOException("Corrupt manifest line: " + line);
+                }
+
+                manifest.mChunks.add(new Chunk(parts[0], parts[1],
+                        Long.parseLong(parts[2]), Long.parseLong(parts[3]),
+                        Long.parseLong(parts[4]), Long.parseLong(parts[5])));
+            }
+        }
+        catch (NumberFormatException ex) {
+            throw new IOException("Corrupt manifest: " + ex.getMessage());
+        }
+        finally {
+            reader.close();
+        }
+
+        return manifest;
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The writing side of a session: one RecordChannel per sensor, the shared
+ * session log or the manifest of the sensor files, the writer thread, the
+ * fused stream and the group flush with its checkpoints, set up from a
+ * PipelineConfig.
+ * <p>
+ * This is the Android-free part of SensingSession, shared with the
+ * benchmarks. Open the channels, then start; stop may be followed by
+ * another start, close ends the session with its final checkpoint.
+ */
+public class SessionPipeline {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SessionPipeline";
+
+    private final File mSessionFolder;
+    private final PipelineConfig mConfig;
+
+    private final List<RecordChannel> mChannels = new ArrayList<>();
+    private final List<String> mChannelNames = new ArrayList<>();
+
+    // Session log (null when every channel writes its own file)
+    private SessionLogWriter mSessionLog;
+
+    // Chunks of the channel files (null in the session log modes)
+    private SessionManifest mManifest;
+
+    // Asynchronous writing (null when writing on the receiving threads)
+    private AsyncRecordWriter mAsyncWriter;
+
+    // Group flush and checkpoints
+    private final GroupFlusher mGroupFlusher;
+
+    // Fused stream (null when not fused)
+    private FusionMerger mFusionMerger;
+    private FusionWriter mFusionWriter;
+
+    public SessionPipeline(File sessionFolder, PipelineConfig config) throws IOException {
+
+        // Rather than dropping samples of every batch
+        if (config.getRequiredRingBufferCapacity() > PipelineConfig.MAX_RING_BUFFER_CAPACITY) {
+            throw new IllegalArgumentException("Batch interval of " + config.getBatchIntervalMillis()
+                    + " ms is too long for the ring buffers.");
+        }
+
+        this.mSessionFolder = sessionFolder;
+        this.mConfig = config;
+
+        switch (config.getStorageMode()) {
+
+            case SESSION_LOG:
+                mSessionLog = new SessionLogWriter(sessionFolder, config.getSegmentSize());
+                break;
+
+            case MAPPED_SESSION_LOG:
+                mSessionLog = new SessionLogWriter(sessionFolder, config.getSegmentSize(),
+                        new MappedSegmentOutput(config.getSegmentSize()));
+                break;
+
+            case PER_SENSOR_FILES:
+            default:
+                mManifest = new SessionManifest(sessionFolder);
+                break;
+        }
+
+        if (config.isAsyncWriting() || config.isBatchedDelivery()) {
+            mAsyncWriter = new AsyncRecordWriter(config.getDrainIntervalMillis());
+        }
+
+        mGroupFlusher = new GroupFlusher(new Checkpoint(sessionFolder),
+                config.getFlushIntervalMillis(), config.getFlushThresholdBytes());
+
+        if (mSessionLog != null) {
+            mGroupFlusher.addWriter(mSessionLog);
+        }
+    }
+
+    public File getSessionFolder() {
+        return this.mSessionFolder;
+    }
+
+    public PipelineConfig getConfig() {
+        return this.mConfig;
+    }
+
+    /**
+     * Opens the channel of one stream in the configured storage mode.
+     *
+     * @param name   the name of the stream, also the name of its file in the per-sensor files mode
+     * @param layout the fields of the samples, or null for pre-encoded CSV lines (per-sensor files only)
+     */
+    public RecordChannel openChannel(String name, RecordLayout layout) throws IOException {
+
+        if (mSessionLog == null) {
+            return openFileChannel(name, mConfig.getRecordFormat(), layout, null);
+        }
+
+        return addChannel(name, new RecordChannel(mSessionLog, layout));
+    }
+
+    /**
+     * Opens the channel of one stream with a file of its own in any storage
+     * mode, e.g. for rows without a record layout. With features, the file
+     * is named after the stream with a Features suffix.
+     */
+    public RecordChannel openFileChannel(String name, RecordFormat format, RecordLayout layout,
+                                         FeatureConfig features) throws IOException {
+
+        String fileName = (features != null) ? name + "Features" : name;
+
+        RecordChannel channel = new RecordChannel(mSessionFolder, fileName, format, layout, features,
+                mManifest, mConfig.getMaxChunkBytes(), mConfig.getMaxChunkMillis());
+        channel.setIndexInterval(mConfig.getIndexInterval());
+        return addChannel(name, channel);
+    }
+
+    private RecordChannel addChannel(String name, RecordChannel channel) {
+
+        mChannels.add(channel);
+        mChannelNames.add(name);
+        mGroupFlusher.addWriter(channel);
+        return channel;
+    }
+
+    /**
+     * Hands the samples of the channel to the writer thread, or the ring
+     * buffers drained in batches. Ignored when writing synchronously.
+     *
+     * @return whether the samples are written asynchronously
+     */
+    public boolean attachAsyncWriter(RecordChannel channel) {
+
+        if (mAsyncWriter == null) {
+            return false;
+        }
+
+        return channel.attachAsyncWriter(mAsyncWriter, mConfig.getRequiredRingBufferCapacity(), mConfig.getOverflowPolicy());
+    }
+
+    /**
+     * Fuses the channels with a record layout opened so far into one
+     * stream, written to FusionWriter.FILE_NAME.
+     *
+     * @return the merger, or null if none of the channels has a record layout
+     */
+    public FusionMerger addFusion(FusionConfig config) throws IOException {
+
+        FusionMerger merger = new FusionMerger(config);
+
+        for (int i = 0; i < mChannels.size(); i++) {
+
+            RecordChannel channel = mChannels.get(i);
+            if (channel.getLayout() == null) {
+                continue;
+            }
+
+            channel.setFusionInput(merger.addChannel(mChannelNames.get(i), channel.getLayout()));
+        }
+
+        if (merger.getChannelCount() == 0) {
+            return null;
+        }
+
+        mFusionMerger = merger;
+        mFusionWriter = new FusionWriter(mSessionFolder, merger);
+        merger.setFrameSink(mFusionWriter);
+        mGroupFlusher.addWriter(mFusionWriter);
+
+        return merger;
+    }
+
+    /**
+     * Starts the writer thread, unless the buffers are drained in batches, and the periodic flush.
+     */
+    public void start() {
+
+        if (mAsyncWriter != null && !mConfig.isBatchedDelivery()) {
+            mAsyncWriter.start();
+        }
+
+        if (mConfig.getFlushIntervalMillis() > 0) {
+            mGroupFlusher.start();
+        }
+    }
+
+    /**
+     * Writes everything buffered so far, flushes all writers together and
+     * commits an open checkpoint. The fused stream begins a new timeline.
+     */
+    public void stop() throws IOException {
+
+        // Wait for the writer thread
+        if (mAsyncWriter != null) {
+            mAsyncWriter.drain();
+        }
+
+        // Write the remaining frames
+        if (mFusionMerger != null) {
+            mFusionMerger.flush();
+        }
+
+        mGroupFlusher.stop();
+        commit(Checkpoint.State.OPEN);
+    }
+
+    /**
+     * Stops the writer thread, closes every writer and commits the final
+     * checkpoint. Everything is written, and every chunk is in the manifest,
+     * before the session is marked closed.
+     */
+    public void close() throws IOException {
+
+        if (mAsyncWriter != null) {
+            mAsyncWriter.close();
+        }
+
+        mGroupFlusher.stop();
+
+        // Writes the samples the resamplers hold back, and closes the last chunks
+        for (RecordChannel channel : mChannels) {
+            channel.close();
+        }
+
+        if (mFusionMerger != null) {
+            mFusionMerger.flush();
+        }
+
+        // Syncs the fused stream and the session log with their final lengths
+        commit(Checkpoint.State.CLOSED);
+
+        if (mFusionWriter != null) {
+            mFusionWriter.close();
+        }
+
+        if (mSessionLog != null) {
+            mSessionLog.close();
+        }
+    }
+
+    /**
+     * Flushes all writers together and commits a checkpoint in the given state.
+     */
+    public void commit(Checkpoint.State state) throws IOException {
+        mGroupFlusher.flush(state);
+    }
+
+    /**
+     * Writes the samples buffered since the last call, in batched delivery mode.
+     *
+     * @return the number of samples written
+     */
+    public long drainBuffers() {
+        return (mConfig.isBatchedDelivery() && mAsyncWriter != null) ? mAsyncWriter.drainNow() : 0;
+    }
+
+    /**
+     * Samples dropped by the ring buffers (always 0 when writing synchronously).
+     */
+    public long getDroppedCount() {
+        return (mAsyncWriter != null) ? mAsyncWriter.getDroppedCount() : 0;
+    }
+
+    public List<RecordChannel> getChannels() {
+        return this.mChannels;
+    }
+
+    /**
+     * The closed chunks of the channel files, or null in the session log modes.
+     */
+    public SessionManifest getManifest() {
+        return this.mManifest;
+    }
+
+    /**
+     * The shared session log, or null in the per-sensor files mode.
+     */
+    public SessionLogWriter getSessionLog() {
+        return this.mSessionLog;
+    }
+
+    /**
+     * The fused stream, or null if not fused.
+     */
+    public FusionMerger getFusionMerger() {
+        return this.mFusionMerger;
+    }
+
+    /**
+     * Flush and checkpoint statistics of the session.
+     */
+    public GroupFlusher getGroupFlusher() {
+        return this.mGroupFlusher;
+    }
+
+}
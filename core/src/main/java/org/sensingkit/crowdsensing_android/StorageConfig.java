@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Settings of the storage manager: how much space the sessions may take,
+ * when the running session is warned, and how fast old sessions are
+ * compacted. Setters return this so that a configuration can be chained.
+ */
+public class StorageConfig {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "StorageConfig";
+
+    public static final long DEFAULT_QUOTA_BYTES = 2L * 1024 * 1024 * 1024;
+    public static final long DEFAULT_MIN_FREE_BYTES = 200L * 1024 * 1024;
+    public static final long DEFAULT_WARNING_BYTES = 100L * 1024 * 1024;
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 60 * 1000;
+    public static final int DEFAULT_COMPACTION_STEP_RECORDS = 16 * CompressedRecordWriter.DEFAULT_BLOCK_RECORDS;
+    public static final long DEFAULT_COMPACTION_PAUSE_MILLIS = 250;
+
+    private long mQuotaBytes = DEFAULT_QUOTA_BYTES;
+    private long mMinFreeBytes = DEFAULT_MIN_FREE_BYTES;
+    private long mWarningBytes = DEFAULT_WARNING_BYTES;
+    private long mCheckIntervalMillis = DEFAULT_CHECK_INTERVAL_MILLIS;
+    private int mCompactionStepRecords = DEFAULT_COMPACTION_STEP_RECORDS;
+    private long mCompactionPauseMillis = DEFAULT_COMPACTION_PAUSE_MILLIS;
+
+    public long getQuotaBytes() {
+        return this.mQuotaBytes;
+    }
+
+    /**
+     * Space all sessions together may take.
+     */
+    public StorageConfig setQuotaBytes(long quotaBytes) {
+        this.mQuotaBytes = quotaBytes;
+        return this;
+    }
+
+    public long getMinFreeBytes() {
+        return this.mMinFreeBytes;
+    }
+
+    /**
+     * Space left free on the storage volume, for the system and other apps,
+     * even while the sessions are under the quota.
+     */
+    public StorageConfig setMinFreeBytes(long minFreeBytes) {
+        this.mMinFreeBytes = minFreeBytes;
+        return this;
+    }
+
+    public long getWarningBytes() {
+        return this.mWarningBytes;
+    }
+
+    /**
+     * The running session is warned once less than this is available.
+     */
+    public StorageConfig setWarningBytes(long warningBytes) {
+        this.mWarningBytes = warningBytes;
+        return this;
+    }
+
+    public long getCheckIntervalMillis() {
+        return this.mCheckIntervalMillis;
+    }
+
+    /**
+     * How often the space used is measured.
+     */
+    public StorageConfig setCheckIntervalMillis(long checkIntervalMillis) {
+        this.mCheckIntervalMillis = checkIntervalMillis;
+        return this;
+    }
+
+    public int getCompactionStepRecords() {
+        return this.mCompactionStepRecords;
+    }
+
+    /**
+     * Records compacted at a time; best a multiple of the compressed block size.
+     */
+    public StorageConfig setCompactionStepRecords(int compactionStepRecords) {
+
+        if (compactionStepRecords < 1) {
+            throw new IllegalArgumentException("Invalid compaction step: " + compactionStepRecords);
+        }
+
+        this.mCompactionStepRecords = compactionStepRecords;
+        return this;
+    }
+
+    public long getCompactionPauseMillis() {
+        return this.mCompactionPauseMillis;
+    }
+
+    /**
+     * Pause between two compaction steps, which bounds the I/O rate of compaction.
+     */
+    public StorageConfig setCompactionPauseMillis(long compactionPauseMillis) {
+        this.mCompactionPauseMillis = compactionPauseMillis;
+        return this;
+    }
+
+}
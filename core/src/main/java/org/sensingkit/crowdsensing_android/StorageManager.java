@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the session folders within a quota of the app folder and a
+ * minimum of free space on the volume. Measured every check interval:
+ * <ul>
+ * <li>Once less than the warning threshold is available, the running
+ * session is warned through the listener.</li>
+ * <li>Once over the limits, while the device is idle and no session is
+ * recording, completed CSV sessions are compacted (see SessionCompactor),
+ * newest first, one step at a time with a pause in between, until back
+ * within the limits. A compaction that was begun is finished.</li>
+ * <li>As a last resort, when over the limits and compaction cannot run,
+ * the oldest sessions that were uploaded or exported are deleted.</li>
+ * </ul>
+ * Sessions with files still queued for upload are neither compacted
+ * nor deleted.
+ */
+public class StorageManager implements Runnable {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "StorageManager";
+
+    /**
+     * Whether compaction may run now, e.g. while the device is charging or
+     * its screen is off.
+     */
+    public interface Conditions {
+        boolean isIdle();
+    }
+
+    /**
+     * Receives storage events, on the storage thread.
+     */
+    public interface Listener {
+
+        /**
+         * Less than the warning threshold is available to the running session.
+         */
+        void onStorageLow(long availableBytes);
+
+        void onSessionCompacted(File sessionFolder, long bytesSaved);
+
+        void onSessionEvicted(File sessionFolder, long bytes);
+    }
+
+    private final File mAppFolder;
+    private final StorageConfig mConfig;
+    private final Map<String, RecordLayout> mLayouts;
+    private final Conditions mConditions;
+
+    // Guarded by this
+    private Listener mListener;
+    private UploadQueue mUploadQueue;
+    private File mActiveSession;
+    private ScheduledExecutorService mExecutor;
+    private SessionCompactor mCompactor;
+    private long mLastMeasureMillis;
+    private long mUsedBytes;
+    private long mAvailableBytes = Long.MAX_VALUE;
+    private long mCompactedCount;
+    private long mEvictedCount;
+    private long mBytesSaved;
+    private long mBytesEvicted;
+    private IOException mLastError;
+
+    /**
+     * @param layouts    record layouts by the sensor part of the file names, see SessionCompactor
+     * @param conditions when compaction may run, or null to compact whenever no session is recording
+     */
+    public StorageManager(File appFolder, StorageConfig config, Map<String, RecordLayout> layouts, Conditions conditions) {
+        this.mAppFolder = appFolder;
+        this.mConfig = config;
+        this.mLayouts = layouts;
+        this.mConditions = conditions;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * Sessions with files in this queue are kept as they are.
+     */
+    public synchronized void setUploadQueue(UploadQueue uploadQueue) {
+        this.mUploadQueue = uploadQueue;
+    }
+
+    /**
+     * The folder of the recording session, or null when none is recording.
+     * It is never compacted or deleted, and compaction pauses while it is set.
+     */
+    public synchronized void setActiveSession(File sessionFolder) {
+        this.mActiveSession = (sessionFolder != null) ? sessionFolder.getAbsoluteFile() : null;
+
+        // Measure on the next pass
+        this.mLastMeasureMillis = 0;
+    }
+
+    public synchronized void start() {
+
+        if (mExecutor != null) {
+            return;
+        }
+
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CrowdSensing-Storage");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mExecutor.execute(this);
+    }
+
+    /**
+     * Stops after the current pass. A compaction in progress resumes on the next start.
+     */
+    public void stop() {
+
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = mExecutor;
+            mExecutor = null;
+        }
+
+        if (executor == null) {
+            return;
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeCompactor();
+    }
+
+    /**
+     * One pass: measures if due, warns, compacts one step or evicts. When
+     * started, schedules the next pass.
+     */
+    @Override
+    public void run() {
+
+        long delay = mConfig.getCheckIntervalMillis();
+
+        try {
+            delay = maintain();
+        }
+        catch (IOException ex) {
+            closeCompactor();
+            synchronized (this) {
+                mLastError = ex;
+            }
+        }
+
+        synchronized (this) {
+            if (mExecutor != null) {
+                mExecutor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Bytes the sessions may still grow by, as of the last measurement.
+     */
+    public synchronized long getAvailableBytes() {
+        return this.mAvailableBytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        return this.mUsedBytes;
+    }
+
+    public synchronized long getCompactedCount() {
+        return this.mCompactedCount;
+    }
+
+    public synchronized long getEvictedCount() {
+        return this.mEvictedCount;
+    }
+
+    public synchronized long getBytesSaved() {
+        return this.mBytesSaved;
+    }
+
+    public synchronized long getBytesEvicted() {
+        return this.mBytesEvicted;
+    }
+
+    public synchronized IOException getLastError() {
+        return this.mLastError;
+    }
+
+    /**
+     * Whether a session was uploaded or exported completely, so that it may be deleted.
+     */
+    public static boolean isDelivered(File sessionFolder) {
+        return new File(sessionFolder, UploadQueue.UPLOADED_FILE_NAME).exists()
+                || new File(sessionFolder, SessionExporter.MANIFEST_FILE_NAME).exists();
+    }
+
+    // Returns the delay until the next pass
+    private long maintain() throws IOException {
+
+        File active;
+        boolean measure;
+        synchronized (this) {
+            active = mActiveSession;
+            measure = System.currentTimeMillis() - mLastMeasureMillis >= mConfig.getCheckIntervalMillis();
+        }
+
+        boolean idle = active == null && (mConditions == null || mConditions.isIdle());
+        if (!idle) {
+            closeCompactor();
+        }
+
+        if (measure || !idle) {
+
+            long available = measure();
+
+            if (available < 0 && !(idle && findCompactable() != null)) {
+                available = evict(-available);
+            }
+
+            if (available < mConfig.getWarningBytes() && active != null) {
+                Listener listener = getListener();
+                if (listener != null) {
+                    listener.onStorageLow(available);
+                }
+            }
+        }
+
+        // Sessions within the limits are kept as they were recorded
+        boolean compact;
+        synchronized (this) {
+            compact = mAvailableBytes < 0 || mCompactor != null;
+        }
+
+        if (idle && compact && compact()) {
+            return mConfig.getCompactionPauseMillis();
+        }
+
+        return mConfig.getCheckIntervalMillis();
+    }
+
+    private long measure() {
+
+        long used = sizeOf(mAppFolder);
+        File volume = mAppFolder.exists() ? mAppFolder : mAppFolder.getAbsoluteFile().getParentFile();
+        long usable = (volume != null) ? volume.getUsableSpace() : 0;
+
+        long available = Math.min(mConfig.getQuotaBytes() - used, usable - mConfig.getMinFreeBytes());
+
+        synchronized (this) {
+            mLastMeasureMillis = System.currentTimeMillis();
+            mUsedBytes = used;
+            mAvailableBytes = available;
+        }
+
+        return available;
+    }
+
+    // Compacts one step; false if there is nothing to compact
+    private boolean compact() throws IOException {
+
+        SessionCompactor compactor;
+        synchronized (this) {
+            compactor = mCompactor;
+        }
+
+        if (compactor == null) {
+
+            File folder = findCompactable();
+            if (folder == null) {
+                return false;
+            }
+
+            compactor = new SessionCompactor(folder, mLayouts);
+            synchronized (this) {
+                mCompactor = compactor;
+            }
+        }
+
+        if (!compactor.step(mConfig.getCompactionStepRecords())) {
+            return true;
+        }
+
+        compactor.close();
+
+        Listener listener;
+        synchronized (this) {
+            mCompactor = null;
+            mCompactedCount++;
+            mBytesSaved += compactor.getBytesSaved();
+            listener = mListener;
+
+            // Measure before compacting the next session
+            mLastMeasureMillis = 0;
+        }
+
+        if (listener != null) {
+            listener.onSessionCompacted(compactor.getFolder(), compactor.getBytesSaved());
+        }
+
+        return true;
+    }
+
+    // Newest completed session with CSV recordings left
+    private File findCompactable() throws IOException {
+
+        File[] folders = listSessions();
+
+        for (int i = folders.length - 1; i >= 0; i--) {
+            if (isIdleSession(folders[i]) && SessionCompactor.isCompactable(folders[i], mLayouts)) {
+                return folders[i];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Deletes the oldest delivered sessions until the given bytes are freed.
+     *
+     * @return the bytes available afterwards
+     */
+    private long evict(long bytes) throws IOException {
+
+        long freed = 0;
+
+        for (File folder : listSessions()) {
+
+            if (freed >= bytes) {
+                break;
+            }
+
+            if (!isIdleSession(folder) || !isDelivered(folder) || isCompacting(folder)) {
+                continue;
+            }
+
+            Checkpoint checkpoint = Checkpoint.read(folder);
+            if (checkpoint != null && checkpoint.getState() == Checkpoint.State.OPEN) {
+                continue;
+            }
+
+            long size = sizeOf(folder);
+            if (!delete(folder)) {
+                throw new IOException("Session " + folder.getName() + " could not be deleted.");
+            }
+            freed += size;
+
+            Listener listener;
+            synchronized (this) {
+                mEvictedCount++;
+                mBytesEvicted += size;
+                listener = mListener;
+            }
+
+            if (listener != null) {
+                listener.onSessionEvicted(folder, size);
+            }
+        }
+
+        synchronized (this) {
+            mUsedBytes -= freed;
+            mAvailableBytes += freed;
+            return mAvailableBytes;
+        }
+    }
+
+    // Not recording and not waiting for upload
+    private synchronized boolean isIdleSession(File folder) {
+        return !folder.getAbsoluteFile().equals(mActiveSession)
+                && (mUploadQueue == null || !mUploadQueue.isPending(folder));
+    }
+
+    private synchronized boolean isCompacting(File folder) {
+        return mCompactor != null && mCompactor.getFolder().equals(folder);
+    }
+
+    private synchronized Listener getListener() {
+        return this.mListener;
+    }
+
+    private void closeCompactor() {
+
+        SessionCompactor compactor;
+        synchronized (this) {
+            compactor = mCompactor;
+            mCompactor = null;
+        }
+
+        if (compactor == null) {
+            return;
+        }
+
+        try {
+            compactor.close();
+        }
+        catch (IOException ex) {
+            synchronized (this) {
+                mLastError = ex;
+            }
+        }
+    }
+
+    // Session folders, oldest first (their names start with the start time)
+    private File[] listSessions() {
+        File[] folders = CheckpointRecovery.listSessionFolders(mAppFolder);
+        Arrays.sort(folders);
+        return folders;
+    }
+
+    private static long sizeOf(File file) {
+
+        File[] files = file.listFiles();
+        if (files == null) {
+            return file.length();
+        }
+
+        long size = 0;
+        for (File child : files) {
+            size += sizeOf(child);
+        }
+        return size;
+    }
+
+    private static boolean delete(File folder) {
+
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!delete(file)) {
+                    return false;
+                }
+            }
+        }
+
+        return folder.delete();
+    }
+
+}
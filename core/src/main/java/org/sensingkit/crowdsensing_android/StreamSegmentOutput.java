@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes segments through a BufferedOutputStream.
+ */
+public class StreamSegmentOutput implements SegmentOutput {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "StreamSegmentOutput";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private FileOutputStream mSegmentStream;
+    private BufferedOutputStream mSegmentBuffer;
+
+    @Override
+    public void open(File file) throws IOException {
+        mSegmentStream = new FileOutputStream(file);
+        mSegmentBuffer = new BufferedOutputStream(mSegmentStream, BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(byte[] src, int offset, int length) throws IOException {
+        mSegmentBuffer.write(src, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mSegmentBuffer.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        mSegmentBuffer.flush();
+        mSegmentStream.getFD().sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (mSegmentBuffer != null) {
+            mSegmentBuffer.close();
+            mSegmentBuffer = null;
+            mSegmentStream = null;
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.util.Random;
+
+/**
+ * Generates records at a nominal rate, with Gaussian jitter on the sample
+ * times, for a fixed span of nominal sample times (i.e. durationMillis *
+ * rateHz / 1000 records, whatever the jitter). Each field is a slow sine plus
+ * noise; integer fields (the audio level) are rounded. The same seed
+ * generates the same records.
+ */
+public class SyntheticRecordReader implements RecordReader {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "SyntheticRecordReader";
+
+    private final RecordLayout mLayout;
+    private final double mIntervalMillis;
+    private final double mJitterMillis;
+    private final long mStartTimestamp;
+    private final long mDurationMillis;
+    private final Random mRandom;
+
+    private final float[] mValues;
+    private long mIndex;
+    private long mTimestamp;
+
+    /**
+     * @param jitterMillis   standard deviation of the sample times
+     * @param durationMillis span of the nominal sample times, from startTimestamp
+     */
+    public SyntheticRecordReader(RecordLayout layout, double rateHz, double jitterMillis,
+                                 long startTimestamp, long durationMillis, long seed) {
+
+        this.mLayout = layout;
+        this.mIntervalMillis = 1000 / rateHz;
+        this.mJitterMillis = jitterMillis;
+        this.mStartTimestamp = startTimestamp;
+        this.mDurationMillis = durationMillis;
+        this.mRandom = new Random(seed);
+        this.mValues = new float[layout.getFieldCount()];
+        this.mTimestamp = startTimestamp - 1;
+    }
+
+    @Override
+    public RecordLayout getLayout() {
+        return this.mLayout;
+    }
+
+    @Override
+    public boolean readRecord() {
+
+        double time = mIndex * mIntervalMillis;
+        if (time >= mDurationMillis) {
+            return false;
+        }
+
+        // Jitter never reorders the samples
+        long timestamp = mStartTimestamp + Math.round(time + mJitterMillis * mRandom.nextGaussian());
+        timestamp = Math.max(timestamp, mTimestamp + 1);
+
+        for (int i = 0; i < mValues.length; i++) {
+            double signal = Math.sin(2 * Math.PI * (i + 1) * time / 1000);
+            mValues[i] = (mLayout.getFieldType(i) == RecordLayout.FieldType.INT32)
+                    ? (float) Math.round(50 + 20 * signal + mRandom.nextGaussian())
+                    : (float) (9.81 * signal + 0.05 * mRandom.nextGaussian());
+        }
+
+        mTimestamp = timestamp;
+        mIndex++;
+
+        return true;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return this.mTimestamp;
+    }
+
+    @Override
+    public float[] getValues() {
+        return this.mValues;
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
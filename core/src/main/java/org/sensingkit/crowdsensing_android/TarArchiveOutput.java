@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a ustar archive, optionally gzipped. Plain archives copy the file
+ * contents with transferTo, between 512-byte headers. Sizes from 8 GB up
+ * use the GNU base-256 size field.
+ */
+public class TarArchiveOutput extends ArchiveOutput {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "TarArchiveOutput";
+
+    private static final int BLOCK_SIZE = 512;
+
+    // Largest size that fits 11 octal digits
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private final FileOutputStream mFileStream;
+    private final OutputStream mOutput;
+
+    // Plain archives only (null when gzipped)
+    private final FileChannel mChannel;
+
+    /**
+     * @param gzip true to gzip the whole archive
+     */
+    public TarArchiveOutput(File file, boolean gzip) throws IOException {
+
+        this.mFileStream = new FileOutputStream(file);
+        OutputStream buffer = new BufferedOutputStream(mFileStream, BUFFER_SIZE);
+
+        if (gzip) {
+            this.mOutput = new GZIPOutputStream(buffer, BUFFER_SIZE);
+            this.mChannel = null;
+        }
+        else {
+            this.mOutput = buffer;
+            this.mChannel = mFileStream.getChannel();
+        }
+    }
+
+    @Override
+    public void putFile(String name, FileChannel source, long length, long lastModified, long crc32) throws IOException {
+
+        writeHeader(name, length, lastModified);
+
+        if (mChannel != null) {
+            mOutput.flush();
+            transfer(source, length, mChannel);
+        }
+        else {
+            copy(source, length, mOutput);
+        }
+
+        pad(length);
+    }
+
+    @Override
+    public void putBytes(String name, byte[] data, long lastModified, long crc32) throws IOException {
+        writeHeader(name, data.length, lastModified);
+        mOutput.write(data);
+        pad(data.length);
+    }
+
+    @Override
+    public void finish() throws IOException {
+
+        try {
+            // Two empty blocks end the archive
+            mOutput.write(new byte[2 * BLOCK_SIZE]);
+
+            if (mOutput instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) mOutput).finish();
+            }
+            mOutput.flush();
+            mFileStream.getFD().sync();
+        }
+        finally {
+            abort();
+        }
+    }
+
+    @Override
+    public void abort() {
+        try {
+            mOutput.close();
+        }
+        catch (IOException ex) {
+            // Nothing left to save
+        }
+    }
+
+    private void writeHeader(String name, long size, long lastModified) throws IOException {
+
+        byte[] nameBytes = name.getBytes("UTF-8");
+        byte[] header = new byte[BLOCK_SIZE];
+
+        // Long names are split into the prefix and name fields at a slash
+        if (nameBytes.length <= 100) {
+            System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        }
+        else {
+            int slash = name.lastIndexOf('/');
+            byte[] prefix = (slash > 0) ? name.substring(0, slash).getBytes("UTF-8") : null;
+            byte[] rest = (slash > 0) ? name.substring(slash + 1).getBytes("UTF-8") : nameBytes;
+
+            if (prefix == null || prefix.length > 155 || rest.length > 100) {
+                throw new IOException("Name too long for a tar archive: " + name);
+            }
+
+            System.arraycopy(rest, 0, header, 0, rest.length);
+            System.arraycopy(prefix, 0, header, 345, prefix.length);
+        }
+
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+
+        if (size <= MAX_OCTAL_SIZE) {
+            putOctal(header, 124, 12, size);
+        }
+        else {
+            header[124] = (byte) 0x80;
+            for (int i = 0; i < 8; i++) {
+                header[135 - i] = (byte) (size >>> (8 * i));
+            }
+        }
+
+        putOctal(header, 136, 12, lastModified / 1000);
+        header[156] = '0';
+        System.arraycopy(new byte[]{'u', 's', 't', 'a', 'r', 0, '0', '0'}, 0, header, 257, 8);
+
+        // The checksum is computed with its own field as spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        putOctal(header, 148, 7, checksum);
+        header[155] = ' ';
+
+        mOutput.write(header);
+    }
+
+    private void pad(long length) throws IOException {
+        int padding = (int) ((BLOCK_SIZE - length % BLOCK_SIZE) % BLOCK_SIZE);
+        if (padding > 0) {
+            mOutput.write(new byte[padding]);
+        }
+    }
+
+    /**
+     * Writes value as zero-padded octal digits followed by a NUL in a field of the given width.
+     */
+    private static void putOctal(byte[] header, int offset, int width, long value) {
+
+        int position = offset + width - 1;
+        header[position] = 0;
+
+        for (int i = position - 1; i >= offset; i--) {
+            header[i] = (byte) ('0' + (value & 7));
+            value >>>= 3;
+        }
+    }
+
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Sparse side index of a recorded file (e.g. Accelerometer.csv.idx next to
+ * Accelerometer.csv): the timestamp and byte offset of every Nth record, or
+ * of every block in the compressed format. A range query binary-searches
+ * the index on disk and reads the file from the last indexed record before
+ * the start of the range, so it reads at most N records it does not return.
+ * <p>
+ * File layout: magic, schema version (16-bit) and two reserved bytes, then
+ * entries of [timestamp (64-bit)][offset (64-bit)], little-endian. Offsets
+ * only grow. Entries past the end of the data file (e.g. after a crash)
+ * are ignored, and a missing index is rebuilt from the data file.
+ */
+public class TimeIndex {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "TimeIndex";
+
+    public static final String FILE_EXTENSION = "idx";
+
+    public static final int DEFAULT_INTERVAL = 1024;
+
+    static final byte[] MAGIC = {'C', 'S', 'K', 'I'};
+    static final int SCHEMA_VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int ENTRY_SIZE = 16;
+
+    private final File mFile;
+    private final long mEntryCount;
+
+    private TimeIndex(File file, long entryCount) {
+        this.mFile = file;
+        this.mEntryCount = entryCount;
+    }
+
+    /**
+     * @return the index file of a recorded file
+     */
+    public static File fileFor(File dataFile) {
+        return new File(dataFile.getParentFile(), dataFile.getName() + "." + FILE_EXTENSION);
+    }
+
+    /**
+     * Opens the index of a recorded file, rebuilding it if it is missing or unreadable.
+     *
+     * @param layout the layout of the records, only needed for CSV files
+     */
+    public static TimeIndex open(File dataFile, RecordLayout layout) throws IOException {
+
+        File file = fileFor(dataFile);
+
+        if (file.exists()) {
+            try {
+                return load(file, dataFile.length());
+            }
+            catch (IOException ex) {
+                // Rebuilt below
+            }
+        }
+
+        return rebuild(dataFile, layout, DEFAULT_INTERVAL);
+    }
+
+    private static TimeIndex load(File file, long dataLength) throws IOException {
+
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            if (access.length() < HEADER_SIZE) {
+                throw new IOException("Truncated index header.");
+            }
+            access.readFully(header);
+
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header[i] != MAGIC[i]) {
+                    throw new IOException("Not a time index.");
+                }
+            }
+            if (LittleEndian.getShort(header, MAGIC.length) > SCHEMA_VERSION) {
+                throw new IOException("Unsupported index version.");
+            }
+
+            // Drop a torn last entry, and the entries past the end of the data
+            long count = (access.length() - HEADER_SIZE) / ENTRY_SIZE;
+            byte[] entry = new byte[ENTRY_SIZE];
+
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                readEntry(access, middle, entry);
+                if (LittleEndian.getLong(entry, 8) < dataLength) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+
+            return new TimeIndex(file, low);
+        }
+        finally {
+            access.close();
+        }
+    }
+
+    public File getFile() {
+        return this.mFile;
+    }
+
+    /**
+     * Valid entries of the index.
+     */
+    public long getEntryCount() {
+        return this.mEntryCount;
+    }
+
+    /**
+     * Binary-searches the index for the last entry before the timestamp.
+     *
+     * @return the byte offset to start reading at for records from the timestamp on, or -1 for the first record
+     */
+    public long findOffset(long timestamp) throws IOException {
+
+        if (mEntryCount == 0) {
+            return -1;
+        }
+
+        RandomAccessFile access = new RandomAccessFile(mFile, "r");
+
+        try {
+            byte[] entry = new byte[ENTRY_SIZE];
+
+            // First entry at or after the timestamp
+            long low = 0;
+            long high = mEntryCount;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                readEntry(access, middle, entry);
+                if (LittleEndian.getLong(entry, 0) < timestamp) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+
+            if (low == 0) {
+                return -1;
+            }
+
+            readEntry(access, low - 1, entry);
+            return LittleEndian.getLong(entry, 8);
+        }
+        finally {
+            access.close();
+        }
+    }
+
+    private static void readEntry(RandomAccessFile access, long index, byte[] entry) throws IOException {
+        access.seek(HEADER_SIZE + index * ENTRY_SIZE);
+        access.readFully(entry);
+    }
+
+    // --- Rebuilding
+
+    /**
+     * Scans a recorded file and writes its index, replacing any existing one.
+     *
+     * @param layout   the layout of the records, only needed for CSV files
+     * @param interval records between two entries (ignored in the compressed format, indexed per block)
+     */
+    public static TimeIndex rebuild(File dataFile, RecordLayout layout, int interval) throws IOException {
+
+        RecordFormat format = RecordReaders.formatOf(dataFile);
+        if (format == null) {
+            throw new IOException("File " + dataFile.getName() + " is not a recording.");
+        }
+
+        File file = fileFor(dataFile);
+        File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+        Writer writer = new Writer(temporary);
+
+        try {
+            switch (format) {
+
+                case BINARY:
+                    scanBinary(dataFile, interval, writer);
+                    break;
+
+                case COMPRESSED:
+                    scanCompressed(dataFile, writer);
+                    break;
+
+                case CSV:
+                default:
+                    scanCsv(dataFile, interval, writer);
+                    break;
+            }
+        }
+        finally {
+            writer.close();
+        }
+
+        if ((file.exists() && !file.delete()) || !temporary.renameTo(file)) {
+            throw new IOException("Index " + file.getName() + " could not be replaced.");
+        }
+
+        return load(file, dataFile.length());
+    }
+
+    private static void scanCsv(File dataFile, int interval, Writer writer) throws IOException {
+
+        InputStream inputStream = new FileInputStream(dataFile);
+
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            long bufferStart = 0;
+            long lineStart = 0;
+            long records = 0;
+            long timestamp = 0;
+            boolean negative = false;
+            int digits = 0;
+            boolean inTimestamp = true;
+
+            int count;
+            while ((count = inputStream.read(buffer)) >= 0) {
+
+                for (int i = 0; i < count; i++) {
+
+                    byte b = buffer[i];
+
+                    if (b == '\n') {
+
+                        if (digits > 0 && !inTimestamp) {
+                            if (records % interval == 0) {
+                                writer.add(negative ? -timestamp : timestamp, lineStart);
+                            }
+                            records++;
+                        }
+
+                        lineStart = bufferStart + i + 1;
+                        timestamp = 0;
+                        negative = false;
+                        digits = 0;
+                        inTimestamp = true;
+                    }
+                    else if (inTimestamp) {
+
+                        if (b >= '0' && b <= '9') {
+                            timestamp = timestamp * 10 + (b - '0');
+                            digits++;
+                        }
+                        else if (b == '-' && digits == 0 && !negative) {
+                            negative = true;
+                        }
+                        else if (b == ',') {
+                            inTimestamp = false;
+                        }
+                        else {
+                            // Not a record, e.g. a header line
+                            digits = 0;
+                            inTimestamp = false;
+                        }
+                    }
+                }
+
+                bufferStart += count;
+            }
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+
+    private static void scanBinary(File dataFile, int interval, Writer writer) throws IOException {
+
+        RandomAccessFile access = new RandomAccessFile(dataFile, "r");
+
+        try {
+            InputStream inputStream = new BufferedInputStream(new FileInputStream(dataFile));
+            RecordLayout layout;
+            try {
+                layout = BinaryRecordReader.readHeader(inputStream,
+                        BinaryRecordEncoder.MAGIC, BinaryRecordEncoder.SCHEMA_VERSION).layout;
+            }
+            finally {
+                inputStream.close();
+            }
+
+            long headerSize = BinaryRecordEncoder.encodeHeader(layout,
+                    BinaryRecordEncoder.MAGIC, BinaryRecordEncoder.SCHEMA_VERSION).length;
+            long recordSize = layout.getRecordSize();
+            long records = (access.length() - headerSize) / recordSize;
+            byte[] timestamp = new byte[RecordLayout.TIMESTAMP_SIZE];
+
+            // Records have a fixed size, so only the indexed ones are read
+            for (long record = 0; record < records; record += interval) {
+                long offset = headerSize + record * recordSize;
+                access.seek(offset);
+                access.readFully(timestamp);
+                writer.add(LittleEndian.getLong(timestamp, 0), offset);
+            }
+        }
+        finally {
+            access.close();
+        }
+    }
+
+    private static void scanCompressed(File dataFile, Writer writer) throws IOException {
+
+        RandomAccessFile access = new RandomAccessFile(dataFile, "r");
+        Inflater inflater = new Inflater();
+
+        try {
+            InputStream inputStream = new BufferedInputStream(new FileInputStream(dataFile));
+            RecordLayout layout;
+            try {
+                layout = BinaryRecordReader.readHeader(inputStream,
+                        CompressedRecordWriter.MAGIC, CompressedRecordWriter.SCHEMA_VERSION).layout;
+            }
+            finally {
+                inputStream.close();
+            }
+
+            long offset = BinaryRecordEncoder.encodeHeader(layout,
+                    CompressedRecordWriter.MAGIC, CompressedRecordWriter.SCHEMA_VERSION).length;
+            long length = access.length();
+
+            byte[] blockHeader = new byte[CompressedRecordWriter.BLOCK_HEADER_SIZE];
+            byte[] compressed = new byte[0];
+            byte[] first = new byte[VarInt.MAX_SIZE];
+
+            // Skip from block header to block header, inflating only the first timestamp
+            while (offset + blockHeader.length <= length) {
+
+                access.seek(offset);
+                access.readFully(blockHeader);
+                int compressedLength = LittleEndian.getInt(blockHeader, 0);
+                long end = offset + blockHeader.length + compressedLength;
+
+                if (compressedLength < 0 || end > length) {
+                    break;
+                }
+
+                if (compressed.length < compressedLength) {
+                    compressed = new byte[compressedLength];
+                }
+                access.readFully(compressed, 0, compressedLength);
+
+                inflater.reset();
+                inflater.setInput(compressed, 0, compressedLength);
+                int count;
+                try {
+                    count = inflater.inflate(first, 0, first.length);
+                }
+                catch (DataFormatException ex) {
+                    throw new IOException(ex.getMessage());
+                }
+
+                // The first delta of a block is from zero
+                long delta = 0;
+                int shift = 0;
+                for (int i = 0; i < count; i++) {
+                    delta |= (long) (first[i] & 0x7F) << shift;
+                    shift += 7;
+                    if ((first[i] & 0x80) == 0) {
+                        break;
+                    }
+                }
+
+                writer.add(VarInt.unZigZag(delta), offset);
+                offset = end;
+            }
+        }
+        finally {
+            inflater.end();
+            access.close();
+        }
+    }
+
+    /**
+     * Appends entries to an index file while its data file is written.
+     */
+    public static class Writer {
+
+        private final FileOutputStream mFileStream;
+        private final BufferedOutputStream mFileBuffer;
+        private final byte[] mEntry = new byte[ENTRY_SIZE];
+        private long mEntryCount;
+
+        public Writer(File file) throws IOException {
+
+            mFileStream = new FileOutputStream(file);
+            mFileBuffer = new BufferedOutputStream(mFileStream, 4096);
+
+            byte[] header = new byte[HEADER_SIZE];
+            System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+            LittleEndian.putShort(header, MAGIC.length, SCHEMA_VERSION);
+
+            try {
+                mFileBuffer.write(header);
+            }
+            catch (IOException ex) {
+                mFileBuffer.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * @param offset the byte offset of the record in the data file
+         */
+        public void add(long timestamp, long offset) throws IOException {
+            LittleEndian.putLong(mEntry, 0, timestamp);
+            LittleEndian.putLong(mEntry, 8, offset);
+            mFileBuffer.write(mEntry);
+            mEntryCount++;
+        }
+
+        public long getEntryCount() {
+            return this.mEntryCount;
+        }
+
+        public void flush() throws IOException {
+            mFileBuffer.flush();
+        }
+
+        public void close() throws IOException {
+            mFileBuffer.close();
+        }
+    }
+
+}
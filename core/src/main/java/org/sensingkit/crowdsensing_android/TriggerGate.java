@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Decides, for all sensors of a session together, which time ranges are
+ * recorded in the event-triggered mode. Every trigger opens (or extends)
+ * a capture window from pre-roll before to post-roll after the event, so
+ * overlapping events merge into one window. Times are sample timestamps
+ * in milliseconds.
+ */
+public class TriggerGate {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "TriggerGate";
+
+    private final long mPreRollMillis;
+    private final long mPostRollMillis;
+
+    // Current (or last) capture window
+    private boolean mHasWindow;
+    private long mWindowStart;
+    private long mWindowEnd;
+
+    // Statistics
+    private boolean mHasSample;
+    private long mFirstTimestamp;
+    private long mLastTimestamp;
+    private long mClosedWindowMillis;
+    private long mEventCount;
+    private long mWindowCount;
+
+    public TriggerGate(long preRollMillis, long postRollMillis) {
+        this.mPreRollMillis = preRollMillis;
+        this.mPostRollMillis = postRollMillis;
+    }
+
+    /**
+     * Registers an event at the given time.
+     */
+    public synchronized void fire(long timestamp) {
+
+        mEventCount++;
+
+        long start = timestamp - mPreRollMillis;
+        long end = timestamp + mPostRollMillis;
+
+        if (mHasWindow && start <= mWindowEnd) {
+            // Overlaps the current window, extend it
+            mWindowEnd = Math.max(mWindowEnd, end);
+            return;
+        }
+
+        if (mHasWindow) {
+            mClosedWindowMillis += windowMillis();
+        }
+
+        mHasWindow = true;
+        mWindowStart = start;
+        mWindowEnd = end;
+        mWindowCount++;
+    }
+
+    /**
+     * Notes the time of a sample of any sensor.
+     *
+     * @return true if samples at this time are recorded
+     */
+    public synchronized boolean isCapturing(long timestamp) {
+
+        if (!mHasSample) {
+            mFirstTimestamp = timestamp;
+            mHasSample = true;
+        }
+        mLastTimestamp = Math.max(mLastTimestamp, timestamp);
+
+        return mHasWindow && timestamp >= mWindowStart && timestamp <= mWindowEnd;
+    }
+
+    /**
+     * Start of the current capture window; buffered samples from this time on are recorded.
+     */
+    public synchronized long getWindowStart() {
+        return this.mWindowStart;
+    }
+
+    public synchronized long getEventCount() {
+        return this.mEventCount;
+    }
+
+    /**
+     * Capture windows after merging overlapping events.
+     */
+    public synchronized long getWindowCount() {
+        return this.mWindowCount;
+    }
+
+    /**
+     * Recording time covered by capture windows so far.
+     */
+    public synchronized long getCapturedMillis() {
+        return mClosedWindowMillis + (mHasWindow ? windowMillis() : 0);
+    }
+
+    /**
+     * Recording time outside of any capture window so far.
+     */
+    public synchronized long getDiscardedMillis() {
+        return mHasSample ? Math.max(0, mLastTimestamp - mFirstTimestamp - getCapturedMillis()) : 0;
+    }
+
+    /**
+     * Length of the current window, clipped to the samples seen so far.
+     */
+    private long windowMillis() {
+
+        long start = Math.max(mWindowStart, mFirstTimestamp);
+        long end = Math.min(mWindowEnd, mLastTimestamp);
+        return Math.max(0, end - start);
+    }
+
+}
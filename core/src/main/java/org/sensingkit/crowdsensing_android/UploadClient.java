@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+
+/**
+ * HTTP side of the upload queue. A file is uploaded to {endpoint}/{id} in
+ * ranged PUT requests ("Content-Range: bytes first-last/total"), and the
+ * server answers with the number of bytes it holds in an "Upload-Offset"
+ * header. A HEAD request returns that offset, so that an interrupted upload
+ * resumes where the server stopped, and a file the server already holds
+ * completely is not sent again. Small files are sent together in a POST to
+ * {endpoint}/batch, each as "id\nlength\n" followed by its bytes.
+ */
+class UploadClient {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "UploadClient";
+
+    static final String OFFSET_HEADER = "Upload-Offset";
+    static final String BATCH_PATH = "batch";
+
+    /**
+     * The server answered with an unexpected status code.
+     */
+    static class HttpStatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int mStatus;
+
+        HttpStatusException(int status, String message) {
+            super(message + ": HTTP " + status);
+            this.mStatus = status;
+        }
+
+        int getStatus() {
+            return this.mStatus;
+        }
+
+        /**
+         * Whether a retry cannot succeed: client errors other than a
+         * timeout or too many requests.
+         */
+        boolean isPermanent() {
+            return mStatus >= 400 && mStatus < 500 && mStatus != 408 && mStatus != 429;
+        }
+    }
+
+    private final UploadConfig mConfig;
+    private final byte[] mBuffer = new byte[ArchiveOutput.BUFFER_SIZE];
+
+    UploadClient(UploadConfig config) {
+        this.mConfig = config;
+    }
+
+    /**
+     * @return the bytes of the upload held by the server, or -1 if it has none
+     */
+    long queryOffset(String id) throws IOException {
+
+        HttpURLConnection connection = open("HEAD", id);
+
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return -1;
+            }
+            if (status / 100 != 2) {
+                throw new HttpStatusException(status, "Query of " + id + " failed");
+            }
+            return readOffset(connection, id);
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Sends the given range of the file.
+     *
+     * @return the bytes of the upload held by the server after the request;
+     *         differs from offset + length when the server had another offset
+     */
+    long putRange(String id, RandomAccessFile file, long offset, int length, long total) throws IOException {
+
+        HttpURLConnection connection = open("PUT", id);
+
+        try {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(length);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setRequestProperty("Content-Range", (length == 0)
+                    ? "bytes */" + total
+                    : "bytes " + offset + "-" + (offset + length - 1) + "/" + total);
+
+            OutputStream output = connection.getOutputStream();
+            try {
+                file.seek(offset);
+                int remaining = length;
+                while (remaining > 0) {
+                    int read = file.read(mBuffer, 0, Math.min(remaining, mBuffer.length));
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of " + id);
+                    }
+                    output.write(mBuffer, 0, read);
+                    remaining -= read;
+                }
+            }
+            finally {
+                output.close();
+            }
+
+            int status = connection.getResponseCode();
+
+            // Conflict: the server holds another offset, resync from there
+            if (status / 100 != 2 && status != HttpURLConnection.HTTP_CONFLICT) {
+                throw new HttpStatusException(status, "Upload of " + id + " failed");
+            }
+
+            drain(connection);
+            return readOffset(connection, id);
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Sends the given files whole in a single request.
+     */
+    void postBatch(List<UploadQueue.Item> items) throws IOException {
+
+        byte[][] headers = new byte[items.size()][];
+        long total = 0;
+
+        for (int i = 0; i < items.size(); i++) {
+            UploadQueue.Item item = items.get(i);
+            headers[i] = (item.getId() + "\n" + item.getLength() + "\n").getBytes("UTF-8");
+            total += headers[i].length + item.getLength();
+        }
+
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Batch too large: " + total + " bytes");
+        }
+
+        HttpURLConnection connection = open("POST", BATCH_PATH);
+
+        try {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode((int) total);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+
+            OutputStream output = connection.getOutputStream();
+            try {
+                for (int i = 0; i < items.size(); i++) {
+                    UploadQueue.Item item = items.get(i);
+                    output.write(headers[i]);
+                    InputStream input = new FileInputStream(item.getFile());
+                    try {
+                        copy(input, output, item.getLength(), item.getId());
+                    }
+                    finally {
+                        input.close();
+                    }
+                }
+            }
+            finally {
+                output.close();
+            }
+
+            int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                throw new HttpStatusException(status, "Batch upload failed");
+            }
+
+            drain(connection);
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String method, String path) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(mConfig.getEndpoint() + "/" + encode(path)).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(mConfig.getTimeoutMillis());
+        connection.setReadTimeout(mConfig.getTimeoutMillis());
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private void copy(InputStream input, OutputStream output, long length, String id) throws IOException {
+
+        long remaining = length;
+        while (remaining > 0) {
+            int read = input.read(mBuffer, 0, (int) Math.min(remaining, mBuffer.length));
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + id);
+            }
+            output.write(mBuffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    // Reads the response body so that the connection can be reused
+    private void drain(HttpURLConnection connection) throws IOException {
+
+        InputStream input = (connection.getResponseCode() / 100 == 2)
+                ? connection.getInputStream()
+                : connection.getErrorStream();
+
+        if (input == null) {
+            return;
+        }
+
+        try {
+            while (input.read(mBuffer) >= 0) {
+                // discard
+            }
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    private static long readOffset(HttpURLConnection connection, String id) throws IOException {
+
+        String value = connection.getHeaderField(OFFSET_HEADER);
+        if (value == null) {
+            throw new IOException("Missing " + OFFSET_HEADER + " for " + id);
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException ex) {
+            throw new IOException("Invalid " + OFFSET_HEADER + " for " + id + ": " + value);
+        }
+    }
+
+    // Encodes each segment of the upload id, keeping the separators
+    private static String encode(String path) throws UnsupportedEncodingException {
+
+        StringBuilder builder = new StringBuilder();
+
+        for (String segment : path.split("/")) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(URLEncoder.encode(segment, "UTF-8").replace("+", "%20"));
+        }
+
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+/**
+ * Settings of the upload queue: the collection server, the size of the
+ * upload requests, how many run at once and how failed uploads are
+ * retried. Setters return this so that a configuration can be chained.
+ */
+public class UploadConfig {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "UploadConfig";
+
+    public static final int DEFAULT_SLICE_BYTES = 1024 * 1024;
+    public static final int DEFAULT_BATCH_THRESHOLD_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+    public static final int DEFAULT_CONCURRENCY = 2;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 5000;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+    public static final long DEFAULT_CONSTRAINT_POLL_MILLIS = 60 * 1000;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final String mEndpoint;
+    private int mSliceBytes = DEFAULT_SLICE_BYTES;
+    private int mBatchThresholdBytes = DEFAULT_BATCH_THRESHOLD_BYTES;
+    private int mMaxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private int mConcurrency = DEFAULT_CONCURRENCY;
+    private long mInitialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long mMaxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private long mConstraintPollMillis = DEFAULT_CONSTRAINT_POLL_MILLIS;
+    private int mTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    /**
+     * @param endpoint base URL of the collection server, e.g. "https://example.org/uploads"
+     */
+    public UploadConfig(String endpoint) {
+
+        if (endpoint == null || endpoint.isEmpty()) {
+            throw new IllegalArgumentException("Missing upload endpoint.");
+        }
+
+        this.mEndpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+    }
+
+    public String getEndpoint() {
+        return this.mEndpoint;
+    }
+
+    public int getSliceBytes() {
+        return this.mSliceBytes;
+    }
+
+    /**
+     * Bytes sent per request of a ranged upload; an interrupted upload
+     * resumes from the last acknowledged slice.
+     */
+    public UploadConfig setSliceBytes(int sliceBytes) {
+
+        if (sliceBytes < 1) {
+            throw new IllegalArgumentException("Invalid slice size: " + sliceBytes);
+        }
+
+        this.mSliceBytes = sliceBytes;
+        return this;
+    }
+
+    public int getBatchThresholdBytes() {
+        return this.mBatchThresholdBytes;
+    }
+
+    /**
+     * Files up to this size are sent together in batch requests instead of
+     * one ranged upload each. Use 0 to never batch.
+     */
+    public UploadConfig setBatchThresholdBytes(int batchThresholdBytes) {
+        this.mBatchThresholdBytes = batchThresholdBytes;
+        return this;
+    }
+
+    public int getMaxBatchBytes() {
+        return this.mMaxBatchBytes;
+    }
+
+    public UploadConfig setMaxBatchBytes(int maxBatchBytes) {
+        this.mMaxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return this.mConcurrency;
+    }
+
+    /**
+     * Requests in flight at once.
+     */
+    public UploadConfig setConcurrency(int concurrency) {
+
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+        }
+
+        this.mConcurrency = concurrency;
+        return this;
+    }
+
+    public long getInitialBackoffMillis() {
+        return this.mInitialBackoffMillis;
+    }
+
+    /**
+     * Delay before the first retry of a failed upload, doubled on every
+     * further failure up to the max backoff.
+     */
+    public UploadConfig setInitialBackoffMillis(long initialBackoffMillis) {
+        this.mInitialBackoffMillis = initialBackoffMillis;
+        return this;
+    }
+
+    public long getMaxBackoffMillis() {
+        return this.mMaxBackoffMillis;
+    }
+
+    public UploadConfig setMaxBackoffMillis(long maxBackoffMillis) {
+        this.mMaxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    public long getConstraintPollMillis() {
+        return this.mConstraintPollMillis;
+    }
+
+    /**
+     * How often the constraints are checked again while uploads are paused.
+     */
+    public UploadConfig setConstraintPollMillis(long constraintPollMillis) {
+        this.mConstraintPollMillis = constraintPollMillis;
+        return this;
+    }
+
+    public int getTimeoutMillis() {
+        return this.mTimeoutMillis;
+    }
+
+    /**
+     * Connect and read timeout of every request.
+     */
+    public UploadConfig setTimeoutMillis(int timeoutMillis) {
+        this.mTimeoutMillis = timeoutMillis;
+        return this;
+    }
+
+}
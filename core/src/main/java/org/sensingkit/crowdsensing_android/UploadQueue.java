@@ -0,0 +1,805 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers closed session files to a collection server (see UploadClient
+ * for the protocol). The queue is kept in a state file, replaced atomically
+ * on every change, so that uploads survive a restart of the app and resume
+ * at the last offset acknowledged by the server.
+ *
+ * A dispatcher thread hands ready files to at most getConcurrency() upload
+ * threads: large files as ranged uploads, small ones together in batches.
+ * Failed uploads are retried with exponential backoff. While the upload
+ * constraints are not met nothing is sent, and uploads in progress stop
+ * after their current request.
+ */
+public class UploadQueue {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "UploadQueue";
+
+    /**
+     * Written into a completed session folder once all its files are uploaded.
+     */
+    public static final String UPLOADED_FILE_NAME = "Uploaded.csv";
+
+    private static final String HEADER = "length,offset,attempts,path";
+
+    /**
+     * Receives the outcome of each upload, on an upload thread.
+     */
+    public interface Listener {
+
+        void onUploaded(File file);
+
+        /**
+         * The file was dropped from the queue after an error that a retry
+         * cannot fix, e.g. it was deleted or the server rejected it.
+         */
+        void onFailed(File file, IOException error);
+    }
+
+    /**
+     * One queued file.
+     */
+    static class Item {
+
+        private final File mFile;
+        private final String mId;
+        private final long mLength;
+
+        // Guarded by the queue
+        private long mOffset;
+        private int mAttempts;
+        private long mNextAttemptMillis;
+        private boolean mInFlight;
+        private boolean mBatchable = true;
+
+        Item(File file, long length) {
+            this.mFile = file;
+            this.mId = idOf(file);
+            this.mLength = length;
+        }
+
+        File getFile() {
+            return this.mFile;
+        }
+
+        String getId() {
+            return this.mId;
+        }
+
+        long getLength() {
+            return this.mLength;
+        }
+    }
+
+    private final File mStateFile;
+    private final UploadConfig mConfig;
+    private final UploadConstraints mConstraints;
+    private final Random mRandom = new Random();
+
+    // Guarded by this
+    private final List<Item> mItems = new ArrayList<>();
+    private Listener mListener;
+    private Thread mDispatcher;
+    private ExecutorService mExecutor;
+    private boolean mRunning;
+    private int mActiveCount;
+    private long mUploadedCount;
+    private long mFailedCount;
+    private long mRetryCount;
+    private long mBytesSent;
+    private IOException mLastError;
+
+    /**
+     * Loads the queue left in the state file, if any.
+     *
+     * @param constraints when uploads may run, or null to upload whenever possible
+     */
+    public UploadQueue(File stateFile, UploadConfig config, UploadConstraints constraints) throws IOException {
+        this.mStateFile = stateFile;
+        this.mConfig = config;
+        this.mConstraints = constraints;
+        load();
+    }
+
+    public UploadConfig getConfig() {
+        return this.mConfig;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * Adds a closed file. A file that is already queued is not added again.
+     * Its id on the server is "{session folder}/{file name}".
+     */
+    public synchronized void enqueue(File file) throws IOException {
+
+        String id = idOf(file);
+        for (Item item : mItems) {
+            if (item.mId.equals(id)) {
+                return;
+            }
+        }
+
+        if (!file.isFile()) {
+            throw new FileNotFoundException("Cannot upload " + file);
+        }
+
+        mItems.add(new Item(file, file.length()));
+        save();
+        notifyAll();
+    }
+
+    /**
+     * Adds every file of a closed session folder not queued yet, except
+     * checkpoints, time indexes and temporary files.
+     *
+     * @return the number of files added
+     */
+    public synchronized int enqueueSession(File folder) throws IOException {
+
+        File[] files = folder.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + folder);
+        }
+
+        Arrays.sort(files);
+        int count = 0;
+
+        for (File file : files) {
+
+            String name = file.getName();
+            if (file.isDirectory() || name.startsWith("Checkpoint.") || name.endsWith(".tmp")
+                    || name.endsWith("." + TimeIndex.FILE_EXTENSION) || name.equals(UPLOADED_FILE_NAME)
+                    || name.equals(SessionCompactor.STATE_FILE_NAME)) {
+                continue;
+            }
+
+            int size = mItems.size();
+            enqueue(file);
+            count += mItems.size() - size;
+        }
+
+        return count;
+    }
+
+    public synchronized void start() {
+
+        if (mRunning) {
+            return;
+        }
+
+        mRunning = true;
+        mExecutor = Executors.newFixedThreadPool(mConfig.getConcurrency(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CrowdSensing-Upload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        mDispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "CrowdSensing-Uploader");
+        mDispatcher.setDaemon(true);
+        mDispatcher.start();
+    }
+
+    /**
+     * Stops dispatching and waits for the uploads in progress to stop after
+     * their current request. Files not yet uploaded stay in the queue.
+     */
+    public void stop() {
+
+        Thread dispatcher;
+        ExecutorService executor;
+
+        synchronized (this) {
+            mRunning = false;
+            dispatcher = mDispatcher;
+            executor = mExecutor;
+            mDispatcher = null;
+            mExecutor = null;
+            notifyAll();
+        }
+
+        try {
+            if (dispatcher != null) {
+                dispatcher.join();
+            }
+            if (executor != null) {
+                executor.shutdown();
+                executor.awaitTermination(mConfig.getTimeoutMillis() * 2L, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return this.mRunning;
+    }
+
+    /**
+     * Wakes the queue after the upload constraints may have changed, e.g.
+     * when the device was plugged in, instead of waiting for the next poll.
+     */
+    public synchronized void onConstraintsChanged() {
+        notifyAll();
+    }
+
+    /**
+     * Waits until every queued file was uploaded or dropped, and the
+     * listener was told about it.
+     *
+     * @return false if the timeout passed first
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        while (!mItems.isEmpty() || mActiveCount > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+
+        return true;
+    }
+
+    public synchronized int getPendingCount() {
+        return mItems.size();
+    }
+
+    /**
+     * Whether any file of the given session folder is still queued.
+     */
+    public synchronized boolean isPending(File sessionFolder) {
+
+        File folder = sessionFolder.getAbsoluteFile();
+        for (Item item : mItems) {
+            if (folder.equals(item.mFile.getAbsoluteFile().getParentFile())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public synchronized long getUploadedCount() {
+        return this.mUploadedCount;
+    }
+
+    public synchronized long getFailedCount() {
+        return this.mFailedCount;
+    }
+
+    public synchronized long getRetryCount() {
+        return this.mRetryCount;
+    }
+
+    /**
+     * File bytes sent, including bytes sent again after an interruption.
+     */
+    public synchronized long getBytesSent() {
+        return this.mBytesSent;
+    }
+
+    public synchronized IOException getLastError() {
+        return this.mLastError;
+    }
+
+    // Dispatcher thread
+    private void dispatch() {
+
+        while (true) {
+
+            // Checked outside the lock, it may query the system
+            boolean satisfied = isSatisfied();
+
+            synchronized (this) {
+
+                if (!mRunning) {
+                    return;
+                }
+
+                long waitMillis = mConfig.getConstraintPollMillis();
+
+                if (satisfied) {
+                    long now = System.currentTimeMillis();
+                    submitReady(now);
+                    waitMillis = Math.min(waitMillis, getNextAttemptDelay(now));
+                }
+
+                try {
+                    wait(Math.max(1, waitMillis));
+                }
+                catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Guarded by this
+    private void submitReady(long now) {
+
+        while (mActiveCount < mConfig.getConcurrency()) {
+
+            Item item = null;
+            for (Item candidate : mItems) {
+                if (isReady(candidate, now)) {
+                    item = candidate;
+                    break;
+                }
+            }
+
+            if (item == null) {
+                return;
+            }
+
+            if (isBatchable(item)) {
+
+                List<Item> batch = new ArrayList<>();
+                long bytes = 0;
+
+                for (Item candidate : mItems) {
+                    if (isReady(candidate, now) && isBatchable(candidate)
+                            && (batch.isEmpty() || bytes + candidate.mLength <= mConfig.getMaxBatchBytes())) {
+                        candidate.mInFlight = true;
+                        batch.add(candidate);
+                        bytes += candidate.mLength;
+                    }
+                }
+
+                mExecutor.execute(new BatchTask(batch));
+            }
+            else {
+                item.mInFlight = true;
+                mExecutor.execute(new RangeTask(item));
+            }
+
+            mActiveCount++;
+        }
+    }
+
+    // Guarded by this
+    private long getNextAttemptDelay(long now) {
+
+        long delay = Long.MAX_VALUE;
+
+        for (Item item : mItems) {
+            if (!item.mInFlight) {
+                delay = Math.min(delay, item.mNextAttemptMillis - now);
+            }
+        }
+
+        return delay;
+    }
+
+    private static boolean isReady(Item item, long now) {
+        return !item.mInFlight && item.mNextAttemptMillis <= now;
+    }
+
+    private boolean isBatchable(Item item) {
+        return item.mBatchable && item.mOffset == 0 && item.mLength <= mConfig.getBatchThresholdBytes();
+    }
+
+    private boolean isSatisfied() {
+        return mConstraints == null || mConstraints.isSatisfied();
+    }
+
+    // Whether an upload in progress may send its next request
+    private boolean shouldContinue() {
+
+        synchronized (this) {
+            if (!mRunning) {
+                return false;
+            }
+        }
+
+        return isSatisfied();
+    }
+
+    private synchronized void setOffset(Item item, long offset, long bytesSent) throws IOException {
+        item.mOffset = offset;
+        mBytesSent += bytesSent;
+        save();
+    }
+
+    private static boolean isPermanent(IOException error) {
+        return error instanceof FileNotFoundException
+                || (error instanceof UploadClient.HttpStatusException
+                    && ((UploadClient.HttpStatusException) error).isPermanent());
+    }
+
+    /**
+     * Records the outcome of an upload: done, failed with the given error,
+     * or neither when it was paused.
+     *
+     * @return whether the item was dropped from the queue after a permanent failure
+     */
+    private synchronized boolean finish(Item item, boolean done, IOException error, boolean batched) {
+
+        item.mInFlight = false;
+
+        if (done) {
+            mItems.remove(item);
+            mUploadedCount++;
+            return false;
+        }
+
+        if (error == null) {
+            return false;
+        }
+
+        mLastError = error;
+
+        if (isPermanent(error)) {
+
+            // A rejected batch, e.g. too large, is retried as single uploads
+            if (batched && !(error instanceof FileNotFoundException)) {
+                item.mBatchable = false;
+                return false;
+            }
+
+            mItems.remove(item);
+            mFailedCount++;
+            return true;
+        }
+
+        item.mAttempts++;
+        item.mNextAttemptMillis = System.currentTimeMillis() + getBackoffMillis(item.mAttempts);
+        mRetryCount++;
+        return false;
+    }
+
+    private synchronized void release() {
+
+        mActiveCount--;
+
+        try {
+            save();
+        }
+        catch (IOException ex) {
+            mLastError = ex;
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Doubles with every attempt up to the max backoff, with a random
+     * jitter of up to half the delay so that devices do not retry in step.
+     */
+    private long getBackoffMillis(int attempts) {
+
+        long delay = mConfig.getInitialBackoffMillis() << Math.min(attempts - 1, 30);
+        delay = Math.min(Math.max(delay, 0), mConfig.getMaxBackoffMillis());
+
+        return delay - (long) (mRandom.nextDouble() * delay / 2);
+    }
+
+    private void notifyListener(Item item, boolean done, boolean dropped, IOException error) {
+
+        Listener listener;
+        synchronized (this) {
+            listener = mListener;
+        }
+
+        if (listener == null) {
+            return;
+        }
+
+        if (done) {
+            listener.onUploaded(item.mFile);
+        }
+        else if (dropped) {
+            listener.onFailed(item.mFile, error);
+        }
+    }
+
+    /**
+     * Sends one file in slices, resuming at the offset held by the server.
+     */
+    private class RangeTask implements Runnable {
+
+        private final Item mItem;
+
+        RangeTask(Item item) {
+            this.mItem = item;
+        }
+
+        @Override
+        public void run() {
+
+            boolean done = false;
+            IOException error = null;
+
+            try {
+                done = upload();
+            }
+            catch (IOException ex) {
+                error = ex;
+            }
+
+            boolean dropped = finish(mItem, done, error, false);
+            if (done) {
+                markUploaded(mItem.mFile.getAbsoluteFile().getParentFile());
+            }
+            notifyListener(mItem, done, dropped, error);
+            release();
+        }
+
+        private boolean upload() throws IOException {
+
+            UploadClient client = new UploadClient(mConfig);
+            RandomAccessFile file = new RandomAccessFile(mItem.mFile, "r");
+
+            try {
+                long length = mItem.mLength;
+                if (file.length() < length) {
+                    throw new FileNotFoundException(mItem.mFile + " is shorter than when queued");
+                }
+
+                long remote = client.queryOffset(mItem.mId);
+                long offset = Math.max(remote, 0);
+
+                // The server must know about empty files too
+                if (remote < 0 && length == 0) {
+                    offset = client.putRange(mItem.mId, file, 0, 0, 0);
+                }
+
+                setOffset(mItem, offset, 0);
+
+                while (offset < length) {
+
+                    if (!shouldContinue()) {
+                        return false;
+                    }
+
+                    int size = (int) Math.min(mConfig.getSliceBytes(), length - offset);
+                    long next = client.putRange(mItem.mId, file, offset, size, length);
+
+                    // A conflict behind the current offset is resolved by the next attempt
+                    if (next <= offset) {
+                        throw new IOException("Upload of " + mItem.mId + " stalled at " + next);
+                    }
+
+                    setOffset(mItem, next, size);
+                    offset = next;
+                }
+
+                if (offset > length) {
+                    throw new UploadClient.HttpStatusException(409, "Server holds " + offset + " bytes of " + mItem.mId);
+                }
+
+                return true;
+            }
+            finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Sends small files whole in a single request.
+     */
+    private class BatchTask implements Runnable {
+
+        private final List<Item> mBatch;
+
+        BatchTask(List<Item> batch) {
+            this.mBatch = batch;
+        }
+
+        @Override
+        public void run() {
+
+            List<Item> sendable = new ArrayList<>();
+
+            for (Item item : mBatch) {
+                if (item.mFile.length() < item.mLength) {
+                    IOException error = new FileNotFoundException(item.mFile + " is missing or shorter than when queued");
+                    notifyListener(item, false, finish(item, false, error, true), error);
+                }
+                else {
+                    sendable.add(item);
+                }
+            }
+
+            IOException error = null;
+            boolean done = false;
+
+            if (!sendable.isEmpty() && shouldContinue()) {
+                try {
+                    new UploadClient(mConfig).postBatch(sendable);
+                    done = true;
+                }
+                catch (IOException ex) {
+                    error = ex;
+                }
+            }
+
+            if (done) {
+                long bytes = 0;
+                for (Item item : sendable) {
+                    bytes += item.mLength;
+                }
+                synchronized (UploadQueue.this) {
+                    mBytesSent += bytes;
+                }
+            }
+
+            boolean[] dropped = new boolean[sendable.size()];
+            for (int i = 0; i < sendable.size(); i++) {
+                dropped[i] = finish(sendable.get(i), done, error, true);
+            }
+
+            if (done) {
+                Set<File> folders = new HashSet<>();
+                for (Item item : sendable) {
+                    folders.add(item.mFile.getAbsoluteFile().getParentFile());
+                }
+                for (File folder : folders) {
+                    markUploaded(folder);
+                }
+            }
+
+            // Before release(), so that the listener has run once awaitIdle returns
+            for (int i = 0; i < sendable.size(); i++) {
+                notifyListener(sendable.get(i), done, dropped[i], error);
+            }
+
+            release();
+        }
+    }
+
+    // Marks a completed session once its last queued file is uploaded, before awaitIdle returns
+    private void markUploaded(File folder) {
+
+        if (folder == null || isPending(folder)) {
+            return;
+        }
+
+        try {
+            Checkpoint checkpoint = Checkpoint.read(folder);
+            if (checkpoint == null || checkpoint.getState() == Checkpoint.State.OPEN) {
+                return;
+            }
+
+            FileOutputStream stream = new FileOutputStream(new File(folder, UPLOADED_FILE_NAME));
+            try {
+                stream.write(("uploaded," + System.currentTimeMillis() + "\n").getBytes("UTF-8"));
+                stream.getFD().sync();
+            }
+            finally {
+                stream.close();
+            }
+        }
+        catch (IOException ex) {
+            synchronized (this) {
+                mLastError = ex;
+            }
+        }
+    }
+
+    private static String idOf(File file) {
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        return (parent != null) ? parent.getName() + "/" + file.getName() : file.getName();
+    }
+
+    // Guarded by this
+    private void save() throws IOException {
+
+        File temp = new File(mStateFile.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+
+        try {
+            Writer writer = new OutputStreamWriter(stream, "UTF-8");
+            writer.write(HEADER + "\n");
+            for (Item item : mItems) {
+                writer.write(item.mLength + "," + item.mOffset + "," + item.mAttempts + ","
+                        + item.mFile.getAbsolutePath() + "\n");
+            }
+            writer.flush();
+            stream.getFD().sync();
+        }
+        finally {
+            stream.close();
+        }
+
+        if (!temp.renameTo(mStateFile)) {
+            throw new IOException("Upload queue could not be written.");
+        }
+    }
+
+    private void load() throws IOException {
+
+        if (!mStateFile.exists()) {
+            return;
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(mStateFile));
+
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.equals(HEADER)) {
+                throw new IOException("Unknown upload queue header: " + line);
+            }
+
+            while ((line = reader.readLine()) != null) {
+
+                // The path is last, it may contain commas
+                String[] parts = line.split(",", 4);
+                if (parts.length != 4) {
+                    throw new IOException("Corrupt upload queue line: " + line);
+                }
+
+                Item item = new Item(new File(parts[3]), Long.parseLong(parts[0]));
+                item.mOffset = Long.parseLong(parts[1]);
+                item.mAttempts = Integer.parseInt(parts[2]);
+                mItems.add(item);
+            }
+        }
+        catch (NumberFormatException ex) {
+            throw new IOException("Corrupt upload queue: " + ex.getMessage());
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+}
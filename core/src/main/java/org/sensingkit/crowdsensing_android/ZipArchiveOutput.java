@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2015. Queen Mary University of London
+ * Kleomenis Katevas, k.katevas@qmul.ac.uk
+ *
+ * This file is part of CrowdSensing software.
+ * For more information, please visit http://www.sensingkit.org
+ *
+ * CrowdSensing is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CrowdSensing is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CrowdSensing.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sensingkit.crowdsensing_android;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a zip archive by hand, so that stored entries can be copied with
+ * transferTo: their CRC-32 and size are known up front and written in the
+ * local header. Deflated entries are streamed and followed by a data
+ * descriptor. The central directory is kept in memory until the end.
+ * Limited to 4 GB and 65535 entries (no zip64); use TAR beyond that.
+ */
+public class ZipArchiveOutput extends ArchiveOutput {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "ZipArchiveOutput";
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int DESCRIPTOR_SIZE = 16;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+
+    private static final int VERSION = 20;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private final FileOutputStream mFileStream;
+    private final FileChannel mChannel;
+    private final CountingOutputStream mOutput;
+
+    // Deflated entries (null when storing)
+    private final Deflater mDeflater;
+
+    // Bytes copied with transferTo, past the counting stream
+    private long mTransferred;
+
+    private final ByteArrayOutputStream mCentralDirectory = new ByteArrayOutputStream();
+    private int mEntryCount;
+
+    /**
+     * @param deflate true to deflate the entries, false to store them
+     */
+    public ZipArchiveOutput(File file, boolean deflate) throws IOException {
+        this.mFileStream = new FileOutputStream(file);
+        this.mChannel = mFileStream.getChannel();
+        this.mOutput = new CountingOutputStream(new BufferedOutputStream(mFileStream, BUFFER_SIZE));
+        this.mDeflater = deflate ? new Deflater(Deflater.BEST_SPEED, true) : null;
+    }
+
+    @Override
+    public void putFile(String name, FileChannel source, long length, long lastModified, long crc32) throws IOException {
+
+        byte[] nameBytes = name.getBytes("UTF-8");
+        long offset = getPosition();
+        int time = dosTime(lastModified);
+
+        checkLimits(offset, length);
+
+        if (mDeflater == null) {
+
+            writeLocalHeader(nameBytes, METHOD_STORED, 0, time, crc32, length, length);
+
+            mOutput.flush();
+            transfer(source, length, mChannel);
+            mTransferred += length;
+
+            addCentralHeader(nameBytes, METHOD_STORED, 0, time, crc32, length, length, offset);
+        }
+        else {
+
+            writeLocalHeader(nameBytes, METHOD_DEFLATED, FLAG_DESCRIPTOR, time, 0, 0, 0);
+
+            long start = mOutput.mCount;
+            deflate(source, length);
+            long compressed = mOutput.mCount - start;
+
+            checkLimits(offset, compressed);
+            writeDescriptor(crc32, compressed, length);
+
+            addCentralHeader(nameBytes, METHOD_DEFLATED, FLAG_DESCRIPTOR, time, crc32, compressed, length, offset);
+        }
+    }
+
+    @Override
+    public void putBytes(String name, byte[] data, long lastModified, long crc32) throws IOException {
+
+        byte[] nameBytes = name.getBytes("UTF-8");
+        long offset = getPosition();
+        int time = dosTime(lastModified);
+
+        checkLimits(offset, data.length);
+
+        // Small enough to store in any mode
+        writeLocalHeader(nameBytes, METHOD_STORED, 0, time, crc32, data.length, data.length);
+        mOutput.write(data);
+
+        addCentralHeader(nameBytes, METHOD_STORED, 0, time, crc32, data.length, data.length, offset);
+    }
+
+    @Override
+    public void finish() throws IOException {
+
+        try {
+            long offset = getPosition();
+            int size = mCentralDirectory.size();
+            checkLimits(offset, size);
+
+            mCentralDirectory.writeTo(mOutput);
+
+            byte[] end = new byte[END_SIZE];
+            LittleEndian.putInt(end, 0, END_SIGNATURE);
+            LittleEndian.putShort(end, 8, mEntryCount);
+            LittleEndian.putShort(end, 10, mEntryCount);
+            LittleEndian.putInt(end, 12, size);
+            LittleEndian.putInt(end, 16, (int) offset);
+            mOutput.write(end);
+
+            mOutput.flush();
+            mFileStream.getFD().sync();
+        }
+        finally {
+            abort();
+        }
+    }
+
+    @Override
+    public void abort() {
+
+        if (mDeflater != null) {
+            mDeflater.end();
+        }
+
+        try {
+            mOutput.close();
+        }
+        catch (IOException ex) {
+            // Nothing left to save
+        }
+    }
+
+    private long getPosition() {
+        return mOutput.mCount + mTransferred;
+    }
+
+    private void deflate(FileChannel source, long length) throws IOException {
+
+        mDeflater.reset();
+
+        // Leaves the archive stream open
+        DeflaterOutputStream deflated = new DeflaterOutputStream(new FilterOutputStream(mOutput) {
+            @Override
+            public void write(byte[] buffer, int offset, int count) throws IOException {
+                out.write(buffer, offset, count);
+            }
+
+            @Override
+            public void close() {
+            }
+        }, mDeflater, BUFFER_SIZE);
+
+        copy(source, length, deflated);
+        deflated.finish();
+    }
+
+    private void writeLocalHeader(byte[] name, int method, int flags, int time, long crc32,
+                                  long compressedSize, long size) throws IOException {
+
+        byte[] header = new byte[LOCAL_HEADER_SIZE];
+        LittleEndian.putInt(header, 0, LOCAL_HEADER_SIGNATURE);
+        LittleEndian.putShort(header, 4, VERSION);
+        LittleEndian.putShort(header, 6, flags | FLAG_UTF8);
+        LittleEndian.putShort(header, 8, method);
+        LittleEndian.putInt(header, 10, time);
+        LittleEndian.putInt(header, 14, (int) crc32);
+        LittleEndian.putInt(header, 18, (int) compressedSize);
+        LittleEndian.putInt(header, 22, (int) size);
+        LittleEndian.putShort(header, 26, name.length);
+
+        mOutput.write(header);
+        mOutput.write(name);
+    }
+
+    private void writeDescriptor(long crc32, long compressedSize, long size) throws IOException {
+
+        byte[] descriptor = new byte[DESCRIPTOR_SIZE];
+        LittleEndian.putInt(descriptor, 0, DESCRIPTOR_SIGNATURE);
+        LittleEndian.putInt(descriptor, 4, (int) crc32);
+        LittleEndian.putInt(descriptor, 8, (int) compressedSize);
+        LittleEndian.putInt(descriptor, 12, (int) size);
+
+        mOutput.write(descriptor);
+    }
+
+    private void addCentralHeader(byte[] name, int method, int flags, int time, long crc32,
+                                  long compressedSize, long size, long offset) throws IOException {
+
+        if (mEntryCount == MAX_ENTRIES) {
+            throw new IOException("Too many entries for a zip archive, use TAR.");
+        }
+
+        byte[] header = new byte[CENTRAL_HEADER_SIZE];
+        LittleEndian.putInt(header, 0, CENTRAL_HEADER_SIGNATURE);
+        LittleEndian.putShort(header, 4, VERSION);
+        LittleEndian.putShort(header, 6, VERSION);
+        LittleEndian.putShort(header, 8, flags | FLAG_UTF8);
+        LittleEndian.putShort(header, 10, method);
+        LittleEndian.putInt(header, 12, time);
+        LittleEndian.putInt(header, 16, (int) crc32);
+        LittleEndian.putInt(header, 20, (int) compressedSize);
+        LittleEndian.putInt(header, 24, (int) size);
+        LittleEndian.putShort(header, 28, name.length);
+        LittleEndian.putInt(header, 42, (int) offset);
+
+        mCentralDirectory.write(header);
+        mCentralDirectory.write(name);
+        mEntryCount++;
+    }
+
+    private static void checkLimits(long offset, long size) throws IOException {
+        if (offset > MAX_SIZE || size > MAX_SIZE || offset + size > MAX_SIZE) {
+            throw new IOException("Session too large for a zip archive, use TAR.");
+        }
+    }
+
+    /**
+     * MS-DOS date and time of a wall-clock time, in local time.
+     */
+    static int dosTime(long timeMillis) {
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMillis);
+
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return ((year - 1980) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            out.write(buffer, offset, count);
+            mCount += count;
+        }
+    }
+
+}
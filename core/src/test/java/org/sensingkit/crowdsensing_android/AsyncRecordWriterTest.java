@@ -0,0 +1,73 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncRecordWriterTest {
+
+    private static class CountingSink implements RecordSink {
+
+        volatile long count;
+        volatile long lastTimestamp = -1;
+        volatile Thread thread;
+
+        @Override
+        public void writeRecord(long timestamp, float[] values) {
+            assertTrue(timestamp > lastTimestamp);
+            lastTimestamp = timestamp;
+            thread = Thread.currentThread();
+            count++;
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void drainDeliversEverySampleOnWriterThread() {
+
+        AsyncRecordWriter writer = new AsyncRecordWriter(1000, 16);
+        CountingSink first = new CountingSink();
+        CountingSink second = new CountingSink();
+        SampleRingBuffer firstBuffer = writer.addChannel(first, 3, 1024, OverflowPolicy.BLOCK);
+        SampleRingBuffer secondBuffer = writer.addChannel(second, 1, 1024, OverflowPolicy.BLOCK);
+
+        writer.start();
+
+        float[] values = new float[3];
+        for (int i = 0; i < 10000; i++) {
+            firstBuffer.offer(i, values);
+            if (i % 2 == 0) {
+                secondBuffer.offer(i, values);
+            }
+        }
+
+        writer.drain();
+
+        assertEquals(10000L, first.count);
+        assertEquals(5000L, second.count);
+        assertFalse(first.thread == Thread.currentThread());
+        assertEquals(0L, writer.getDroppedCount());
+
+        writer.close();
+        assertFalse(writer.isRunning());
+    }
+
+    @Test
+    public void closeWithoutStartDrainsOnCaller() {
+
+        AsyncRecordWriter writer = new AsyncRecordWriter(10);
+        CountingSink sink = new CountingSink();
+        SampleRingBuffer buffer = writer.addChannel(sink, 1, 8, OverflowPolicy.DROP_NEWEST);
+
+        for (int i = 0; i < 10; i++) {
+            buffer.offer(i, new float[1]);
+        }
+
+        writer.close();
+
+        assertEquals(8L, sink.count);
+        assertEquals(2L, writer.getDroppedCount());
+    }
+
+}
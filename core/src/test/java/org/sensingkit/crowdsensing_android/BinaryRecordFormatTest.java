@@ -0,0 +1,105 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryRecordFormatTest {
+
+    private static final int SAMPLES = 1000;
+
+    @Test
+    public void roundTripsEveryLayout() throws IOException {
+
+        for (RecordLayout layout : RecordLayout.values()) {
+            roundTrip(layout);
+        }
+    }
+
+    @Test
+    public void headerDescribesLayout() throws IOException {
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(RecordLayout.ROTATION);
+        BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(encoder.encodeHeader()));
+
+        assertEquals(RecordLayout.ROTATION, reader.getLayout());
+        assertEquals(BinaryRecordEncoder.SCHEMA_VERSION, reader.getSchemaVersion());
+        assertFalse(reader.readRecord());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCsvInput() throws IOException {
+        new BinaryRecordReader(new ByteArrayInputStream("1420070400000,0.1,0.2,0.3\n".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void ignoresTruncatedTrailingRecord() throws IOException {
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(RecordLayout.ACCELEROMETER);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(encoder.encodeHeader());
+
+        byte[] record = new byte[RecordLayout.ACCELEROMETER.getRecordSize()];
+        encoder.encode(42L, new float[]{1f, 2f, 3f}, record, 0);
+        out.write(record);
+        out.write(record, 0, record.length - 3);
+
+        BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(reader.readRecord());
+        assertEquals(42L, reader.getTimestamp());
+        assertFalse(reader.readRecord());
+    }
+
+    private void roundTrip(RecordLayout layout) throws IOException {
+
+        Random random = new Random(layout.getCode());
+        long[] timestamps = new long[SAMPLES];
+        float[][] values = new float[SAMPLES][layout.getFieldCount()];
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(layout);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(encoder.encodeHeader());
+
+        byte[] record = new byte[layout.getRecordSize()];
+        long timestamp = 1420070400000L;
+
+        for (int i = 0; i < SAMPLES; i++) {
+
+            timestamp += 1 + random.nextInt(20);
+            timestamps[i] = timestamp;
+
+            for (int f = 0; f < layout.getFieldCount(); f++) {
+                if (layout.getFieldType(f) == RecordLayout.FieldType.INT32) {
+                    values[i][f] = random.nextInt(32768);
+                }
+                else {
+                    values[i][f] = (random.nextFloat() - 0.5f) * 40f;
+                }
+            }
+
+            assertEquals(layout.getRecordSize(), encoder.encode(timestamp, values[i], record, 0));
+            out.write(record);
+        }
+
+        BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(layout, reader.getLayout());
+
+        for (int i = 0; i < SAMPLES; i++) {
+            assertTrue(reader.readRecord());
+            assertEquals(timestamps[i], reader.getTimestamp());
+            for (int f = 0; f < layout.getFieldCount(); f++) {
+                assertEquals(values[i][f], reader.getValues()[f], 0.0);
+            }
+        }
+
+        assertFalse(reader.readRecord());
+    }
+
+}
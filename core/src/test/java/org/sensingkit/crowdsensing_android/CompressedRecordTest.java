@@ -0,0 +1,94 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedRecordTest {
+
+    @Test
+    public void zigZagRoundTrips() {
+
+        long[] values = {0, 1, -1, 63, -64, 1420070400000L, Long.MAX_VALUE, Long.MIN_VALUE};
+        byte[] buffer = new byte[VarInt.MAX_SIZE];
+
+        for (long value : values) {
+            assertEquals(value, VarInt.unZigZag(VarInt.zigZag(value)));
+            assertTrue(VarInt.write(VarInt.zigZag(value), buffer, 0) <= VarInt.MAX_SIZE);
+        }
+
+        assertEquals(1, VarInt.write(VarInt.zigZag(-5), buffer, 0));
+    }
+
+    @Test
+    public void roundTripsAcrossBlocks() throws IOException {
+
+        int samples = 5000;
+        long[] timestamps = new long[samples];
+        float[][] values = new float[samples][];
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressedRecordWriter writer = new CompressedRecordWriter(RecordLayout.ROTATION, out, 256, Deflater.BEST_SPEED);
+
+        Random random = new Random(3);
+        long timestamp = 1420070400000L;
+        for (int i = 0; i < samples; i++) {
+
+            // Mostly increasing, with the occasional clock step backwards
+            timestamp += (i % 997 == 0) ? -250 : random.nextInt(10);
+            timestamps[i] = timestamp;
+            values[i] = new float[]{random.nextFloat(), -random.nextFloat(), 0.5f, 1f, Float.NaN};
+            writer.write(timestamp, values[i]);
+        }
+        writer.close();
+
+        assertEquals((samples + 255) / 256, writer.getBlockCount());
+
+        CompressedRecordReader reader = new CompressedRecordReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(RecordLayout.ROTATION, reader.getLayout());
+
+        for (int i = 0; i < samples; i++) {
+            assertTrue(reader.readRecord());
+            assertEquals(timestamps[i], reader.getTimestamp());
+            assertTrue(Arrays.equals(values[i], reader.getValues()));
+        }
+        assertFalse(reader.readRecord());
+        reader.close();
+    }
+
+    @Test
+    public void ignoresTruncatedLastBlock() throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressedRecordWriter writer = new CompressedRecordWriter(RecordLayout.AUDIO_LEVEL, out, 100, Deflater.BEST_SPEED);
+
+        for (int i = 0; i < 150; i++) {
+            writer.write(1000L + i, new float[]{i});
+        }
+        writer.close();
+
+        byte[] bytes = out.toByteArray();
+        CompressedRecordReader reader = new CompressedRecordReader(
+                new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 4)));
+
+        int count = 0;
+        while (reader.readRecord()) {
+            assertEquals(1000L + count, reader.getTimestamp());
+            assertEquals((float) count, reader.getValues()[0], 0.0);
+            count++;
+        }
+        reader.close();
+
+        assertEquals(100, count);
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compression ratio of the compressed format for a synthetic 200 Hz
+ * accelerometer stream, against the fixed-width binary records, at each
+ * level and block size. The CPU cost per block is measured by
+ * CompressionBenchmark in the benchmark module.
+ */
+public class CompressionRatioTest {
+
+    private static final int SAMPLES = 200000;
+
+    @Test
+    public void everyLevelBeatsBinaryRecords() throws IOException {
+
+        long[] timestamps = new long[SAMPLES];
+        float[][] values = new float[SAMPLES][3];
+        generate(timestamps, values);
+
+        long binaryBytes = (long) SAMPLES * RecordLayout.ACCELEROMETER.getRecordSize();
+
+        for (int level : new int[]{Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION}) {
+
+            long previousBytes = Long.MAX_VALUE;
+
+            for (int blockRecords : new int[]{256, 1024, 4096}) {
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream(SAMPLES * 8);
+                CompressedRecordWriter writer = new CompressedRecordWriter(RecordLayout.ACCELEROMETER, out, blockRecords, level);
+                for (int i = 0; i < SAMPLES; i++) {
+                    writer.write(timestamps[i], values[i]);
+                }
+                writer.close();
+
+                String name = "level " + level + ", " + blockRecords + "/block";
+                assertTrue(name, writer.getCompressedBytes() * 2 < binaryBytes);
+
+                // Larger blocks never compress worse
+                assertTrue(name, writer.getCompressedBytes() <= previousBytes);
+                previousBytes = writer.getCompressedBytes();
+            }
+        }
+    }
+
+    private static void generate(long[] timestamps, float[][] values) {
+
+        Random random = new Random(1);
+        long timestamp = 1420070400000L;
+
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamp += 4 + random.nextInt(2);
+            timestamps[i] = timestamp;
+
+            // Slowly varying signal quantised like a real 16-bit accelerometer
+            values[i][0] = Math.round((float) Math.sin(i / 200.0) * 2048) / 2048f;
+            values[i][1] = Math.round((float) Math.cos(i / 300.0) * 2048) / 2048f;
+            values[i][2] = Math.round((9.81f + random.nextFloat() * 0.05f) * 2048) / 2048f;
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CsvRecordEncoderTest {
+
+    @Test
+    public void matchesStringFormatForSensorValues() throws Exception {
+
+        CsvRecordEncoder encoder = new CsvRecordEncoder(RecordLayout.ACCELEROMETER);
+        byte[] record = new byte[encoder.getMaxRecordSize()];
+        float[] values = new float[3];
+        Random random = new Random(7);
+
+        for (int i = 0; i < 100000; i++) {
+
+            long timestamp = 1420070400000L + i;
+            values[0] = (random.nextFloat() - 0.5f) * 40f;
+            values[1] = (random.nextFloat() - 0.5f) * 0.002f;
+            values[2] = random.nextFloat() * 1000f;
+
+            String expected = String.format(Locale.US, "%d,%f,%f,%f", timestamp, values[0], values[1], values[2]) + "\n";
+            int length = encoder.encode(timestamp, values, record, 0);
+
+            assertEquals(expected, new String(record, 0, length, "US-ASCII"));
+        }
+    }
+
+    @Test
+    public void writesIntegerFieldsWithoutFraction() throws Exception {
+
+        CsvRecordEncoder encoder = new CsvRecordEncoder(RecordLayout.AUDIO_LEVEL);
+        byte[] record = new byte[encoder.getMaxRecordSize()];
+
+        int length = encoder.encode(1420070400000L, new float[]{1234f}, record, 0);
+
+        assertEquals("1420070400000,1234\n", new String(record, 0, length, "US-ASCII"));
+    }
+
+    @Test
+    public void handlesSpecialValues() throws Exception {
+
+        float[] specials = {0f, -0f, -0.0000001f, Float.NaN, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.MAX_VALUE, -Float.MAX_VALUE, 1e12f};
+        byte[] buffer = new byte[64];
+
+        for (float value : specials) {
+            int length = CsvRecordEncoder.writeFloat(value, buffer, 0);
+            assertEquals(String.format(Locale.US, "%f", value), new String(buffer, 0, length, "US-ASCII"));
+        }
+
+        long[] longs = {0L, -1L, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : longs) {
+            int length = CsvRecordEncoder.writeLong(value, buffer, 0);
+            assertEquals(Long.toString(value), new String(buffer, 0, length, "US-ASCII"));
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecimatorTest {
+
+    private static final double INPUT_RATE = 200;
+    private static final int FACTOR = 4;
+    private static final long DURATION_MILLIS = 10000;
+
+    // Outputs closer than half a filter window to the ends see the repeated first or last sample
+    private static final long EDGE_MILLIS = (Decimator.TAPS_PER_FACTOR * FACTOR / 2) * 5L;
+
+    @Test
+    public void designHasUnityGainAndStopsAliases() {
+
+        double[] coefficients = new Decimator(1, FACTOR).getCoefficients();
+
+        assertEquals(1.0, Decimator.gainAt(coefficients, 0), 1e-9);
+        assertEquals(1.0, Decimator.gainAt(coefficients, 5 / INPUT_RATE), 0.01);
+
+        // Everything that would fold back below 25 Hz at 50 Hz output
+        for (double hz = 30; hz <= 100; hz += 0.5) {
+            assertTrue(hz + " Hz", Decimator.gainAt(coefficients, hz / INPUT_RATE) < 0.01);
+        }
+    }
+
+    @Test
+    public void passesLowFrequencySine() {
+
+        List<float[]> output = run(5, 2.0f);
+
+        // The amplitude survives and the timestamps line up with the input phase
+        for (float[] sample : interior(output)) {
+            double expected = 2.0 * Math.sin(2 * Math.PI * 5 * sample[0] / 1000.0);
+            assertEquals(expected, sample[1], 0.02);
+        }
+    }
+
+    @Test
+    public void removesAliasingSine() {
+
+        // 60 Hz would show up as 10 Hz after naive decimation to 50 Hz
+        List<float[]> output = run(60, 1.0f);
+
+        for (float[] sample : interior(output)) {
+            assertTrue(String.valueOf(sample[1]), Math.abs(sample[1]) < 0.005);
+        }
+    }
+
+    @Test
+    public void keepsEveryFactorthSampleFromFirstToLast() {
+
+        Decimator decimator = new Decimator(3, FACTOR);
+        final List<Long> timestamps = new ArrayList<>();
+        float[] values = {1f, 2f, 3f};
+
+        RecordSink sink = new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+                timestamps.add(timestamp);
+                assertEquals(1f, values[0], 1e-5);
+                assertEquals(2f, values[1], 1e-5);
+                assertEquals(3f, values[2], 1e-5);
+            }
+        };
+
+        for (int i = 0; i < 1000; i++) {
+            if (decimator.process(i, values)) {
+                sink.writeRecord(decimator.getOutputTimestamp(), decimator.getOutput());
+            }
+        }
+
+        // The last half window only comes out on flush
+        int processed = timestamps.size();
+        int flushed = decimator.flush(sink);
+        assertTrue(flushed > 0);
+        assertEquals(processed + flushed, timestamps.size());
+
+        assertEquals(1000 / FACTOR, timestamps.size());
+        for (int i = 0; i < timestamps.size(); i++) {
+            assertEquals((long) i * FACTOR, (long) timestamps.get(i));
+        }
+
+        // Nothing left, the next sample starts a new stream
+        assertEquals(0, decimator.flush(sink));
+        long timestamp = 5000;
+        while (!decimator.process(timestamp, values)) {
+            timestamp++;
+        }
+        assertEquals(5000, decimator.getOutputTimestamp());
+    }
+
+    @Test
+    public void factorKeepsTheOutputAtOrAboveTheTarget() {
+
+        // 100 Hz to 40 Hz: a factor of 2 gives 50 Hz, 3 would give 33 Hz
+        Resampler resampler = new Resampler(1, 40, new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+            }
+        });
+
+        for (int i = 0; i < 1000; i++) {
+            resampler.writeRecord(i * 10L, new float[]{i});
+        }
+        resampler.flush(new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+            }
+        });
+
+        assertEquals(2, resampler.getFactor());
+        assertEquals(500, resampler.getOutputCount());
+    }
+
+    @Test
+    public void slowStreamPassesThrough() {
+
+        final List<Long> timestamps = new ArrayList<>();
+        Resampler resampler = new Resampler(1, 50, new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+                timestamps.add(timestamp);
+            }
+        });
+
+        // 20 Hz
+        for (int i = 0; i < 100; i++) {
+            resampler.writeRecord(i * 50L, new float[]{i});
+        }
+
+        assertEquals(1, resampler.getFactor());
+        assertEquals(100, timestamps.size());
+    }
+
+    /**
+     * Feeds ten seconds of a sine at 200 Hz through a 50 Hz Resampler, to the end of the stream.
+     *
+     * @return the output samples as {timestamp, value}
+     */
+    private static List<float[]> run(double frequency, float amplitude) {
+
+        final List<float[]> output = new ArrayList<>();
+        RecordSink sink = new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+                output.add(new float[]{timestamp, values[0]});
+            }
+        };
+        Resampler resampler = new Resampler(1, INPUT_RATE / FACTOR, sink);
+
+        float[] value = new float[1];
+        for (int i = 0; i < DURATION_MILLIS / 5; i++) {
+            long timestamp = i * 5L;
+            value[0] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * timestamp / 1000.0));
+            resampler.writeRecord(timestamp, value);
+        }
+        resampler.flush(sink);
+
+        assertEquals(FACTOR, resampler.getFactor());
+        assertEquals(DURATION_MILLIS / 5 / FACTOR, output.size());
+        return output;
+    }
+
+    private static List<float[]> interior(List<float[]> output) {
+
+        List<float[]> interior = new ArrayList<>();
+        for (float[] sample : output) {
+            if (sample[0] >= EDGE_MILLIS && sample[0] < DURATION_MILLIS - EDGE_MILLIS) {
+                interior.add(sample);
+            }
+        }
+        return interior;
+    }
+
+}
@@ -0,0 +1,246 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FusionMergerTest {
+
+    private static final float[] STILL = {1, 2, 3};
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void alignsStreamsOfDifferentRates() {
+
+        FusionMerger merger = new FusionMerger(new FusionConfig());
+        RecordSink accelerometer = merger.addChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+        RecordSink gyroscope = merger.addChannel("Gyroscope", RecordLayout.GYROSCOPE);
+        Frames frames = new Frames(2);
+        merger.setFrameSink(frames);
+
+        // 100 Hz and 50 Hz, 10 s, the gyroscope 5 ms behind
+        for (long t = 0; t < 10000; t += 10) {
+            accelerometer.writeRecord(t, STILL);
+            if (t % 20 == 0) {
+                gyroscope.writeRecord(t + 5, STILL);
+            }
+        }
+        merger.flush();
+
+        assertEquals(500, merger.getFrameCount());
+        assertEquals(500, frames.mTimestamps.size());
+        assertEquals(0L, (long) frames.mTimestamps.get(0));
+        assertEquals(9980L, (long) frames.mTimestamps.get(499));
+        assertEquals(0, merger.getMissingCount(0));
+        assertEquals(0, merger.getMissingCount(1));
+        assertEquals(0, merger.getLateCount(0) + merger.getLateCount(1));
+        assertEquals(500, frames.mPresentCount[0]);
+        assertEquals(500, frames.mPresentCount[1]);
+    }
+
+    @Test
+    public void interpolatesLinearly() {
+
+        FusionMerger merger = new FusionMerger(new FusionConfig());
+        RecordSink accelerometer = merger.addChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+        RecordSink gyroscope = merger.addChannel("Gyroscope", RecordLayout.GYROSCOPE);
+        Frames frames = new Frames(2);
+        merger.setFrameSink(frames);
+
+        // The gyroscope is a ramp of its timestamp, never sampled on a frame
+        for (long t = 0; t < 2000; t += 10) {
+            accelerometer.writeRecord(t, STILL);
+            if (t % 20 == 0) {
+                gyroscope.writeRecord(t + 5, new float[]{t + 5, -(t + 5), 0});
+            }
+        }
+        merger.flush();
+
+        // Every frame but the first lies between two gyroscope samples
+        for (int i = 1; i < frames.mTimestamps.size(); i++) {
+            float[] values = frames.mValues.get(i);
+            long timestamp = frames.mTimestamps.get(i);
+            assertEquals(timestamp, values[3], 1e-3);
+            assertEquals(-timestamp, values[4], 1e-3);
+        }
+        assertEquals(frames.mTimestamps.size() - 1, merger.getInterpolatedCount(1));
+    }
+
+    @Test
+    public void nearestTakesClosestSample() {
+
+        FusionMerger merger = new FusionMerger(new FusionConfig()
+                .setInterpolation(FusionConfig.Interpolation.NEAREST));
+        RecordSink accelerometer = merger.addChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+        Frames frames = new Frames(1);
+        merger.setFrameSink(frames);
+
+        // 30 ms apart: frame 20 is closer to 13, frame 40 to 43
+        accelerometer.writeRecord(13, new float[]{13, 0, 0});
+        accelerometer.writeRecord(43, new float[]{43, 0, 0});
+        merger.flush();
+
+        assertEquals(2, frames.mTimestamps.size());
+        assertEquals(13, frames.mValues.get(0)[0], 0);
+        assertEquals(43, frames.mValues.get(1)[0], 0);
+        assertEquals(0, merger.getInterpolatedCount(0));
+    }
+
+    @Test
+    public void gapIsWrittenAsEmptyFields() throws Exception {
+
+        FusionMerger merger = new FusionMerger(new FusionConfig());
+        RecordSink accelerometer = merger.addChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+        RecordSink gyroscope = merger.addChannel("Gyroscope", RecordLayout.GYROSCOPE);
+        FusionWriter writer = new FusionWriter(mFolder, merger);
+        merger.setFrameSink(writer);
+
+        // No gyroscope samples from 2000 to 2500
+        for (long t = 0; t < 5000; t += 10) {
+            accelerometer.writeRecord(t, STILL);
+            if (t % 20 == 0 && (t < 2000 || t >= 2500)) {
+                gyroscope.writeRecord(t + 5, STILL);
+            }
+        }
+        merger.flush();
+        writer.close();
+
+        // Frames 2020 to 2480 have no gyroscope sample within 20 ms
+        assertEquals(24, merger.getMissingCount(1));
+        assertEquals(0, merger.getMissingCount(0));
+        assertEquals(250, writer.getFrameCount());
+
+        List<String> lines = readLines(new File(mFolder, FusionWriter.FILE_NAME));
+        assertEquals("timestamp,Accelerometer.x,Accelerometer.y,Accelerometer.z,Gyroscope.x,Gyroscope.y,Gyroscope.z",
+                lines.get(0));
+        assertEquals(251, lines.size());
+        assertTrue(lines.contains("2000,1.000000,2.000000,3.000000,1.000000,2.000000,3.000000"));
+        assertTrue(lines.contains("2020,1.000000,2.000000,3.000000,,,"));
+        assertTrue(lines.contains("2480,1.000000,2.000000,3.000000,,,"));
+        assertTrue(lines.contains("2500,1.000000,2.000000,3.000000,1.000000,2.000000,3.000000"));
+    }
+
+    @Test
+    public void stalledChannelDoesNotHoldBackFrames() {
+
+        FusionMerger merger = new FusionMerger(new FusionConfig());
+        RecordSink accelerometer = merger.addChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+        RecordSink gyroscope = merger.addChannel("Gyroscope", RecordLayout.GYROSCOPE);
+        merger.addChannel("Magnetometer", RecordLayout.MAGNETOMETER);
+
+        // The gyroscope stops after 1 s, the magnetometer never starts
+        for (long t = 0; t < 60000; t += 10) {
+            accelerometer.writeRecord(t, STILL);
+            if (t < 1000 && t % 20 == 0) {
+                gyroscope.writeRecord(t + 5, STILL);
+            }
+        }
+
+        // Frames 0 to 59960 are written without flushing, up to the accelerometer
+        assertEquals(2999, merger.getFrameCount());
+        assertEquals(merger.getFrameCount(), merger.getMissingCount(2));
+        assertTrue(merger.getBufferedCount(0) <= 3);
+        assertEquals(0, merger.getForcedFrameCount());
+
+        // A sample for frames that are written already
+        gyroscope.writeRecord(30005, STILL);
+        assertEquals(1, merger.getLateCount(1));
+    }
+
+    @Test
+    public void fullBufferForcesFrames() {
+
+        FusionMerger merger = new FusionMerger(new FusionConfig()
+                .setMaxLagMillis(Long.MAX_VALUE / 2)
+                .setBufferCapacity(64));
+        RecordSink accelerometer = merger.addChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+        RecordSink gyroscope = merger.addChannel("Gyroscope", RecordLayout.GYROSCOPE);
+        Frames frames = new Frames(2);
+        merger.setFrameSink(frames);
+
+        // The gyroscope is waited for forever, so only the buffer limit writes frames
+        gyroscope.writeRecord(5, STILL);
+        for (long t = 0; t < 100000; t += 10) {
+            accelerometer.writeRecord(t, STILL);
+            assertTrue(merger.getBufferedCount(0) <= 64);
+        }
+
+        assertTrue(merger.getForcedFrameCount() > 4900);
+        assertEquals(merger.getFrameCount(), frames.mTimestamps.size());
+        assertEquals(1, frames.mPresentCount[1]);
+    }
+
+    @Test
+    public void outOfOrderSampleIsLate() {
+
+        FusionMerger merger = new FusionMerger(new FusionConfig());
+        RecordSink accelerometer = merger.addChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+
+        accelerometer.writeRecord(100, STILL);
+        accelerometer.writeRecord(90, STILL);
+        accelerometer.writeRecord(110, STILL);
+        merger.flush();
+
+        assertEquals(3, merger.getSampleCount(0));
+        assertEquals(1, merger.getLateCount(0));
+    }
+
+    private static List<String> readLines(File file) throws Exception {
+
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static class Frames implements FusionMerger.FrameSink {
+
+        final List<Long> mTimestamps = new ArrayList<>();
+        final List<float[]> mValues = new ArrayList<>();
+        final int[] mPresentCount;
+
+        Frames(int channelCount) {
+            mPresentCount = new int[channelCount];
+        }
+
+        @Override
+        public void writeFrame(long timestamp, float[] values, boolean[] present) {
+            mTimestamps.add(timestamp);
+            mValues.add(values.clone());
+            for (int i = 0; i < present.length; i++) {
+                if (present[i]) {
+                    mPresentCount[i]++;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,381 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocationBatcherTest {
+
+    private static final long START = 1420070400000L;
+
+    // Around Queen Mary University of London
+    private static final double LATITUDE = 51.5246;
+    private static final double LONGITUDE = -0.0403;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void batchesAreWrittenInOrderOnce() throws Exception {
+
+        FakeLocationProvider provider = new FakeLocationProvider();
+        Records records = new Records();
+        LocationConfig config = new LocationConfig().setMaxWaitMillis(60000);
+        LocationBatcher batcher = new LocationBatcher(provider, config, mFolder, records);
+
+        batcher.start();
+        assertTrue(provider.mConfig == config);
+
+        // A minute of fixes every 10 s, delivered out of order, then again after a flush
+        provider.deliver(fix(20000), fix(0), fix(10000), fix(40000), fix(30000), fix(50000));
+        provider.deliver(fix(50000), fix(60000));
+        provider.deliver(fix(30000));
+
+        assertEquals(3, batcher.getBatchCount());
+        assertEquals(6, batcher.getMaxBatchSize());
+        assertEquals(7, batcher.getWrittenCount());
+        assertEquals(2, batcher.getStaleCount());
+
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i <= 6; i++) {
+            expected.add(START + i * 10000L);
+        }
+        assertEquals(expected, records.mTimestamps);
+    }
+
+    @Test
+    public void coordinatesAreOffsetsFromTheOrigin() throws Exception {
+
+        FakeLocationProvider provider = new FakeLocationProvider();
+        Records records = new Records();
+        LocationBatcher batcher = new LocationBatcher(provider, new LocationConfig(), mFolder, records);
+
+        batcher.start();
+        assertNull(batcher.getOrigin());
+
+        provider.deliver(
+                new LocationFix(START, LATITUDE, LONGITUDE, 12.5f, 31f, 1.4f),
+                new LocationFix(START + 10000, LATITUDE + 0.0001, LONGITUDE - 0.0002, 8f, Float.NaN, Float.NaN));
+
+        LocationOrigin origin = LocationOrigin.read(mFolder);
+        assertNotNull(origin);
+        assertEquals(51.5, origin.getLatitude(), 0);
+        assertEquals(0.0, origin.getLongitude(), 0);
+        assertEquals(origin.getLatitude(), batcher.getOrigin().getLatitude(), 0);
+
+        float[] first = records.mValues.get(0);
+        assertEquals(24600, first[0], 0);
+        assertEquals(-40300, first[1], 0);
+        assertEquals(12.5f, first[2], 0);
+        assertEquals(31f, first[3], 0);
+        assertEquals(1.4f, first[4], 0);
+
+        float[] second = records.mValues.get(1);
+        assertEquals(LATITUDE + 0.0001, origin.decodeLatitude(second[0]), 1e-6);
+        assertEquals(LONGITUDE - 0.0002, origin.decodeLongitude(second[1]), 1e-6);
+        assertTrue(Float.isNaN(second[3]) && Float.isNaN(second[4]));
+
+        // A later start in the same folder keeps the origin
+        LocationBatcher resumed = new LocationBatcher(new FakeLocationProvider(), new LocationConfig(), mFolder, records);
+        resumed.start();
+        assertEquals(origin.getLatitude(), resumed.getOrigin().getLatitude(), 0);
+    }
+
+    @Test
+    public void offsetsTakeTheShortWayAcrossTheAntimeridian() {
+
+        LocationOrigin origin = LocationOrigin.near(-17.7, 179.96);
+        assertEquals(-180.0, origin.getLongitude(), 0);
+
+        assertEquals(-40000, origin.encodeLongitude(179.96));
+        assertEquals(10000, origin.encodeLongitude(-179.99));
+        assertEquals(179.96, origin.decodeLongitude(-40000), 1e-9);
+    }
+
+    @Test
+    public void gridSnapsFixesToCellCentres() throws Exception {
+
+        FakeLocationProvider provider = new FakeLocationProvider();
+        Records records = new Records();
+        LocationConfig config = new LocationConfig().setGridMeters(500);
+        LocationBatcher batcher = new LocationBatcher(provider, config, mFolder, records);
+        batcher.start();
+
+        // Within a few metres of each other, and 5 km away
+        provider.deliver(
+                new LocationFix(START, LATITUDE, LONGITUDE, 5f, Float.NaN, Float.NaN),
+                new LocationFix(START + 1000, LATITUDE + 0.00002, LONGITUDE + 0.00002, 5f, Float.NaN, Float.NaN),
+                new LocationFix(START + 2000, LATITUDE + 0.045, LONGITUDE, 5f, Float.NaN, Float.NaN));
+
+        LocationQuantizer quantizer = new LocationQuantizer(config);
+        double error = quantizer.getErrorMeters(LATITUDE);
+        assertTrue(error > 250 && error < 400);
+
+        LocationOrigin origin = batcher.getOrigin();
+        float[] first = records.mValues.get(0);
+        float[] second = records.mValues.get(1);
+        float[] third = records.mValues.get(2);
+
+        assertEquals(first[0], second[0], 0);
+        assertEquals(first[1], second[1], 0);
+        assertEquals(error, first[2], 1);
+        assertEquals(4500, metres(origin.decodeLatitude(third[0]) - origin.decodeLatitude(first[0])), 500);
+
+        // No further from the fix than half the diagonal of its cell
+        double dLatitude = metres(origin.decodeLatitude(first[0]) - LATITUDE);
+        double dLongitude = metres(origin.decodeLongitude(first[1]) - LONGITUDE) * Math.cos(Math.toRadians(LATITUDE));
+        assertTrue(Math.sqrt(dLatitude * dLatitude + dLongitude * dLongitude) <= error);
+    }
+
+    @Test
+    public void geohashSnapsFixesToTheirCell() {
+
+        // The example geohash u4pruydqqvj, decoded to 5 characters
+        double[] cell = decodeGeohash("u4pru");
+
+        LocationQuantizer quantizer = new LocationQuantizer(new LocationConfig().setGeohashPrecision(5));
+        double latitude = quantizer.quantizeLatitude(57.64911);
+        double longitude = quantizer.quantizeLongitude(latitude, 10.40744);
+
+        assertEquals((cell[0] + cell[1]) / 2, latitude, 1e-12);
+        assertEquals((cell[2] + cell[3]) / 2, longitude, 1e-12);
+
+        // The poles and the antimeridian stay inside the last cells
+        assertTrue(quantizer.quantizeLatitude(90) < 90);
+        assertTrue(quantizer.quantizeLongitude(0, 180) < 180);
+    }
+
+    @Test
+    public void inaccurateFixesAreDropped() throws Exception {
+
+        FakeLocationProvider provider = new FakeLocationProvider();
+        Records records = new Records();
+        LocationBatcher batcher = new LocationBatcher(provider, new LocationConfig().setMaxAccuracyMeters(50), mFolder, records);
+        batcher.start();
+
+        provider.deliver(
+                new LocationFix(START, LATITUDE, LONGITUDE, 20f, Float.NaN, Float.NaN),
+                new LocationFix(START + 1000, LATITUDE, LONGITUDE, 1500f, Float.NaN, Float.NaN),
+                new LocationFix(START + 2000, LATITUDE, LONGITUDE));
+
+        assertEquals(1, batcher.getWrittenCount());
+        assertEquals(2, batcher.getInaccurateCount());
+    }
+
+    @Test
+    public void stopDeliversHeldBackFixes() throws Exception {
+
+        FakeLocationProvider provider = new FakeLocationProvider();
+        Records records = new Records();
+        LocationBatcher batcher = new LocationBatcher(provider, new LocationConfig(), mFolder, records);
+        batcher.start();
+
+        provider.deliver(fix(0), fix(10000));
+        provider.hold(fix(20000), fix(30000));
+        assertEquals(2, records.mTimestamps.size());
+
+        batcher.stop();
+
+        assertEquals(4, records.mTimestamps.size());
+        assertNull(provider.mCallback);
+
+        // Nothing is requested twice, and stopping again does nothing
+        batcher.stop();
+        batcher.start();
+        assertEquals(2, provider.mRequestCount);
+    }
+
+    /**
+     * Through a RecordFileWriter, as a ModelWriter writes the records: the
+     * offsets are whole numbers in the CSV file, and read back exactly.
+     */
+    @Test
+    public void recordsRoundTripThroughTheFile() throws Exception {
+
+        // A walk of about 3 km
+        LocationFix[] fixes = new LocationFix[300];
+        for (int i = 0; i < fixes.length; i++) {
+            fixes[i] = new LocationFix(START + i * 10000L, LATITUDE + i * 0.0001, LONGITUDE - i * 0.00007, 10f, 20f + i, 1.2f);
+        }
+
+        List<double[]> coordinates = roundTrip(RecordFormat.CSV, fixes);
+
+        assertEquals(fixes.length, coordinates.size());
+        for (int i = 0; i < fixes.length; i++) {
+            assertEquals(fixes[i].getLatitude(), coordinates.get(i)[0], 0.6e-6);
+            assertEquals(fixes[i].getLongitude(), coordinates.get(i)[1], 0.6e-6);
+        }
+    }
+
+    /**
+     * The offsets pass through the float fields of a sample: exact to the
+     * microdegree near the origin, within 16 microdegrees (under 2 m) a
+     * hemisphere away.
+     */
+    @Test
+    public void coordinatesKeepTheirPrecisionInBinaryRecords() throws Exception {
+
+        LocationFix[] fixes = {
+                new LocationFix(START, 51.5, -0.1),
+                new LocationFix(START + 1000, 51.512345, -0.123456),
+                new LocationFix(START + 2000, 51.5 + 16.5, -0.1 - 16.5),
+                new LocationFix(START + 3000, -38.5, 120.9)
+        };
+
+        List<double[]> coordinates = roundTrip(RecordFormat.BINARY, fixes);
+        assertEquals(fixes.length, coordinates.size());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(fixes[i].getLatitude(), coordinates.get(i)[0], 0.6e-6);
+            assertEquals(fixes[i].getLongitude(), coordinates.get(i)[1], 0.6e-6);
+        }
+
+        assertEquals(fixes[3].getLatitude(), coordinates.get(3)[0], 16e-6);
+        assertEquals(fixes[3].getLongitude(), coordinates.get(3)[1], 16e-6);
+    }
+
+    /**
+     * Records the fixes in a file of the given format and reads them back.
+     *
+     * @return the decoded latitude and longitude of every record
+     */
+    private List<double[]> roundTrip(RecordFormat format, LocationFix... fixes) throws Exception {
+
+        final RecordFileWriter writer = new RecordFileWriter(mFolder, "Location", format, RecordLayout.LOCATION);
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationBatcher batcher = new LocationBatcher(provider, new LocationConfig(), mFolder, new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+                try {
+                    writer.write(timestamp, values);
+                }
+                catch (Exception ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        });
+        batcher.start();
+        provider.deliver(fixes);
+        batcher.stop();
+        writer.close();
+
+        LocationOrigin origin = LocationOrigin.read(mFolder);
+        File file = new File(mFolder, "Location." + format.getFileExtension());
+        RecordReader reader = RecordReaders.open(file, RecordLayout.LOCATION);
+        List<double[]> coordinates = new ArrayList<>();
+
+        try {
+            while (reader.readRecord()) {
+                LocationFix fix = fixes[coordinates.size()];
+                float[] values = reader.getValues();
+                assertEquals(fix.getTimestamp(), reader.getTimestamp());
+                assertEquals(fix.getAltitude(), values[3], 0);
+                coordinates.add(new double[]{origin.decodeLatitude(values[0]), origin.decodeLongitude(values[1])});
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        return coordinates;
+    }
+
+    private static LocationFix fix(long offsetMillis) {
+        return new LocationFix(START + offsetMillis, LATITUDE, LONGITUDE, 10f, Float.NaN, Float.NaN);
+    }
+
+    private static double metres(double degrees) {
+        return degrees * 111320;
+    }
+
+    // Bounds of a geohash: min and max latitude, then min and max longitude
+    private static double[] decodeGeohash(String geohash) {
+
+        String base32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+        double[] bounds = {-90, 90, -180, 180};
+        boolean longitude = true;
+
+        for (char c : geohash.toCharArray()) {
+            int value = base32.indexOf(c);
+            for (int bit = 4; bit >= 0; bit--) {
+                int index = longitude ? 2 : 0;
+                double middle = (bounds[index] + bounds[index + 1]) / 2;
+                if (((value >> bit) & 1) == 1) {
+                    bounds[index] = middle;
+                }
+                else {
+                    bounds[index + 1] = middle;
+                }
+                longitude = !longitude;
+            }
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Delivers fixes when told to, holding some back until the updates are removed.
+     */
+    private static class FakeLocationProvider implements LocationProvider {
+
+        LocationConfig mConfig;
+        Callback mCallback;
+        int mRequestCount;
+        private final List<LocationFix> mHeld = new ArrayList<>();
+
+        @Override
+        public void requestUpdates(LocationConfig config, Callback callback) {
+            mConfig = config;
+            mCallback = callback;
+            mRequestCount++;
+        }
+
+        @Override
+        public void removeUpdates() {
+            if (!mHeld.isEmpty()) {
+                mCallback.onLocations(new ArrayList<>(mHeld));
+                mHeld.clear();
+            }
+            mCallback = null;
+        }
+
+        void deliver(LocationFix... fixes) {
+            mCallback.onLocations(Arrays.asList(fixes));
+        }
+
+        void hold(LocationFix... fixes) {
+            mHeld.addAll(Arrays.asList(fixes));
+        }
+    }
+
+    private static class Records implements RecordSink {
+
+        final List<Long> mTimestamps = new ArrayList<>();
+        final List<float[]> mValues = new ArrayList<>();
+
+        @Override
+        public void writeRecord(long timestamp, float[] values) {
+            mTimestamps.add(timestamp);
+            mValues.add(values.clone());
+        }
+    }
+
+}
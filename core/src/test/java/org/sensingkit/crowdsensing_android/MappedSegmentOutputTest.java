@@ -0,0 +1,86 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MappedSegmentOutputTest {
+
+    private static final long SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void truncatesLastSegmentOnClose() throws Exception {
+
+        SessionLogWriter writer = new SessionLogWriter(mFolder, SEGMENT_SIZE, new MappedSegmentOutput(SEGMENT_SIZE));
+        int records = 500;
+        write(writer, records);
+        writer.close();
+
+        File[] segments = SessionLogReader.listSegments(mFolder);
+        int recordSize = 1 + RecordLayout.ACCELEROMETER.getRecordSize();
+        int perSegment = (int) ((SEGMENT_SIZE - SessionLogWriter.SEGMENT_HEADER_SIZE) / recordSize);
+
+        assertEquals((records + perSegment - 1) / perSegment, segments.length);
+        for (int i = 0; i < segments.length - 1; i++) {
+            assertEquals(SessionLogWriter.SEGMENT_HEADER_SIZE + perSegment * recordSize, segments[i].length());
+        }
+
+        File last = segments[segments.length - 1];
+        assertEquals(SessionLogWriter.SEGMENT_HEADER_SIZE + (records % perSegment) * recordSize, last.length());
+
+        assertEquals(records, read());
+    }
+
+    @Test
+    public void readsSegmentLeftPreallocatedByCrash() throws Exception {
+
+        SessionLogWriter writer = new SessionLogWriter(mFolder, SEGMENT_SIZE, new MappedSegmentOutput(SEGMENT_SIZE));
+        write(writer, 10);
+        writer.flush();
+
+        // No close(): the segment is still at its pre-allocated size
+        File segment = SessionLogReader.listSegments(mFolder)[0];
+        assertEquals(SEGMENT_SIZE, segment.length());
+        assertEquals(10, read());
+
+        writer.close();
+    }
+
+    private int read() throws Exception {
+
+        SessionLogReader reader = new SessionLogReader(mFolder);
+        int count = 0;
+        while (reader.readRecord()) {
+            assertEquals(count, reader.getTimestamp());
+            count++;
+        }
+        reader.close();
+        assertFalse(reader.readRecord());
+        return count;
+    }
+
+    private static void write(SessionLogWriter writer, int count) throws Exception {
+
+        float[] values = {1f, 2f, 3f};
+        for (int i = 0; i < count; i++) {
+            writer.append(RecordLayout.ACCELEROMETER, i, values);
+        }
+    }
+
+}
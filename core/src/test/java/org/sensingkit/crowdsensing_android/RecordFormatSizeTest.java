@@ -0,0 +1,66 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares bytes written by the CSV and binary paths for synthetic
+ * accelerometer samples. The CSV line mirrors the format produced by
+ * SKAccelerometerData.getDataInCSV(). Encode times are measured by
+ * EncodeBenchmark in the benchmark module.
+ */
+public class RecordFormatSizeTest {
+
+    private static final int SAMPLES = 200000;
+
+    @Test
+    public void binaryIsSmallerThanCsv() throws IOException {
+
+        long[] timestamps = new long[SAMPLES];
+        float[][] values = new float[SAMPLES][3];
+        generate(timestamps, values);
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream(SAMPLES * 48);
+        for (int i = 0; i < SAMPLES; i++) {
+            String dataLine = String.format(Locale.US, "%d,%f,%f,%f",
+                    timestamps[i], values[i][0], values[i][1], values[i][2]) + "\n";
+            csv.write(dataLine.getBytes());
+        }
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream(SAMPLES * 24);
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(RecordLayout.ACCELEROMETER);
+        byte[] record = new byte[RecordLayout.ACCELEROMETER.getRecordSize()];
+        binary.write(encoder.encodeHeader());
+        for (int i = 0; i < SAMPLES; i++) {
+            int length = encoder.encode(timestamps[i], values[i], record, 0);
+            binary.write(record, 0, length);
+        }
+
+        // 8 bytes of timestamp and 3 floats per record, against ~40 characters
+        assertEquals(encoder.encodeHeader().length + (long) SAMPLES * RecordLayout.ACCELEROMETER.getRecordSize(),
+                binary.size());
+        assertTrue(binary.size() * 2 < csv.size());
+    }
+
+    private static void generate(long[] timestamps, float[][] values) {
+
+        Random random = new Random(1);
+        long timestamp = 1420070400000L;
+
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamp += 5;
+            timestamps[i] = timestamp;
+            values[i][0] = (float) Math.sin(i / 50.0) + random.nextFloat() * 0.1f;
+            values[i][1] = (float) Math.cos(i / 50.0) + random.nextFloat() * 0.1f;
+            values[i][2] = 9.81f + random.nextFloat() * 0.1f;
+        }
+    }
+
+}
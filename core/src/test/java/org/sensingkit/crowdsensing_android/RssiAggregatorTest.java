@@ -0,0 +1,191 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RssiAggregatorTest {
+
+    private static final byte[] SALT = "0123456789abcdef".getBytes();
+
+    private static final long START = 1420070400000L;
+
+    @Test
+    public void aggregatesEachDevicePerWindow() {
+
+        Rows rows = new Rows();
+        RssiAggregator aggregator = new RssiAggregator(new ProximityConfig().setWindowMillis(60000), SALT, rows);
+
+        aggregator.add(START + 1000, "00:11:22:33:44:55", -50);
+        aggregator.add(START + 2000, "66:77:88:99:AA:BB", -90);
+        aggregator.add(START + 3000, "00:11:22:33:44:55", -70);
+        aggregator.add(START + 59999, "00:11:22:33:44:55", -60);
+        assertEquals(0, rows.mRows.size());
+
+        // The next window closes the first one
+        aggregator.add(START + 60000, "00:11:22:33:44:55", -40);
+        assertEquals(2, rows.mRows.size());
+        assertEquals(2, aggregator.getRowCount());
+
+        long phone = aggregator.anonymise("00:11:22:33:44:55");
+        assertEquals(START + "," + phone + ",3,-60.0,-70,-50", rows.mRows.get(0));
+        assertEquals(START + "," + aggregator.anonymise("66:77:88:99:AA:BB") + ",1,-90.0,-90,-90", rows.mRows.get(1));
+
+        // Late sightings count in the current window
+        aggregator.add(START + 30000, "00:11:22:33:44:55", -60);
+        aggregator.flush();
+        assertEquals((START + 60000) + "," + phone + ",2,-50.0,-60,-40", rows.mRows.get(2));
+
+        aggregator.flush();
+        assertEquals(3, rows.mRows.size());
+        assertEquals(6, aggregator.getSightingCount());
+    }
+
+    @Test
+    public void idsAreAnonymisedPerSalt() {
+
+        RssiAggregator first = new RssiAggregator(new ProximityConfig(), SALT, new Rows());
+        RssiAggregator second = new RssiAggregator(new ProximityConfig(), SALT, new Rows());
+        RssiAggregator other = new RssiAggregator(new ProximityConfig(), new Rows());
+
+        String address = "00:11:22:33:44:55";
+        assertEquals(first.anonymise(address), second.anonymise(address));
+        assertEquals(first.anonymise(address), first.anonymise(address.toLowerCase(Locale.US)));
+        assertNotEquals(first.anonymise(address), first.anonymise("00:11:22:33:44:56"));
+        assertNotEquals(first.anonymise(address), other.anonymise(address));
+        assertNotEquals(RssiAggregator.OTHER_DEVICES, first.anonymise(address));
+    }
+
+    @Test
+    public void devicesBeyondTheLimitArePooled() {
+
+        Rows rows = new Rows();
+        RssiAggregator aggregator = new RssiAggregator(new ProximityConfig().setMaxDevices(4), SALT, rows);
+
+        for (int device = 1; device <= 10; device++) {
+            aggregator.add(START, device, -device);
+        }
+        assertEquals(4, aggregator.getDeviceCount());
+        aggregator.flush();
+
+        assertEquals(5, rows.mRows.size());
+        assertEquals(START + ",0,6,-7.5,-10,-5", rows.mRows.get(4));
+        assertEquals(6, aggregator.getPooledCount());
+
+        // The table is empty again for the next window
+        aggregator.add(START + ProximityConfig.DEFAULT_WINDOW_MILLIS, 10, -10);
+        aggregator.flush();
+        assertEquals(START + ProximityConfig.DEFAULT_WINDOW_MILLIS + ",10,1,-10.0,-10,-10", rows.mRows.get(5));
+    }
+
+    @Test
+    public void rowsAreEncodedAsCsv() {
+
+        byte[] row = new byte[RssiAggregator.MAX_ROW_SIZE];
+        int length = RssiAggregator.encodeRow(START, 0x0123456789abcdefL, 12, -67.25f, -80, -55, row, 0);
+        assertEquals(START + ",0123456789abcdef,12,-67.250000,-80,-55\n", new String(row, 0, length));
+
+        length = RssiAggregator.encodeRow(Long.MIN_VALUE, -1, Integer.MIN_VALUE, -Float.MAX_VALUE,
+                Integer.MIN_VALUE, Integer.MIN_VALUE, row, 0);
+        assertTrue(length <= RssiAggregator.MAX_ROW_SIZE);
+    }
+
+    /**
+     * A crowded venue: 5000 devices around, 50000 sightings a minute for 20
+     * minutes. The rows per window stay within the device limit, the counts
+     * add up, and no sighting allocates.
+     */
+    @Test
+    public void highDensityLoadStaysBounded() {
+
+        final int devices = 5000;
+        final int minutes = 20;
+        final int sightingsPerMinute = 50000;
+        final int maxDevices = 2048;
+
+        String[] addresses = new String[devices];
+        for (int i = 0; i < devices; i++) {
+            addresses[i] = String.format(Locale.US, "02:00:%02X:%02X:%02X:%02X", i >>> 24, (i >>> 16) & 0xFF, (i >>> 8) & 0xFF, i & 0xFF);
+        }
+
+        // Pre-drawn, so that the loop below only measures the aggregator
+        Random random = new Random(42);
+        int[] picks = new int[sightingsPerMinute];
+        int[] rssis = new int[sightingsPerMinute];
+        for (int i = 0; i < sightingsPerMinute; i++) {
+            // A few devices close by are seen far more often than the rest
+            picks[i] = (random.nextInt(4) == 0) ? random.nextInt(50) : random.nextInt(devices);
+            rssis[i] = -40 - random.nextInt(60);
+        }
+
+        final byte[] row = new byte[RssiAggregator.MAX_ROW_SIZE];
+        final long[] totals = new long[4];
+
+        RssiAggregator aggregator = new RssiAggregator(new ProximityConfig().setMaxDevices(maxDevices), SALT,
+                new RssiAggregator.Sink() {
+                    @Override
+                    public void writeDevice(long windowStart, long deviceId, int count, float meanRssi, int minRssi, int maxRssi) {
+                        totals[0]++;
+                        totals[1] += count;
+                        totals[2] += RssiAggregator.encodeRow(windowStart, deviceId, count, meanRssi, minRssi, maxRssi, row, 0);
+                        if (deviceId == RssiAggregator.OTHER_DEVICES) {
+                            totals[3]++;
+                        }
+                    }
+                });
+
+        // Warm-up minute
+        feed(aggregator, addresses, picks, rssis, START - 60000, sightingsPerMinute);
+
+        long before = allocatedBytes();
+
+        for (int minute = 0; minute < minutes; minute++) {
+            feed(aggregator, addresses, picks, rssis, START + minute * 60000L, sightingsPerMinute);
+        }
+        aggregator.flush();
+
+        long allocated = allocatedBytes() - before;
+        long sightings = (long) (minutes + 1) * sightingsPerMinute;
+
+        assertEquals(sightings, aggregator.getSightingCount());
+        assertEquals(sightings, totals[1]);
+        assertEquals(minutes + 1, totals[3]);
+        assertTrue(aggregator.getPooledCount() > 0);
+        assertTrue(totals[0] <= (long) (minutes + 1) * (maxDevices + 1));
+        assertTrue(totals[2] <= totals[0] * RssiAggregator.MAX_ROW_SIZE);
+
+        assertEquals("Bytes allocated per sighting", 0L, allocated / (minutes * sightingsPerMinute));
+    }
+
+    private static void feed(RssiAggregator aggregator, String[] addresses, int[] picks, int[] rssis,
+                             long minuteStart, int count) {
+
+        for (int i = 0; i < count; i++) {
+            aggregator.add(minuteStart + (60000L * i) / count, addresses[picks[i]], rssis[i]);
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class Rows implements RssiAggregator.Sink {
+
+        final List<String> mRows = new ArrayList<>();
+
+        @Override
+        public void writeDevice(long windowStart, long deviceId, int count, float meanRssi, int minRssi, int maxRssi) {
+            mRows.add(windowStart + "," + deviceId + "," + count + "," + meanRssi + "," + minRssi + "," + maxRssi);
+        }
+    }
+
+}
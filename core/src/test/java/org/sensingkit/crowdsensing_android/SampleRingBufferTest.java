@@ -0,0 +1,127 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleRingBufferTest {
+
+    private static class CollectingSink implements RecordSink {
+
+        final List<Long> timestamps = new ArrayList<>();
+        final List<Float> firstValues = new ArrayList<>();
+
+        @Override
+        public void writeRecord(long timestamp, float[] values) {
+            timestamps.add(timestamp);
+            firstValues.add(values[0]);
+        }
+    }
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(8, new SampleRingBuffer(5, 3, OverflowPolicy.DROP_NEWEST).getCapacity());
+    }
+
+    @Test
+    public void dropNewestKeepsFirstSamples() {
+
+        SampleRingBuffer buffer = new SampleRingBuffer(4, 1, OverflowPolicy.DROP_NEWEST);
+
+        for (int i = 0; i < 6; i++) {
+            boolean accepted = buffer.offer(i, new float[]{i});
+            assertEquals(i < 4, accepted);
+        }
+
+        CollectingSink sink = new CollectingSink();
+        assertEquals(4, buffer.drainTo(sink, new float[1], 100));
+        assertEquals(2L, buffer.getDroppedCount());
+        assertEquals(Long.valueOf(0), sink.timestamps.get(0));
+        assertEquals(Long.valueOf(3), sink.timestamps.get(3));
+    }
+
+    @Test
+    public void dropOldestKeepsLatestSamples() {
+
+        SampleRingBuffer buffer = new SampleRingBuffer(4, 1, OverflowPolicy.DROP_OLDEST);
+
+        for (int i = 0; i < 6; i++) {
+            assertTrue(buffer.offer(i, new float[]{i}));
+        }
+
+        CollectingSink sink = new CollectingSink();
+        assertEquals(4, buffer.drainTo(sink, new float[1], 100));
+        assertEquals(2L, buffer.getDroppedCount());
+        assertEquals(Long.valueOf(2), sink.timestamps.get(0));
+        assertEquals(Float.valueOf(5), sink.firstValues.get(3));
+    }
+
+    @Test
+    public void closedBufferStopsBlocking() {
+
+        SampleRingBuffer buffer = new SampleRingBuffer(1, 1, OverflowPolicy.BLOCK);
+        assertTrue(buffer.offer(0, new float[]{0}));
+
+        buffer.close();
+        assertFalse(buffer.offer(1, new float[]{1}));
+        assertEquals(1L, buffer.getDroppedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void blockingProducerLosesNothing() throws Exception {
+        assertConcurrentTransfer(OverflowPolicy.BLOCK, true);
+    }
+
+    @Test(timeout = 10000)
+    public void droppingProducerDeliversOrderedSamples() throws Exception {
+        assertConcurrentTransfer(OverflowPolicy.DROP_OLDEST, false);
+    }
+
+    private void assertConcurrentTransfer(OverflowPolicy policy, boolean lossless) throws Exception {
+
+        final int samples = 500000;
+        final SampleRingBuffer buffer = new SampleRingBuffer(64, 2, policy);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] values = new float[2];
+                for (int i = 0; i < samples; i++) {
+                    values[0] = i;
+                    values[1] = -i;
+                    buffer.offer(i, values);
+                }
+            }
+        });
+
+        final long[] last = {-1};
+        final long[] received = {0};
+        RecordSink sink = new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+                assertTrue("Out of order", timestamp > last[0]);
+                assertEquals((float) timestamp, values[0], 0.0);
+                assertEquals((float) -timestamp, values[1], 0.0);
+                last[0] = timestamp;
+                received[0]++;
+            }
+        };
+
+        producer.start();
+        float[] scratch = new float[2];
+        while (producer.isAlive() || buffer.size() > 0) {
+            buffer.drainTo(sink, scratch, 32);
+        }
+
+        assertEquals(samples, received[0] + buffer.getDroppedCount());
+        if (lossless) {
+            assertEquals(samples, received[0]);
+        }
+    }
+
+}
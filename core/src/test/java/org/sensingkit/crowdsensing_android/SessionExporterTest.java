@@ -0,0 +1,297 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionExporterTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+    private File mSession;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = mTemporaryFolder.getRoot();
+        mSession = new File(mFolder, "2015-06-01_12.00.00");
+        assertTrue(mSession.mkdir());
+    }
+
+    @Test
+    public void storedZipHoldsEveryFile() throws Exception {
+
+        Map<String, byte[]> files = createClosedSession();
+        File archive = new File(mFolder, "session.zip");
+
+        SessionExporter.Report report = new SessionExporter().export(mSession, archive);
+
+        assertTrue(report.isComplete());
+        assertEquals(files.size(), report.getEntries().size());
+
+        // A complete export marks the session as exported
+        assertTrue(StorageManager.isDelivered(mSession));
+
+        ZipFile zip = new ZipFile(archive);
+        try {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                ZipEntry entry = zip.getEntry(mSession.getName() + "/" + file.getKey());
+                assertNotNull(file.getKey(), entry);
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertArrayEquals(file.getKey(), file.getValue(), readAll(zip.getInputStream(entry)));
+            }
+
+            // The manifest holds the SHA-256 of every file
+            String manifest = new String(readAll(zip.getInputStream(
+                    zip.getEntry(mSession.getName() + "/" + SessionExporter.MANIFEST_FILE_NAME))), "UTF-8");
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                assertTrue(manifest.contains("file," + file.getKey() + "," + file.getValue().length + "," + sha256(file.getValue())));
+            }
+            assertTrue(manifest.contains("state,CLOSED"));
+        }
+        finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void deflatedZipStreams() throws Exception {
+
+        Map<String, byte[]> files = createClosedSession();
+        File archive = new File(mFolder, "session.zip");
+
+        new SessionExporter().setCompressed(true).export(mSession, archive);
+
+        Map<String, byte[]> read = new LinkedHashMap<>();
+        ZipInputStream zip = new ZipInputStream(new FileInputStream(archive));
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                read.put(entry.getName().substring(mSession.getName().length() + 1), readAll(zip));
+            }
+        }
+        finally {
+            zip.close();
+        }
+
+        assertTrue(archive.length() < new File(mSession, "Accelerometer.csv").length());
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            assertArrayEquals(file.getKey(), file.getValue(), read.get(file.getKey()));
+        }
+        assertTrue(read.containsKey(SessionExporter.MANIFEST_FILE_NAME));
+    }
+
+    @Test
+    public void tarHoldsEveryFile() throws Exception {
+
+        Map<String, byte[]> files = createClosedSession();
+
+        for (boolean gzip : new boolean[]{false, true}) {
+
+            SessionExporter exporter = new SessionExporter().setFormat(SessionExporter.Format.TAR).setCompressed(gzip);
+            File archive = new File(mFolder, "session." + exporter.getFileExtension());
+            exporter.export(mSession, archive);
+
+            InputStream inputStream = new FileInputStream(archive);
+            if (gzip) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            Map<String, byte[]> read = readTar(inputStream);
+
+            assertEquals(files.size() + 1, read.size());
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                assertArrayEquals(file.getKey(), file.getValue(), read.get(mSession.getName() + "/" + file.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void openSessionIsExportedUpToItsCheckpoint() throws Exception {
+
+        // A complete chunk, the open chunk, and a file written past its checkpoint
+        byte[] closedChunk = randomBytes(1000);
+        write("Accelerometer-00000.csv", closedChunk);
+        write("Accelerometer-00001.csv", randomBytes(500));
+        byte[] gyroscope = randomBytes(6 * 1024 * 1024);
+        write("Gyroscope.csv", gyroscope);
+
+        SessionManifest manifest = new SessionManifest(mSession);
+        manifest.addChunk(new SessionManifest.Chunk("Accelerometer", "Accelerometer-00000.csv", 0, 10, 100, closedChunk.length));
+
+        Checkpoint checkpoint = new Checkpoint(mSession);
+        checkpoint.update("Gyroscope.csv", 5 * 1024 * 1024);
+        checkpoint.commit(Checkpoint.State.OPEN);
+
+        final List<Long> progress = new ArrayList<>();
+        File archive = new File(mFolder, "session.zip");
+        SessionExporter.Report report = new SessionExporter()
+                .setProgressListener(new SessionExporter.ProgressListener() {
+                    @Override
+                    public void onProgress(String fileName, long bytesDone, long bytesTotal) {
+                        progress.add(bytesDone);
+                        assertTrue(bytesDone <= bytesTotal);
+                    }
+                })
+                .export(mSession, archive);
+
+        assertFalse(report.isComplete());
+        assertFalse(StorageManager.isDelivered(mSession));
+
+        ZipFile zip = new ZipFile(archive);
+        try {
+            String prefix = mSession.getName() + "/";
+            assertArrayEquals(closedChunk, readAll(zip.getInputStream(zip.getEntry(prefix + "Accelerometer-00000.csv"))));
+            assertArrayEquals(Arrays.copyOf(gyroscope, 5 * 1024 * 1024),
+                    readAll(zip.getInputStream(zip.getEntry(prefix + "Gyroscope.csv"))));
+            assertNull(zip.getEntry(prefix + "Accelerometer-00001.csv"));
+            assertNull(zip.getEntry(prefix + Checkpoint.FILE_NAME));
+            assertNotNull(zip.getEntry(prefix + SessionManifest.FILE_NAME));
+        }
+        finally {
+            zip.close();
+        }
+
+        // Reported in slices, up to the total
+        assertTrue(progress.size() > 2);
+        assertEquals(report.getTotalBytes(), (long) progress.get(progress.size() - 1));
+    }
+
+    private Map<String, byte[]> createClosedSession() throws Exception {
+
+        Map<String, byte[]> files = new LinkedHashMap<>();
+
+        RecordFileWriter writer = new RecordFileWriter(mSession, "Accelerometer", RecordFormat.CSV, RecordLayout.ACCELEROMETER);
+        writer.setIndexInterval(64);
+        float[] values = new float[3];
+        for (int i = 0; i < 20000; i++) {
+            values[0] = i % 100;
+            writer.write(i * 10L, values);
+        }
+        writer.close();
+
+        files.put("Accelerometer.csv", readFile(new File(mSession, "Accelerometer.csv")));
+        files.put("Accelerometer.csv.idx", readFile(new File(mSession, "Accelerometer.csv.idx")));
+        files.put("Markers.csv", write("Markers.csv", "timestamp,marker,detail\n".getBytes("UTF-8")));
+        files.put("Empty.csv", write("Empty.csv", new byte[0]));
+        files.put("Random.bin", write("Random.bin", randomBytes(100000)));
+
+        Checkpoint checkpoint = new Checkpoint(mSession);
+        checkpoint.update("Accelerometer.csv", new File(mSession, "Accelerometer.csv").length());
+        checkpoint.commit(Checkpoint.State.CLOSED);
+
+        return files;
+    }
+
+    private byte[] write(String name, byte[] data) throws Exception {
+        FileOutputStream outputStream = new FileOutputStream(new File(mSession, name));
+        outputStream.write(data);
+        outputStream.close();
+        return data;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static Map<String, byte[]> readTar(InputStream inputStream) throws Exception {
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        DataInputStream input = new DataInputStream(inputStream);
+        byte[] header = new byte[512];
+
+        try {
+            while (true) {
+                input.readFully(header);
+                if (header[0] == 0) {
+                    break;
+                }
+
+                // Header checksum over the header with spaces in its own field
+                long checksum = 0;
+                for (int i = 0; i < 512; i++) {
+                    checksum += (i >= 148 && i < 156) ? ' ' : header[i] & 0xFF;
+                }
+                assertEquals(checksum, Long.parseLong(new String(header, 148, 6, "US-ASCII"), 8));
+
+                String name = new String(header, 0, 100, "UTF-8").trim();
+                int size = Integer.parseInt(new String(header, 124, 11, "US-ASCII"), 8);
+                byte[] data = new byte[size];
+                input.readFully(data);
+                input.skipBytes((512 - size % 512) % 512);
+                entries.put(name, data);
+            }
+        }
+        catch (EOFException ex) {
+            throw new AssertionError("Archive ends without its end blocks");
+        }
+        finally {
+            input.close();
+        }
+
+        return entries;
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return readAll(inputStream);
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads to the end of the stream (or zip entry) without closing it.
+     */
+    private static byte[] readAll(InputStream inputStream) throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+}
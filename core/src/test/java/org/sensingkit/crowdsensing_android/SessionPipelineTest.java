@@ -0,0 +1,212 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionPipelineTest {
+
+    private static final int SAMPLES = 5000;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test(timeout = 10000)
+    public void writesEveryChannelThroughTheWriterThread() throws Exception {
+
+        SessionPipeline pipeline = new SessionPipeline(mFolder, new PipelineConfig()
+                .setRecordFormat(RecordFormat.BINARY)
+                .setAsyncWriting(true)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .setFlushIntervalMillis(0));
+
+        RecordChannel accelerometer = pipeline.openChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+        RecordChannel gyroscope = pipeline.openChannel("Gyroscope", RecordLayout.GYROSCOPE);
+        assertTrue(pipeline.attachAsyncWriter(accelerometer));
+        assertTrue(pipeline.attachAsyncWriter(gyroscope));
+
+        pipeline.start();
+
+        float[] values = new float[3];
+        for (int i = 0; i < SAMPLES; i++) {
+            values[0] = i;
+            accelerometer.receive(i, values);
+            gyroscope.receive(i, values);
+        }
+
+        pipeline.stop();
+
+        assertEquals(SAMPLES, accelerometer.getMetrics().getWrittenCount());
+        assertEquals(SAMPLES, gyroscope.getMetrics().getWrittenCount());
+        assertEquals(0L, pipeline.getDroppedCount());
+        assertEquals(Checkpoint.State.OPEN, Checkpoint.read(mFolder).getState());
+
+        pipeline.close();
+
+        assertFalse(accelerometer.isOpen());
+        assertEquals(Checkpoint.State.CLOSED, Checkpoint.read(mFolder).getState());
+
+        Map<String, Long> lengths = Checkpoint.read(mFolder).getLengths();
+        assertEquals(2, lengths.size());
+        for (Long length : lengths.values()) {
+            assertTrue(length > (long) SAMPLES * RecordLayout.ACCELEROMETER.getRecordSize());
+        }
+    }
+
+    @Test
+    public void batchedSessionHoldsTheWholeInterval() throws Exception {
+
+        SessionPipeline pipeline = new SessionPipeline(mFolder, new PipelineConfig()
+                .setRecordFormat(RecordFormat.BINARY)
+                .setBatchIntervalMillis(60000));
+
+        RecordChannel accelerometer = pipeline.openChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+        assertTrue(pipeline.attachAsyncWriter(accelerometer));
+        pipeline.start();
+
+        // A minute at the maximum sample rate, with the wake-up a quarter of the interval late
+        int samples = (int) (PipelineConfig.DEFAULT_MAX_SAMPLE_RATE_HZ * 75);
+        float[] values = new float[3];
+        for (int i = 0; i < samples; i++) {
+            values[0] = i;
+            accelerometer.receive(i * 5L, values);
+        }
+
+        assertEquals(samples, pipeline.drainBuffers());
+        assertEquals(0L, pipeline.getDroppedCount());
+        assertEquals(samples, accelerometer.getMetrics().getWrittenCount());
+
+        pipeline.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsABatchIntervalTheRingBuffersCannotHold() throws Exception {
+        new SessionPipeline(mFolder, new PipelineConfig().setBatchIntervalMillis(3600000));
+    }
+
+    @Test
+    public void closedCheckpointHasTheFinalFiles() throws Exception {
+
+        SessionPipeline pipeline = new SessionPipeline(mFolder, new PipelineConfig()
+                .setMaxChunkMillis(1000)
+                .setFlushIntervalMillis(0));
+
+        // Too short for the rate estimate, so the resampler holds every sample back until closed
+        RecordChannel accelerometer = pipeline.openChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+        accelerometer.setTargetRate(50);
+        RecordChannel gyroscope = pipeline.openChannel("Gyroscope", RecordLayout.GYROSCOPE);
+        pipeline.addFusion(new FusionConfig());
+
+        // Synced last on every flush, just before the checkpoint is committed
+        final List<List<SessionManifest.Chunk>> manifests = new ArrayList<>();
+        pipeline.getGroupFlusher().addWriter(new DurableWriter() {
+            @Override
+            public long getBytesWritten() {
+                return 0;
+            }
+
+            @Override
+            public void sync(Checkpoint checkpoint) throws IOException {
+                manifests.add(SessionManifest.read(mFolder).getChunks());
+            }
+        });
+
+        pipeline.start();
+
+        float[] values = new float[3];
+        for (int i = 0; i < 250; i++) {
+            if (i < Resampler.ESTIMATION_SAMPLES / 2) {
+                accelerometer.receive(i * 10, values);
+            }
+            gyroscope.receive(i * 10, values);
+        }
+
+        pipeline.close();
+
+        Checkpoint checkpoint = Checkpoint.read(mFolder);
+        assertEquals(Checkpoint.State.CLOSED, checkpoint.getState());
+
+        // Nothing was written after the final checkpoint
+        Map<String, Long> lengths = checkpoint.getLengths();
+        for (Map.Entry<String, Long> entry : lengths.entrySet()) {
+            assertEquals(entry.getKey(), new File(mFolder, entry.getKey()).length(), (long) entry.getValue());
+        }
+        assertTrue(lengths.containsKey(FusionWriter.FILE_NAME));
+
+        // Every chunk, the last ones too, was in the manifest with its final length
+        List<SessionManifest.Chunk> chunks = manifests.get(manifests.size() - 1);
+        assertEquals(4, chunks.size());
+        assertEquals(SessionManifest.read(mFolder).getChunks().size(), chunks.size());
+
+        for (SessionManifest.Chunk chunk : chunks) {
+            assertEquals(chunk.getFileName(), (Long) chunk.getByteSize(), lengths.get(chunk.getFileName()));
+            if (chunk.getSensor().equals("Accelerometer")) {
+                assertEquals(Resampler.ESTIMATION_SAMPLES / 2, chunk.getRecordCount());
+            }
+        }
+    }
+
+    @Test
+    public void sessionLogNeedsARecordLayout() throws Exception {
+
+        SessionPipeline pipeline = new SessionPipeline(mFolder, new PipelineConfig()
+                .setStorageMode(StorageMode.SESSION_LOG));
+
+        assertNotNull(pipeline.getSessionLog());
+        assertNull(pipeline.getManifest());
+
+        try {
+            pipeline.openChannel("Battery", null);
+            throw new AssertionError("A channel without a layout was opened in the session log.");
+        }
+        catch (IllegalArgumentException ex) {
+            // Expected
+        }
+
+        // Rows without a layout get a CSV file of their own
+        RecordChannel rows = pipeline.openFileChannel("Bluetooth", RecordFormat.CSV, null, null);
+        assertFalse(rows.isSessionLog());
+
+        pipeline.close();
+    }
+
+    @Test
+    public void fusesOnlyChannelsWithARecordLayout() throws Exception {
+
+        SessionPipeline pipeline = new SessionPipeline(mFolder, new PipelineConfig());
+        pipeline.openChannel("Bluetooth", null);
+
+        assertNull(pipeline.addFusion(new FusionConfig()));
+
+        pipeline.openChannel("Accelerometer", RecordLayout.ACCELEROMETER);
+        FusionMerger merger = pipeline.addFusion(new FusionConfig());
+
+        assertNotNull(merger);
+        assertEquals(1, merger.getChannelCount());
+        assertEquals("Accelerometer", merger.getChannelName(0));
+
+        pipeline.close();
+        assertTrue(new File(mFolder, FusionWriter.FILE_NAME).exists());
+    }
+
+}
@@ -0,0 +1,335 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StorageManagerTest {
+
+    private static final Map<String, RecordLayout> LAYOUTS = new HashMap<>();
+
+    static {
+        LAYOUTS.put("Accelerometer", RecordLayout.ACCELEROMETER);
+        LAYOUTS.put("Gyroscope", RecordLayout.GYROSCOPE);
+    }
+
+    private static final int RECORDS = 20000;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void compactorReplacesCsvRecordings() throws Exception {
+
+        File session = createSession("2015-06-01_10.00.00", Checkpoint.State.CLOSED);
+        List<String> accelerometer = readRecords(session, "Accelerometer");
+        List<String> gyroscope = readRecords(session, "Gyroscope");
+        long csvBytes = sizeOf(session);
+
+        assertTrue(SessionCompactor.isCompactable(session, LAYOUTS));
+
+        SessionCompactor compactor = new SessionCompactor(session, LAYOUTS);
+        int steps = 0;
+        while (!compactor.step(4096)) {
+            steps++;
+        }
+        compactor.close();
+
+        assertTrue(steps > 5);
+        assertFalse(SessionCompactor.isCompactable(session, LAYOUTS));
+        assertEquals(accelerometer, readRecords(session, "Accelerometer"));
+        assertEquals(gyroscope, readRecords(session, "Gyroscope"));
+        assertTrue(compactor.getBytesSaved() > 0);
+        assertTrue(sizeOf(session) < csvBytes / 2);
+
+        // Only compressed recordings are left, listed in the manifest
+        for (File file : session.listFiles()) {
+            String name = file.getName();
+            assertFalse(name, name.endsWith(".csv." + TimeIndex.FILE_EXTENSION) || name.endsWith(".tmp"));
+            assertFalse(name, (name.startsWith("Accelerometer") || name.startsWith("Gyroscope")) && name.endsWith(".csv"));
+        }
+        assertFalse(new File(session, SessionCompactor.STATE_FILE_NAME).exists());
+
+        for (SessionManifest.Chunk chunk : SessionManifest.read(session).getChunks()) {
+            assertTrue(chunk.getFileName().endsWith("." + RecordFormat.COMPRESSED.getFileExtension()));
+            assertEquals(new File(session, chunk.getFileName()).length(), chunk.getByteSize());
+        }
+    }
+
+    @Test
+    public void compactionResumesAfterRestart() throws Exception {
+
+        File session = createSession("2015-06-01_10.00.00", Checkpoint.State.CLOSED);
+        List<String> accelerometer = readRecords(session, "Accelerometer");
+
+        // Killed after three steps, with unsynced output past the last step
+        SessionCompactor first = new SessionCompactor(session, LAYOUTS);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(first.step(1024));
+        }
+        first.close();
+
+        File[] temp = session.listFiles();
+        for (File file : temp) {
+            if (file.getName().endsWith(".tmp")) {
+                FileOutputStream stream = new FileOutputStream(file, true);
+                stream.write(new byte[]{1, 2, 3, 4, 5});
+                stream.close();
+            }
+        }
+
+        SessionCompactor second = new SessionCompactor(session, LAYOUTS);
+        while (!second.step(1024)) {
+            // compact the rest
+        }
+
+        assertEquals(accelerometer, readRecords(session, "Accelerometer"));
+    }
+
+    @Test
+    public void openSessionIsNotCompacted() throws Exception {
+
+        File session = createSession("2015-06-01_10.00.00", Checkpoint.State.OPEN);
+        assertFalse(SessionCompactor.isCompactable(session, LAYOUTS));
+    }
+
+    @Test
+    public void compactsOnlyWhileIdle() throws Exception {
+
+        File session = createSession("2015-06-01_10.00.00", Checkpoint.State.CLOSED);
+        List<String> accelerometer = readRecords(session, "Accelerometer");
+
+        final AtomicBoolean idle = new AtomicBoolean(false);
+        StorageManager manager = new StorageManager(mFolder, config().setQuotaBytes(sizeOf(mFolder) - 1), LAYOUTS, new StorageManager.Conditions() {
+            @Override
+            public boolean isIdle() {
+                return idle.get();
+            }
+        });
+        Events events = new Events();
+        manager.setListener(events);
+
+        for (int i = 0; i < 3; i++) {
+            manager.run();
+        }
+        assertTrue(SessionCompactor.isCompactable(session, LAYOUTS));
+
+        idle.set(true);
+        for (int i = 0; i < 100 && manager.getCompactedCount() == 0; i++) {
+            manager.run();
+        }
+
+        assertEquals(1, manager.getCompactedCount());
+        assertEquals(Arrays.asList(session), events.mCompacted);
+        assertTrue(manager.getBytesSaved() > 0);
+        assertEquals(accelerometer, readRecords(session, "Accelerometer"));
+    }
+
+    @Test
+    public void sessionsWithinTheLimitsAreKept() throws Exception {
+
+        File session = createSession("2015-06-01_10.00.00", Checkpoint.State.CLOSED);
+        long csvBytes = sizeOf(session);
+
+        StorageManager manager = new StorageManager(mFolder, config(), LAYOUTS, null);
+        for (int i = 0; i < 10; i++) {
+            manager.run();
+        }
+
+        assertEquals(0, manager.getCompactedCount());
+        assertTrue(SessionCompactor.isCompactable(session, LAYOUTS));
+        assertEquals(csvBytes, sizeOf(session));
+    }
+
+    @Test
+    public void activeSessionIsWarnedAndKept() throws Exception {
+
+        File previous = createSession("2015-06-01_10.00.00", Checkpoint.State.CLOSED);
+        File active = createSession("2015-06-01_11.00.00", Checkpoint.State.OPEN);
+
+        StorageManager manager = new StorageManager(mFolder,
+                config().setQuotaBytes(sizeOf(mFolder) + 1000).setWarningBytes(10000), LAYOUTS, null);
+        Events events = new Events();
+        manager.setListener(events);
+        manager.setActiveSession(active);
+
+        manager.run();
+
+        assertEquals(1, events.mWarnings.size());
+        assertTrue(events.mWarnings.get(0) < 10000);
+
+        // No compaction while recording
+        assertTrue(SessionCompactor.isCompactable(previous, LAYOUTS));
+        assertEquals(0, manager.getCompactedCount());
+    }
+
+    @Test
+    public void evictsOldestDeliveredSessionsFirst() throws Exception {
+
+        File uploaded = createSession("2015-06-01_10.00.00", Checkpoint.State.CLOSED);
+        File exported = createSession("2015-06-01_11.00.00", Checkpoint.State.CLOSED);
+        File local = createSession("2015-06-01_12.00.00", Checkpoint.State.CLOSED);
+        File queued = createSession("2015-06-01_13.00.00", Checkpoint.State.CLOSED);
+
+        touch(new File(uploaded, UploadQueue.UPLOADED_FILE_NAME));
+        touch(new File(exported, SessionExporter.MANIFEST_FILE_NAME));
+        touch(new File(queued, UploadQueue.UPLOADED_FILE_NAME));
+
+        // Queued again, not started
+        UploadQueue queue = new UploadQueue(new File(mFolder, "Uploads.csv"),
+                new UploadConfig("http://127.0.0.1:1/uploads"), null);
+        queue.enqueue(new File(queued, "Gyroscope.csv"));
+
+        StorageManager.Conditions busy = new StorageManager.Conditions() {
+            @Override
+            public boolean isIdle() {
+                return false;
+            }
+        };
+
+        // Slightly over the quota: the oldest delivered session is enough
+        StorageManager manager = new StorageManager(mFolder, config().setQuotaBytes(sizeOf(mFolder) - 1), LAYOUTS, busy);
+        manager.setUploadQueue(queue);
+        Events events = new Events();
+        manager.setListener(events);
+        manager.run();
+
+        assertEquals(Arrays.asList(uploaded), events.mEvicted);
+        assertTrue(manager.getAvailableBytes() >= 0);
+
+        // Far over the quota: every delivered session that is not queued
+        manager = new StorageManager(mFolder, config().setQuotaBytes(0), LAYOUTS, busy);
+        manager.setUploadQueue(queue);
+        manager.setListener(events);
+        manager.run();
+
+        assertEquals(Arrays.asList(uploaded, exported), events.mEvicted);
+        assertFalse(exported.exists());
+        assertTrue(local.exists() && queued.exists());
+        assertTrue(manager.getAvailableBytes() < 0);
+    }
+
+    private static StorageConfig config() {
+        return new StorageConfig()
+                .setMinFreeBytes(0)
+                .setWarningBytes(0)
+                .setCheckIntervalMillis(0)
+                .setCompactionStepRecords(4096);
+    }
+
+    private File createSession(String name, Checkpoint.State state) throws IOException {
+
+        File session = new File(mFolder, name);
+        assertTrue(session.mkdir());
+
+        SessionManifest manifest = new SessionManifest(session);
+
+        // Rotated chunks with time indexes, and a single file
+        RecordFileWriter accelerometer = new RecordFileWriter(session, "Accelerometer", RecordFormat.CSV,
+                RecordLayout.ACCELEROMETER, RecordFileWriter.createEncoder(RecordFormat.CSV, RecordLayout.ACCELEROMETER),
+                manifest, 256 * 1024, 0, new SensorMetrics());
+        accelerometer.setIndexInterval(256);
+        RecordFileWriter gyroscope = new RecordFileWriter(session, "Gyroscope", RecordFormat.CSV, RecordLayout.GYROSCOPE);
+
+        for (int i = 0; i < RECORDS; i++) {
+            long timestamp = 1433152800000L + i * 20;
+            accelerometer.write(timestamp, new float[]{(float) Math.sin(i / 50.0), (float) Math.cos(i / 50.0), 9.81f});
+            if (i % 4 == 0) {
+                gyroscope.write(timestamp, new float[]{i * 0.001f, -i * 0.002f, 0.5f});
+            }
+        }
+
+        accelerometer.close();
+        gyroscope.close();
+
+        new Checkpoint(session).commit(state);
+        return session;
+    }
+
+    private static List<String> readRecords(File session, String sensor) throws IOException {
+
+        List<File> files = new ArrayList<>();
+        File[] all = session.listFiles();
+        Arrays.sort(all);
+        for (File file : all) {
+            if (file.getName().startsWith(sensor) && RecordReaders.formatOf(file) != null) {
+                files.add(file);
+            }
+        }
+
+        List<String> records = new ArrayList<>();
+        RecordReader reader = RecordReaders.concat(files, LAYOUTS.get(sensor));
+        try {
+            while (reader.readRecord()) {
+                records.add(reader.getTimestamp() + Arrays.toString(reader.getValues()));
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        assertTrue(records.size() > 0);
+        return records;
+    }
+
+    private static long sizeOf(File file) {
+        File[] files = file.listFiles();
+        if (files == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (File child : files) {
+            size += sizeOf(child);
+        }
+        return size;
+    }
+
+    private static void touch(File file) throws IOException {
+        new FileOutputStream(file).close();
+    }
+
+    private static class Events implements StorageManager.Listener {
+
+        final List<Long> mWarnings = new ArrayList<>();
+        final List<File> mCompacted = new ArrayList<>();
+        final List<File> mEvicted = new ArrayList<>();
+
+        @Override
+        public void onStorageLow(long availableBytes) {
+            mWarnings.add(availableBytes);
+        }
+
+        @Override
+        public void onSessionCompacted(File sessionFolder, long bytesSaved) {
+            mCompacted.add(sessionFolder);
+        }
+
+        @Override
+        public void onSessionEvicted(File sessionFolder, long bytes) {
+            mEvicted.add(sessionFolder);
+        }
+    }
+
+}
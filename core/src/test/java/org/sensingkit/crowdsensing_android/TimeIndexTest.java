@@ -0,0 +1,176 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeIndexTest {
+
+    private static final long START = 1000000;
+    private static final int RECORDS = 100000;
+    private static final int INTERVAL = 256;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+
+    @Before
+    public void setUp() {
+        mFolder = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void rangeReadsOnlyTheRequestedRecords() throws Exception {
+
+        for (RecordFormat format : RecordFormat.values()) {
+
+            File file = record(format, 0);
+            assertTrue(TimeIndex.fileFor(file).exists());
+
+            assertRange(RecordReaders.range(file, RecordLayout.ACCELEROMETER, START + 500000, START + 530000),
+                    START + 500000, 3000);
+
+            // The search lands at most one stretch (or block) before the range
+            TimeIndex index = TimeIndex.open(file, RecordLayout.ACCELEROMETER);
+            long offset = index.findOffset(START + 500000);
+            assertTrue(format + ": " + offset, offset > file.length() * 45 / 100);
+            assertTrue(format + ": " + offset, offset < file.length() / 2);
+        }
+    }
+
+    @Test
+    public void missingIndexIsRebuilt() throws Exception {
+
+        for (RecordFormat format : RecordFormat.values()) {
+
+            File file = record(format, 0);
+            File indexFile = TimeIndex.fileFor(file);
+            long entries = TimeIndex.open(file, RecordLayout.ACCELEROMETER).getEntryCount();
+            long length = indexFile.length();
+            assertTrue(indexFile.delete());
+
+            assertRange(RecordReaders.range(file, RecordLayout.ACCELEROMETER, START + 123450, START + 223450),
+                    START + 123450, 10000);
+
+            // Rebuilt at the default interval
+            assertTrue(indexFile.exists());
+            assertTrue(TimeIndex.open(file, RecordLayout.ACCELEROMETER).getEntryCount() > 0);
+
+            // The same entries as written along with the data, at the same interval
+            TimeIndex rebuilt = TimeIndex.rebuild(file, RecordLayout.ACCELEROMETER, INTERVAL);
+            assertEquals(format.toString(), entries, rebuilt.getEntryCount());
+            assertEquals(format.toString(), length, indexFile.length());
+        }
+    }
+
+    @Test
+    public void rangeSpansChunks() throws Exception {
+
+        record(RecordFormat.BINARY, 100000);
+
+        List<File> chunks = listRecordings();
+        assertEquals(10, chunks.size());
+
+        // From the middle of the third chunk into the fifth
+        assertRange(RecordReaders.range(chunks, RecordLayout.ACCELEROMETER, START + 250000, START + 420000),
+                START + 250000, 17000);
+    }
+
+    @Test
+    public void entriesPastTruncatedDataAreIgnored() throws Exception {
+
+        File file = record(RecordFormat.CSV, 0);
+        long entries = TimeIndex.open(file, RecordLayout.ACCELEROMETER).getEntryCount();
+
+        // As after recovering a crashed session
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.setLength(file.length() / 2);
+        access.close();
+
+        TimeIndex index = TimeIndex.open(file, RecordLayout.ACCELEROMETER);
+        assertTrue(index.getEntryCount() > 0 && index.getEntryCount() < entries);
+        assertTrue(index.findOffset(Long.MAX_VALUE) < file.length());
+
+        RecordReader reader = RecordReaders.range(file, RecordLayout.ACCELEROMETER, START + 900000, Long.MAX_VALUE);
+        assertFalse(reader.readRecord());
+        reader.close();
+
+        assertRange(RecordReaders.range(file, RecordLayout.ACCELEROMETER, START, START + 10000), START, 1000);
+    }
+
+    @Test
+    public void rangeOutsideRecordingIsEmpty() throws Exception {
+
+        File file = record(RecordFormat.COMPRESSED, 0);
+
+        RecordReader before = RecordReaders.range(file, RecordLayout.ACCELEROMETER, 0, START);
+        assertFalse(before.readRecord());
+        before.close();
+
+        RecordReader after = RecordReaders.range(file, RecordLayout.ACCELEROMETER, START + RECORDS * 10L, Long.MAX_VALUE);
+        assertFalse(after.readRecord());
+        after.close();
+    }
+
+    /**
+     * Records 100 Hz of accelerometer samples, x counting the samples.
+     */
+    private File record(RecordFormat format, long maxChunkMillis) throws Exception {
+
+        RecordFileWriter writer = new RecordFileWriter(mFolder, "Accelerometer" + format, format, RecordLayout.ACCELEROMETER,
+                RecordFileWriter.createEncoder(format, RecordLayout.ACCELEROMETER), null, 0, maxChunkMillis, new SensorMetrics());
+        writer.setIndexInterval(INTERVAL);
+
+        float[] values = new float[3];
+        for (int i = 0; i < RECORDS; i++) {
+            values[0] = i;
+            writer.write(START + i * 10L, values);
+        }
+        writer.close();
+
+        return new File(mFolder, "Accelerometer" + format + "." + format.getFileExtension());
+    }
+
+    private List<File> listRecordings() {
+
+        List<File> files = new ArrayList<>();
+        for (File file : mFolder.listFiles()) {
+            if (RecordReaders.formatOf(file) != null) {
+                files.add(file);
+            }
+        }
+
+        File[] sorted = files.toArray(new File[files.size()]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    private static void assertRange(RecordReader reader, long from, int count) throws Exception {
+
+        int read = 0;
+        long expected = from;
+
+        while (reader.readRecord()) {
+            assertEquals(expected, reader.getTimestamp());
+            assertEquals((expected - START) / 10, reader.getValues()[0], 0);
+            expected += 10;
+            read++;
+        }
+        reader.close();
+
+        assertEquals(count, read);
+    }
+
+}
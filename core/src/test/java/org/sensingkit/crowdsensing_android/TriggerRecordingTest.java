@@ -0,0 +1,134 @@
+package org.sensingkit.crowdsensing_android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TriggerRecordingTest {
+
+    private static final long PRE_ROLL = 1000;
+    private static final long POST_ROLL = 2000;
+    private static final double THRESHOLD = 15;
+
+    private static final float[] STILL = {0f, 0f, 9.81f};
+    private static final float[] SHAKE = {20f, 0f, 9.81f};
+
+    @Test
+    public void recordsPreAndPostRollAroundEvent() {
+
+        TriggerGate gate = new TriggerGate(PRE_ROLL, POST_ROLL);
+        List<Long> recorded = new ArrayList<>();
+        PreRollBuffer buffer = new PreRollBuffer(3, 1024, gate, THRESHOLD, collect(recorded));
+
+        // 100 Hz for 20 s, one shake at 10 s
+        for (long t = 0; t < 20000; t += 10) {
+            buffer.writeRecord(t, t == 10000 ? SHAKE : STILL);
+        }
+
+        assertEquals(1, gate.getEventCount());
+        assertEquals(9000L, (long) recorded.get(0));
+        assertEquals(12000L, (long) recorded.get(recorded.size() - 1));
+        assertEquals(301, recorded.size());
+        assertContiguous(recorded);
+
+        assertEquals(3000, gate.getCapturedMillis());
+        assertEquals(19990 - 3000, gate.getDiscardedMillis());
+        assertEquals(301, buffer.getCapturedCount());
+    }
+
+    @Test
+    public void overlappingEventsMergeIntoOneWindow() {
+
+        TriggerGate gate = new TriggerGate(PRE_ROLL, POST_ROLL);
+        List<Long> recorded = new ArrayList<>();
+        PreRollBuffer buffer = new PreRollBuffer(3, 1024, gate, THRESHOLD, collect(recorded));
+
+        // The second event's pre-roll starts before the first post-roll ends
+        for (long t = 0; t < 20000; t += 10) {
+            buffer.writeRecord(t, (t == 5000 || t == 7800) ? SHAKE : STILL);
+        }
+
+        assertEquals(2, gate.getEventCount());
+        assertEquals(1, gate.getWindowCount());
+        assertEquals(4000L, (long) recorded.get(0));
+        assertEquals(9800L, (long) recorded.get(recorded.size() - 1));
+        assertContiguous(recorded);
+        assertEquals(5800, gate.getCapturedMillis());
+    }
+
+    @Test
+    public void separateEventsGiveSeparateWindows() {
+
+        TriggerGate gate = new TriggerGate(PRE_ROLL, POST_ROLL);
+        List<Long> recorded = new ArrayList<>();
+        PreRollBuffer buffer = new PreRollBuffer(3, 1024, gate, THRESHOLD, collect(recorded));
+
+        for (long t = 0; t < 20000; t += 10) {
+            buffer.writeRecord(t, (t == 3000 || t == 15000) ? SHAKE : STILL);
+        }
+
+        assertEquals(2, gate.getWindowCount());
+        assertEquals(602, recorded.size());
+        assertEquals(6000, gate.getCapturedMillis());
+    }
+
+    @Test
+    public void triggerOnOneSensorCapturesTheOthers() {
+
+        TriggerGate gate = new TriggerGate(PRE_ROLL, POST_ROLL);
+        List<Long> accelerometer = new ArrayList<>();
+        List<Long> gyroscope = new ArrayList<>();
+        PreRollBuffer trigger = new PreRollBuffer(3, 1024, gate, THRESHOLD, collect(accelerometer));
+        PreRollBuffer follower = new PreRollBuffer(3, 1024, gate, Double.NaN, collect(gyroscope));
+
+        // The gyroscope would fire on its own values, but is not a trigger
+        for (long t = 0; t < 20000; t += 10) {
+            trigger.writeRecord(t, t == 10000 ? SHAKE : STILL);
+            follower.writeRecord(t + 5, SHAKE);
+        }
+
+        assertEquals(1, gate.getEventCount());
+        assertEquals(9005L, (long) gyroscope.get(0));
+        assertEquals(11995L, (long) gyroscope.get(gyroscope.size() - 1));
+        assertEquals(300, gyroscope.size());
+    }
+
+    @Test
+    public void smallBufferShortensPreRoll() {
+
+        TriggerGate gate = new TriggerGate(PRE_ROLL, POST_ROLL);
+        List<Long> recorded = new ArrayList<>();
+        PreRollBuffer buffer = new PreRollBuffer(3, 50, gate, THRESHOLD, collect(recorded));
+
+        // Up to the end of the post-roll
+        for (long t = 0; t <= 12000; t += 10) {
+            buffer.writeRecord(t, t == 10000 ? SHAKE : STILL);
+        }
+
+        // Only half a second of pre-roll fits
+        assertEquals(9500L, (long) recorded.get(0));
+        assertEquals(10000 / 10 - 50, buffer.getDiscardedCount());
+    }
+
+    private static RecordSink collect(final List<Long> timestamps) {
+
+        return new RecordSink() {
+            @Override
+            public void writeRecord(long timestamp, float[] values) {
+                timestamps.add(timestamp);
+            }
+        };
+    }
+
+    private static void assertContiguous(List<Long> timestamps) {
+
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue("Gap at " + timestamps.get(i), timestamps.get(i) - timestamps.get(i - 1) == 10);
+        }
+    }
+
+}
@@ -0,0 +1,583 @@
+package org.sensingkit.crowdsensing_android;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadQueueTest {
+
+    private static final int SLICE = 1024;
+    private static final long TIMEOUT = 10000;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFolder;
+    private File mSession;
+    private File mStateFile;
+    private StandInServer mServer;
+    private UploadQueue mQueue;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = mTemporaryFolder.getRoot();
+        mSession = new File(mFolder, "2015-06-01_12.00.00");
+        assertTrue(mSession.mkdir());
+        mStateFile = new File(mFolder, "Uploads.csv");
+        mServer = new StandInServer();
+    }
+
+    @After
+    public void tearDown() {
+        if (mQueue != null) {
+            mQueue.stop();
+        }
+        mServer.stop();
+    }
+
+    @Test
+    public void uploadsFileInRangedSlices() throws Exception {
+
+        byte[] data = createFile("Accelerometer.csv", 10 * SLICE + 100);
+
+        mQueue = new UploadQueue(mStateFile, config(), null);
+        mQueue.enqueue(new File(mSession, "Accelerometer.csv"));
+        mQueue.start();
+
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+        assertArrayEquals(data, mServer.getUpload(id("Accelerometer.csv")));
+        assertEquals(11, mServer.getCount("PUT"));
+        assertEquals(data.length, mQueue.getBytesSent());
+        assertEquals(1, mQueue.getUploadedCount());
+
+        // Nothing left in the state file
+        mQueue.stop();
+        assertEquals(0, new UploadQueue(mStateFile, config(), null).getPendingCount());
+    }
+
+    @Test
+    public void completedSessionIsMarkedUploaded() throws Exception {
+
+        createFile("Accelerometer.csv", 3 * SLICE);
+        new Checkpoint(mSession).commit(Checkpoint.State.CLOSED);
+
+        mQueue = new UploadQueue(mStateFile, config(), null);
+        mQueue.enqueueSession(mSession);
+        assertTrue(mQueue.isPending(mSession));
+        assertFalse(StorageManager.isDelivered(mSession));
+
+        mQueue.start();
+
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+        assertFalse(mQueue.isPending(mSession));
+        assertTrue(new File(mSession, UploadQueue.UPLOADED_FILE_NAME).exists());
+        assertTrue(StorageManager.isDelivered(mSession));
+    }
+
+    @Test
+    public void interruptedTransferResumesAtServerOffset() throws Exception {
+
+        byte[] data = createFile("Gyroscope.csv", 8 * SLICE);
+
+        // The third request is cut off after half of its bytes
+        mServer.interruptPut(3);
+
+        mQueue = new UploadQueue(mStateFile, config(), null);
+        mQueue.enqueue(new File(mSession, "Gyroscope.csv"));
+        mQueue.start();
+
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+        assertArrayEquals(data, mServer.getUpload(id("Gyroscope.csv")));
+        assertEquals(1, mQueue.getRetryCount());
+
+        // Only the lost half slice was sent again
+        assertEquals(data.length + SLICE / 2, mServer.getBytesReceived());
+    }
+
+    @Test
+    public void pausedUploadResumesAfterRestart() throws Exception {
+
+        byte[] data = createFile("Magnetometer.csv", 8 * SLICE);
+
+        // The device goes on a metered network after three slices
+        final AtomicBoolean satisfied = new AtomicBoolean(true);
+        UploadConstraints constraints = new UploadConstraints() {
+            @Override
+            public boolean isSatisfied() {
+                return satisfied.get();
+            }
+        };
+        mServer.onPut(3, satisfied);
+
+        mQueue = new UploadQueue(mStateFile, config(), constraints);
+        mQueue.enqueue(new File(mSession, "Magnetometer.csv"));
+        mQueue.start();
+
+        assertFalse(mQueue.awaitIdle(500));
+        assertEquals(3 * SLICE, mServer.getUpload(id("Magnetometer.csv")).length);
+        mQueue.stop();
+
+        // A new process picks the upload up from the state file
+        mQueue = new UploadQueue(mStateFile, config(), null);
+        assertEquals(1, mQueue.getPendingCount());
+        mQueue.start();
+
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+        assertArrayEquals(data, mServer.getUpload(id("Magnetometer.csv")));
+        assertEquals(data.length, mServer.getBytesReceived());
+    }
+
+    @Test
+    public void waitsForConstraints() throws Exception {
+
+        createFile("Light.csv", 4 * SLICE);
+
+        final AtomicBoolean satisfied = new AtomicBoolean(false);
+        UploadConstraints constraints = new UploadConstraints() {
+            @Override
+            public boolean isSatisfied() {
+                return satisfied.get();
+            }
+        };
+
+        // Polled rarely, so only the change notification wakes the queue
+        mQueue = new UploadQueue(mStateFile, config().setConstraintPollMillis(60000), constraints);
+        mQueue.enqueue(new File(mSession, "Light.csv"));
+        mQueue.start();
+
+        assertFalse(mQueue.awaitIdle(300));
+        assertEquals(0, mServer.getCount("HEAD") + mServer.getCount("PUT"));
+
+        satisfied.set(true);
+        mQueue.onConstraintsChanged();
+
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+    }
+
+    @Test
+    public void duplicateChunkIsNotSentAgain() throws Exception {
+
+        byte[] data = createFile("Battery.csv", 3 * SLICE);
+        File file = new File(mSession, "Battery.csv");
+
+        mQueue = new UploadQueue(mStateFile, config(), null);
+        mQueue.enqueue(file);
+        mQueue.enqueue(file);
+        assertEquals(1, mQueue.getPendingCount());
+
+        mQueue.start();
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+        assertEquals(3, mServer.getCount("PUT"));
+
+        // Queued again, e.g. after a crash before the state file was written
+        mQueue.enqueue(file);
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+
+        assertEquals(3, mServer.getCount("PUT"));
+        assertEquals(2, mQueue.getUploadedCount());
+        assertArrayEquals(data, mServer.getUpload(id("Battery.csv")));
+    }
+
+    @Test
+    public void smallFilesAreBatched() throws Exception {
+
+        Map<String, byte[]> small = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            small.put("Small" + i + ".csv", createFile("Small" + i + ".csv", 100 + i));
+        }
+        small.put("Empty.csv", createFile("Empty.csv", 0));
+        byte[] large = createFile("Large.csv", 4 * SLICE);
+
+        mQueue = new UploadQueue(mStateFile, config().setBatchThresholdBytes(SLICE), null);
+        assertEquals(7, mQueue.enqueueSession(mSession));
+        mQueue.start();
+
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+        assertEquals(1, mServer.getCount("POST"));
+        assertEquals(4, mServer.getCount("PUT"));
+
+        for (Map.Entry<String, byte[]> file : small.entrySet()) {
+            assertArrayEquals(file.getKey(), file.getValue(), mServer.getUpload(id(file.getKey())));
+        }
+        assertArrayEquals(large, mServer.getUpload(id("Large.csv")));
+    }
+
+    @Test
+    public void sessionFilesSkipCheckpointsAndIndexes() throws Exception {
+
+        createFile("Accelerometer.csv", 100);
+        createFile("Accelerometer.csv." + TimeIndex.FILE_EXTENSION, 32);
+        createFile(Checkpoint.FILE_NAME, 50);
+        createFile("Manifest.tmp", 10);
+        createFile(SessionManifest.FILE_NAME, 60);
+
+        mQueue = new UploadQueue(mStateFile, config(), null);
+        assertEquals(2, mQueue.enqueueSession(mSession));
+        assertEquals(0, mQueue.enqueueSession(mSession));
+    }
+
+    @Test
+    public void concurrencyIsBounded() throws Exception {
+
+        for (int i = 0; i < 6; i++) {
+            createFile("Chunk" + i + ".csv", 2 * SLICE);
+        }
+
+        mServer.setDelayMillis(30);
+
+        mQueue = new UploadQueue(mStateFile, config().setConcurrency(2), null);
+        mQueue.enqueueSession(mSession);
+        mQueue.start();
+
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+        assertEquals(6, mQueue.getUploadedCount());
+        assertTrue(mServer.getMaxConcurrent() <= 2);
+    }
+
+    @Test
+    public void retriesWithExponentialBackoff() throws Exception {
+
+        byte[] data = createFile("Audio.csv", 2 * SLICE);
+
+        mServer.failPut(3);
+
+        mQueue = new UploadQueue(mStateFile, config().setInitialBackoffMillis(40), null);
+        mQueue.enqueue(new File(mSession, "Audio.csv"));
+
+        long start = System.currentTimeMillis();
+        mQueue.start();
+
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+        assertArrayEquals(data, mServer.getUpload(id("Audio.csv")));
+        assertEquals(3, mQueue.getRetryCount());
+
+        // 40, 80 and 160 ms, each shortened by up to half
+        assertTrue(System.currentTimeMillis() - start >= 140);
+    }
+
+    @Test
+    public void rejectedFileIsDropped() throws Exception {
+
+        createFile("Rejected.csv", 2 * SLICE);
+        byte[] accepted = createFile("Accepted.csv", 2 * SLICE);
+
+        mServer.reject(id("Rejected.csv"));
+
+        final List<File> failed = new ArrayList<>();
+        mQueue = new UploadQueue(mStateFile, config(), null);
+        mQueue.setListener(new UploadQueue.Listener() {
+            @Override
+            public void onUploaded(File file) {
+            }
+
+            @Override
+            public void onFailed(File file, IOException error) {
+                synchronized (failed) {
+                    failed.add(file);
+                }
+            }
+        });
+        mQueue.enqueueSession(mSession);
+        mQueue.start();
+
+        assertTrue(mQueue.awaitIdle(TIMEOUT));
+        assertEquals(1, mQueue.getFailedCount());
+        assertEquals(0, mQueue.getRetryCount());
+        assertEquals(Arrays.asList(new File(mSession, "Rejected.csv")), failed);
+        assertArrayEquals(accepted, mServer.getUpload(id("Accepted.csv")));
+    }
+
+    private UploadConfig config() {
+        return new UploadConfig(mServer.getEndpoint())
+                .setSliceBytes(SLICE)
+                .setBatchThresholdBytes(0)
+                .setInitialBackoffMillis(10)
+                .setConstraintPollMillis(50)
+                .setTimeoutMillis(5000);
+    }
+
+    private String id(String fileName) {
+        return mSession.getName() + "/" + fileName;
+    }
+
+    private byte[] createFile(String name, int length) throws IOException {
+
+        byte[] data = new byte[length];
+        new Random(name.hashCode()).nextBytes(data);
+
+        FileOutputStream stream = new FileOutputStream(new File(mSession, name));
+        try {
+            stream.write(data);
+        }
+        finally {
+            stream.close();
+        }
+
+        return data;
+    }
+
+    /**
+     * Collection server speaking the protocol of UploadClient, with hooks
+     * to cut off, fail or reject requests.
+     */
+    private static class StandInServer implements HttpHandler {
+
+        private static final String PATH = "/uploads/";
+
+        private final HttpServer mServer;
+        private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+        // Guarded by this
+        private final Map<String, ByteArrayOutputStream> mUploads = new HashMap<>();
+        private final Map<String, Integer> mCounts = new HashMap<>();
+        private final Set<String> mRejected = new HashSet<>();
+        private long mBytesReceived;
+        private int mPutCount;
+        private int mInterruptAt;
+        private int mFailCount;
+        private int mPauseAt;
+        private AtomicBoolean mPauseFlag;
+        private long mDelayMillis;
+        private int mConcurrent;
+        private int mMaxConcurrent;
+
+        StandInServer() throws IOException {
+            mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+            mServer.createContext(PATH, this);
+            mServer.setExecutor(mExecutor);
+            mServer.start();
+        }
+
+        String getEndpoint() {
+            return "http://127.0.0.1:" + mServer.getAddress().getPort() + PATH;
+        }
+
+        void stop() {
+            mServer.stop(0);
+            mExecutor.shutdownNow();
+        }
+
+        synchronized byte[] getUpload(String id) {
+            ByteArrayOutputStream upload = mUploads.get(id);
+            return (upload != null) ? upload.toByteArray() : null;
+        }
+
+        synchronized int getCount(String method) {
+            Integer count = mCounts.get(method);
+            return (count != null) ? count : 0;
+        }
+
+        synchronized long getBytesReceived() {
+            return this.mBytesReceived;
+        }
+
+        synchronized int getMaxConcurrent() {
+            return this.mMaxConcurrent;
+        }
+
+        // Keeps half of the given PUT request and fails it
+        synchronized void interruptPut(int request) {
+            this.mInterruptAt = request;
+        }
+
+        // Fails the next PUT requests with a server error
+        synchronized void failPut(int count) {
+            this.mFailCount = count;
+        }
+
+        // Clears the flag after the given PUT request
+        synchronized void onPut(int request, AtomicBoolean flag) {
+            this.mPauseAt = request;
+            this.mPauseFlag = flag;
+        }
+
+        synchronized void reject(String id) {
+            mRejected.add(id);
+        }
+
+        synchronized void setDelayMillis(long delayMillis) {
+            this.mDelayMillis = delayMillis;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+
+            String method = exchange.getRequestMethod();
+            String id = exchange.getRequestURI().getPath().substring(PATH.length());
+            byte[] body = readAll(exchange.getRequestBody());
+            long delay;
+
+            synchronized (this) {
+                Integer count = mCounts.get(method);
+                mCounts.put(method, (count != null) ? count + 1 : 1);
+                delay = mDelayMillis;
+                mMaxConcurrent = Math.max(mMaxConcurrent, ++mConcurrent);
+            }
+
+            try {
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+
+                if (method.equals("HEAD")) {
+                    head(exchange, id);
+                }
+                else if (method.equals("PUT")) {
+                    put(exchange, id, body);
+                }
+                else if (method.equals("POST") && id.equals(UploadClient.BATCH_PATH)) {
+                    batch(exchange, body);
+                }
+                else {
+                    exchange.sendResponseHeaders(405, -1);
+                }
+            }
+            catch (InterruptedException ex) {
+                exchange.sendResponseHeaders(503, -1);
+            }
+            finally {
+                synchronized (this) {
+                    mConcurrent--;
+                }
+                exchange.close();
+            }
+        }
+
+        private synchronized void head(HttpExchange exchange, String id) throws IOException {
+
+            ByteArrayOutputStream upload = mUploads.get(id);
+            if (upload == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set(UploadClient.OFFSET_HEADER, String.valueOf(upload.size()));
+            exchange.sendResponseHeaders(200, -1);
+        }
+
+        private synchronized void put(HttpExchange exchange, String id, byte[] body) throws IOException {
+
+            mBytesReceived += body.length;
+            mPutCount++;
+
+            if (mRejected.contains(id)) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+
+            if (mFailCount > 0) {
+                mFailCount--;
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            ByteArrayOutputStream upload = mUploads.get(id);
+            if (upload == null) {
+                upload = new ByteArrayOutputStream();
+                mUploads.put(id, upload);
+            }
+
+            // "bytes first-last/total" or "bytes */total"
+            String range = exchange.getRequestHeaders().getFirst("Content-Range");
+            String first = range.substring("bytes ".length(), range.indexOf(range.contains("-") ? '-' : '/'));
+            long offset = first.equals("*") ? 0 : Long.parseLong(first);
+
+            if (offset != upload.size()) {
+                exchange.getResponseHeaders().set(UploadClient.OFFSET_HEADER, String.valueOf(upload.size()));
+                exchange.sendResponseHeaders(409, -1);
+                return;
+            }
+
+            if (mPutCount == mInterruptAt) {
+                upload.write(body, 0, body.length / 2);
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            upload.write(body);
+
+            if (mPutCount == mPauseAt) {
+                mPauseFlag.set(false);
+            }
+
+            exchange.getResponseHeaders().set(UploadClient.OFFSET_HEADER, String.valueOf(upload.size()));
+            exchange.sendResponseHeaders(200, -1);
+        }
+
+        private synchronized void batch(HttpExchange exchange, byte[] body) throws IOException {
+
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+
+            while (input.available() > 0) {
+                String id = readLine(input);
+                byte[] data = new byte[Integer.parseInt(readLine(input))];
+                input.readFully(data);
+
+                ByteArrayOutputStream upload = new ByteArrayOutputStream();
+                upload.write(data);
+                mUploads.put(id, upload);
+                mBytesReceived += data.length;
+            }
+
+            exchange.sendResponseHeaders(204, -1);
+        }
+
+        private static String readLine(InputStream input) throws IOException {
+
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = input.read()) != '\n') {
+                if (b < 0) {
+                    throw new IOException("Truncated batch");
+                }
+                line.write(b);
+            }
+            return line.toString("UTF-8");
+        }
+
+        private static byte[] readAll(InputStream input) throws IOException {
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+            input.close();
+            return output.toByteArray();
+        }
+    }
+
+}